@@ -4,6 +4,7 @@ package com.aakash.contentserver.aspect;
 import com.aakash.contentserver.configuration.ApiError;
 import com.aakash.contentserver.exceptions.*;
 import com.aakash.contentserver.utils.JsonUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -104,6 +105,63 @@ public class ErrorHandlingAspect {
         .contentType(MediaType.APPLICATION_JSON)
         .body(JsonUtils.getErrorBody(ex.getMessage()));
   }
+  /**
+   * Handles ServiceUnavailableException and returns a 503 SERVICE_UNAVAILABLE response with a Retry-After header.
+   * Usually thrown when an upload is refused because the service is overloaded.
+   * @param ex ServiceUnavailableException
+   * @return ResponseEntity with 503 status and error message
+   */
+  @ExceptionHandler(ServiceUnavailableException.class)
+  public ResponseEntity<String> handleServiceUnavailableException(ServiceUnavailableException ex) {
+    return ResponseEntity
+        .status(HttpStatus.SERVICE_UNAVAILABLE)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(JsonUtils.getErrorBody(ex.getMessage()));
+  }
+  /**
+   * Handles RangeNotSatisfiableException and returns a 416 REQUESTED_RANGE_NOT_SATISFIABLE response, with the length
+   * of the file in the Content-Range header when it's known.
+   * Usually thrown when the range requested for an image starts after its end.
+   * @param ex RangeNotSatisfiableException
+   * @return ResponseEntity with 416 status and error message
+   */
+  @ExceptionHandler(RangeNotSatisfiableException.class)
+  public ResponseEntity<String> handleRangeNotSatisfiableException(RangeNotSatisfiableException ex) {
+    ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    if (ex.getTotalLength() >= 0) {
+      response.header(HttpHeaders.CONTENT_RANGE, "bytes */" + ex.getTotalLength());
+    }
+    return response
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(JsonUtils.getErrorBody(ex.getMessage()));
+  }
+  /**
+   * Handles StorageFileNotFoundException and returns a 404 NOT_FOUND response with the error message.
+   * Usually thrown when the content of an image is requested before its rendition is stored.
+   * @param ex StorageFileNotFoundException
+   * @return ResponseEntity with 404 status and error message
+   */
+  @ExceptionHandler(StorageFileNotFoundException.class)
+  public ResponseEntity<String> handleStorageFileNotFoundException(StorageFileNotFoundException ex) {
+    return ResponseEntity
+        .status(HttpStatus.NOT_FOUND)
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(JsonUtils.getErrorBody(ex.getMessage()));
+  }
+  /**
+   * Handles ForbiddenException and returns a 403 FORBIDDEN response with the error message.
+   * Usually thrown when a signed URL of the local storage is invalid or expired.
+   * @param ex ForbiddenException
+   * @return ResponseEntity with 403 status and error message
+   */
+  @ExceptionHandler(ForbiddenException.class)
+  public ResponseEntity<String> handleForbiddenException(ForbiddenException ex) {
+    return ResponseEntity
+        .status(HttpStatus.FORBIDDEN)
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(JsonUtils.getErrorBody(ex.getMessage()));
+  }
   @ExceptionHandler(HttpMessageNotReadableException.class)
   public ResponseEntity<String> handleHttpMessageNotReadableException(HttpMessageNotReadableException ex) {
     return ResponseEntity.status(HttpStatus.BAD_REQUEST)
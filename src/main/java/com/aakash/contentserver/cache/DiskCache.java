@@ -0,0 +1,535 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.exceptions.ContentServerException;
+import com.aakash.contentserver.exceptions.RangeNotSatisfiableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpRange;
+
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Byte bounded LRU cache of files in a local directory.
+ * A file is named after the SHA-256 of its key. It's written to a temporary file first and renamed once it's complete,
+ * so a reader never sees a partial file, not even after a crash. The least recently used files are deleted once the
+ * files take more than maxBytes. Hits are read through a memory mapping of the file, so the bytes are copied once,
+ * from the page cache to the caller, instead of through an intermediate read buffer. Files opened to be served to a
+ * client also have their path, so they can be sent by the kernel without being copied at all.
+ * The LRU order is saved to an index file in the directory by saveIndex, and loaded at startup. Files written after
+ * the last save are added as the most recently used ones, and the temporary files of interrupted writes are deleted.
+ * A file deleted while it's read is a miss.
+ * The cache publishes disk.cache.gets tagged with result=hit or miss, disk.cache.hit.ratio, disk.cache.served.bytes,
+ * disk.cache.size and disk.cache.evictions, all tagged with the name of the cache.
+ */
+public class DiskCache {
+
+  private static final String INDEX_FILE_NAME = "index";
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final Pattern CACHED_FILE_NAME = Pattern.compile("[0-9a-f]{64}");
+
+  private final Path directory;
+  private final long maxBytes;
+  private final Logger logger;
+
+  /**
+   * Size of the files by name, in access order.
+   */
+  private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+  private boolean indexChanged;
+
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter servedBytes;
+  private final Counter evictions;
+
+  public DiskCache(String name, Path directory, long maxBytes, MeterRegistry meterRegistry) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.logger = LoggerFactory.getLogger(DiskCache.class);
+    this.hits = Counter.builder("disk.cache.gets").tag("name", name).tag("result", "hit")
+        .description("Reads served by the disk cache").register(meterRegistry);
+    this.misses = Counter.builder("disk.cache.gets").tag("name", name).tag("result", "miss")
+        .description("Reads of files missing from the disk cache").register(meterRegistry);
+    this.servedBytes = Counter.builder("disk.cache.served.bytes").tag("name", name)
+        .description("Bytes served by the disk cache").baseUnit("bytes").register(meterRegistry);
+    this.evictions = Counter.builder("disk.cache.evictions").tag("name", name)
+        .description("Files deleted from the disk cache to stay within its budget").register(meterRegistry);
+    Gauge.builder("disk.cache.size", this, DiskCache::getTotalBytes).tag("name", name)
+        .description("Bytes of the files in the disk cache").baseUnit("bytes").register(meterRegistry);
+    Gauge.builder("disk.cache.hit.ratio", this, DiskCache::getHitRatio).tag("name", name)
+        .description("Share of the reads served by the disk cache").register(meterRegistry);
+    try {
+      Files.createDirectories(directory);
+      loadFiles();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to open the disk cache in " + directory, e);
+    }
+  }
+
+  /**
+   * Reads a file from the cache.
+   *
+   * @param key The key of the file
+   * @return The content of the file, or null if it isn't cached.
+   */
+  public byte[] get(String key) {
+    ByteBuffer buffer = read(key);
+    if (buffer == null) {
+      return null;
+    }
+    byte[] content = new byte[buffer.remaining()];
+    buffer.get(content);
+    return content;
+  }
+
+  /**
+   * Maps a file of the cache in memory. The mapping stays valid after the file is evicted, until it's garbage
+   * collected.
+   *
+   * @param key The key of the file
+   * @return A read only buffer over the content of the file, or null if it isn't cached.
+   */
+  public ByteBuffer read(String key) {
+    String fileName = getFileName(key);
+    synchronized (this) {
+      if (files.get(fileName) == null) {
+        misses.increment();
+        return null;
+      }
+      indexChanged = true;
+    }
+    try (FileChannel channel = FileChannel.open(directory.resolve(fileName), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      hits.increment();
+      servedBytes.increment(buffer.remaining());
+      return buffer;
+    } catch (NoSuchFileException e) {
+      // Evicted since it was looked up, or deleted from the disk behind the back of the cache.
+      forget(fileName);
+    } catch (IOException e) {
+      logger.error("Error while reading {} from the disk cache", key, e);
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Opens a file of the cache, or a range of it, to be served to a client. The content has the path of the cached
+   * file, so it can be sent from the page cache without being read by the JVM. The file may be evicted before it's
+   * sent, the mapping of the stream stays valid but the path no longer exists then.
+   *
+   * @param key   The key of the file
+   * @param range The requested range, or null for the whole file
+   * @return The content of the file, or null if it isn't cached.
+   * @throws RangeNotSatisfiableException If the range starts after the end of the file.
+   */
+  public FileContent open(String key, HttpRange range) throws RangeNotSatisfiableException {
+    String fileName = getFileName(key);
+    synchronized (this) {
+      if (files.get(fileName) == null) {
+        misses.increment();
+        return null;
+      }
+      indexChanged = true;
+    }
+    try {
+      FileContent content = FileContent.of(directory.resolve(fileName), range);
+      hits.increment();
+      servedBytes.increment(content.getContentLength());
+      return content;
+    } catch (NoSuchFileException e) {
+      // Evicted since it was looked up, or deleted from the disk behind the back of the cache.
+      forget(fileName);
+    } catch (IOException e) {
+      logger.error("Error while reading {} from the disk cache", key, e);
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Gets the length of a file of the cache without reading it.
+   *
+   * @param key The key of the file
+   * @return The length of the file, or -1 if it isn't cached.
+   */
+  public synchronized long getLength(String key) {
+    Long length = files.get(getFileName(key));
+    return length != null ? length : -1;
+  }
+
+  /**
+   * Adds or replaces a file in the cache, evicting the least recently used files if needed. A failure is logged
+   * rather than thrown, the file is then not cached.
+   *
+   * @param key     The key of the file
+   * @param content The content of the file
+   */
+  public void put(String key, byte[] content) {
+    if (content.length > maxBytes) {
+      return;
+    }
+    String fileName = getFileName(key);
+    Path tempFile = null;
+    try {
+      tempFile = Files.createTempFile(directory, fileName, TEMP_FILE_SUFFIX);
+      Files.write(tempFile, content);
+      commit(fileName, tempFile, content.length);
+    } catch (IOException e) {
+      logger.error("Error while writing {} to the disk cache", key, e);
+      deleteFile(tempFile);
+    }
+  }
+  
+  /**
+   * Adds a file to the cache while it's read from another stream, e.g. while it's streamed from S3 to a client, so
+   * the file isn't buffered in memory or downloaded twice. The file is added once the stream is read to its end with
+   * the expected length. A stream closed earlier, or a failure to write the file, leaves the cache unchanged and
+   * doesn't affect the reader.
+   *
+   * @param key         The key of the file
+   * @param inputStream The stream of the file
+   * @param length      The length of the file
+   * @return A stream with the content of inputStream, to be read and closed instead of it.
+   */
+  public InputStream cacheWhileReading(String key, InputStream inputStream, long length) {
+    if (length > maxBytes) {
+      return inputStream;
+    }
+    String fileName = getFileName(key);
+    Path tempFile = null;
+    try {
+      tempFile = Files.createTempFile(directory, fileName, TEMP_FILE_SUFFIX);
+      return new FillingInputStream(inputStream, key, fileName, tempFile, Files.newOutputStream(tempFile), length);
+    } catch (IOException e) {
+      logger.error("Error while writing {} to the disk cache", key, e);
+      deleteFile(tempFile);
+      return inputStream;
+    }
+  }
+  
+  /**
+   * Renames a complete temporary file to its cached file and indexes it, evicting the least recently used files if
+   * needed.
+   */
+  private void commit(String fileName, Path tempFile, long size) throws IOException {
+    Files.move(tempFile, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    List<String> evictedFiles;
+    synchronized (this) {
+      Long previousSize = files.put(fileName, size);
+      totalBytes += size - (previousSize == null ? 0 : previousSize);
+      indexChanged = true;
+      evictedFiles = evict();
+    }
+    evictions.increment(evictedFiles.size());
+    evictedFiles.forEach(evictedFile -> deleteFile(directory.resolve(evictedFile)));
+  }
+
+  /**
+   * Removes a file from the cache, e.g. because the original it's a copy of was deleted.
+   *
+   * @param key The key of the file
+   */
+  public void remove(String key) {
+    String fileName = getFileName(key);
+    if (forget(fileName)) {
+      deleteFile(directory.resolve(fileName));
+    }
+  }
+
+  /**
+   * Saves the LRU order of the files to the index file, if it changed since the last save. The index is written to a
+   * temporary file and renamed, so a crash while it's saved leaves the previous index. A failure is logged rather than
+   * thrown.
+   */
+  public void saveIndex() {
+    List<String> fileNames;
+    synchronized (this) {
+      if (!indexChanged) {
+        return;
+      }
+      fileNames = new ArrayList<>(files.keySet());
+      indexChanged = false;
+    }
+    Path tempFile = null;
+    try {
+      tempFile = Files.createTempFile(directory, INDEX_FILE_NAME, TEMP_FILE_SUFFIX);
+      try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+        for (String fileName : fileNames) {
+          writer.write(fileName);
+          writer.newLine();
+        }
+      }
+      Files.move(tempFile, directory.resolve(INDEX_FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.error("Error while saving the index of the disk cache in {}", directory, e);
+      deleteFile(tempFile);
+      synchronized (this) {
+        indexChanged = true;
+      }
+    }
+  }
+
+  /**
+   * @return The number of bytes of the cached files.
+   */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private double getHitRatio() {
+    double gets = hits.count() + misses.count();
+    return gets == 0 ? 0 : hits.count() / gets;
+  }
+
+  private synchronized boolean forget(String fileName) {
+    Long size = files.remove(fileName);
+    if (size == null) {
+      return false;
+    }
+    totalBytes -= size;
+    indexChanged = true;
+    return true;
+  }
+
+  /**
+   * Removes the least recently used files from the index until the files fit in maxBytes.
+   *
+   * @return The names of the removed files, to be deleted outside the lock.
+   */
+  private List<String> evict() {
+    List<String> evictedFiles = new ArrayList<>();
+    Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+    while (totalBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      totalBytes -= entry.getValue();
+      evictedFiles.add(entry.getKey());
+      eldest.remove();
+    }
+    return evictedFiles;
+  }
+
+  /**
+   * Indexes the files left in the directory by a previous run. The files of the saved index come first, in their
+   * saved order, followed by the files written after the index was saved, from the least to the most recently
+   * modified. The temporary files of interrupted writes are deleted.
+   */
+  private void loadFiles() throws IOException {
+    Map<String, Path> cachedFiles = new LinkedHashMap<>();
+    try (Stream<Path> paths = Files.list(directory)) {
+      paths.filter(Files::isRegularFile)
+          .sorted(Comparator.comparing(DiskCache::getLastModifiedTime))
+          .forEach(path -> {
+            String fileName = path.getFileName().toString();
+            if (fileName.endsWith(TEMP_FILE_SUFFIX)) {
+              deleteFile(path);
+            } else if (CACHED_FILE_NAME.matcher(fileName).matches()) {
+              cachedFiles.put(fileName, path);
+            }
+          });
+    }
+    List<String> evictedFiles;
+    synchronized (this) {
+      for (String fileName : readIndex()) {
+        Path path = cachedFiles.remove(fileName);
+        if (path != null) {
+          addFile(fileName, path);
+        }
+      }
+      indexChanged = !cachedFiles.isEmpty();
+      for (Map.Entry<String, Path> cachedFile : cachedFiles.entrySet()) {
+        addFile(cachedFile.getKey(), cachedFile.getValue());
+      }
+      evictedFiles = evict();
+    }
+    evictedFiles.forEach(evictedFile -> deleteFile(directory.resolve(evictedFile)));
+    logger.info("Disk cache in {} opened with {} files, {} bytes", directory, files.size(), totalBytes);
+  }
+
+  private void addFile(String fileName, Path path) throws IOException {
+    long size = Files.size(path);
+    files.put(fileName, size);
+    totalBytes += size;
+  }
+
+  /**
+   * @return The names of the files of the saved index, from the least to the most recently used.
+   */
+  private List<String> readIndex() {
+    Path indexFile = directory.resolve(INDEX_FILE_NAME);
+    if (!Files.exists(indexFile)) {
+      return List.of();
+    }
+    try (Stream<String> lines = Files.lines(indexFile, StandardCharsets.UTF_8)) {
+      return lines.toList();
+    } catch (IOException | UncheckedIOException e) {
+      logger.error("Error while reading the index of the disk cache in {}, the files are ordered by modification time",
+          directory, e);
+      return List.of();
+    }
+  }
+
+  private static FileTime getLastModifiedTime(Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void deleteFile(Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      logger.error("Error while deleting {} from the disk cache", path, e);
+    }
+  }
+
+  /**
+   * Stream that writes what's read from it to a temporary file, and commits the file once it's read to its end.
+   */
+  private class FillingInputStream extends FilterInputStream {
+    private final String key;
+    private final String fileName;
+    private final Path tempFile;
+    private final long length;
+    private OutputStream outputStream;
+    private long written;
+
+    FillingInputStream(InputStream inputStream, String key, String fileName, Path tempFile, OutputStream outputStream,
+                       long length) {
+      super(inputStream);
+      this.key = key;
+      this.fileName = fileName;
+      this.tempFile = tempFile;
+      this.outputStream = outputStream;
+      this.length = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b == -1) {
+        finish();
+      } else {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int count) throws IOException {
+      int read = super.read(bytes, offset, count);
+      if (read == -1) {
+        finish();
+      } else {
+        write(bytes, offset, read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+      // The skipped bytes aren't seen, so the file can't be completed.
+      abandon();
+      return super.skip(count);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        abandon();
+      }
+    }
+
+    private void write(byte[] bytes, int offset, int count) {
+      if (outputStream == null) {
+        return;
+      }
+      try {
+        outputStream.write(bytes, offset, count);
+        written += count;
+      } catch (IOException e) {
+        logger.error("Error while writing {} to the disk cache", key, e);
+        abandon();
+      }
+    }
+
+    private void finish() {
+      if (outputStream == null) {
+        return;
+      }
+      try {
+        outputStream.close();
+        outputStream = null;
+        if (written == length) {
+          commit(fileName, tempFile, written);
+        } else {
+          logger.warn("Not caching {}, {} bytes were read instead of {}", key, written, length);
+        }
+      } catch (IOException e) {
+        logger.error("Error while writing {} to the disk cache", key, e);
+      } finally {
+        abandon();
+      }
+    }
+
+    private void abandon() {
+      if (outputStream != null) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          logger.debug("Error while closing the temporary file of {}", key, e);
+        }
+        outputStream = null;
+      }
+      // Once committed the temporary file no longer exists.
+      deleteFile(tempFile);
+    }
+  }
+
+  private static String getFileName(String key) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new ContentServerException("SHA-256 isn't supported by the JVM", e);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.aakash.contentserver.cache;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static com.aakash.contentserver.constants.CommonConstants.DISK_CACHE_INDEX_SAVE_INTERVAL_MS;
+
+/**
+ * Saves the index of every local disk cache periodically and at shutdown. The accesses made since the last save are
+ * lost by a crash, the files themselves are kept.
+ */
+@Component
+public class DiskCacheIndexWriter {
+
+  private final List<DiskCache> diskCaches;
+
+  public DiskCacheIndexWriter(List<DiskCache> diskCaches) {
+    this.diskCaches = diskCaches;
+  }
+
+  /**
+   * Saves the indexes that changed since the last save.
+   */
+  @Scheduled(fixedDelay = DISK_CACHE_INDEX_SAVE_INTERVAL_MS)
+  @PreDestroy
+  public void saveIndexes() {
+    diskCaches.forEach(DiskCache::saveIndex);
+  }
+}
@@ -0,0 +1,107 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+import static com.aakash.contentserver.constants.CommonConstants.POST_CACHE_NAME;
+
+/**
+ * Read-through cache of posts by id.
+ * The cached PostDTOs are shared between requests, so they are never modified in place: a change to a post replaces
+ * the cached entry with a new PostDTO. The cache is local to the instance, changes made by other instances are picked
+ * up once the entry expires.
+ */
+@Component
+public class PostCache {
+  
+  private final Cache cache;
+  private final EntityMapper entityMapper;
+  
+  public PostCache(CacheManager cacheManager, EntityMapper entityMapper) {
+    this.cache = cacheManager.getCache(POST_CACHE_NAME);
+    this.entityMapper = entityMapper;
+  }
+  
+  /**
+   * Get a cached post.
+   *
+   * @param postId Post id
+   * @return The cached post, or null if it isn't cached.
+   */
+  public PostDTO get(UUID postId) {
+    return cache.get(postId, PostDTO.class);
+  }
+  
+  /**
+   * Get a post, loading and caching it if it isn't cached.
+   * The native Caffeine cache is used so that the load is atomic with updateCommentsCount: a comment on the post waits
+   * for the load to finish and is applied to the loaded post, instead of the load overwriting it.
+   *
+   * @param postId Post id
+   * @param loader Loads the post if it isn't cached. It returns null if the post doesn't exist, in which case nothing
+   *               is cached.
+   * @return The post, or null if it doesn't exist.
+   */
+  public PostDTO get(UUID postId, Function<UUID, PostDTO> loader) {
+    if (cache instanceof CaffeineCache caffeineCache) {
+      return (PostDTO) caffeineCache.getNativeCache().asMap().computeIfAbsent(postId, id -> loader.apply(postId));
+    }
+    PostDTO cachedPost = get(postId);
+    if (cachedPost != null) {
+      return cachedPost;
+    }
+    PostDTO loadedPost = loader.apply(postId);
+    if (loadedPost != null) {
+      put(loadedPost);
+    }
+    return loadedPost;
+  }
+  
+  /**
+   * Add or replace a post in the cache.
+   *
+   * @param postDTO The post. It must not be modified after it's cached.
+   */
+  public void put(PostDTO postDTO) {
+    cache.put(postDTO.getId(), postDTO);
+  }
+  
+  /**
+   * Remove a post from the cache.
+   *
+   * @param postId Post id
+   */
+  public void evict(UUID postId) {
+    cache.evict(postId);
+  }
+  
+  /**
+   * Update the comments count of a cached post. Nothing is done if the post isn't cached.
+   * The native Caffeine cache is used so that the read and the replacement are atomic, and concurrent comments on
+   * the same post don't overwrite each other's change.
+   *
+   * @param postId Post id
+   * @param delta  Change in the comments count
+   */
+  public void updateCommentsCount(UUID postId, long delta) {
+    if (cache instanceof CaffeineCache caffeineCache) {
+      caffeineCache.getNativeCache().asMap()
+          .computeIfPresent(postId, (id, cachedPost) -> withCommentsCount((PostDTO) cachedPost, delta));
+    } else {
+      evict(postId);
+    }
+  }
+  
+  private PostDTO withCommentsCount(PostDTO cachedPost, long delta) {
+    PostDTO updatedPost = entityMapper.copyPostDTO(cachedPost);
+    updatedPost.setCommentsCount(Math.max(0, cachedPost.getCommentsCount() + delta));
+    return updatedPost;
+  }
+}
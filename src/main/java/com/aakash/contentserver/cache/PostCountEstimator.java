@@ -0,0 +1,53 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.entities.Post;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import static com.aakash.contentserver.constants.CommonConstants.POST_COUNT_REFRESH_INTERVAL_MS;
+
+/**
+ * Holds an estimate of the number of posts for the responses that need a total.
+ * The estimate is read from the collection metadata with estimatedDocumentCount, which doesn't scan the collection,
+ * and is refreshed periodically instead of on every request.
+ */
+@Component
+public class PostCountEstimator {
+  
+  private final MongoTemplate mongoTemplate;
+  private final Logger logger;
+  
+  private volatile long estimatedCount = -1;
+  
+  public PostCountEstimator(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+    this.logger = LoggerFactory.getLogger(PostCountEstimator.class);
+  }
+  
+  /**
+   * Get the estimated number of posts. The first call reads the estimate from the db if it hasn't been refreshed yet.
+   *
+   * @return The estimated number of posts.
+   */
+  public long getEstimatedCount() {
+    if (estimatedCount < 0) {
+      refresh();
+    }
+    return Math.max(estimatedCount, 0);
+  }
+  
+  /**
+   * Refreshes the estimate from the db.
+   */
+  @Scheduled(fixedDelay = POST_COUNT_REFRESH_INTERVAL_MS)
+  public void refresh() {
+    try {
+      estimatedCount = mongoTemplate.estimatedCount(Post.class);
+    } catch (Exception e) {
+      logger.error("Error while refreshing the estimated posts count", e);
+    }
+  }
+}
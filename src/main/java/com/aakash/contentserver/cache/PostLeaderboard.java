@@ -0,0 +1,325 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.processors.CommentCountBuffer;
+import org.bson.BsonBinary;
+import org.bson.UuidRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+
+import static com.aakash.contentserver.constants.CommonConstants.COMMENT_COUNT_READ_ATTEMPTS;
+import static com.aakash.contentserver.constants.CommonConstants.LEADERBOARD_REFRESH_INTERVAL_MS;
+import static com.aakash.contentserver.constants.CommonConstants.LEADERBOARD_SIZE;
+
+/**
+ * In memory ranking of the ids of the top LEADERBOARD_SIZE posts in the feed order, i.e. commentsCount, createdAt and
+ * id in descending order. The first pages of the feed are served from this ranking, so the db doesn't have to sort and
+ * skip the posts for every request.
+ * The ranking is kept current by the post and comment count changes of this instance. Changes made by other
+ * instances, and posts below the ranking that got enough comments to enter it, are picked up by the periodic rebuild,
+ * which reads the top posts from the feed index.
+ * Posts added and removed while the ranking is rebuilt are journaled and replayed onto the rebuilt ranking before it's
+ * swapped in, and the comments count changes still buffered by the CommentCountBuffer are added to the counts read from
+ * the db, so the rebuild doesn't lose the changes of this instance.
+ */
+@Component
+public class PostLeaderboard {
+  
+  private final Comparator<RankKey> feedOrder;
+  private final MongoTemplate mongoTemplate;
+  private final CommentCountBuffer commentCountBuffer;
+  private final Logger logger;
+  
+  // Changes take the read lock, so they run concurrently, the swap of the ranking takes the write lock, so no change
+  // is made to the current ranking after the journal has been replayed.
+  private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+  private volatile Ranking ranking;
+  private volatile Queue<Consumer<Ranking>> journal;
+  
+  public PostLeaderboard(MongoTemplate mongoTemplate, CommentCountBuffer commentCountBuffer,
+                         MongoProperties mongoProperties) {
+    this.feedOrder = Comparator
+        .comparingLong(RankKey::commentsCount)
+        .thenComparingLong(RankKey::createdAtMillis)
+        .thenComparing(RankKey::postId, idOrder(mongoProperties.getUuidRepresentation()))
+        .reversed();
+    this.mongoTemplate = mongoTemplate;
+    this.commentCountBuffer = commentCountBuffer;
+    this.logger = LoggerFactory.getLogger(PostLeaderboard.class);
+  }
+  
+  /**
+   * The order of the post ids in the db, so ties on commentsCount and createdAt are ranked like the pages sorted by
+   * the db. The db compares the binary of a UUID byte by byte, unsigned, and the bytes depend on the UUID
+   * representation.
+   *
+   * @param uuidRepresentation The representation the UUIDs are stored with.
+   * @return The comparator of the post ids.
+   */
+  static Comparator<UUID> idOrder(UuidRepresentation uuidRepresentation) {
+    return switch (uuidRepresentation) {
+      // The Java driver used to write each half of the UUID in little endian order.
+      case JAVA_LEGACY -> (id, otherId) -> compareHalves(id, otherId, Long::reverseBytes);
+      case C_SHARP_LEGACY -> Comparator.comparing(id -> new BsonBinary(id, uuidRepresentation).getData(),
+          Arrays::compareUnsigned);
+      default -> (id, otherId) -> compareHalves(id, otherId, half -> half);
+    };
+  }
+  
+  private static int compareHalves(UUID id, UUID otherId, LongUnaryOperator byteOrder) {
+    int comparison = Long.compareUnsigned(byteOrder.applyAsLong(id.getMostSignificantBits()),
+        byteOrder.applyAsLong(otherId.getMostSignificantBits()));
+    return comparison != 0 ? comparison : Long.compareUnsigned(byteOrder.applyAsLong(id.getLeastSignificantBits()),
+        byteOrder.applyAsLong(otherId.getLeastSignificantBits()));
+  }
+  
+  /**
+   * Builds the ranking once the application has started.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void onApplicationReady() {
+    rebuild();
+  }
+  
+  /**
+   * Rebuilds the ranking from the top posts of the db and swaps it with the current one.
+   * Only the fields needed for the ranking are read from the db. The rebuild is retried if the CommentCountBuffer
+   * wrote changes while the posts were read, as the counts read may or may not include them.
+   */
+  @Scheduled(fixedDelay = LEADERBOARD_REFRESH_INTERVAL_MS, initialDelay = LEADERBOARD_REFRESH_INTERVAL_MS)
+  public synchronized void rebuild() {
+    journal = new ConcurrentLinkedQueue<>();
+    try {
+      // One post more than the ranking holds tells whether all the posts are ranked.
+      Query query = new Query()
+          .with(Sort.by(Sort.Direction.DESC, "commentsCount", "createdAt", "id"))
+          .limit(LEADERBOARD_SIZE + 1);
+      query.fields().include("commentsCount", "createdAt");
+      for (int attempt = 0; attempt < COMMENT_COUNT_READ_ATTEMPTS; attempt++) {
+        long stamp = commentCountBuffer.startConsistentRead();
+        List<Post> topPosts = mongoTemplate.find(query, Post.class);
+        swapLock.writeLock().lock();
+        try {
+          Map<UUID, Long> pendingDeltas = commentCountBuffer.getPendingDeltas();
+          if (commentCountBuffer.validateConsistentRead(stamp)) {
+            Ranking rebuiltRanking = new Ranking(feedOrder);
+            topPosts.forEach(post -> rebuiltRanking.put(post.getId(), post.getCommentsCount(), post.getCreatedAt()));
+            journal.forEach(change -> change.accept(rebuiltRanking));
+            pendingDeltas.forEach(rebuiltRanking::updateCommentsCount);
+            rebuiltRanking.trim();
+            this.ranking = rebuiltRanking;
+            logger.info("Post leaderboard rebuilt with {} posts", rebuiltRanking.keysByPostId.size());
+            return;
+          }
+        } finally {
+          swapLock.writeLock().unlock();
+        }
+      }
+      logger.warn("Post leaderboard not rebuilt as comment changes were written during each attempt");
+    } catch (Exception e) {
+      // The feed falls back to the db until the ranking is built.
+      logger.error("Error while rebuilding the post leaderboard", e);
+    } finally {
+      journal = null;
+    }
+  }
+  
+  /**
+   * @return true if the ranking has been built and can serve the feed.
+   */
+  public boolean isReady() {
+    return ranking != null;
+  }
+  
+  /**
+   * @return true if the ranking has every post, false if posts below the ranking were left out.
+   */
+  public boolean isComplete() {
+    Ranking current = ranking;
+    return current != null && current.complete;
+  }
+  
+  /**
+   * @param postCount The number of posts from the top of the feed.
+   * @return true if the ranking has been built and has the first postCount posts of the feed.
+   */
+  public boolean covers(long postCount) {
+    Ranking current = ranking;
+    return current != null && (current.complete || postCount <= current.keysByPostId.size());
+  }
+  
+  /**
+   * @return The number of ranked posts.
+   */
+  public long size() {
+    Ranking current = ranking;
+    return current == null ? 0 : current.keysByPostId.size();
+  }
+  
+  /**
+   * Get the ids of the posts of a page in the feed order.
+   *
+   * @param offset The number of posts to skip.
+   * @param size   The number of posts to return.
+   * @return List of post ids.
+   */
+  public List<UUID> getPostIds(long offset, int size) {
+    List<UUID> postIds = new ArrayList<>(size);
+    Ranking current = ranking;
+    if (current == null) {
+      return postIds;
+    }
+    Iterator<RankKey> iterator = current.rankKeys.iterator();
+    for (long skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+      iterator.next();
+    }
+    while (postIds.size() < size && iterator.hasNext()) {
+      postIds.add(iterator.next().postId());
+    }
+    return postIds;
+  }
+  
+  /**
+   * Adds a new post to the ranking.
+   *
+   * @param post The saved post.
+   */
+  public void addPost(Post post) {
+    journalAndApply(current -> {
+      current.put(post.getId(), post.getCommentsCount(), post.getCreatedAt());
+      current.trim();
+    });
+  }
+  
+  /**
+   * Removes a deleted post from the ranking.
+   *
+   * @param postId The id of the deleted post.
+   */
+  public void removePost(UUID postId) {
+    journalAndApply(current -> current.remove(postId));
+  }
+  
+  /**
+   * Moves a post in the ranking after its comments count changed.
+   *
+   * @param postId The id of the post.
+   * @param delta  The change in the comments count.
+   */
+  public void updateCommentsCount(UUID postId, long delta) {
+    // Not journaled, a rebuild takes the changes of the count from the CommentCountBuffer, which has recorded them.
+    swapLock.readLock().lock();
+    try {
+      Ranking current = ranking;
+      if (current != null) {
+        current.updateCommentsCount(postId, delta);
+      }
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+  
+  private void journalAndApply(Consumer<Ranking> change) {
+    swapLock.readLock().lock();
+    try {
+      Queue<Consumer<Ranking>> currentJournal = journal;
+      if (currentJournal != null) {
+        currentJournal.add(change);
+      }
+      Ranking current = ranking;
+      if (current != null) {
+        change.accept(current);
+      }
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+  
+  /**
+   * The ranked keys and an index to find the key of a post.
+   */
+  private static final class Ranking {
+    private final ConcurrentSkipListSet<RankKey> rankKeys;
+    private final ConcurrentHashMap<UUID, RankKey> keysByPostId = new ConcurrentHashMap<>();
+    private volatile boolean complete = true;
+    
+    private Ranking(Comparator<RankKey> feedOrder) {
+      this.rankKeys = new ConcurrentSkipListSet<>(feedOrder);
+    }
+    
+    private void put(UUID postId, long commentsCount, Instant createdAt) {
+      long createdAtMillis = createdAt == null ? 0 : createdAt.toEpochMilli();
+      keysByPostId.compute(postId, (id, rankKey) -> {
+        if (rankKey != null) {
+          rankKeys.remove(rankKey);
+        }
+        RankKey newKey = new RankKey(commentsCount, createdAtMillis, id);
+        rankKeys.add(newKey);
+        return newKey;
+      });
+    }
+    
+    /**
+     * Drops the last keys beyond LEADERBOARD_SIZE. The ranking then no longer has every post.
+     */
+    private void trim() {
+      while (keysByPostId.size() > LEADERBOARD_SIZE) {
+        RankKey lastKey = rankKeys.pollLast();
+        if (lastKey == null) {
+          return;
+        }
+        // The key is only removed from the index if it's still the key of the post.
+        keysByPostId.remove(lastKey.postId(), lastKey);
+        complete = false;
+      }
+    }
+    
+    private void remove(UUID postId) {
+      RankKey removedKey = keysByPostId.remove(postId);
+      if (removedKey != null) {
+        rankKeys.remove(removedKey);
+      }
+    }
+    
+    private void updateCommentsCount(UUID postId, long delta) {
+      // compute locks the entry of the post, so concurrent updates to the same post are applied one after the other.
+      keysByPostId.computeIfPresent(postId, (id, rankKey) -> {
+        RankKey updatedKey = new RankKey(Math.max(0, rankKey.commentsCount() + delta), rankKey.createdAtMillis(), id);
+        rankKeys.remove(rankKey);
+        rankKeys.add(updatedKey);
+        return updatedKey;
+      });
+    }
+  }
+  
+  /**
+   * Position of a post in the ranking.
+   */
+  private record RankKey(long commentsCount, long createdAtMillis, UUID postId) {
+  }
+}
@@ -0,0 +1,49 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.interfaces.StorageProcessor;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+import static com.aakash.contentserver.constants.ImageConstants.SIGNED_URL_CACHE_MAX_SIZE;
+import static com.aakash.contentserver.constants.ImageConstants.SIGNED_URL_EXPIRATION_DAYS;
+import static com.aakash.contentserver.constants.ImageConstants.SIGNED_URL_MIN_VALIDITY_HOURS;
+
+/**
+ * Cache of the presigned S3 URLs of the stored renditions, by their location in S3.
+ * A URL is signed for SIGNED_URL_EXPIRATION_DAYS and reused until SIGNED_URL_MIN_VALIDITY_HOURS before it expires, so
+ * every request for a rendition is redirected to the same URL meanwhile, and the browsers and CDNs that cached the
+ * content under that URL keep serving it. The cache is published by actuator as the cache.* metrics with
+ * cache=presignedUrls.
+ */
+@Component
+public class PresignedUrlCache {
+  private final StorageProcessor storageProcessor;
+  private final Cache<String, String> urls;
+
+  public PresignedUrlCache(StorageProcessor storageProcessor, MeterRegistry meterRegistry) {
+    this.storageProcessor = storageProcessor;
+    this.urls = Caffeine.newBuilder()
+        .maximumSize(SIGNED_URL_CACHE_MAX_SIZE)
+        .expireAfterWrite(Duration.ofDays(SIGNED_URL_EXPIRATION_DAYS).minusHours(SIGNED_URL_MIN_VALIDITY_HOURS))
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, urls, "presignedUrls");
+  }
+
+  /**
+   * Gets the presigned URL of a file, signing a new one if there's none or if the cached one expires soon.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @return A URL that is valid for at least SIGNED_URL_MIN_VALIDITY_HOURS
+   */
+  public String get(String bucketName, String key) {
+    return urls.get(bucketName + "/" + key,
+        location -> storageProcessor.getPresignedUrl(bucketName, key, Duration.ofDays(SIGNED_URL_EXPIRATION_DAYS)));
+  }
+}
@@ -0,0 +1,107 @@
+package com.aakash.contentserver.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.aakash.contentserver.constants.ImageConstants.RENDITION_CACHE_MAX_BYTES;
+
+/**
+ * Two tier cache of the on demand renditions, by their location in S3.
+ * The memory tier holds up to RENDITION_CACHE_MAX_BYTES of renditions and the disk tier up to
+ * contentserver.cache.renditions.max-bytes, each evicts its least recently used renditions beyond its budget. A
+ * rendition missing from both tiers is loaded once however many requests ask for it concurrently: the first request
+ * loads it while the others wait for its result. The memory tier is published by actuator as the cache.* metrics
+ * with cache=renditions, the disk tier as the disk.cache.* metrics with name=renditions.
+ */
+@Component
+public class RenditionCache {
+
+  /**
+   * Loads a rendition missing from the cache.
+   */
+  @FunctionalInterface
+  public interface Loader {
+    byte[] load() throws IOException;
+  }
+
+  private final Cache<String, byte[]> memoryCache;
+  private final DiskCache diskCache;
+  private final ConcurrentMap<String, CompletableFuture<byte[]>> loads = new ConcurrentHashMap<>();
+
+  @Autowired
+  public RenditionCache(MeterRegistry meterRegistry, @Qualifier("renditionDiskCache") DiskCache diskCache) {
+    this(meterRegistry, diskCache, RENDITION_CACHE_MAX_BYTES);
+  }
+
+  RenditionCache(MeterRegistry meterRegistry, DiskCache diskCache, long memoryMaxBytes) {
+    this.memoryCache = Caffeine.newBuilder()
+        .maximumWeight(memoryMaxBytes)
+        .weigher((String location, byte[] content) -> content.length)
+        .recordStats()
+        .build();
+    this.diskCache = diskCache;
+    CaffeineCacheMetrics.monitor(meterRegistry, memoryCache, "renditions");
+  }
+
+  /**
+   * Gets a rendition from the memory tier, then from the disk tier, and loads it if it's in neither. A rendition read
+   * from the disk is added to the memory tier, a loaded one to both tiers.
+   *
+   * @param location The location of the rendition in S3
+   * @param loader   Loads the rendition if it isn't cached
+   * @return The rendition
+   * @throws IOException If the rendition can't be loaded
+   */
+  public byte[] get(String location, Loader loader) throws IOException {
+    byte[] content = memoryCache.getIfPresent(location);
+    if (content != null) {
+      return content;
+    }
+    CompletableFuture<byte[]> load = new CompletableFuture<>();
+    CompletableFuture<byte[]> runningLoad = loads.putIfAbsent(location, load);
+    if (runningLoad != null) {
+      return await(runningLoad);
+    }
+    try {
+      content = diskCache.get(location);
+      if (content == null) {
+        content = loader.load();
+        diskCache.put(location, content);
+      }
+      // The rendition is cached before the load is removed, so a request that misses the load finds it cached.
+      memoryCache.put(location, content);
+      load.complete(content);
+      return content;
+    } catch (IOException | RuntimeException | Error e) {
+      load.completeExceptionally(e);
+      throw e;
+    } finally {
+      loads.remove(location, load);
+    }
+  }
+
+  private byte[] await(CompletableFuture<byte[]> load) throws IOException {
+    try {
+      return load.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -1,29 +1,132 @@
 package com.aakash.contentserver.configuration;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.task.ThreadPoolTaskSchedulerBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_WORKERS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_RENDITION_QUEUE_CAPACITY;
+import static com.aakash.contentserver.constants.S3Constants.S3_UPLOAD_MAX_PARTS_IN_FLIGHT;
 
 /**
  * Configuration class to enable async processing.
+ * Every executor has its own pool, so a burst on one of them can't starve or reject the work of the others.
+ * Besides the executor.active, executor.queued and executor.pool.size gauges bound by the actuator for each executor,
+ * the executors record executor.task.wait, the time a task waited in the queue, executor.task.duration and
+ * executor.rejected, all tagged with the name of the executor.
  */
 @Configuration
 @EnableAsync
 public class AsyncConfig {
   /**
-   * Method to create a thread pool executor.
-   * The @Async("taskExecutor") annotation is used to specify the executor to be used for the async method.
+   * Method to create the thread pool that runs the image jobs.
+   * The ImageJobWorker only leases as many jobs as there are free threads, so the jobs wait in the db rather than in
+   * the queue of the executor.
+   * @param meterRegistry MeterRegistry for the executor metrics
+   * @return Executor
+   */
+  @Bean(name = "imageJobExecutor")
+  public Executor imageJobExecutor(MeterRegistry meterRegistry) {
+    return createExecutor("imageJobExecutor", "image-job-", IMAGE_JOB_WORKERS, IMAGE_JOB_WORKERS, meterRegistry);
+  }
+
+  /**
+   * Method to create the thread pool that creates and uploads the renditions of the images.
+   * Resizing is CPU bound, so there's a thread per core. The queue is bounded, a rendition that doesn't fit fails its
+   * image job, which is retried later.
+   * @param meterRegistry MeterRegistry for the executor metrics
+   * @return Executor
+   */
+  @Bean(name = "imageRenditionExecutor")
+  public Executor imageRenditionExecutor(MeterRegistry meterRegistry) {
+    return createExecutor("imageRenditionExecutor", "image-rendition-", Runtime.getRuntime().availableProcessors(),
+        IMAGE_RENDITION_QUEUE_CAPACITY, meterRegistry);
+  }
+
+  /**
+   * Method to create the thread pool that uploads the parts of the S3 multipart uploads.
+   * The number of threads caps the number of parts in flight across all the uploads. Each upload submits at most
+   * S3_UPLOAD_PARTS_IN_FLIGHT_PER_OBJECT parts at a time, which bounds the queue.
+   * @param meterRegistry MeterRegistry for the executor metrics
    * @return Executor
    */
-  @Bean(name = "taskExecutor")
-  public Executor taskExecutor() {
+  @Bean(name = "s3UploadExecutor")
+  public Executor s3UploadExecutor(MeterRegistry meterRegistry) {
+    return createExecutor("s3UploadExecutor", "s3-upload-", S3_UPLOAD_MAX_PARTS_IN_FLIGHT, Integer.MAX_VALUE,
+        meterRegistry);
+  }
+
+  /**
+   * Method to create the scheduler of the @Scheduled jobs, configured by spring.task.scheduling.
+   * It's declared here as Spring Boot only creates it when there's no other scheduler.
+   * @param builder ThreadPoolTaskSchedulerBuilder configured by Spring Boot
+   * @return ThreadPoolTaskScheduler
+   */
+  @Bean(name = "taskScheduler")
+  public ThreadPoolTaskScheduler taskScheduler(ThreadPoolTaskSchedulerBuilder builder) {
+    return builder.build();
+  }
+
+  /**
+   * Method to create the single thread lane that flushes the buffered comment changes, so the flushes neither wait on
+   * the other scheduled jobs nor delay them.
+   * @return ThreadPoolTaskScheduler
+   */
+  @Bean(name = "commentCountScheduler")
+  public ThreadPoolTaskScheduler commentCountScheduler() {
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setPoolSize(1);
+    scheduler.setThreadNamePrefix("comment-count-");
+    return scheduler;
+  }
+
+  private Executor createExecutor(String name, String threadNamePrefix, int poolSize, int queueCapacity,
+                                  MeterRegistry meterRegistry) {
+    Timer waitTimer = Timer.builder("executor.task.wait")
+        .description("Time a task waited in the queue of the executor")
+        .tag("name", name)
+        .register(meterRegistry);
+    Timer durationTimer = Timer.builder("executor.task.duration")
+        .description("Time taken to run a task of the executor")
+        .tag("name", name)
+        .register(meterRegistry);
+    Counter rejected = Counter.builder("executor.rejected")
+        .description("Tasks rejected because the queue of the executor was full")
+        .tag("name", name)
+        .register(meterRegistry);
+    ThreadPoolExecutor.AbortPolicy abortPolicy = new ThreadPoolExecutor.AbortPolicy();
+
     ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-    executor.setCorePoolSize(10);
-    executor.setMaxPoolSize(100);
-    executor.setQueueCapacity(150);
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setQueueCapacity(queueCapacity);
+    executor.setThreadNamePrefix(threadNamePrefix);
+    executor.setTaskDecorator(task -> {
+      long submittedAt = System.nanoTime();
+      return () -> {
+        long startedAt = System.nanoTime();
+        waitTimer.record(startedAt - submittedAt, TimeUnit.NANOSECONDS);
+        try {
+          task.run();
+        } finally {
+          durationTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+      };
+    });
+    executor.setRejectedExecutionHandler((task, threadPoolExecutor) -> {
+      rejected.increment();
+      abortPolicy.rejectedExecution(task, threadPoolExecutor);
+    });
     executor.initialize();
     return executor;
   }
@@ -0,0 +1,87 @@
+package com.aakash.contentserver.configuration;
+
+import com.aakash.contentserver.cache.DiskCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CACHE_MAX_SIZE;
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CACHE_NAME;
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CACHE_TTL_SECONDS;
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CURSOR_CACHE_NAME;
+import static com.aakash.contentserver.constants.CommonConstants.POST_CACHE_MAX_SIZE;
+import static com.aakash.contentserver.constants.CommonConstants.POST_CACHE_NAME;
+import static com.aakash.contentserver.constants.CommonConstants.POST_CACHE_TTL_SECONDS;
+
+/**
+ * Configuration class to enable caching.
+ * Every cache is registered with its own size bound and TTL. The caches record their stats, which are published by
+ * actuator as the cache.gets, cache.puts and cache.evictions metrics.
+ * The local disk caches are configured by the contentserver.cache properties and publish the disk.cache.* metrics.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+  /**
+   * Method to create the cache manager with the caches of the application.
+   *
+   * @return CacheManager
+   */
+  @Bean
+  public CacheManager cacheManager() {
+    CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+    cacheManager.registerCustomCache(POST_CACHE_NAME, buildCache(POST_CACHE_MAX_SIZE, POST_CACHE_TTL_SECONDS));
+    // The feed caches are read with sync = true. Caffeine computes a missing page once while the concurrent requests
+    // for the same page wait for it, so an expired page costs a single db query.
+    cacheManager.registerCustomCache(FEED_CACHE_NAME, buildCache(FEED_CACHE_MAX_SIZE, FEED_CACHE_TTL_SECONDS));
+    cacheManager.registerCustomCache(FEED_CURSOR_CACHE_NAME, buildCache(FEED_CACHE_MAX_SIZE, FEED_CACHE_TTL_SECONDS));
+    return cacheManager;
+  }
+  
+  /**
+   * Method to create the local disk cache of the files downloaded from S3.
+   *
+   * @param directory     Directory of the cached files, contentserver.cache.s3.directory
+   * @param maxBytes      Byte budget of the cached files, contentserver.cache.s3.max-bytes
+   * @param meterRegistry MeterRegistry for the cache metrics
+   * @return DiskCache
+   */
+  @Bean(name = "s3DiskCache")
+  public DiskCache s3DiskCache(@Value("${contentserver.cache.s3.directory}") String directory,
+                               @Value("${contentserver.cache.s3.max-bytes}") long maxBytes,
+                               MeterRegistry meterRegistry) {
+    return new DiskCache("s3", Path.of(directory), maxBytes, meterRegistry);
+  }
+  
+  /**
+   * Method to create the disk tier of the on demand rendition cache.
+   *
+   * @param directory     Directory of the cached renditions, contentserver.cache.renditions.directory
+   * @param maxBytes      Byte budget of the cached renditions, contentserver.cache.renditions.max-bytes
+   * @param meterRegistry MeterRegistry for the cache metrics
+   * @return DiskCache
+   */
+  @Bean(name = "renditionDiskCache")
+  public DiskCache renditionDiskCache(@Value("${contentserver.cache.renditions.directory}") String directory,
+                                      @Value("${contentserver.cache.renditions.max-bytes}") long maxBytes,
+                                      MeterRegistry meterRegistry) {
+    return new DiskCache("renditions", Path.of(directory), maxBytes, meterRegistry);
+  }
+  
+  private Cache<Object, Object> buildCache(long maximumSize, long ttlSeconds) {
+    return Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+        .recordStats()
+        .build();
+  }
+}
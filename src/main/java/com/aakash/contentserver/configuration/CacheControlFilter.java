@@ -6,6 +6,11 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 
+/**
+ * Sets the short lived Cache-Control policy of the JSON responses, e.g. the feeds, which change as posts and comments
+ * are added. The image content replaces it with the immutable IMAGE_CACHE_CONTROL policy once the content of a
+ * processed image is opened, so errors of the content endpoint keep the short policy.
+ */
 @Component
 public class CacheControlFilter implements Filter {
 
@@ -1,24 +1,23 @@
 package com.aakash.contentserver.configuration;
 
-import com.aakash.contentserver.dto.PostDTO;
-import com.aakash.contentserver.entities.Post;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import jakarta.validation.Validation;
 import jakarta.validation.Validator;
-import org.modelmapper.Converter;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.PropertyMap;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.domain.AuditorAware;
 import org.springframework.http.CacheControl;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
+import java.net.URI;
 import java.time.Clock;
-import java.util.ArrayList;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
@@ -27,29 +26,6 @@ import java.util.concurrent.TimeUnit;
  */
 @Configuration
 public class ConfigClass {
-  /**
-   * Method to create a ModelMapper bean.
-   * The ModelMapper is used to map between different entities and DTOs.
-   *
-   * @return ModelMapper
-   */
-  @Bean
-  public ModelMapper modelMapper() {
-    ModelMapper modelMapper = new ModelMapper();
-    //Sets Long type to zero incase the source is null.
-    Converter<Long, Long> toNonNullLong = context -> context.getSource() == null ? 0L : context.getSource();
-    // Sets the list field to an empty list if the source is null.
-    modelMapper.addMappings(new PropertyMap<Post, PostDTO>() {
-      @Override
-      protected void configure() {
-        map().setComments(new ArrayList<>());
-      }
-    });
-    modelMapper.createTypeMap(Long.class, Long.class).setConverter(toNonNullLong);
-    
-    return modelMapper;
-  }
-  
   /**
    * Jakarta Validation bean to validate the request body against the entity constraints.
    *
@@ -90,15 +66,39 @@ public class ConfigClass {
   
   /**
    * Method to create a S3Client bean.
-   * The S3Client is used to interact with the AWS S3 service.
+   * The S3Client is used to interact with the AWS S3 service, or with the S3 compatible store at
+   * contentserver.s3.endpoint if it's set, e.g. a local MinIO.
    *
+   * @param endpoint The endpoint of an S3 compatible store, or empty for AWS
    * @return S3Client bean
    */
   @Bean
-  public S3Client getS3Client() {
-    return S3Client.builder()
-        .region(Region.AP_SOUTH_2)
-        .build();
+  public S3Client getS3Client(@Value("${contentserver.s3.endpoint:}") String endpoint) {
+    S3ClientBuilder builder = S3Client.builder()
+        .region(Region.AP_SOUTH_2);
+    if (!endpoint.isBlank()) {
+      builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+    }
+    return builder.build();
+  }
+  
+  /**
+   * Method to create a S3Presigner bean.
+   * The S3Presigner signs the S3 URLs the images are redirected to, for the same store as the S3Client. Signing is
+   * done locally, it doesn't call S3.
+   *
+   * @param endpoint The endpoint of an S3 compatible store, or empty for AWS
+   * @return S3Presigner bean
+   */
+  @Bean
+  public S3Presigner getS3Presigner(@Value("${contentserver.s3.endpoint:}") String endpoint) {
+    S3Presigner.Builder builder = S3Presigner.builder()
+        .region(Region.AP_SOUTH_2);
+    if (!endpoint.isBlank()) {
+      builder.endpointOverride(URI.create(endpoint))
+          .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+    }
+    return builder.build();
   }
   
   @Bean
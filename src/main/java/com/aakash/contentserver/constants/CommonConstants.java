@@ -9,5 +9,79 @@ public class CommonConstants {
    * Number of comments per post.
    */
   public static final int NUMBER_OF_COMMENTS_PER_POST = 2;
-  public static final String UPLOAD_DIR = "/src/main/resources/temp/";
+  /**
+   * Maximum number of posts in a feed page. Requests for larger pages are rejected.
+   */
+  public static final int MAX_PAGE_SIZE = 50;
+  /**
+   * Number of feed pages served from the in memory post leaderboard. Deeper pages are fetched from the db.
+   */
+  public static final int LEADERBOARD_MAX_PAGES = 10;
+  /**
+   * Number of posts ranked by the in memory post leaderboard, enough for LEADERBOARD_MAX_PAGES pages of the largest
+   * size.
+   */
+  public static final int LEADERBOARD_SIZE = LEADERBOARD_MAX_PAGES * MAX_PAGE_SIZE;
+  /**
+   * Interval at which the post leaderboard is rebuilt from the db to pick up changes made by other instances, and
+   * posts outside of it that got enough comments to enter it.
+   */
+  public static final long LEADERBOARD_REFRESH_INTERVAL_MS = 60_000;
+  /**
+   * Interval at which the estimated number of posts is refreshed from the db.
+   */
+  public static final long POST_COUNT_REFRESH_INTERVAL_MS = 10_000;
+  /**
+   * Interval at which the buffered comment count changes are written to the db.
+   */
+  public static final long COMMENT_COUNT_FLUSH_INTERVAL_MS = 50;
+  /**
+   * Number of posts with buffered comment count changes that triggers a flush before the interval elapses.
+   */
+  public static final int COMMENT_COUNT_FLUSH_THRESHOLD = 500;
+  /**
+   * Maximum number of posts with buffered comment count changes. Once the buffer holds this many posts, the changes of
+   * other posts are written right away, and the changes of failed writes are dropped instead of retried.
+   */
+  public static final int COMMENT_COUNT_MAX_PENDING_POSTS = 10_000;
+  /**
+   * Number of times a comments count is read again from the db because buffered changes were written during the read.
+   */
+  public static final int COMMENT_COUNT_READ_ATTEMPTS = 3;
+  /**
+   * Interval at which the LRU order of the local disk caches is saved, so it survives a restart.
+   */
+  public static final long DISK_CACHE_INDEX_SAVE_INTERVAL_MS = 60_000;
+  /**
+   * Name of the cache of posts by id.
+   */
+  public static final String POST_CACHE_NAME = "posts";
+  /**
+   * Maximum number of posts in the post cache. The least recently used ones are evicted beyond it.
+   */
+  public static final long POST_CACHE_MAX_SIZE = 10_000;
+  /**
+   * Time after which a cached post expires. It bounds how long a change made by another instance can go unnoticed.
+   */
+  public static final long POST_CACHE_TTL_SECONDS = 30;
+  /**
+   * Name of the cache of the first feed pages, by page request and projection.
+   */
+  public static final String FEED_CACHE_NAME = "feedPages";
+  /**
+   * Name of the cache of the cursor feed pages, by cursor, page size and projection.
+   */
+  public static final String FEED_CURSOR_CACHE_NAME = "feedCursorPages";
+  /**
+   * Number of feed pages, counted from the first one, that are cached by page number.
+   */
+  public static final int FEED_CACHE_MAX_PAGES = 5;
+  /**
+   * Maximum number of pages in each feed cache.
+   */
+  public static final long FEED_CACHE_MAX_SIZE = 1_000;
+  /**
+   * Time after which a cached feed page expires. It's the max-age the clients are told to cache the feed for.
+   */
+  public static final long FEED_CACHE_TTL_SECONDS = 5;
 }
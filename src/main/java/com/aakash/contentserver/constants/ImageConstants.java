@@ -1,5 +1,7 @@
 package com.aakash.contentserver.constants;
 
+import java.util.List;
+
 /**
  * The ImageConstants class is used to store the constants used for image processing.
  */
@@ -20,14 +22,33 @@ public class ImageConstants {
    * The TYPE constant.
    */
   public static final String TYPE = "type";
+  /**
+   * The NAME constant. Used to fetch the name of a rendition from the configuration file.
+   */
+  public static final String NAME = "name";
+  /**
+   * The RENDITIONS constant. Used to fetch the renditions of an activity from the configuration file.
+   */
+  public static final String RENDITIONS = "renditions";
+  /**
+   * The DEFAULT_RENDITION constant. Used to fetch the rendition served when no rendition is requested.
+   */
+  public static final String DEFAULT_RENDITION = "default";
   /**
    * The configuration file that contains the image resize configuration as per activity.
    * The configuration file is stored in the resources folder in JSON format.
    *
    */
   public static final String IMAGE_RESIZE_CONFIGURATION_FILE = "resize_config.json";
+  /**
+   * How many times larger than the largest rendition an image is decoded. Subsampling skips pixels instead of
+   * averaging them, so the image is decoded a bit larger and the resize smooths it down to the rendition size.
+   */
+  public static final int DECODE_OVERSAMPLING = 2;
   /**
    * The ORIGINAL_LOCATION constant. Used to store the original image location.
+   * The originals and the renditions are stored under the id of their ImageBlob, i.e. their content, so identical
+   * uploads share them.
    */
   public static final String ORIGINAL_LOCATION = "original/original-";
   /**
@@ -35,9 +56,38 @@ public class ImageConstants {
    */
   public static final String COMPRESSED_LOCATION = "compressed/compressed-";
   /**
-   * The expiration for the signed S3 URL in days.
+   * Where an original too large for a single part is uploaded before its hash is known. It's copied to its content
+   * location, or dropped if the content is already stored, once the upload completes. Uploads interrupted by a crash
+   * are left behind, so the prefix should have an S3 lifecycle rule that expires its objects.
+   */
+  public static final String STAGING_LOCATION = "staging/upload-";
+  /**
+   * The expiration for the signed S3 URL in days. SigV4 presigned URLs are valid for 7 days at most. A URL signed with
+   * temporary credentials, e.g. of an IAM role, stops working when the credentials expire.
+   */
+  public static final long SIGNED_URL_EXPIRATION_DAYS = 7;
+  /**
+   * A signed S3 URL is reused until this many hours before it expires, so a redirect always points to a URL that is
+   * valid for at least that long. The redirect is cached by the clients for that long.
+   */
+  public static final long SIGNED_URL_MIN_VALIDITY_HOURS = 24;
+  /**
+   * Maximum number of signed S3 URLs kept in memory, one per stored rendition.
    */
-  public static final long SIGNED_URL_EXPIRATION_DAYS = 30;
+  public static final long SIGNED_URL_CACHE_MAX_SIZE = 100_000;
+  /**
+   * How long the presigned PUT of a direct upload is valid for.
+   */
+  public static final long DIRECT_UPLOAD_URL_EXPIRATION_MINUTES = 15;
+  /**
+   * How long a direct upload can be completed after it was started, it's then deleted. Longer than the presigned PUT
+   * is valid for, so an upload that just made it in time can be completed.
+   */
+  public static final int DIRECT_UPLOAD_TTL_SECONDS = 24 * 60 * 60;
+  /**
+   * Maximum size of a direct upload, the same as the max-file-size of a multipart upload.
+   */
+  public static final long DIRECT_UPLOAD_MAX_BYTES = 100L * 1024 * 1024;
   /**
    * The part size for the Image multipart upload.
    */
@@ -50,5 +100,131 @@ public class ImageConstants {
    * The content endpoint.
    */
   public static final String CONTENT_ENDPOINT = "/content";
+  /**
+   * Size of the buffer through which an image is streamed to a client. The heap used by a download doesn't depend on
+   * the size of the image.
+   */
+  public static final int IMAGE_STREAM_BUFFER_SIZE = 8 * 1024;
+  /**
+   * Cache-Control of the image content. The content of an image URL never changes, so browsers and CDNs keep it for a
+   * year without revalidating it.
+   */
+  public static final String IMAGE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+  /**
+   * Size from which an image that is on the local disk is sent with sendfile rather than copied through the stream
+   * buffer. Below it the setup of the sendfile costs more than the copy, it's the threshold of Tomcat's DefaultServlet.
+   */
+  public static final long IMAGE_SENDFILE_MIN_BYTES = 48 * 1024;
+  /**
+   * Request attributes of the sendfile support of Tomcat, by name so the controller doesn't depend on Tomcat's
+   * classes. The connector sets the support attribute to true when it can send a file, the other ones are set by the
+   * servlet to the file and its range, the end being exclusive.
+   */
+  public static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  public static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  public static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+  /**
+   * The query param of the content endpoint that selects a rendition.
+   */
+  public static final String RENDITION_PARAM = "rendition";
+  /**
+   * The query param of the content endpoint with the width of an on demand rendition.
+   */
+  public static final String RESIZE_WIDTH_PARAM = "w";
+  /**
+   * The query param of the content endpoint with the height of an on demand rendition.
+   */
+  public static final String RESIZE_HEIGHT_PARAM = "h";
+  /**
+   * The query param of the content endpoint with how the image is fitted into an on demand rendition.
+   */
+  public static final String RESIZE_FIT_PARAM = "fit";
+  /**
+   * The query param of the content endpoint with the jpg quality of an on demand rendition.
+   */
+  public static final String RESIZE_QUALITY_PARAM = "q";
+  /**
+   * The sizes an on demand rendition can have. A requested width or height is rounded up to the next size, and
+   * capped at the largest one, so arbitrary sizes can't fill the rendition cache and S3 with near duplicates.
+   */
+  public static final List<Integer> RESIZE_SIZES = List.of(64, 128, 256, 320, 480, 640, 800, 1080, 1440, 1920);
+  /**
+   * The qualities an on demand rendition can have. A requested quality is rounded to the nearest one.
+   */
+  public static final List<Integer> RESIZE_QUALITIES = List.of(50, 65, 80, 90);
+  /**
+   * The quality of an on demand rendition when none is requested.
+   */
+  public static final int RESIZE_DEFAULT_QUALITY = 80;
+  /**
+   * The format of the on demand renditions.
+   */
+  public static final String RESIZE_FORMAT = "jpg";
+  /**
+   * Where the on demand renditions are stored, under the id of the blob they're created from, so they're deleted
+   * with it.
+   */
+  public static final String RESIZED_LOCATION = "resized/";
+  /**
+   * Bytes of on demand renditions held in memory. The least recently used ones are evicted beyond it.
+   */
+  public static final long RENDITION_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+  /**
+   * Retry-After sent with the 503 of an on demand rendition rejected because the imageRenditionExecutor is full.
+   */
+  public static final long RESIZE_RETRY_AFTER_SECONDS = 2;
+  /**
+   * Prefix of the media types accepted as images for the uploads.
+   */
+  public static final String IMAGE_CONTENT_TYPE_PREFIX = "image/";
   public static final int SUPPORTED_IMAGES_COUNT = 1;
+  /**
+   * Number of workers that process the image jobs in parallel. It's the size of the imageJobExecutor.
+   */
+  public static final int IMAGE_JOB_WORKERS = 4;
+  /**
+   * Number of pending and processing image jobs above which new uploads are rejected with a 503, so an upload is
+   * refused up front instead of waiting behind a backlog the workers can't catch up with.
+   */
+  public static final long IMAGE_JOB_MAX_QUEUE_DEPTH = 1_000;
+  /**
+   * Retry-After sent with the 503 of an upload rejected because the image job queue is full.
+   */
+  public static final long IMAGE_JOB_RETRY_AFTER_SECONDS = 30;
+  /**
+   * Number of renditions that can wait for a thread of the imageRenditionExecutor. The workers submit at most the
+   * renditions of IMAGE_JOB_WORKERS images at a time, so it's only reached if the resize configuration grows.
+   */
+  public static final int IMAGE_RENDITION_QUEUE_CAPACITY = 64;
+  /**
+   * Interval at which the workers poll the image job queue for jobs when they have free capacity.
+   */
+  public static final long IMAGE_JOB_POLL_INTERVAL_MS = 500;
+  /**
+   * Time for which a leased job belongs to a worker. A job whose worker died is leased again once it expires, so it
+   * should be well above the time taken to process an image.
+   */
+  public static final long IMAGE_JOB_LEASE_MS = 120_000;
+  /**
+   * Interval at which a worker renews the leases of the jobs it's running, so a job that takes longer than
+   * IMAGE_JOB_LEASE_MS isn't leased and processed again by another worker. It leaves room for a few missed renewals.
+   */
+  public static final long IMAGE_JOB_LEASE_RENEWAL_INTERVAL_MS = IMAGE_JOB_LEASE_MS / 4;
+  /**
+   * Number of attempts after which a job is marked FAILED.
+   */
+  public static final int IMAGE_JOB_MAX_ATTEMPTS = 5;
+  /**
+   * Delay before the first retry of a failed job. It's doubled for every further attempt.
+   */
+  public static final long IMAGE_JOB_RETRY_BASE_DELAY_MS = 1_000;
+  /**
+   * Upper bound of the delay between two attempts of a job.
+   */
+  public static final long IMAGE_JOB_RETRY_MAX_DELAY_MS = 300_000;
+  /**
+   * Interval at which the queue depth and job age metrics are read from the db.
+   */
+  public static final long IMAGE_JOB_METRICS_REFRESH_INTERVAL_MS = 10_000;
 }
@@ -5,4 +5,40 @@ public class S3Constants {
    * The bucket where the images are stored.
    */
   public static final String BUCKET_NAME = "image-compressed-bucket";
+  /**
+   * Number of part sized buffers shared by the streaming uploads. It bounds the heap used by the uploads to
+   * UPLOAD_BUFFER_POOL_SIZE * PART_SIZE irrespective of the number of concurrent uploads.
+   */
+  public static final int UPLOAD_BUFFER_POOL_SIZE = 8;
+  /**
+   * Time an upload waits for a free buffer before it's rejected.
+   */
+  public static final long UPLOAD_BUFFER_ACQUIRE_TIMEOUT_MS = 10_000;
+  /**
+   * Retry-After sent with the 503 of an upload that timed out waiting for an upload buffer.
+   */
+  public static final long UPLOAD_BUFFER_RETRY_AFTER_SECONDS = 5;
+  /**
+   * Maximum number of parts uploaded in parallel across all the multipart uploads. It's the size of the
+   * s3UploadExecutor.
+   */
+  public static final int S3_UPLOAD_MAX_PARTS_IN_FLIGHT = 16;
+  /**
+   * Maximum number of parts of a single multipart upload that are uploaded in parallel, so that one large file
+   * doesn't take all the upload threads.
+   */
+  public static final int S3_UPLOAD_PARTS_IN_FLIGHT_PER_OBJECT = 4;
+  /**
+   * Path of the LocalStorageController, which serves the signed URLs of the local storage in place of S3. The bucket
+   * is the next path segment, the key and the signature are query params.
+   */
+  public static final String LOCAL_STORAGE_PATH = "/v1/storage";
+  /**
+   * The query params of the signed URLs of the local storage.
+   */
+  public static final String KEY_PARAM = "key";
+  public static final String SIZE_PARAM = "size";
+  public static final String SHA256_PARAM = "sha256";
+  public static final String EXPIRES_PARAM = "expires";
+  public static final String SIGNATURE_PARAM = "signature";
 }
@@ -1,14 +1,29 @@
 package com.aakash.contentserver.controller;
 
+import com.aakash.contentserver.constants.ImageConstants;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.ImageContentSource;
 import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.ResizeRequest;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.exceptions.BadRequestException;
 import com.aakash.contentserver.services.ImageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 @RestController
@@ -36,18 +51,160 @@ public class ImageController {
 
   /**
    * Get the content of an image by its id.
+   * The image is streamed to the client through a buffer of IMAGE_STREAM_BUFFER_SIZE bytes as it's read from S3 or
+   * from the cache, so the first bytes are sent before the image is fully read. An image that is on the local disk is
+   * sent with sendfile instead when the connector supports it. A single byte range is served with a 206, a Range
+   * header with several ranges or that can't be parsed is ignored and the whole image is served.
+   * The content of an image URL never changes, so it's served with a strong ETag, a Last-Modified and, once the image
+   * is processed, the IMAGE_CACHE_CONTROL policy, and a request whose If-None-Match or If-Modified-Since matches gets
+   * a 304 without the image being read. The headers are only set once the content is opened, so errors aren't cached.
+   * A HEAD request gets the headers of the whole image without its content being streamed.
+   * When contentserver.images.delivery is redirect, a stored rendition of a READY image is answered with a 302 to a
+   * presigned S3 URL instead, so its content doesn't go through the server. The redirect is cached for
+   * SIGNED_URL_MIN_VALIDITY_HOURS, the URL is valid for at least that long.
    * @param imageId
-   * @return
+   * @param rendition Name of the rendition, e.g. thumb, feed or full. The default rendition is returned if it's absent.
+   * @param width     Width of an on demand rendition, rounded up to the next allowed size.
+   * @param height    Height of an on demand rendition, rounded up to the next allowed size.
+   * @param fit       contain or cover, how the image is fitted into the on demand rendition. contain by default.
+   * @param quality   Quality of the on demand rendition from 1 to 100, rounded to the nearest allowed quality.
+   * @param rangeHeader The Range header, e.g. bytes=0-1023
+   * @param request   The request, for its conditional headers
+   * @param response  The response the image is streamed to
    * @throws IOException
    */
   @GetMapping("/{imageId}/content")
-  public ResponseEntity<?> getImageContent(@PathVariable String imageId) throws IOException {
-    byte[] image = imageService.getImageContent(imageId);
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(MediaType.IMAGE_JPEG);
-    return ResponseEntity
-        .ok()
-        .headers(headers)
-        .body(image);
+  public void getImageContent(@PathVariable String imageId,
+                              @RequestParam(name = ImageConstants.RENDITION_PARAM, required = false) String rendition,
+                              @RequestParam(name = ImageConstants.RESIZE_WIDTH_PARAM, required = false) Integer width,
+                              @RequestParam(name = ImageConstants.RESIZE_HEIGHT_PARAM, required = false) Integer height,
+                              @RequestParam(name = ImageConstants.RESIZE_FIT_PARAM, required = false) String fit,
+                              @RequestParam(name = ImageConstants.RESIZE_QUALITY_PARAM, required = false) Integer quality,
+                              @RequestHeader(name = HttpHeaders.RANGE, required = false) String rangeHeader,
+                              HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+    ResizeRequest resizeRequest = null;
+    if (width != null || height != null || fit != null || quality != null) {
+      if (rendition != null) {
+        throw new BadRequestException("A rendition can't be resized, request either a rendition or a size");
+      }
+      resizeRequest = ResizeRequest.of(width, height, fit, quality);
+    }
+    ImageContentSource source = imageService.getImageContentSource(imageId, rendition, resizeRequest);
+    Optional<String> redirect = imageService.getImageContentRedirect(source);
+    if (redirect.isPresent()) {
+      response.setStatus(HttpStatus.FOUND.value());
+      response.setHeader(HttpHeaders.LOCATION, redirect.get());
+      response.setHeader(HttpHeaders.CACHE_CONTROL,
+          "public, max-age=" + TimeUnit.HOURS.toSeconds(ImageConstants.SIGNED_URL_MIN_VALIDITY_HOURS));
+      return;
+    }
+    // The conditions are evaluated without a response first, which doesn't set the validators on it.
+    if (new ServletWebRequest(request).checkNotModified(source.getETag(), source.getLastModified())) {
+      setCacheControl(source, response);
+      new ServletWebRequest(request, response).checkNotModified(source.getETag(), source.getLastModified());
+      return;
+    }
+    if (HttpMethod.HEAD.matches(request.getMethod())) {
+      long contentLength = imageService.getImageContentLength(source);
+      setContentHeaders(source, request, response);
+      response.setContentLengthLong(contentLength);
+      return;
+    }
+    HttpRange range = isRangeCurrent(request, source) ? parseRange(rangeHeader) : null;
+    try (FileContent image = imageService.openImageContent(source, range)) {
+      setContentHeaders(source, request, response);
+      response.setStatus(image.isPartial() ? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
+      response.setContentLengthLong(image.getContentLength());
+      if (image.isPartial()) {
+        response.setHeader(HttpHeaders.CONTENT_RANGE, image.getContentRange());
+      }
+      if (!sendFile(image, request)) {
+        copy(image.getInputStream(), response.getOutputStream());
+      }
+    }
+  }
+
+  /**
+   * Hands an image that is on the local disk, in the disk cache or in the local storage, to the connector to be sent
+   * with sendfile once the request returns, so its bytes go from the page cache to the socket without being read by
+   * the JVM. It's only done from IMAGE_SENDFILE_MIN_BYTES, and when the connector supports it, e.g. not over TLS.
+   * The file is opened again by the connector, if it's evicted from the disk cache in between the connection is
+   * closed and the client retries.
+   *
+   * @return Whether the image will be sent by the connector, otherwise it must be copied to the response.
+   */
+  private boolean sendFile(FileContent image, HttpServletRequest request) {
+    if (image.getFile() == null
+        || image.getContentLength() < ImageConstants.IMAGE_SENDFILE_MIN_BYTES
+        || !Boolean.TRUE.equals(request.getAttribute(ImageConstants.SENDFILE_SUPPORT_ATTRIBUTE))) {
+      return false;
+    }
+    request.setAttribute(ImageConstants.SENDFILE_FILENAME_ATTRIBUTE, image.getFile().toAbsolutePath().toString());
+    request.setAttribute(ImageConstants.SENDFILE_START_ATTRIBUTE, image.getRangeStart());
+    request.setAttribute(ImageConstants.SENDFILE_END_ATTRIBUTE, image.getRangeStart() + image.getContentLength());
+    return true;
+  }
+
+  /**
+   * Sets the headers of the content once it's opened, so an error raised while opening it, e.g. a 416 or a 503,
+   * keeps the short Cache-Control of the CacheControlFilter and has no validators.
+   */
+  private void setContentHeaders(ImageContentSource source, HttpServletRequest request, HttpServletResponse response) {
+    setCacheControl(source, response);
+    new ServletWebRequest(request, response).checkNotModified(source.getETag(), source.getLastModified());
+    response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+  }
+
+  /**
+   * The content of an image URL only becomes immutable once the image is processed. Until then the default rendition
+   * may not exist yet, so the image keeps the short Cache-Control of the CacheControlFilter.
+   */
+  private void setCacheControl(ImageContentSource source, HttpServletResponse response) {
+    if (source.getImage().getStatus() == ProcessingStatus.READY) {
+      response.setHeader(HttpHeaders.CACHE_CONTROL, ImageConstants.IMAGE_CACHE_CONTROL);
+    }
+  }
+
+  private HttpRange parseRange(String rangeHeader) {
+    if (rangeHeader == null) {
+      return null;
+    }
+    try {
+      List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+      return ranges.size() == 1 ? ranges.get(0) : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A Range is only served if the If-Range header, when present, matches the ETag or the Last-Modified of the image,
+   * otherwise the client holds the start of another content and the whole image is served.
+   */
+  private boolean isRangeCurrent(HttpServletRequest request, ImageContentSource source) {
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(source.getETag());
+    }
+    try {
+      return source.getLastModified() >= 0
+          && request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == source.getLastModified() / 1000;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+    byte[] buffer = new byte[ImageConstants.IMAGE_STREAM_BUFFER_SIZE];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, read);
+    }
+    outputStream.flush();
   }
 }
@@ -0,0 +1,90 @@
+package com.aakash.contentserver.controller;
+
+import com.aakash.contentserver.constants.ImageConstants;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.impl.LocalStorageProcessorImpl;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+import static com.aakash.contentserver.constants.S3Constants.EXPIRES_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.KEY_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.LOCAL_STORAGE_PATH;
+import static com.aakash.contentserver.constants.S3Constants.SHA256_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SIGNATURE_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SIZE_PARAM;
+
+/**
+ * Serves the signed URLs of the local storage, in place of S3 with the local profile: the downloads of the redirect
+ * delivery and the uploads of the direct uploads.
+ */
+@RestController
+@Profile("local")
+@RequestMapping(LOCAL_STORAGE_PATH)
+public class LocalStorageController {
+  private final LocalStorageProcessorImpl localStorageProcessor;
+
+  public LocalStorageController(LocalStorageProcessorImpl localStorageProcessor) {
+    this.localStorageProcessor = localStorageProcessor;
+  }
+
+  /**
+   * Download a file with a URL signed by LocalStorageProcessorImpl.getPresignedUrl. The file is served with the
+   * IMAGE_CACHE_CONTROL policy and as a JPEG, like a presigned S3 URL serves it.
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param expires    The expiration of the URL in epoch seconds
+   * @param signature  The signature of the URL
+   * @param response   The response the file is streamed to
+   * @throws IOException
+   */
+  @GetMapping("/{bucketName}")
+  public void download(@PathVariable String bucketName,
+                       @RequestParam(KEY_PARAM) String key,
+                       @RequestParam(EXPIRES_PARAM) long expires,
+                       @RequestParam(SIGNATURE_PARAM) String signature,
+                       HttpServletResponse response) throws IOException {
+    try (FileContent content = localStorageProcessor.openSignedFile(bucketName, key, expires, signature)) {
+      response.setHeader(HttpHeaders.CACHE_CONTROL, ImageConstants.IMAGE_CACHE_CONTROL);
+      response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+      response.setContentLengthLong(content.getContentLength());
+      content.getInputStream().transferTo(response.getOutputStream());
+    }
+  }
+
+  /**
+   * Upload a file with a PUT signed by LocalStorageProcessorImpl.presignUpload. The file is only stored if the body
+   * has the signed size and SHA-256.
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param size       The signed size of the file
+   * @param sha256     The signed hex encoded SHA-256 of the file
+   * @param expires    The expiration of the URL in epoch seconds
+   * @param signature  The signature of the URL
+   * @param request    The request with the file as its body
+   * @return 200 once the file is stored
+   * @throws IOException
+   */
+  @PutMapping("/{bucketName}")
+  public ResponseEntity<Void> upload(@PathVariable String bucketName,
+                                     @RequestParam(KEY_PARAM) String key,
+                                     @RequestParam(SIZE_PARAM) long size,
+                                     @RequestParam(SHA256_PARAM) String sha256,
+                                     @RequestParam(EXPIRES_PARAM) long expires,
+                                     @RequestParam(SIGNATURE_PARAM) String signature,
+                                     HttpServletRequest request) throws IOException {
+    localStorageProcessor.receiveUpload(bucketName, key, size, sha256, expires, signature, request.getInputStream());
+    return ResponseEntity.ok().build();
+  }
+}
@@ -1,19 +1,26 @@
 package com.aakash.contentserver.controller;
 
+import com.aakash.contentserver.dto.PostCursor;
 import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.dto.PostProjection;
+import com.aakash.contentserver.dto.PostUploadDTO;
 import com.aakash.contentserver.exceptions.BadRequestException;
 import com.aakash.contentserver.exceptions.ContentServerException;
 import com.aakash.contentserver.exceptions.MultipleFilesUploadException;
 import com.aakash.contentserver.processors.ImageProcessor;
 import com.aakash.contentserver.services.PostService;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.data.web.SlicedResourcesAssembler;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.Link;
 import org.springframework.hateoas.PagedModel;
+import org.springframework.hateoas.SlicedModel;
 import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -25,6 +32,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import static com.aakash.contentserver.constants.CommonConstants.MAX_PAGE_SIZE;
 import static com.aakash.contentserver.constants.ImageConstants.SUPPORTED_IMAGES_COUNT;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 
@@ -37,20 +45,23 @@ public class PostController {
   
   private final PostService postService;
   private final PagedResourcesAssembler<PostDTO> pagedResourcesAssembler;
+  private final SlicedResourcesAssembler<PostDTO> slicedResourcesAssembler;
   private final ImageProcessor imageProcessor;
   
   public PostController(PostService postService, PagedResourcesAssembler<PostDTO> pagedResourcesAssembler,
-                        ImageProcessor imageProcessor) {
+                        SlicedResourcesAssembler<PostDTO> slicedResourcesAssembler, ImageProcessor imageProcessor) {
     this.postService = postService;
     this.pagedResourcesAssembler = pagedResourcesAssembler;
+    this.slicedResourcesAssembler = slicedResourcesAssembler;
     this.imageProcessor = imageProcessor;
     
   }
   
   /**
-   * Controller to create a post with image,caption and creator.The immediate response returned doesn't have the iamge url.
+   * Controller to create a post with image,caption and creator.
+   * The response is 202 Accepted once the original image is stored, the image is processed in the background.
    * The Location header in response will have the url to access the entity.
-   * Do a GET request on the postId to get the image url in the PostDTO
+   * Do a GET request on the postId to follow the imageStatus of the post, the image url can be used once it's READY.
    *
    * @param multipartFileList List of files.
    * @param caption           Caption for the post.
@@ -78,7 +89,52 @@ public class PostController {
         .buildAndExpand(postDTO.getId())
         .toUri();
     return ResponseEntity
-        .created(location)
+        .accepted()
+        .location(location)
+        .body(postDTO);
+  }
+  
+  /**
+   * Controller to start a post whose image is uploaded straight to S3 rather than through the server.
+   * The response has the id of the post and the PUT request with which the image is uploaded to S3, valid for 15
+   * minutes. The request must carry the listed headers, the size and SHA-256 of the image are signed so S3 refuses an
+   * image that doesn't match them. Once the image is uploaded, POST /v1/posts/uploads/{postId}/complete creates the
+   * post.
+   *
+   * @param caption Caption for the post.
+   * @param creator Creator of the post.
+   * @param size    Size of the image in bytes.
+   * @param sha256  Hex encoded SHA-256 of the image.
+   * @return PostUploadDTO.
+   */
+  @PostMapping("/uploads")
+  public ResponseEntity<PostUploadDTO> startPostUpload(@RequestParam("caption") String caption,
+                                                       @RequestParam("creator") String creator,
+                                                       @RequestParam("size") long size,
+                                                       @RequestParam("sha256") String sha256) {
+    return ResponseEntity
+        .ok()
+        .body(postService.startPostUpload(caption, creator, size, sha256));
+  }
+  
+  /**
+   * Controller to complete a post whose image was uploaded to S3 with the request from startPostUpload.
+   * The image is checked and the post is created, the response is 202 Accepted like the one of createPost, the image
+   * is processed in the background. A completion before the image is uploaded returns 400 and can be retried.
+   *
+   * @param postId The id of the post returned by startPostUpload.
+   * @return PostDTO.
+   */
+  @PostMapping("/uploads/{postId}/complete")
+  public ResponseEntity<PostDTO> completePostUpload(@PathVariable String postId) {
+    PostDTO postDTO = postService.completePostUpload(UUID.fromString(postId));
+    URI location = ServletUriComponentsBuilder.fromCurrentContextPath()
+        .path("/v1/posts/{id}")
+        .buildAndExpand(postDTO.getId())
+        .toUri();
+    return ResponseEntity
+        .accepted()
+        .location(location)
         .body(postDTO);
   }
   
@@ -96,88 +152,100 @@ public class PostController {
         .body(savedPost);
   }
   
+  /**
+   * Controller to get the next page of the feed using a cursor.
+   * The cursor is the opaque position of the last post of the current page, it's returned in the "next" link.
+   *
+   * @param cursor   The cursor. The first page is returned if it's absent.
+   * @param pageSize Number of posts to fetch, from 1 to MAX_PAGE_SIZE.
+   * @param fields   Comma separated fields of the posts to return. All fields are returned if it's absent.
+   * @param comments Number of latest comments per post, from 0 to NUMBER_OF_COMMENTS_PER_POST.
+   * @return CollectionModel of PostDTO with navigation links.
+   */
   @GetMapping("/next-posts")
-  public ResponseEntity<CollectionModel<EntityModel<PostDTO>>> getNextPosts(@RequestParam(required = false) Long commentsCount,
-                                                                            @RequestParam(defaultValue = "10") int pageSize) {
-    if (commentsCount == null) {
-      commentsCount = Long.MAX_VALUE;
-    }
-    
-    List<PostDTO> posts = postService.getNextPostsByCursor(commentsCount, pageSize);
-    
-    Long nextCommentsCount = null;
-    Long prevCommentsCount = null;
-    
-    if (!posts.isEmpty()) {
-      PostDTO lastPost = posts.get(posts.size() - 1);
-      nextCommentsCount = lastPost.getCommentsCount();
-      
-      PostDTO firstPost = posts.get(0);
-      prevCommentsCount = firstPost.getCommentsCount();
-    }
-    Long finalCommentsCount = commentsCount;
+  public ResponseEntity<CollectionModel<EntityModel<PostDTO>>> getNextPosts(@RequestParam(required = false) String cursor,
+                                                                            @RequestParam(defaultValue = "10") int pageSize,
+                                                                            @RequestParam(required = false) String fields,
+                                                                            @RequestParam(required = false) Integer comments) {
+    validatePageSize(pageSize);
+    List<PostDTO> posts = postService.getNextPostsByCursor(decodeCursor(cursor), pageSize, PostProjection.of(fields, comments));
     List<EntityModel<PostDTO>> postResources = posts.stream()
         .map(post -> EntityModel.of(post,
             WebMvcLinkBuilder.linkTo(methodOn(PostController.class).getNextPosts(
-                finalCommentsCount, pageSize)).withSelfRel()))
+                cursor, pageSize, fields, comments)).withSelfRel()))
         .collect(Collectors.toList());
     
-    return getCollectionModelResponseEntity(pageSize, nextCommentsCount, prevCommentsCount, postResources);
+    return getCollectionModelResponseEntity(pageSize, fields, comments, posts, postResources);
   }
   
-  
+  /**
+   * Controller to get the previous page of the feed using a cursor.
+   * The cursor is the opaque position of the first post of the current page, it's returned in the "prev" link.
+   *
+   * @param cursor   The cursor. An empty page is returned if it's absent.
+   * @param pageSize Number of posts to fetch, from 1 to MAX_PAGE_SIZE.
+   * @param fields   Comma separated fields of the posts to return. All fields are returned if it's absent.
+   * @param comments Number of latest comments per post, from 0 to NUMBER_OF_COMMENTS_PER_POST.
+   * @return CollectionModel of PostDTO with navigation links.
+   */
   @GetMapping("/prev-posts")
   public ResponseEntity<CollectionModel<EntityModel<PostDTO>>> getPreviousPosts(
-      @RequestParam(required = false) Long commentsCount,
-      @RequestParam(defaultValue = "10") int pageSize) {
-    
-    if (commentsCount == null) {
-      commentsCount = Long.MAX_VALUE;
-    }
-    
-    List<PostDTO> posts = postService.getPreviousPostsByCursor(commentsCount, pageSize);
-    
-    Long nextCommentsCount = null;
-    Long prevCommentsCount = null;
-    
-    if (!posts.isEmpty()) {
-      PostDTO lastPost = posts.get(posts.size() - 1);
-      nextCommentsCount = lastPost.getCommentsCount();
-      
-      PostDTO firstPost = posts.get(0);
-      prevCommentsCount = firstPost.getCommentsCount();
-    }
-    
-    Long finalCommentsCount = commentsCount;
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "10") int pageSize,
+      @RequestParam(required = false) String fields,
+      @RequestParam(required = false) Integer comments) {
+    validatePageSize(pageSize);
+    List<PostDTO> posts = postService.getPreviousPostsByCursor(decodeCursor(cursor), pageSize, PostProjection.of(fields, comments));
     List<EntityModel<PostDTO>> postResources = posts.stream()
         .map(post -> EntityModel.of(post,
             WebMvcLinkBuilder.linkTo(methodOn(PostController.class).getPreviousPosts(
-                finalCommentsCount, pageSize)).withSelfRel()))
+                cursor, pageSize, fields, comments)).withSelfRel()))
         .collect(Collectors.toList());
     
-    return getCollectionModelResponseEntity(pageSize, nextCommentsCount, prevCommentsCount, postResources);
+    return getCollectionModelResponseEntity(pageSize, fields, comments, posts, postResources);
   }
   
   private ResponseEntity<CollectionModel<EntityModel<PostDTO>>> getCollectionModelResponseEntity(
-      @RequestParam(defaultValue = "10") int pageSize, Long nextCommentsCount, Long prevCommentsCount,
-      List<EntityModel<PostDTO>> postResources) {
+      int pageSize, String fields, Integer comments, List<PostDTO> posts, List<EntityModel<PostDTO>> postResources) {
     CollectionModel<EntityModel<PostDTO>> collectionModel = CollectionModel.of(postResources);
     
-    if (nextCommentsCount != null) {
+    if (!posts.isEmpty()) {
+      String nextCursor = PostCursor.of(posts.get(posts.size() - 1)).encode();
       Link nextLink = WebMvcLinkBuilder.linkTo(methodOn(PostController.class)
-          .getNextPosts(nextCommentsCount, pageSize)).withRel("next");
+          .getNextPosts(nextCursor, pageSize, fields, comments)).withRel("next");
       collectionModel.add(nextLink);
-    }
-    
-    if (prevCommentsCount != null) {
+      
+      String prevCursor = PostCursor.of(posts.get(0)).encode();
       Link prevLink = WebMvcLinkBuilder.linkTo(methodOn(PostController.class)
-          .getPreviousPosts(prevCommentsCount, pageSize)).withRel("prev");
+          .getPreviousPosts(prevCursor, pageSize, fields, comments)).withRel("prev");
       collectionModel.add(prevLink);
     }
     
     return ResponseEntity.ok(collectionModel);
   }
   
+  /**
+   * Method to validate the requested page size. The size ends up as the limit of the db query, where 0 means no limit.
+   *
+   * @param pageSize The requested page size.
+   * @throws BadRequestException If the size isn't between 1 and MAX_PAGE_SIZE.
+   */
+  private void validatePageSize(int pageSize) {
+    if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+      throw new BadRequestException("Page size should be between 1 and " + MAX_PAGE_SIZE);
+    }
+  }
+  
+  /**
+   * Method to decode the cursor request param.
+   *
+   * @param cursor The encoded cursor.
+   * @return PostCursor or null if the cursor is blank.
+   */
+  private PostCursor decodeCursor(String cursor) {
+    return StringUtils.isBlank(cursor) ? null : PostCursor.decode(cursor);
+  }
+  
   /**
    * Controller to update the caption of a post.
    *
@@ -195,29 +263,43 @@ public class PostController {
   
   /**
    * Controller to get the top posts based on the number of comments.
+   * If the cursor param is present, the page is fetched by keyset instead of offset, so deep pages don't have to skip
+   * over the previous posts. An empty cursor starts from the first page. The "next" link of a keyset page contains
+   * the cursor for the following page.
    *
-   * @param page Page number.
-   * @param size Number of posts to fetch.
+   * @param page     Page number.
+   * @param size     Number of posts to fetch, from 1 to MAX_PAGE_SIZE.
+   * @param cursor   Cursor for keyset pagination.
+   * @param fields   Comma separated fields of the posts to return. All fields are returned if it's absent.
+   * @param comments Number of latest comments per post, from 0 to NUMBER_OF_COMMENTS_PER_POST.
    * @return PagedModel of PostDTO.
    */
   @GetMapping
   public ResponseEntity<PagedModel<EntityModel<PostDTO>>> getTopPosts(@RequestParam(defaultValue = "0") int page,
-                                                                      @RequestParam(defaultValue = "10") int size) {
+                                                                      @RequestParam(defaultValue = "10") int size,
+                                                                      @RequestParam(required = false) String cursor,
+                                                                      @RequestParam(required = false) String fields,
+                                                                      @RequestParam(required = false) Integer comments) {
+    validatePageSize(size);
+    PostProjection projection = PostProjection.of(fields, comments);
+    if (cursor != null) {
+      return getTopPostsByCursor(size, cursor, fields, comments, projection);
+    }
     Pageable pageable = PageRequest.of(page, size);
-    Page<PostDTO> allPosts = postService.getTopPosts(pageable);
+    Page<PostDTO> allPosts = postService.getTopPosts(pageable, projection);
     PagedModel<EntityModel<PostDTO>> pagedModel = pagedResourcesAssembler.toModel(allPosts);
     
     pagedModel.add(
         WebMvcLinkBuilder.linkTo(
                 WebMvcLinkBuilder.methodOn(PostController.class)
-                    .getTopPosts(page + 1, size))
+                    .getTopPosts(page + 1, size, null, fields, comments))
             .withRel("next")
     );
     if (page > 0) {
       pagedModel.add(
           WebMvcLinkBuilder.linkTo(
                   WebMvcLinkBuilder.methodOn(PostController.class)
-                      .getTopPosts(page - 1, size))
+                      .getTopPosts(page - 1, size, null, fields, comments))
               .withRel("previous")
       );
     }
@@ -226,6 +308,57 @@ public class PostController {
         .body(pagedModel);
   }
   
+  /**
+   * Controller to get the top posts based on the number of comments, without counting the posts.
+   * The response has the same posts as the paged one, but the page metadata only has the page number and size, and
+   * the "next" link is only present when there are more posts.
+   *
+   * @param page     Page number.
+   * @param size     Number of posts to fetch, from 1 to MAX_PAGE_SIZE.
+   * @param fields   Comma separated fields of the posts to return. All fields are returned if it's absent.
+   * @param comments Number of latest comments per post, from 0 to NUMBER_OF_COMMENTS_PER_POST.
+   * @return SlicedModel of PostDTO.
+   */
+  @GetMapping("/slice")
+  public ResponseEntity<SlicedModel<EntityModel<PostDTO>>> getTopPostsSlice(@RequestParam(defaultValue = "0") int page,
+                                                                           @RequestParam(defaultValue = "10") int size,
+                                                                           @RequestParam(required = false) String fields,
+                                                                           @RequestParam(required = false) Integer comments) {
+    validatePageSize(size);
+    Slice<PostDTO> topPosts = postService.getTopPostsSlice(PageRequest.of(page, size), PostProjection.of(fields, comments));
+    return ResponseEntity
+        .ok()
+        .body(slicedResourcesAssembler.toModel(topPosts));
+  }
+  
+  private ResponseEntity<PagedModel<EntityModel<PostDTO>>> getTopPostsByCursor(int size, String cursor, String fields,
+                                                                               Integer comments,
+                                                                               PostProjection projection) {
+    List<PostDTO> posts = postService.getNextPostsByCursor(decodeCursor(cursor), size, projection);
+    List<EntityModel<PostDTO>> postResources = posts.stream()
+        .map(EntityModel::of)
+        .collect(Collectors.toList());
+    // The total isn't known in keyset mode, so the page metadata is left out.
+    PagedModel<EntityModel<PostDTO>> pagedModel = PagedModel.of(postResources, (PagedModel.PageMetadata) null);
+    pagedModel.add(
+        WebMvcLinkBuilder.linkTo(
+                WebMvcLinkBuilder.methodOn(PostController.class)
+                    .getTopPosts(0, size, cursor, fields, comments))
+            .withSelfRel()
+    );
+    if (posts.size() == size) {
+      pagedModel.add(
+          WebMvcLinkBuilder.linkTo(
+                  WebMvcLinkBuilder.methodOn(PostController.class)
+                      .getTopPosts(0, size, PostCursor.of(posts.get(posts.size() - 1)).encode(), fields, comments))
+              .withRel("next")
+      );
+    }
+    return ResponseEntity
+        .ok()
+        .body(pagedModel);
+  }
+  
   /**
    * Controller to get all comments for a post.
    *
@@ -0,0 +1,169 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.exceptions.RangeNotSatisfiableException;
+import org.springframework.http.HttpRange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileContent class. An open stream on a file, or on a range of it, to be streamed to a client. The stream must be
+ * closed once it's read.
+ * The content of a file on the local disk also has the path of the file, so that it can be sent to the client by the
+ * kernel straight from the page cache instead of through the stream.
+ */
+public class FileContent implements Closeable {
+  private final InputStream inputStream;
+  private final long rangeStart;
+  private final long rangeEnd;
+  private final long totalLength;
+  private final boolean partial;
+  private final Path file;
+
+  /**
+   * @param inputStream The stream of the bytes from rangeStart to rangeEnd
+   * @param rangeStart  The position of the first byte of the stream in the file
+   * @param rangeEnd    The position of the last byte of the stream in the file, inclusive
+   * @param totalLength The length of the file
+   * @param partial     Whether a range of the file was requested
+   */
+  public FileContent(InputStream inputStream, long rangeStart, long rangeEnd, long totalLength, boolean partial) {
+    this(inputStream, rangeStart, rangeEnd, totalLength, partial, null);
+  }
+
+  private FileContent(InputStream inputStream, long rangeStart, long rangeEnd, long totalLength, boolean partial,
+                      Path file) {
+    this.inputStream = inputStream;
+    this.rangeStart = rangeStart;
+    this.rangeEnd = rangeEnd;
+    this.totalLength = totalLength;
+    this.partial = partial;
+    this.file = file;
+  }
+
+  /**
+   * Creates the content of a file held in memory, or mapped in memory.
+   *
+   * @param content The content of the file, from its position to its limit
+   * @param range   The requested range, or null for the whole file
+   * @return FileContent
+   * @throws RangeNotSatisfiableException If the range starts after the end of the file.
+   */
+  public static FileContent of(ByteBuffer content, HttpRange range) throws RangeNotSatisfiableException {
+    long totalLength = content.remaining();
+    if (range == null) {
+      return new FileContent(new ByteBufferInputStream(content), 0, totalLength - 1, totalLength, false);
+    }
+    long rangeStart = range.getRangeStart(totalLength);
+    long rangeEnd = range.getRangeEnd(totalLength);
+    if (rangeStart >= totalLength || rangeStart > rangeEnd) {
+      throw new RangeNotSatisfiableException("Range " + range + " is outside of the file", totalLength);
+    }
+    ByteBuffer slice = content.slice(content.position() + (int) rangeStart, (int) (rangeEnd - rangeStart + 1));
+    return new FileContent(new ByteBufferInputStream(slice), rangeStart, rangeEnd, totalLength, true);
+  }
+
+  /**
+   * Creates the content of a file on the local disk. The file is mapped in memory for the stream, the mapping is only
+   * read if the stream is.
+   *
+   * @param file  The file
+   * @param range The requested range, or null for the whole file
+   * @return FileContent
+   * @throws IOException                  If the file can't be read, NoSuchFileException if it doesn't exist
+   * @throws RangeNotSatisfiableException If the range starts after the end of the file.
+   */
+  public static FileContent of(Path file, HttpRange range) throws IOException, RangeNotSatisfiableException {
+    ByteBuffer content;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    FileContent mapped = of(content, range);
+    return new FileContent(mapped.inputStream, mapped.rangeStart, mapped.rangeEnd, mapped.totalLength, mapped.partial,
+        file);
+  }
+
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  /**
+   * @return The number of bytes of the stream.
+   */
+  public long getContentLength() {
+    return rangeEnd - rangeStart + 1;
+  }
+
+  /**
+   * @return The value of the Content-Range header of the range, e.g. bytes 0-99/1000.
+   */
+  public String getContentRange() {
+    return "bytes " + rangeStart + "-" + rangeEnd + "/" + totalLength;
+  }
+
+  /**
+   * @return The file on the local disk the content is read from, or null if it's read from elsewhere, e.g. from S3.
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return The position of the first byte of the stream in the file.
+   */
+  public long getRangeStart() {
+    return rangeStart;
+  }
+
+  public long getTotalLength() {
+    return totalLength;
+  }
+
+  public boolean isPartial() {
+    return partial;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+
+  /**
+   * Stream over a buffer, which is read in place rather than copied.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
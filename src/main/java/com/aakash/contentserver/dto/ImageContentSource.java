@@ -0,0 +1,55 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.entities.Image;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ImageContentSource class. The file an image content request is served from: a stored rendition, or an on demand
+ * rendition when resizeRequest is set.
+ * The files are never rewritten, a location always holds the same content, so the validators of the content are
+ * derived from the location and the image without reading the file.
+ */
+public class ImageContentSource {
+  private final Image image;
+  private final String location;
+  private final ResizeRequest resizeRequest;
+
+  /**
+   * @param image         The image
+   * @param location      The location of the file in S3
+   * @param resizeRequest The on demand rendition, or null for a stored rendition
+   */
+  public ImageContentSource(Image image, String location, ResizeRequest resizeRequest) {
+    this.image = image;
+    this.location = location;
+    this.resizeRequest = resizeRequest;
+  }
+
+  public Image getImage() {
+    return image;
+  }
+
+  public String getLocation() {
+    return location;
+  }
+
+  public ResizeRequest getResizeRequest() {
+    return resizeRequest;
+  }
+
+  /**
+   * @return The strong ETag of the content, quoted, e.g. "5d41402abc4b2a76b9719d911017c592".
+   */
+  public String getETag() {
+    return "\"" + DigestUtils.md5DigestAsHex(location.getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  /**
+   * @return The time the image was created in epoch millis, or -1 if it isn't known.
+   */
+  public long getLastModified() {
+    return image.getCreatedAt() != null ? image.getCreatedAt().toEpochMilli() : -1;
+  }
+}
@@ -1,10 +1,16 @@
 package com.aakash.contentserver.dto;
 
+import com.aakash.contentserver.enums.ProcessingStatus;
+
+import java.util.List;
+
 /**
  * ImageDTO class. This class is used to handle image data transfer objects.
  */
 public class ImageDTO extends FileDTO{
   private String postId;
+  private ProcessingStatus status;
+  private List<RenditionDTO> renditions;
   
   //Can be used to associate an image with comment.
   //private String commentId;
@@ -19,4 +25,20 @@ public class ImageDTO extends FileDTO{
   public void setPostId(String postId) {
     this.postId = postId;
   }
+
+  public ProcessingStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(ProcessingStatus status) {
+    this.status = status;
+  }
+
+  public List<RenditionDTO> getRenditions() {
+    return renditions;
+  }
+
+  public void setRenditions(List<RenditionDTO> renditions) {
+    this.renditions = renditions;
+  }
 }
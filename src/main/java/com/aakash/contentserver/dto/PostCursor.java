@@ -0,0 +1,97 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.exceptions.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * PostCursor class. Position of a post in the feed, which is sorted by commentsCount, createdAt and id in descending
+ * order. The id makes the position unique, so pages don't overlap even if many posts have the same comments count.
+ * The cursor is sent to the clients as an opaque url safe string.
+ */
+public class PostCursor {
+  private static final String SEPARATOR = ":";
+
+  private final long commentsCount;
+  private final Instant createdAt;
+  private final UUID id;
+
+  public PostCursor(long commentsCount, Instant createdAt, UUID id) {
+    this.commentsCount = commentsCount;
+    this.createdAt = createdAt;
+    this.id = id;
+  }
+
+  /**
+   * Creates the cursor pointing at the given post.
+   *
+   * @param postDTO The post.
+   * @return PostCursor
+   */
+  public static PostCursor of(PostDTO postDTO) {
+    return new PostCursor(postDTO.getCommentsCount(), postDTO.getCreatedAt(), postDTO.getId());
+  }
+
+  /**
+   * Decodes a cursor received from a client.
+   *
+   * @param cursor The encoded cursor.
+   * @return PostCursor
+   * @throws BadRequestException If the cursor is not valid.
+   */
+  public static PostCursor decode(String cursor) throws BadRequestException {
+    try {
+      String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      String[] parts = decoded.split(SEPARATOR);
+      if (parts.length != 3) {
+        throw new BadRequestException("Invalid cursor " + cursor);
+      }
+      return new PostCursor(Long.parseLong(parts[0]), Instant.ofEpochMilli(Long.parseLong(parts[1])), UUID.fromString(parts[2]));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("Invalid cursor " + cursor, e);
+    }
+  }
+
+  /**
+   * Encodes the cursor to be sent to the clients.
+   * createdAt is encoded in milliseconds as that's the precision it's stored with in the db.
+   *
+   * @return The encoded cursor.
+   */
+  public String encode() {
+    String cursor = commentsCount + SEPARATOR + createdAt.toEpochMilli() + SEPARATOR + id;
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public long getCommentsCount() {
+    return commentsCount;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public UUID getId() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PostCursor that)) {
+      return false;
+    }
+    return commentsCount == that.commentsCount && Objects.equals(createdAt, that.createdAt) && Objects.equals(id, that.id);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(commentsCount, createdAt, id);
+  }
+}
@@ -1,17 +1,22 @@
 package com.aakash.contentserver.dto;
 
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
  * PostDTO class. This class can be used to return responses for Post entity requests.
-
+ * Null fields, e.g. the ones left out by a PostProjection, aren't serialized.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class PostDTO extends ContentDTO {
 
   public long commentsCount;
   public List<CommentDTO> comments;
 
   private String imageAccessUri;
+  private ProcessingStatus imageStatus;
   public PostDTO() {
   }
   
@@ -39,4 +44,12 @@ public class PostDTO extends ContentDTO {
   public void setImageAccessUri(String imageAccessUri) {
     this.imageAccessUri = imageAccessUri;
   }
+
+  public ProcessingStatus getImageStatus() {
+    return imageStatus;
+  }
+
+  public void setImageStatus(ProcessingStatus imageStatus) {
+    this.imageStatus = imageStatus;
+  }
 }
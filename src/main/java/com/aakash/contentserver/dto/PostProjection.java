@@ -0,0 +1,118 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.exceptions.BadRequestException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.aakash.contentserver.constants.CommonConstants.NUMBER_OF_COMMENTS_PER_POST;
+
+/**
+ * PostProjection class. The fields of PostDTO and the number of latest comments a feed request asks for.
+ * The fields are turned into a db projection, so the fields that aren't requested are neither read from the db nor
+ * sent to the clients. id, commentsCount and createdAt are always returned as the feed is sorted and paged by them.
+ */
+public class PostProjection {
+  public static final String COMMENTS_FIELD = "comments";
+
+  /**
+   * Fields of PostDTO that can be requested, apart from the ones that are always returned.
+   */
+  public static final Set<String> SUPPORTED_FIELDS =
+      Set.of("content", "creator", "imageId", "imageAccessUri", "imageStatus", COMMENTS_FIELD);
+
+  private static final PostProjection ALL = new PostProjection(SUPPORTED_FIELDS, NUMBER_OF_COMMENTS_PER_POST);
+
+  private final Set<String> fields;
+  private final int comments;
+
+  private PostProjection(Set<String> fields, int comments) {
+    this.fields = Collections.unmodifiableSet(fields);
+    this.comments = fields.contains(COMMENTS_FIELD) ? comments : 0;
+  }
+
+  /**
+   * The projection of a request that doesn't restrict the fields, i.e. all fields and NUMBER_OF_COMMENTS_PER_POST
+   * comments per post.
+   *
+   * @return PostProjection
+   */
+  public static PostProjection all() {
+    return ALL;
+  }
+
+  /**
+   * Creates the projection from the request params.
+   *
+   * @param fields   Comma separated fields of PostDTO. All fields are returned if it's blank.
+   * @param comments Number of latest comments per post, from 0 to NUMBER_OF_COMMENTS_PER_POST.
+   *                 NUMBER_OF_COMMENTS_PER_POST comments are returned if it's null.
+   * @return PostProjection
+   * @throws BadRequestException If a field isn't supported or the number of comments is out of range.
+   */
+  public static PostProjection of(String fields, Integer comments) throws BadRequestException {
+    int numberOfComments = comments == null ? NUMBER_OF_COMMENTS_PER_POST : comments;
+    if (numberOfComments < 0 || numberOfComments > NUMBER_OF_COMMENTS_PER_POST) {
+      throw new BadRequestException("comments should be between 0 and " + NUMBER_OF_COMMENTS_PER_POST);
+    }
+    if (StringUtils.isBlank(fields)) {
+      return numberOfComments == NUMBER_OF_COMMENTS_PER_POST ? ALL : new PostProjection(SUPPORTED_FIELDS, numberOfComments);
+    }
+    Set<String> requestedFields = new LinkedHashSet<>();
+    for (String field : fields.split(",")) {
+      String trimmedField = field.trim();
+      if (trimmedField.isEmpty() || isAlwaysReturned(trimmedField)) {
+        continue;
+      }
+      if (!SUPPORTED_FIELDS.contains(trimmedField)) {
+        throw new BadRequestException("Unsupported field " + trimmedField + ", supported fields are " + SUPPORTED_FIELDS);
+      }
+      requestedFields.add(trimmedField);
+    }
+    return new PostProjection(requestedFields, numberOfComments);
+  }
+
+  private static boolean isAlwaysReturned(String field) {
+    return "id".equals(field) || "commentsCount".equals(field) || "createdAt".equals(field);
+  }
+
+  /**
+   * @return true if all the fields of the post are requested.
+   */
+  public boolean isAllFields() {
+    return fields.containsAll(SUPPORTED_FIELDS);
+  }
+
+  /**
+   * @return The requested fields, excluding the ones that are always returned.
+   */
+  public Set<String> getFields() {
+    return fields;
+  }
+
+  /**
+   * @return Number of latest comments per post. It's 0 if the comments field isn't requested.
+   */
+  public int getComments() {
+    return comments;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PostProjection that)) {
+      return false;
+    }
+    return comments == that.comments && fields.equals(that.fields);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(fields, comments);
+  }
+}
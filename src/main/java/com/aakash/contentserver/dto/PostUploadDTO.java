@@ -0,0 +1,23 @@
+package com.aakash.contentserver.dto;
+
+/**
+ * PostUploadDTO class. A started direct upload: the id the post will have, and the request with which the client
+ * uploads the image to S3 before completing the upload.
+ */
+public class PostUploadDTO {
+  private final String postId;
+  private final PresignedUpload upload;
+
+  public PostUploadDTO(String postId, PresignedUpload upload) {
+    this.postId = postId;
+    this.upload = upload;
+  }
+
+  public String getPostId() {
+    return postId;
+  }
+
+  public PresignedUpload getUpload() {
+    return upload;
+  }
+}
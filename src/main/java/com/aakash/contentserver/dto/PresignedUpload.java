@@ -0,0 +1,41 @@
+package com.aakash.contentserver.dto;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * PresignedUpload class. A request the client sends to S3 to upload a file directly: the request must use the method
+ * and the URL, and carry the headers, as they are signed.
+ */
+public class PresignedUpload {
+  private final String url;
+  private final String method;
+  private final Map<String, String> headers;
+  private final Instant expiresAt;
+
+  public PresignedUpload(String url, String method, Map<String, String> headers, Instant expiresAt) {
+    this.url = url;
+    this.method = method;
+    this.headers = headers;
+    this.expiresAt = expiresAt;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return The headers the request must carry, e.g. Content-Length and x-amz-checksum-sha256.
+   */
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  public Instant getExpiresAt() {
+    return expiresAt;
+  }
+}
@@ -0,0 +1,56 @@
+package com.aakash.contentserver.dto;
+
+/**
+ * RenditionDTO class. A resized version of an image, it's served by the content endpoint of the image with the
+ * rendition param.
+ */
+public class RenditionDTO {
+  private String name;
+  private String accessUri;
+  private int width;
+  private int height;
+  private long sizeInKB;
+
+  public RenditionDTO() {
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public String getAccessUri() {
+    return accessUri;
+  }
+
+  public void setAccessUri(String accessUri) {
+    this.accessUri = accessUri;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public void setWidth(int width) {
+    this.width = width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public void setHeight(int height) {
+    this.height = height;
+  }
+
+  public long getSizeInKB() {
+    return sizeInKB;
+  }
+
+  public void setSizeInKB(long sizeInKB) {
+    this.sizeInKB = sizeInKB;
+  }
+}
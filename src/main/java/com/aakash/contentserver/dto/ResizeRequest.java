@@ -0,0 +1,118 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.enums.ResizeFit;
+import com.aakash.contentserver.exceptions.BadRequestException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+import static com.aakash.contentserver.constants.ImageConstants.RESIZE_DEFAULT_QUALITY;
+import static com.aakash.contentserver.constants.ImageConstants.RESIZE_QUALITIES;
+import static com.aakash.contentserver.constants.ImageConstants.RESIZE_SIZES;
+
+/**
+ * ResizeRequest class. An on demand rendition of an image, snapped to the RESIZE_SIZES and RESIZE_QUALITIES grid, so
+ * that requests for nearby sizes share the same rendition.
+ */
+public class ResizeRequest {
+  private final int width;
+  private final int height;
+  private final ResizeFit fit;
+  private final int quality;
+
+  public ResizeRequest(int width, int height, ResizeFit fit, int quality) {
+    this.width = width;
+    this.height = height;
+    this.fit = fit;
+    this.quality = quality;
+  }
+
+  /**
+   * Creates the rendition for the params of a request.
+   * The width and height are rounded up to the next allowed size. A missing one is the same as the other, so the
+   * box is square. The quality is rounded to the nearest allowed quality.
+   *
+   * @param width   Requested width, or null
+   * @param height  Requested height, or null
+   * @param fit     Requested fit, contain if it's null
+   * @param quality Requested quality from 1 to 100, RESIZE_DEFAULT_QUALITY if it's null
+   * @return ResizeRequest
+   * @throws BadRequestException If neither the width nor the height is given, or if a param is out of range.
+   */
+  public static ResizeRequest of(Integer width, Integer height, String fit, Integer quality) throws BadRequestException {
+    if (width == null && height == null) {
+      throw new BadRequestException("The width or the height of the image is required to resize it");
+    }
+    int snappedWidth = snapSize(width != null ? width : height);
+    int snappedHeight = snapSize(height != null ? height : width);
+    if (quality != null && (quality < 1 || quality > 100)) {
+      throw new BadRequestException("Invalid quality " + quality + ", it must be between 1 and 100");
+    }
+    int snappedQuality = quality == null ? RESIZE_DEFAULT_QUALITY : RESIZE_QUALITIES.stream()
+        .min(Comparator.comparingInt((Integer allowed) -> Math.abs(allowed - quality))
+            .thenComparing(Comparator.reverseOrder()))
+        .orElseThrow();
+    return new ResizeRequest(snappedWidth, snappedHeight, parseFit(fit), snappedQuality);
+  }
+
+  private static int snapSize(int size) {
+    if (size < 1) {
+      throw new BadRequestException("Invalid size " + size + ", it must be positive");
+    }
+    return RESIZE_SIZES.stream()
+        .filter(allowed -> allowed >= size)
+        .findFirst()
+        .orElse(RESIZE_SIZES.get(RESIZE_SIZES.size() - 1));
+  }
+
+  private static ResizeFit parseFit(String fit) {
+    if (fit == null) {
+      return ResizeFit.CONTAIN;
+    }
+    return Arrays.stream(ResizeFit.values())
+        .filter(candidate -> candidate.getValue().equalsIgnoreCase(fit))
+        .findFirst()
+        .orElseThrow(() -> new BadRequestException("Invalid fit " + fit + ", it must be one of "
+            + Arrays.stream(ResizeFit.values()).map(ResizeFit::getValue).toList()));
+  }
+
+  /**
+   * @return The name of the rendition, unique per width, height, fit and quality.
+   */
+  public String getName() {
+    return width + "x" + height + "-" + fit.getValue() + "-q" + quality;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public ResizeFit getFit() {
+    return fit;
+  }
+
+  public int getQuality() {
+    return quality;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ResizeRequest that)) {
+      return false;
+    }
+    return width == that.width && height == that.height && fit == that.fit && quality == that.quality;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(width, height, fit, quality);
+  }
+}
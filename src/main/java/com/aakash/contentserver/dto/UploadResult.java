@@ -0,0 +1,37 @@
+package com.aakash.contentserver.dto;
+
+/**
+ * UploadResult class. What is learnt about a file while it's streamed to S3.
+ */
+public class UploadResult {
+  private final long size;
+  private final String sha256;
+  private final String contentType;
+
+  public UploadResult(long size, String sha256, String contentType) {
+    this.size = size;
+    this.sha256 = sha256;
+    this.contentType = contentType;
+  }
+
+  /**
+   * @return Number of bytes uploaded.
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return Hex encoded SHA-256 of the uploaded bytes.
+   */
+  public String getSha256() {
+    return sha256;
+  }
+
+  /**
+   * @return Media type detected from the first bytes of the file.
+   */
+  public String getContentType() {
+    return contentType;
+  }
+}
@@ -1,5 +1,6 @@
 package com.aakash.contentserver.entities;
 
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -9,6 +10,7 @@ import java.util.UUID;
  * Comment entity. This class can be used to handle comments entity request.
  */
 @Document(collection = "comments")
+@CompoundIndex(name = "postId_createdAt", def = "{ 'postId': 1, 'createdAt': -1 }")
 public class Comment extends Content {
   @Indexed
   private UUID postId;
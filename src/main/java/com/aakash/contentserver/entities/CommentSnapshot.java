@@ -0,0 +1,74 @@
+package com.aakash.contentserver.entities;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * CommentSnapshot class. A copy of the fields of a comment that is embedded in the post document,
+ * so that the latest comments of a post can be served without querying the comments collection.
+ * It doesn't extend Content as the indexes declared on Content aren't needed on the embedded copy.
+ */
+public class CommentSnapshot {
+  private UUID id;
+
+  private String content;
+
+  private String creator;
+
+  private Instant createdAt;
+
+  private UUID imageId;
+
+  private String imageAccessUri;
+
+  public CommentSnapshot() {
+  }
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public void setContent(String content) {
+    this.content = content;
+  }
+
+  public String getCreator() {
+    return creator;
+  }
+
+  public void setCreator(String creator) {
+    this.creator = creator;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+
+  public UUID getImageId() {
+    return imageId;
+  }
+
+  public void setImageId(UUID imageId) {
+    this.imageId = imageId;
+  }
+
+  public String getImageAccessUri() {
+    return imageAccessUri;
+  }
+
+  public void setImageAccessUri(String imageAccessUri) {
+    this.imageAccessUri = imageAccessUri;
+  }
+}
@@ -22,6 +22,8 @@ public class FileType {
 
   private long sizeInKB;
 
+  private String sha256;
+
   private String type;
 
   private Instant createdAt;
@@ -82,4 +84,12 @@ public class FileType {
   public void setSizeInKB(long sizeInKB) {
     this.sizeInKB = sizeInKB;
   }
+  
+  public String getSha256() {
+    return sha256;
+  }
+  
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
 }
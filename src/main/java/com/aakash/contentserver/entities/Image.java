@@ -1,12 +1,17 @@
 package com.aakash.contentserver.entities;
 
 import com.aakash.contentserver.enums.ImageType;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
  * Image entity. This class can be used to handle associate an image with a post.
+ * The content of the image is stored once per ImageBlob, the status and renditions of the blob are copied to all the
+ * images linked to it.
  */
 @Document(collection = "images")
 public class Image extends FileType {
@@ -14,6 +19,19 @@ public class Image extends FileType {
 
   private UUID commentId;
 
+  /**
+   * The id of the ImageBlob holding the content of the image.
+   */
+  @Indexed
+  private String blobId;
+
+  private ProcessingStatus status;
+
+  /**
+   * The resized versions of the image. The location of the image is the one of the default rendition.
+   */
+  private List<ImageRendition> renditions;
+
   public Image() {
   }
 
@@ -32,4 +50,28 @@ public class Image extends FileType {
   public void setCommentId(UUID commentId) {
     this.commentId = commentId;
   }
+
+  public String getBlobId() {
+    return blobId;
+  }
+
+  public void setBlobId(String blobId) {
+    this.blobId = blobId;
+  }
+
+  public ProcessingStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(ProcessingStatus status) {
+    this.status = status;
+  }
+
+  public List<ImageRendition> getRenditions() {
+    return renditions;
+  }
+
+  public void setRenditions(List<ImageRendition> renditions) {
+    this.renditions = renditions;
+  }
 }
@@ -0,0 +1,133 @@
+package com.aakash.contentserver.entities;
+
+import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * ImageBlob entity. The stored content of an uploaded image, i.e. its original and its renditions in S3, shared by
+ * all the images uploaded with the same content for the same activity.
+ * The id is derived from the SHA-256 of the content and the activity type, so a repeat upload finds the blob by its
+ * hash and links to it instead of storing and resizing the image again. refCount is the number of images linked to
+ * the blob, the blob and its S3 objects are deleted when the last one is deleted.
+ */
+@Document(collection = "imageBlobs")
+public class ImageBlob {
+  @Id
+  private String id;
+
+  private String sha256;
+
+  private ActivityType activityType;
+
+  private String bucketName;
+
+  private String originalLocation;
+
+  private String contentType;
+
+  private long sizeInKB;
+
+  private ProcessingStatus status;
+
+  private List<ImageRendition> renditions;
+
+  private long refCount;
+
+  private Instant createdAt;
+
+  public ImageBlob() {
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
+
+  public ActivityType getActivityType() {
+    return activityType;
+  }
+
+  public void setActivityType(ActivityType activityType) {
+    this.activityType = activityType;
+  }
+
+  public String getBucketName() {
+    return bucketName;
+  }
+
+  public void setBucketName(String bucketName) {
+    this.bucketName = bucketName;
+  }
+
+  public String getOriginalLocation() {
+    return originalLocation;
+  }
+
+  public void setOriginalLocation(String originalLocation) {
+    this.originalLocation = originalLocation;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  public long getSizeInKB() {
+    return sizeInKB;
+  }
+
+  public void setSizeInKB(long sizeInKB) {
+    this.sizeInKB = sizeInKB;
+  }
+
+  public ProcessingStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(ProcessingStatus status) {
+    this.status = status;
+  }
+
+  public List<ImageRendition> getRenditions() {
+    return renditions;
+  }
+
+  public void setRenditions(List<ImageRendition> renditions) {
+    this.renditions = renditions;
+  }
+
+  public long getRefCount() {
+    return refCount;
+  }
+
+  public void setRefCount(long refCount) {
+    this.refCount = refCount;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+}
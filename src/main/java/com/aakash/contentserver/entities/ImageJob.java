@@ -0,0 +1,129 @@
+package com.aakash.contentserver.entities;
+
+import com.aakash.contentserver.enums.ProcessingStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * ImageJob entity. A queued processing of an uploaded image, i.e. resizing the original image of an ImageBlob and
+ * uploading the renditions to S3. The job is queued by the upload that stored the blob, imageId and postId are the
+ * ones of that upload, the result is applied to all the images linked to the blob.
+ * A job is PENDING until a worker leases it, PROCESSING while the lease is held and FAILED once all the attempts
+ * failed. Completed jobs are deleted.
+ */
+@Document(collection = "imageJobs")
+@CompoundIndex(name = "status_nextAttemptAt", def = "{ 'status': 1, 'nextAttemptAt': 1 }")
+@CompoundIndex(name = "status_leaseExpiresAt", def = "{ 'status': 1, 'leaseExpiresAt': 1 }")
+public class ImageJob {
+  @Id
+  private UUID id;
+
+  private UUID imageId;
+
+  private UUID postId;
+
+  private String blobId;
+
+  private ProcessingStatus status;
+
+  /**
+   * Number of times the job was leased. It's also used to check that a worker still holds the lease when it updates
+   * the job, as another worker that leases the job after the lease expired increments it.
+   */
+  private int attempts;
+
+  private Instant nextAttemptAt;
+
+  private Instant leaseExpiresAt;
+
+  private String lastError;
+
+  private Instant createdAt;
+
+  public ImageJob() {
+  }
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+
+  public UUID getImageId() {
+    return imageId;
+  }
+
+  public void setImageId(UUID imageId) {
+    this.imageId = imageId;
+  }
+
+  public UUID getPostId() {
+    return postId;
+  }
+
+  public void setPostId(UUID postId) {
+    this.postId = postId;
+  }
+
+  public String getBlobId() {
+    return blobId;
+  }
+
+  public void setBlobId(String blobId) {
+    this.blobId = blobId;
+  }
+
+  public ProcessingStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(ProcessingStatus status) {
+    this.status = status;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public Instant getNextAttemptAt() {
+    return nextAttemptAt;
+  }
+
+  public void setNextAttemptAt(Instant nextAttemptAt) {
+    this.nextAttemptAt = nextAttemptAt;
+  }
+
+  public Instant getLeaseExpiresAt() {
+    return leaseExpiresAt;
+  }
+
+  public void setLeaseExpiresAt(Instant leaseExpiresAt) {
+    this.leaseExpiresAt = leaseExpiresAt;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+}
@@ -0,0 +1,60 @@
+package com.aakash.contentserver.entities;
+
+/**
+ * ImageRendition entity. A resized version of an image, embedded in the Image it was created from.
+ * The renditions of an activity are configured in resize_config.json.
+ */
+public class ImageRendition {
+  private String name;
+
+  private String location;
+
+  private int width;
+
+  private int height;
+
+  private long sizeInKB;
+
+  public ImageRendition() {
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public String getLocation() {
+    return location;
+  }
+
+  public void setLocation(String location) {
+    this.location = location;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public void setWidth(int width) {
+    this.width = width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public void setHeight(int height) {
+    this.height = height;
+  }
+
+  public long getSizeInKB() {
+    return sizeInKB;
+  }
+
+  public void setSizeInKB(long sizeInKB) {
+    this.sizeInKB = sizeInKB;
+  }
+}
@@ -1,16 +1,32 @@
 package com.aakash.contentserver.entities;
 
+import com.aakash.contentserver.enums.ProcessingStatus;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.util.List;
+
 /**
  * Post entity. This class can be used to handle posts entity request.
 
  */
 @Document(collection = "posts")
+@CompoundIndex(name = "commentsCount_createdAt_id", def = "{ 'commentsCount': -1, 'createdAt': -1, '_id': -1 }")
 public class Post extends Content {
 
 
   private long commentsCount;
+  
+  /**
+   * The latest comments of the post, newest first. The list is bounded to NUMBER_OF_COMMENTS_PER_POST entries and is
+   * maintained along with commentsCount whenever a comment is added or deleted.
+   */
+  private List<CommentSnapshot> latestComments;
+
+  /**
+   * The processing status of the image of the post. It's null for posts created before images were processed by jobs.
+   */
+  private ProcessingStatus imageStatus;
   public Post() {
   }
   
@@ -21,4 +37,20 @@ public class Post extends Content {
   public void setCommentsCount(long commentsCount) {
     this.commentsCount = commentsCount;
   }
+  
+  public List<CommentSnapshot> getLatestComments() {
+    return latestComments;
+  }
+  
+  public void setLatestComments(List<CommentSnapshot> latestComments) {
+    this.latestComments = latestComments;
+  }
+
+  public ProcessingStatus getImageStatus() {
+    return imageStatus;
+  }
+
+  public void setImageStatus(ProcessingStatus imageStatus) {
+    this.imageStatus = imageStatus;
+  }
 }
@@ -0,0 +1,36 @@
+package com.aakash.contentserver.entities;
+
+import org.springframework.data.annotation.Id;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * PostComments class. Read model for the comments of a post grouped by the post id.
+ * It isn't persisted, it's only used to map the results of comment aggregations.
+ */
+public class PostComments {
+  @Id
+  private UUID postId;
+
+  private List<Comment> comments;
+
+  public PostComments() {
+  }
+
+  public UUID getPostId() {
+    return postId;
+  }
+
+  public void setPostId(UUID postId) {
+    this.postId = postId;
+  }
+
+  public List<Comment> getComments() {
+    return comments;
+  }
+
+  public void setComments(List<Comment> comments) {
+    this.comments = comments;
+  }
+}
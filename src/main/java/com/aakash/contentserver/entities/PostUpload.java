@@ -0,0 +1,99 @@
+package com.aakash.contentserver.entities;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static com.aakash.contentserver.constants.ImageConstants.DIRECT_UPLOAD_TTL_SECONDS;
+
+/**
+ * PostUpload entity. A post whose image is uploaded by the client straight to S3 with a presigned PUT. The post is
+ * created when the upload is completed, with the id of the PostUpload. An upload that isn't completed is deleted by
+ * mongo DIRECT_UPLOAD_TTL_SECONDS after it was started.
+ */
+@Document(collection = "postUploads")
+public class PostUpload {
+  @Id
+  private UUID id;
+
+  private String caption;
+
+  private String creator;
+
+  /**
+   * The size of the image in bytes, declared by the client and enforced by S3.
+   */
+  private long size;
+
+  /**
+   * Hex encoded SHA-256 of the image, declared by the client and enforced by S3.
+   */
+  private String sha256;
+
+  private String stagingLocation;
+
+  @Indexed(expireAfterSeconds = DIRECT_UPLOAD_TTL_SECONDS)
+  private Instant createdAt;
+
+  public PostUpload() {
+  }
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+
+  public String getCaption() {
+    return caption;
+  }
+
+  public void setCaption(String caption) {
+    this.caption = caption;
+  }
+
+  public String getCreator() {
+    return creator;
+  }
+
+  public void setCreator(String creator) {
+    this.creator = creator;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public void setSize(long size) {
+    this.size = size;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
+
+  public String getStagingLocation() {
+    return stagingLocation;
+  }
+
+  public void setStagingLocation(String stagingLocation) {
+    this.stagingLocation = stagingLocation;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+}
@@ -0,0 +1,12 @@
+package com.aakash.contentserver.enums;
+
+/**
+ * ImageDelivery enum. How the content endpoint delivers the stored renditions of an image, set by
+ * contentserver.images.delivery.
+ * PROXY streams the content through the server, REDIRECT answers with a 302 to a presigned S3 URL so the content is
+ * downloaded from S3 directly.
+ */
+public enum ImageDelivery {
+  PROXY,
+  REDIRECT
+}
@@ -0,0 +1,24 @@
+package com.aakash.contentserver.enums;
+
+/**
+ * ProcessingStatus enum. The status of the processing of an uploaded image, it's set on the image and on the post the
+ * image belongs to.
+ */
+public enum ProcessingStatus {
+  /**
+   * The original image is stored and the processing is queued.
+   */
+  PENDING,
+  /**
+   * The image is being processed.
+   */
+  PROCESSING,
+  /**
+   * The processed image is available.
+   */
+  READY,
+  /**
+   * The processing failed after all the attempts.
+   */
+  FAILED
+}
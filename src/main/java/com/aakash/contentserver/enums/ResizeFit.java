@@ -0,0 +1,19 @@
+package com.aakash.contentserver.enums;
+
+/**
+ * ResizeFit enum. How an image is fitted into the box of an on demand rendition.
+ * CONTAIN scales the image down to fit in the box keeping its aspect ratio, COVER scales it to fill the box and crops
+ * what's left over around the center.
+ */
+public enum ResizeFit {
+  CONTAIN("contain"),
+  COVER("cover");
+
+  private final String fit;
+  ResizeFit(String fit) {
+    this.fit = fit;
+  }
+  public String getValue() {
+    return fit;
+  }
+}
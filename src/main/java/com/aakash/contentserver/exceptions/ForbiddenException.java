@@ -0,0 +1,11 @@
+package com.aakash.contentserver.exceptions;
+
+/**
+ * ForbiddenException class. This class is used when a request isn't allowed, e.g. a signed URL whose signature is
+ * invalid or expired.
+ */
+public class ForbiddenException extends UserException {
+  public ForbiddenException(String message) {
+    super(message);
+  }
+}
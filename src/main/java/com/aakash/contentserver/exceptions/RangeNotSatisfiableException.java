@@ -0,0 +1,21 @@
+package com.aakash.contentserver.exceptions;
+
+/**
+ * RangeNotSatisfiableException class. This class is used when the range requested for a file doesn't overlap the file.
+ */
+public class RangeNotSatisfiableException extends RuntimeException {
+
+  private final long totalLength;
+
+  public RangeNotSatisfiableException(String message, long totalLength) {
+    super(message);
+    this.totalLength = totalLength;
+  }
+
+  /**
+   * @return The length of the file, or -1 if it isn't known.
+   */
+  public long getTotalLength() {
+    return totalLength;
+  }
+}
@@ -0,0 +1,19 @@
+package com.aakash.contentserver.exceptions;
+
+/**
+ * ServiceUnavailableException class. This class is used when the service is temporarily overloaded and the request
+ * should be retried after retryAfterSeconds.
+ */
+public class ServiceUnavailableException extends RuntimeException {
+
+  private final long retryAfterSeconds;
+
+  public ServiceUnavailableException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+}
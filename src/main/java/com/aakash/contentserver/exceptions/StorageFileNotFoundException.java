@@ -0,0 +1,15 @@
+package com.aakash.contentserver.exceptions;
+
+/**
+ * StorageFileNotFoundException class. This class is used when a file doesn't exist in the storage, whichever storage
+ * is configured, e.g. a rendition of an image that isn't processed yet.
+ */
+public class StorageFileNotFoundException extends RuntimeException {
+  public StorageFileNotFoundException(String message) {
+    super(message);
+  }
+
+  public StorageFileNotFoundException(String message, Throwable th) {
+    super(message, th);
+  }
+}
@@ -0,0 +1,145 @@
+package com.aakash.contentserver.impl;
+
+import com.aakash.contentserver.constants.ImageConstants;
+import com.aakash.contentserver.dto.CommentDTO;
+import com.aakash.contentserver.dto.ContentDTO;
+import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.dto.RenditionDTO;
+import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.Content;
+import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.ImageRendition;
+import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Maps the entities to the DTOs returned by the APIs.
+ * The fields are copied with plain getters and setters, so a feed page doesn't go through reflection or type map
+ * lookups for every post and comment. The mapping keeps the rules the ModelMapper was configured with: counts are
+ * never null, and the comments of a post start as an empty list that the services fill in.
+ */
+@Component
+public class EntityMapperImpl implements EntityMapper {
+  
+  @Override
+  public PostDTO toPostDTO(Post post) {
+    if (post == null) {
+      return null;
+    }
+    PostDTO postDTO = new PostDTO();
+    copyContent(post, postDTO);
+    postDTO.setImageAccessUri(post.getImageAccessUri());
+    postDTO.setImageStatus(post.getImageStatus());
+    postDTO.setCommentsCount(post.getCommentsCount());
+    postDTO.setComments(new ArrayList<>());
+    return postDTO;
+  }
+  
+  @Override
+  public PostDTO copyPostDTO(PostDTO postDTO) {
+    if (postDTO == null) {
+      return null;
+    }
+    PostDTO copy = new PostDTO();
+    copy.setId(postDTO.getId());
+    copy.setContent(postDTO.getContent());
+    copy.setCreator(postDTO.getCreator());
+    copy.setCreatedAt(postDTO.getCreatedAt());
+    copy.setImageId(postDTO.getImageId());
+    copy.setImageAccessUri(postDTO.getImageAccessUri());
+    copy.setImageStatus(postDTO.getImageStatus());
+    copy.setCommentsCount(postDTO.getCommentsCount());
+    copy.setComments(postDTO.getComments() == null ? null : new ArrayList<>(postDTO.getComments()));
+    return copy;
+  }
+  
+  @Override
+  public CommentDTO toCommentDTO(Comment comment) {
+    if (comment == null) {
+      return null;
+    }
+    CommentDTO commentDTO = new CommentDTO();
+    copyContent(comment, commentDTO);
+    commentDTO.setPostId(toStringOrNull(comment.getPostId()));
+    return commentDTO;
+  }
+  
+  @Override
+  public CommentDTO toCommentDTO(CommentSnapshot commentSnapshot, UUID postId) {
+    if (commentSnapshot == null) {
+      return null;
+    }
+    CommentDTO commentDTO = new CommentDTO();
+    commentDTO.setId(commentSnapshot.getId());
+    commentDTO.setContent(commentSnapshot.getContent());
+    commentDTO.setCreator(commentSnapshot.getCreator());
+    commentDTO.setCreatedAt(commentSnapshot.getCreatedAt());
+    commentDTO.setImageId(commentSnapshot.getImageId());
+    commentDTO.setImageAccessUri(commentSnapshot.getImageAccessUri());
+    commentDTO.setPostId(toStringOrNull(postId));
+    return commentDTO;
+  }
+  
+  @Override
+  public CommentSnapshot toCommentSnapshot(Comment comment) {
+    if (comment == null) {
+      return null;
+    }
+    CommentSnapshot commentSnapshot = new CommentSnapshot();
+    commentSnapshot.setId(comment.getId());
+    commentSnapshot.setContent(comment.getContent());
+    commentSnapshot.setCreator(comment.getCreator());
+    commentSnapshot.setCreatedAt(comment.getCreatedAt());
+    commentSnapshot.setImageId(comment.getImageId());
+    commentSnapshot.setImageAccessUri(comment.getImageAccessUri());
+    return commentSnapshot;
+  }
+  
+  @Override
+  public ImageDTO toImageDTO(Image image) {
+    if (image == null) {
+      return null;
+    }
+    ImageDTO imageDTO = new ImageDTO();
+    imageDTO.setId(toStringOrNull(image.getId()));
+    imageDTO.setAccessUri(image.getAccessUri());
+    imageDTO.setType(image.getType());
+    imageDTO.setCreatedAt(image.getCreatedAt());
+    imageDTO.setPostId(toStringOrNull(image.getPostId()));
+    imageDTO.setStatus(image.getStatus());
+    if (image.getRenditions() != null) {
+      List<RenditionDTO> renditions = new ArrayList<>(image.getRenditions().size());
+      for (ImageRendition rendition : image.getRenditions()) {
+        RenditionDTO renditionDTO = new RenditionDTO();
+        renditionDTO.setName(rendition.getName());
+        renditionDTO.setAccessUri(image.getAccessUri() + "?" + ImageConstants.RENDITION_PARAM + "=" + rendition.getName());
+        renditionDTO.setWidth(rendition.getWidth());
+        renditionDTO.setHeight(rendition.getHeight());
+        renditionDTO.setSizeInKB(rendition.getSizeInKB());
+        renditions.add(renditionDTO);
+      }
+      imageDTO.setRenditions(renditions);
+    }
+    return imageDTO;
+  }
+  
+  private void copyContent(Content content, ContentDTO contentDTO) {
+    contentDTO.setId(content.getId());
+    contentDTO.setContent(content.getContent());
+    contentDTO.setCreator(content.getCreator());
+    contentDTO.setCreatedAt(content.getCreatedAt());
+    contentDTO.setImageId(content.getImageId());
+    contentDTO.setImageAccessUri(content.getImageAccessUri());
+  }
+  
+  private String toStringOrNull(UUID uuid) {
+    return uuid == null ? null : uuid.toString();
+  }
+}
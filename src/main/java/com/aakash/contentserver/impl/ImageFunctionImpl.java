@@ -1,13 +1,25 @@
 package com.aakash.contentserver.impl;
 
+import com.aakash.contentserver.constants.ImageConstants;
 import com.aakash.contentserver.interfaces.ImageFunctions;
 import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.geometry.Positions;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
 import org.apache.commons.io.FileUtils;
 import org.springframework.stereotype.Service;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 
 @Service
 public class ImageFunctionImpl implements ImageFunctions {
@@ -25,6 +37,131 @@ public class ImageFunctionImpl implements ImageFunctions {
     return outputStream;
   }
   
+  @Override
+  public ByteArrayOutputStream resizeImage(InputStream inputStream, int width, int height, String outputFormat) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Thumbnails.of(inputStream)
+        .size(width, height)
+        .outputFormat(outputFormat)
+        .toOutputStream(outputStream);
+    return outputStream;
+  }
+  
+  /**
+   * Decodes an image once, so that several renditions can be derived from it without decoding the file again.
+   * The dimensions are read from the header first and the image is decoded with source subsampling at the smallest
+   * resolution that still covers the requested size DECODE_OVERSAMPLING times. So a 50 megapixel upload is never held
+   * in memory at full resolution when only a 1080 pixels rendition is needed, only every n-th pixel of every n-th row
+   * is decoded.
+   * The EXIF orientation is applied, as it is when a rendition is created from the file.
+   *
+   * @param inputStream The encoded image
+   * @param minWidth    The width of the largest rendition that will be derived from the image
+   * @param minHeight   The height of the largest rendition that will be derived from the image
+   * @return The decoded image, oriented as per the EXIF orientation
+   * @throws IOException If the image can't be decoded
+   */
+  @Override
+  public BufferedImage readImage(InputStream inputStream, int minWidth, int minHeight) throws IOException {
+    return readImage(inputStream, minWidth, minHeight, false);
+  }
+  
+  /**
+   * Decodes an image subsampled as readImage does, for an image that's resized to cover minWidth x minHeight rather
+   * than to fit in it, i.e. the image is cropped to the box after it's resized.
+   *
+   * @param inputStream The encoded image
+   * @param minWidth    The width of the largest rendition that will be derived from the image
+   * @param minHeight   The height of the largest rendition that will be derived from the image
+   * @param cover       Whether the rendition covers the box instead of fitting in it
+   * @return The decoded image, oriented as per the EXIF orientation
+   * @throws IOException If the image can't be decoded
+   */
+  @Override
+  public BufferedImage readImage(InputStream inputStream, int minWidth, int minHeight, boolean cover) throws IOException {
+    try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+      Iterator<ImageReader> readers = imageInputStream == null ? null : ImageIO.getImageReaders(imageInputStream);
+      if (readers == null || !readers.hasNext()) {
+        throw new IOException("No image reader found for the image");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(imageInputStream, true, false);
+        Orientation orientation = getOrientation(reader);
+        // The rendition sizes apply to the oriented image, the subsampling to the stored one.
+        boolean quarterTurn = orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+            || orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+        int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0),
+            quarterTurn ? minHeight : minWidth, quarterTurn ? minWidth : minHeight, cover);
+        
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+          readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        BufferedImage image = reader.read(0, readParam);
+        if (orientation != null && orientation != Orientation.TOP_LEFT) {
+          image = ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+        }
+        return image;
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+  
+  /**
+   * The largest subsampling factor for which the decoded image still covers DECODE_OVERSAMPLING times the size the
+   * image is resized to, i.e. the size that fits in minWidth x minHeight keeping the aspect ratio, or the size that
+   * covers it if cover is set.
+   *
+   * @return The subsampling factor, 1 if the image isn't larger than needed
+   */
+  static int getSubsampling(int width, int height, int minWidth, int minHeight, boolean cover) {
+    double widthScale = (double) minWidth / width;
+    double heightScale = (double) minHeight / height;
+    double scale = (cover ? Math.max(widthScale, heightScale) : Math.min(widthScale, heightScale))
+        * ImageConstants.DECODE_OVERSAMPLING;
+    if (scale >= 1) {
+      return 1;
+    }
+    return (int) Math.floor(1 / scale);
+  }
+  
+  private Orientation getOrientation(ImageReader reader) {
+    try {
+      return ExifUtils.getExifOrientation(reader, 0);
+    } catch (Exception e) {
+      // The orientation is optional, an image with unreadable EXIF data is decoded as it's stored.
+      return null;
+    }
+  }
+  
+  @Override
+  public ByteArrayOutputStream resizeImage(BufferedImage image, int width, int height, float quality, String outputFormat) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Thumbnails.of(image)
+        .size(width, height)
+        .outputQuality(quality)
+        .outputFormat(outputFormat)
+        .toOutputStream(outputStream);
+    return outputStream;
+  }
+  
+  /**
+   * Resizes the image to cover width x height keeping its aspect ratio, and crops what's left over around the center.
+   */
+  @Override
+  public ByteArrayOutputStream cropImage(BufferedImage image, int width, int height, float quality, String outputFormat) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    Thumbnails.of(image)
+        .size(width, height)
+        .crop(Positions.CENTER)
+        .outputQuality(quality)
+        .outputFormat(outputFormat)
+        .toOutputStream(outputStream);
+    return outputStream;
+  }
+  
   @Override
   public ByteArrayOutputStream compressImage(File filePath, float quality, String outputFormat) throws IOException {
     
@@ -0,0 +1,496 @@
+package com.aakash.contentserver.impl;
+
+import com.aakash.contentserver.constants.S3Constants;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.PresignedUpload;
+import com.aakash.contentserver.dto.UploadResult;
+import com.aakash.contentserver.exceptions.BadRequestException;
+import com.aakash.contentserver.exceptions.ContentServerException;
+import com.aakash.contentserver.exceptions.ForbiddenException;
+import com.aakash.contentserver.exceptions.StorageFileNotFoundException;
+import com.aakash.contentserver.interfaces.StorageProcessor;
+import org.apache.tika.Tika;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static com.aakash.contentserver.constants.S3Constants.EXPIRES_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.KEY_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.LOCAL_STORAGE_PATH;
+import static com.aakash.contentserver.constants.S3Constants.SHA256_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SIGNATURE_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SIZE_PARAM;
+
+/**
+ * Local filesystem storage of the files, active with the local profile in place of S3ProcessorImpl, so the whole
+ * upload, resize and serve pipeline runs on a single box without S3.
+ * A file is stored at contentserver.storage.local.directory/bucket/key. Files are written to a temp file in their
+ * directory and moved in place atomically, so a reader sees either the old or the new file, never a partial one.
+ * Files are read through a FileChannel. A missing file raises StorageFileNotFoundException, like S3ProcessorImpl.
+ * The presigned URLs point at the LocalStorageController instead of S3, under contentserver.storage.local.base-url.
+ * They are signed with an HMAC-SHA256 of the method, the file, the expiration and, for an upload, the size and SHA-256
+ * of the file, with contentserver.storage.local.signing-key, or with a random key if it's empty, in which case the
+ * URLs don't survive a restart. So the redirect delivery and the direct uploads work as they do with S3.
+ */
+@Service
+@Profile("local")
+public class LocalStorageProcessorImpl implements StorageProcessor {
+
+  /**
+   * Number of bytes at the start of a file that are used to detect its media type.
+   */
+  private static final int SNIFF_LENGTH = 8 * 1024;
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+  private static final int SIGNING_KEY_LENGTH = 32;
+
+  private final Path rootDirectory;
+  private final String baseUrl;
+  private final SecretKeySpec signingKey;
+  private final Clock clock;
+  private final Tika tika;
+  private final Logger logger;
+
+  public LocalStorageProcessorImpl(@Value("${contentserver.storage.local.directory}") String rootDirectory,
+                                   @Value("${contentserver.storage.local.base-url}") String baseUrl,
+                                   @Value("${contentserver.storage.local.signing-key:}") String signingKey,
+                                   Clock clock) {
+    this.rootDirectory = Path.of(rootDirectory).toAbsolutePath().normalize();
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.logger = LoggerFactory.getLogger(LocalStorageProcessorImpl.class);
+    byte[] key;
+    if (signingKey.isEmpty()) {
+      logger.info("No signing key configured for the local storage, the signed URLs don't survive a restart");
+      key = new byte[SIGNING_KEY_LENGTH];
+      new SecureRandom().nextBytes(key);
+    } else {
+      key = signingKey.getBytes(StandardCharsets.UTF_8);
+    }
+    this.signingKey = new SecretKeySpec(key, SIGNATURE_ALGORITHM);
+    this.clock = clock;
+    this.tika = new Tika();
+  }
+
+  /**
+   * Writes a file, replacing the existing one atomically.
+   *
+   * @param imageBytes          The content of the file
+   * @param destinationFileName The key of the file
+   */
+  @Override
+  public void uploadFileAsByteStream(byte[] imageBytes, String destinationFileName) {
+    logger.info("Writing file to local storage: {}", destinationFileName);
+    Path destination = resolve(S3Constants.BUCKET_NAME, destinationFileName);
+    try {
+      Path tempFile = createTempFile(destination);
+      try {
+        Files.write(tempFile, imageBytes);
+        moveInPlace(tempFile, destination);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while writing " + destinationFileName, e);
+    }
+  }
+
+  /**
+   * Writes a stream to a file under a key derived from its content, like S3ProcessorImpl.uploadStream.
+   * The media type is detected from the first bytes and checked before anything is written. The stream is then
+   * hashed while it's written to a temp file next to stagingFileName, which is moved to its destination once the hash
+   * is known, or deleted if destinationForContent returns null.
+   *
+   * @param inputStream           The stream to write. It isn't closed.
+   * @param stagingFileName       Where the file is written before its hash is known
+   * @param isAcceptedContentType Check of the detected media type
+   * @param destinationForContent The destination of the file given its size, SHA-256 and media type, or null to
+   *                              not store it
+   * @return UploadResult with the size, SHA-256 and media type of the file
+   * @throws IOException         If the stream can't be read or the file can't be written
+   * @throws BadRequestException If the media type isn't accepted
+   */
+  @Override
+  public UploadResult uploadStream(InputStream inputStream, String stagingFileName,
+                                   Predicate<String> isAcceptedContentType,
+                                   Function<UploadResult, String> destinationForContent) throws IOException {
+    logger.info("Streaming file to local storage: {}", stagingFileName);
+    byte[] start = inputStream.readNBytes(SNIFF_LENGTH);
+    String contentType = tika.detect(start);
+    if (!isAcceptedContentType.test(contentType)) {
+      throw new BadRequestException("Unsupported file content " + contentType);
+    }
+    MessageDigest digest = newSha256Digest();
+    Path tempFile = createTempFile(resolve(S3Constants.BUCKET_NAME, stagingFileName));
+    try {
+      long size;
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        digest.update(start);
+        outputStream.write(start);
+        size = start.length + new DigestInputStream(inputStream, digest).transferTo(outputStream);
+      }
+      UploadResult uploadResult = new UploadResult(size, HexFormat.of().formatHex(digest.digest()), contentType);
+      String contentFileName = destinationForContent.apply(uploadResult);
+      if (contentFileName == null) {
+        logger.info("File content {} is already stored, dropping the upload", uploadResult.getSha256());
+      } else {
+        moveInPlace(tempFile, resolve(S3Constants.BUCKET_NAME, contentFileName));
+        logger.info("File written to local storage: {}", contentFileName);
+      }
+      return uploadResult;
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Signs the PUT of the LocalStorageController with which a client uploads a file to stagingFileName. The URL carries
+   * the size and SHA-256 of the file, which are signed, and the upload is only kept if the file matches them.
+   *
+   * @param stagingFileName Where the file is uploaded
+   * @param size            The size of the file in bytes
+   * @param sha256          The hex encoded SHA-256 of the file
+   * @param expiration      How long the URL is valid for
+   * @return The request the client sends, with the Content-Length it must carry
+   */
+  @Override
+  public PresignedUpload presignUpload(String stagingFileName, long size, String sha256, Duration expiration) {
+    Instant expiresAt = Instant.now(clock).plus(expiration).truncatedTo(ChronoUnit.SECONDS);
+    String signature = sign(HttpMethod.PUT, S3Constants.BUCKET_NAME, stagingFileName, expiresAt.getEpochSecond(),
+        size, sha256);
+    String url = UriComponentsBuilder.fromHttpUrl(baseUrl)
+        .path(LOCAL_STORAGE_PATH).pathSegment(S3Constants.BUCKET_NAME)
+        .queryParam(KEY_PARAM, stagingFileName)
+        .queryParam(SIZE_PARAM, size)
+        .queryParam(SHA256_PARAM, sha256)
+        .queryParam(EXPIRES_PARAM, expiresAt.getEpochSecond())
+        .queryParam(SIGNATURE_PARAM, signature)
+        .encode()
+        .toUriString();
+    return new PresignedUpload(url, HttpMethod.PUT.name(), Map.of(HttpHeaders.CONTENT_LENGTH, String.valueOf(size)),
+        expiresAt);
+  }
+
+  /**
+   * Writes a file uploaded with a PUT signed by presignUpload. The body is hashed while it's written to a temp file,
+   * which is only moved to the key if the body has the signed size and SHA-256.
+   *
+   * @param bucketName  The bucket of the file
+   * @param key         The key of the file
+   * @param size        The signed size of the file
+   * @param sha256      The signed hex encoded SHA-256 of the file
+   * @param expires     The expiration of the URL in epoch seconds
+   * @param signature   The signature of the URL
+   * @param inputStream The body of the request
+   * @throws ForbiddenException  If the signature is invalid or expired
+   * @throws BadRequestException If the body doesn't match the signed size and SHA-256
+   * @throws IOException         If the body can't be read or the file can't be written
+   */
+  public void receiveUpload(String bucketName, String key, long size, String sha256, long expires, String signature,
+                            InputStream inputStream) throws IOException {
+    verify(signature, HttpMethod.PUT, bucketName, key, expires, size, sha256);
+    Path destination = resolve(bucketName, key);
+    MessageDigest digest = newSha256Digest();
+    Path tempFile = createTempFile(destination);
+    try {
+      long written = 0;
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        byte[] buffer = new byte[SNIFF_LENGTH];
+        int read;
+        // A body longer than the signed size is rejected without being written to its end.
+        while (written <= size && (read = inputStream.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+          outputStream.write(buffer, 0, read);
+          written += read;
+        }
+      }
+      if (written != size || !HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sha256)) {
+        throw new BadRequestException("The uploaded file doesn't match its declared size and SHA-256");
+      }
+      moveInPlace(tempFile, destination);
+      logger.info("File uploaded to local storage: {}", key);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Completes a file uploaded by a client to stagingFileName with a PUT from presignUpload, like S3ProcessorImpl. The
+   * size and SHA-256 of the file were checked when it was uploaded, its size is checked again and its media type is
+   * detected from its first bytes. The file is then moved to its destination or dropped. A file that fails the checks
+   * is deleted.
+   *
+   * @param stagingFileName       Where the file was uploaded
+   * @param size                  The declared size of the file in bytes
+   * @param sha256                The declared hex encoded SHA-256 of the file
+   * @param isAcceptedContentType Check of the detected media type
+   * @param destinationForContent The destination of the file given its size, SHA-256 and media type, or null to
+   *                              not store it
+   * @return UploadResult with the size, SHA-256 and media type of the file
+   * @throws BadRequestException If the file wasn't uploaded, doesn't match its size, or if its media type isn't
+   *                             accepted
+   */
+  @Override
+  public UploadResult completeUpload(String stagingFileName, long size, String sha256,
+                                     Predicate<String> isAcceptedContentType,
+                                     Function<UploadResult, String> destinationForContent) {
+    Path stagedFile = resolve(S3Constants.BUCKET_NAME, stagingFileName);
+    try {
+      try {
+        String contentType;
+        try (InputStream inputStream = Files.newInputStream(stagedFile)) {
+          contentType = tika.detect(inputStream.readNBytes(SNIFF_LENGTH));
+        }
+        if (Files.size(stagedFile) != size) {
+          throw new BadRequestException("The uploaded file doesn't match its declared size and SHA-256");
+        }
+        if (!isAcceptedContentType.test(contentType)) {
+          throw new BadRequestException("Unsupported file content " + contentType);
+        }
+        UploadResult uploadResult = new UploadResult(size, sha256, contentType);
+        String contentFileName = destinationForContent.apply(uploadResult);
+        if (contentFileName == null) {
+          logger.info("File content {} is already stored, dropping the upload", sha256);
+        } else {
+          moveInPlace(stagedFile, resolve(S3Constants.BUCKET_NAME, contentFileName));
+          logger.info("Uploaded file moved to local storage: {}", contentFileName);
+        }
+        return uploadResult;
+      } finally {
+        Files.deleteIfExists(stagedFile);
+      }
+    } catch (NoSuchFileException e) {
+      throw new BadRequestException("The file wasn't uploaded to " + stagingFileName);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while completing the upload " + stagingFileName, e);
+    }
+  }
+
+  /**
+   * Deletes files. A failure is logged rather than thrown, the files are then left behind.
+   *
+   * @param bucketName The bucket of the files
+   * @param keys       The keys of the files
+   */
+  @Override
+  public void deleteFiles(String bucketName, List<String> keys) {
+    for (String key : keys) {
+      try {
+        Files.deleteIfExists(resolve(bucketName, key));
+      } catch (IOException e) {
+        logger.error("Error while deleting {} from local storage", key, e);
+      }
+    }
+  }
+
+  /**
+   * Deletes all the files whose key starts with a prefix. A failure is logged rather than thrown.
+   *
+   * @param bucketName The bucket of the files
+   * @param prefix     The prefix of the keys, e.g. resized/blob/
+   */
+  @Override
+  public void deleteFilesWithPrefix(String bucketName, String prefix) {
+    Path bucket = resolve(bucketName, "");
+    // The files with the prefix are all under the directory of the prefix.
+    Path directory = resolve(bucketName, prefix.substring(0, prefix.lastIndexOf('/') + 1));
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(directory)) {
+      deleteFiles(bucketName, files
+          .filter(Files::isRegularFile)
+          .map(file -> bucket.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+          .filter(key -> key.startsWith(prefix))
+          .toList());
+    } catch (IOException e) {
+      logger.error("Error while deleting the files with prefix {} from local storage", prefix, e);
+    }
+  }
+
+  /**
+   * Opens a file, or a range of it, to be streamed to a client. The file is mapped in memory, so it's read in place,
+   * and the content has its path, so it can be sent by the kernel instead.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param range      The requested range, or null for the whole file
+   * @return The content of the file
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  @Override
+  public FileContent openFile(String bucketName, String key, HttpRange range) {
+    try {
+      return FileContent.of(resolve(bucketName, key), range);
+    } catch (NoSuchFileException e) {
+      throw noSuchKey(key);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while reading " + key, e);
+    }
+  }
+
+  /**
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  @Override
+  public long getFileLength(String bucketName, String key) {
+    try {
+      return Files.size(resolve(bucketName, key));
+    } catch (NoSuchFileException e) {
+      throw noSuchKey(key);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while reading " + key, e);
+    }
+  }
+
+  @Override
+  public boolean exists(String bucketName, String key) {
+    return Files.isRegularFile(resolve(bucketName, key));
+  }
+
+  /**
+   * Signs a URL of the LocalStorageController to download a file directly, like a presigned S3 URL.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param expiration How long the URL is valid for
+   * @return The signed URL
+   */
+  @Override
+  public String getPresignedUrl(String bucketName, String key, Duration expiration) {
+    long expires = Instant.now(clock).plus(expiration).getEpochSecond();
+    return UriComponentsBuilder.fromHttpUrl(baseUrl)
+        .path(LOCAL_STORAGE_PATH).pathSegment(bucketName)
+        .queryParam(KEY_PARAM, key)
+        .queryParam(EXPIRES_PARAM, expires)
+        .queryParam(SIGNATURE_PARAM, sign(HttpMethod.GET, bucketName, key, expires, -1, ""))
+        .encode()
+        .toUriString();
+  }
+
+  /**
+   * Opens a file downloaded with a URL signed by getPresignedUrl.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param expires    The expiration of the URL in epoch seconds
+   * @param signature  The signature of the URL
+   * @return The content of the file
+   * @throws ForbiddenException           If the signature is invalid or expired
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  public FileContent openSignedFile(String bucketName, String key, long expires, String signature) {
+    verify(signature, HttpMethod.GET, bucketName, key, expires, -1, "");
+    return openFile(bucketName, key, null);
+  }
+
+  /**
+   * Opens a stream on a file, the caller must close it.
+   *
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  @Override
+  public InputStream downloadFileAsStream(String bucketName, String key) {
+    try {
+      return Files.newInputStream(resolve(bucketName, key));
+    } catch (NoSuchFileException e) {
+      throw noSuchKey(key);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Error while reading " + key, e);
+    }
+  }
+
+  /**
+   * The path of a file, which must be within the bucket.
+   */
+  private Path resolve(String bucketName, String key) {
+    Path bucket = rootDirectory.resolve(bucketName).normalize();
+    Path file = bucket.resolve(key).normalize();
+    if (!bucket.startsWith(rootDirectory) || !file.startsWith(bucket)) {
+      throw new BadRequestException("Invalid key " + key);
+    }
+    return file;
+  }
+
+  private static Path createTempFile(Path destination) throws IOException {
+    Files.createDirectories(destination.getParent());
+    return Files.createTempFile(destination.getParent(), destination.getFileName().toString(), TEMP_FILE_SUFFIX);
+  }
+
+  private static void moveInPlace(Path tempFile, Path destination) throws IOException {
+    Files.createDirectories(destination.getParent());
+    Files.move(tempFile, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static StorageFileNotFoundException noSuchKey(String key) {
+    return new StorageFileNotFoundException("File not found in local storage: " + key);
+  }
+
+  /**
+   * The hex encoded HMAC-SHA256 of a request, size is -1 and sha256 empty for a download.
+   */
+  private String sign(HttpMethod method, String bucketName, String key, long expires, long size, String sha256) {
+    String request = String.join("\n", method.name(), bucketName, key, String.valueOf(expires),
+        String.valueOf(size), sha256.toLowerCase());
+    try {
+      Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+      mac.init(signingKey);
+      return HexFormat.of().formatHex(mac.doFinal(request.getBytes(StandardCharsets.UTF_8)));
+    } catch (GeneralSecurityException e) {
+      throw new ContentServerException("HmacSHA256 isn't supported by the JVM", e);
+    }
+  }
+
+  private void verify(String signature, HttpMethod method, String bucketName, String key, long expires, long size,
+                      String sha256) {
+    byte[] expected = sign(method, bucketName, key, expires, size, sha256).getBytes(StandardCharsets.UTF_8);
+    if (signature == null
+        || !MessageDigest.isEqual(expected, signature.toLowerCase().getBytes(StandardCharsets.UTF_8))) {
+      throw new ForbiddenException("Invalid signature");
+    }
+    if (Instant.now(clock).getEpochSecond() > expires) {
+      throw new ForbiddenException("The signed URL expired");
+    }
+  }
+
+  private static MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new ContentServerException("SHA-256 isn't supported by the JVM", e);
+    }
+  }
+}
@@ -1,34 +1,86 @@
 package com.aakash.contentserver.impl;
 
+import com.aakash.contentserver.cache.DiskCache;
 import com.aakash.contentserver.constants.ImageConstants;
 import com.aakash.contentserver.constants.S3Constants;
-import com.aakash.contentserver.entities.FileType;
-import com.aakash.contentserver.interfaces.S3Processor;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.PresignedUpload;
+import com.aakash.contentserver.dto.UploadResult;
+import com.aakash.contentserver.exceptions.BadRequestException;
+import com.aakash.contentserver.exceptions.ContentServerException;
+import com.aakash.contentserver.exceptions.RangeNotSatisfiableException;
+import com.aakash.contentserver.exceptions.StorageFileNotFoundException;
+import com.aakash.contentserver.interfaces.StorageProcessor;
+import com.aakash.contentserver.processors.PartBufferPool;
+import org.apache.tika.Tika;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 
 /**
- * S3 Processor class to upload and download files from S3.
+ * S3 Processor class to upload and download files from S3. It's the storage of the files unless the local profile
+ * is active, LocalStorageProcessorImpl is then used instead.
  */
 @Service
-public class S3ProcessorImpl implements S3Processor {
+@Profile("!local")
+public class S3ProcessorImpl implements StorageProcessor {
+  
+  /**
+   * Number of bytes at the start of a file that are used to detect its media type.
+   */
+  private static final int SNIFF_LENGTH = 8 * 1024;
   
   private final S3Client s3Client;
+  private final S3Presigner s3Presigner;
+  private final PartBufferPool partBufferPool;
+  private final Executor s3UploadExecutor;
+  private final DiskCache s3DiskCache;
+  private final Tika tika;
   private final Logger logger;
   
-  public S3ProcessorImpl(S3Client s3Client) {
+  public S3ProcessorImpl(S3Client s3Client, S3Presigner s3Presigner, PartBufferPool partBufferPool,
+                         @Qualifier("s3UploadExecutor") Executor s3UploadExecutor,
+                         @Qualifier("s3DiskCache") DiskCache s3DiskCache) {
     this.s3Client = s3Client;
+    this.s3Presigner = s3Presigner;
+    this.partBufferPool = partBufferPool;
+    this.s3UploadExecutor = s3UploadExecutor;
+    this.s3DiskCache = s3DiskCache;
+    this.tika = new Tika();
     this.logger = LoggerFactory.getLogger(S3ProcessorImpl.class);
   }
   
@@ -36,7 +88,12 @@ public class S3ProcessorImpl implements S3Processor {
    * Uploads image as byte stream to S3
    * The image is uploaded in parts of 5MB each
    * This method leverages the Multipart upload feature of S3 which allows uploading large files in parts
+   * The parts are uploaded in parallel on the s3UploadExecutor, at most S3_UPLOAD_PARTS_IN_FLIGHT_PER_OBJECT at a
+   * time for this file and at most S3_UPLOAD_MAX_PARTS_IN_FLIGHT across all the files. Each part is sent as a view of
+   * the image bytes, so the parts aren't copied.
+   * If the upload fails, the multipart upload is aborted so that the uploaded parts aren't left behind in S3.
    * AWS SDK v2 has built in retry logic for uploads, so we don't need to implement it.
+   * A copy of the file in the local disk cache is dropped once the file is replaced.
    *
    * @param imageBytes          The image as byte array
    * @param destinationFileName The destination name of the file to be uploaded
@@ -45,22 +102,18 @@ public class S3ProcessorImpl implements S3Processor {
   public void uploadFileAsByteStream(byte[] imageBytes, String destinationFileName) {
     logger.info("Uploading file to S3: {}", destinationFileName);
     int partSize = ImageConstants.PART_SIZE; // 5 MB chunk
-    byte[] buffer = new byte[partSize];
     
-    // If the image is less than 5MB, upload the image directly.
-    if (imageBytes.length < partSize) {
-      try {
-        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-            .bucket(S3Constants.BUCKET_NAME)
-            .key(destinationFileName)
-            .build();
-        
-        s3Client.putObject(putObjectRequest, RequestBody.fromBytes(imageBytes));
-        logger.info("File uploaded to S3: {}", destinationFileName);
-        return;
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
+    // If the image fits in a single part, upload the image directly.
+    if (imageBytes.length <= partSize) {
+      PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+          .bucket(S3Constants.BUCKET_NAME)
+          .key(destinationFileName)
+          .build();
+      
+      s3Client.putObject(putObjectRequest, requestBody(imageBytes, 0, imageBytes.length));
+      s3DiskCache.remove(getCacheKey(S3Constants.BUCKET_NAME, destinationFileName));
+      logger.info("File uploaded to S3: {}", destinationFileName);
+      return;
     }
     CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
         .bucket(S3Constants.BUCKET_NAME)
@@ -70,68 +123,545 @@ public class S3ProcessorImpl implements S3Processor {
     CreateMultipartUploadResponse response = s3Client.createMultipartUpload(createMultipartUploadRequest);
     String uploadId = response.uploadId();
     
-    List<CompletedPart> completedParts = new ArrayList<>();
-    int fileLength = imageBytes.length;
-    int partNumber = 1;
-    
-    for (int offset = 0; offset < fileLength; offset += partSize) {
-      int currentPartSize = Math.min(partSize, fileLength - offset);
-      System.arraycopy(imageBytes, offset, buffer, 0, currentPartSize);
+    try {
+      List<CompletedPart> completedParts = uploadPartsInParallel(imageBytes, partSize, destinationFileName, uploadId);
       
-      UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+      CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
           .bucket(S3Constants.BUCKET_NAME)
           .key(destinationFileName)
           .uploadId(uploadId)
-          .partNumber(partNumber)
+          .multipartUpload(CompletedMultipartUpload.builder()
+              .parts(completedParts)
+              .build())
           .build();
       
-      // Upload part
-      String etag = s3Client.uploadPart(uploadPartRequest, RequestBody.fromBytes(buffer)).eTag();
-      completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(etag).build());
-      partNumber++;
+      s3Client.completeMultipartUpload(completeMultipartUploadRequest);
+    } catch (RuntimeException e) {
+      logger.error("Error while uploading file to S3: " + destinationFileName, e);
+      abortMultipartUpload(destinationFileName, uploadId);
+      throw e;
     }
-    
-    CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+    s3DiskCache.remove(getCacheKey(S3Constants.BUCKET_NAME, destinationFileName));
+    logger.info("File uploaded to S3: {}", destinationFileName);
+  }
+  
+  /**
+   * Uploads the parts of a multipart upload in parallel.
+   * No more parts are submitted once a part fails, and the method returns only after all the submitted parts are
+   * done, so that no part is uploaded after the multipart upload is aborted.
+   *
+   * @return The completed parts in the order of the part numbers
+   */
+  private List<CompletedPart> uploadPartsInParallel(byte[] imageBytes, int partSize, String destinationFileName,
+                                                    String uploadId) {
+    Semaphore partsInFlight = new Semaphore(S3Constants.S3_UPLOAD_PARTS_IN_FLIGHT_PER_OBJECT);
+    AtomicBoolean failed = new AtomicBoolean();
+    List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    int fileLength = imageBytes.length;
+    int partNumber = 1;
+    try {
+      for (int offset = 0; offset < fileLength && !failed.get(); offset += partSize) {
+        int currentPartSize = Math.min(partSize, fileLength - offset);
+        int currentOffset = offset;
+        int currentPartNumber = partNumber++;
+        partsInFlight.acquire();
+        parts.add(CompletableFuture
+            .supplyAsync(() -> uploadPart(imageBytes, currentOffset, currentPartSize, currentPartNumber,
+                destinationFileName, uploadId), s3UploadExecutor)
+            .whenComplete((completedPart, e) -> {
+              if (e != null) {
+                failed.set(true);
+              }
+              partsInFlight.release();
+            }));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      waitForParts(parts);
+      throw new ContentServerException("Interrupted while uploading file to S3: " + destinationFileName, e);
+    }
+    waitForParts(parts);
+    return parts.stream().map(CompletableFuture::join).toList();
+  }
+  
+  private CompletedPart uploadPart(byte[] imageBytes, int offset, int length, int partNumber,
+                                   String destinationFileName, String uploadId) {
+    UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
         .bucket(S3Constants.BUCKET_NAME)
         .key(destinationFileName)
         .uploadId(uploadId)
-        .multipartUpload(CompletedMultipartUpload.builder()
-            .parts(completedParts)
-            .build())
+        .partNumber(partNumber)
         .build();
     
-    s3Client.completeMultipartUpload(completeMultipartUploadRequest);
-    logger.info("File uploaded to S3: {}", destinationFileName);
+    // Upload part
+    String etag = s3Client.uploadPart(uploadPartRequest, requestBody(imageBytes, offset, length)).eTag();
+    return CompletedPart.builder().partNumber(partNumber).eTag(etag).build();
   }
   
   /**
-   * method to download file from S3 and return as byte array.
-   * For this specific implementation, the file is downloaded into buffer and then returned.
-   * This can cause memory issues if the file is too large or if there are too many concurrent requests.
-   * The memory issues can be solved creating a FileOutputStream of a file location
-   * and writing the file in chunks. Doing so will consume less memory, but more CPU.
+   * Waits for all the parts to be done and rethrows the failure of the first failed part.
+   */
+  private void waitForParts(List<CompletableFuture<CompletedPart>> parts) {
+    try {
+      CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+  
+  /**
+   * Uploads a stream to S3 without holding the whole file in memory, under a key derived from its content.
+   * The stream is read into a buffer of PART_SIZE bytes from the PartBufferPool. A file that fits in one buffer is
+   * uploaded with a single PutObject, a larger one is uploaded part by part with the Multipart upload, reusing the
+   * same buffer for every part. So an upload holds a single part in memory irrespective of the size of the file.
+   * The SHA-256 of the file is computed and its media type is detected from the first bytes while it's read, the
+   * media type is checked before anything is sent to S3.
+   * The destination is asked from destinationForContent once the file is hashed, and nothing is stored if it returns
+   * null because the content is already stored. A file that fits in one buffer is hashed before it's sent, so a known
+   * one isn't sent at all. A larger one is uploaded to stagingFileName while it's hashed, and then copied to its
+   * destination within S3 or dropped.
    *
-   * @param fileType FileType
-   * @return byte[] of the image
-   * @throws RuntimeException Exception
+   * @param inputStream           The stream to upload. It isn't closed.
+   * @param stagingFileName       Where a file larger than a part is uploaded before its hash is known
+   * @param isAcceptedContentType Check of the detected media type
+   * @param destinationForContent The destination of the file given its size, SHA-256 and media type, or null to
+   *                              not store it
+   * @return UploadResult with the size, SHA-256 and media type of the file
+   * @throws IOException         If the stream can't be read
+   * @throws BadRequestException If the media type isn't accepted
    */
   @Override
-  public byte[] downloadFile(FileType fileType) throws RuntimeException {
-    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-        .bucket(fileType.getBucketName())
-        .key(fileType.getLocation())
-        .build();
-    try (ResponseInputStream<GetObjectResponse> s3ObjectInputStream = s3Client.getObject(getObjectRequest);
-         ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+  public UploadResult uploadStream(InputStream inputStream, String stagingFileName,
+                                   Predicate<String> isAcceptedContentType,
+                                   Function<UploadResult, String> destinationForContent) throws IOException {
+    logger.info("Streaming file to S3: {}", stagingFileName);
+    MessageDigest digest = newSha256Digest();
+    byte[] buffer = partBufferPool.acquire();
+    String uploadId = null;
+    String contentType;
+    long size;
+    try {
+      int bytesRead = inputStream.readNBytes(buffer, 0, buffer.length);
+      contentType = tika.detect(new ByteArrayInputStream(buffer, 0, Math.min(bytesRead, SNIFF_LENGTH)));
+      if (!isAcceptedContentType.test(contentType)) {
+        throw new BadRequestException("Unsupported file content " + contentType);
+      }
+      size = bytesRead;
+      digest.update(buffer, 0, bytesRead);
       
-      byte[] dataChunk = new byte[ImageConstants.PART_SIZE];
-      int bytesRead;
-      while ((bytesRead = s3ObjectInputStream.read(dataChunk)) != -1) {
-        buffer.write(dataChunk, 0, bytesRead);
+      // If the file fits in a single part, upload it directly, unless it's already stored.
+      if (bytesRead < buffer.length) {
+        UploadResult uploadResult = new UploadResult(size, HexFormat.of().formatHex(digest.digest()), contentType);
+        String contentFileName = destinationForContent.apply(uploadResult);
+        if (contentFileName == null) {
+          logger.info("File content {} is already stored in S3, skipping the upload", uploadResult.getSha256());
+          return uploadResult;
+        }
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+            .bucket(S3Constants.BUCKET_NAME)
+            .key(contentFileName)
+            .contentType(contentType)
+            .build();
+        s3Client.putObject(putObjectRequest, requestBody(buffer, 0, bytesRead));
+        logger.info("File uploaded to S3: {}", contentFileName);
+        return uploadResult;
+      }
+      
+      uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+          .bucket(S3Constants.BUCKET_NAME)
+          .key(stagingFileName)
+          .contentType(contentType)
+          .build()).uploadId();
+      List<CompletedPart> completedParts = new ArrayList<>();
+      int partNumber = 1;
+      while (bytesRead > 0) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+            .bucket(S3Constants.BUCKET_NAME)
+            .key(stagingFileName)
+            .uploadId(uploadId)
+            .partNumber(partNumber)
+            .build();
+        // The part is sent before the next one is read into the same buffer.
+        String etag = s3Client.uploadPart(uploadPartRequest, requestBody(buffer, 0, bytesRead)).eTag();
+        completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(etag).build());
+        partNumber++;
+        
+        bytesRead = inputStream.readNBytes(buffer, 0, buffer.length);
+        digest.update(buffer, 0, bytesRead);
+        size += bytesRead;
+      }
+      s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+          .bucket(S3Constants.BUCKET_NAME)
+          .key(stagingFileName)
+          .uploadId(uploadId)
+          .multipartUpload(CompletedMultipartUpload.builder()
+              .parts(completedParts)
+              .build())
+          .build());
+      uploadId = null;
+      logger.info("File uploaded to S3 in {} parts: {}", completedParts.size(), stagingFileName);
+    } finally {
+      partBufferPool.release(buffer);
+      if (uploadId != null) {
+        abortMultipartUpload(stagingFileName, uploadId);
       }
-      return buffer.toByteArray();
+    }
+    UploadResult uploadResult = new UploadResult(size, HexFormat.of().formatHex(digest.digest()), contentType);
+    moveToContentLocation(stagingFileName, uploadResult, destinationForContent);
+    return uploadResult;
+  }
+  
+  /**
+   * Copies a staged file to the destination of its content within S3, or drops it if destinationForContent returns
+   * null because the content is already stored. The staged file is deleted either way.
+   */
+  private void moveToContentLocation(String stagingFileName, UploadResult uploadResult,
+                                     Function<UploadResult, String> destinationForContent) {
+    try {
+      String contentFileName = destinationForContent.apply(uploadResult);
+      if (contentFileName == null) {
+        logger.info("File content {} is already stored in S3, dropping the upload", uploadResult.getSha256());
+      } else {
+        s3Client.copyObject(CopyObjectRequest.builder()
+            .sourceBucket(S3Constants.BUCKET_NAME)
+            .sourceKey(stagingFileName)
+            .destinationBucket(S3Constants.BUCKET_NAME)
+            .destinationKey(contentFileName)
+            .build());
+        logger.info("File copied in S3 from {} to {}", stagingFileName, contentFileName);
+      }
+    } finally {
+      deleteFiles(S3Constants.BUCKET_NAME, List.of(stagingFileName));
+    }
+  }
+  
+  /**
+   * Signs a PUT with which a client uploads a file to S3 directly, to stagingFileName. The size and the SHA-256 of the
+   * file are signed, so S3 refuses a file with another size or content.
+   *
+   * @param stagingFileName Where the file is uploaded, until completeUpload moves it
+   * @param size            The size of the file in bytes
+   * @param sha256          Hex encoded SHA-256 of the file
+   * @param expiration      How long the PUT can be sent for
+   * @return The presigned PUT
+   */
+  @Override
+  public PresignedUpload presignUpload(String stagingFileName, long size, String sha256, Duration expiration) {
+    PresignedPutObjectRequest presignedRequest = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+        .signatureDuration(expiration)
+        .putObjectRequest(PutObjectRequest.builder()
+            .bucket(S3Constants.BUCKET_NAME)
+            .key(stagingFileName)
+            .contentLength(size)
+            .checksumSHA256(toBase64(sha256))
+            .build())
+        .build());
+    Map<String, String> headers = new LinkedHashMap<>();
+    presignedRequest.signedHeaders().forEach((name, values) -> {
+      // The client sets the Host header from the URL.
+      if (!"host".equalsIgnoreCase(name)) {
+        headers.put(name, String.join(",", values));
+      }
+    });
+    return new PresignedUpload(presignedRequest.url().toString(), presignedRequest.httpRequest().method().name(),
+        headers, presignedRequest.expiration());
+  }
+  
+  /**
+   * Completes a file uploaded by a client to stagingFileName with a PUT from presignUpload, like uploadStream
+   * completes a streamed file. The size and SHA-256 of the file are checked against the ones S3 computed, and its
+   * media type is detected from its first bytes, read with a ranged GET, so the file isn't downloaded. The file is
+   * then copied to its destination within S3 or dropped. A file that fails the checks is deleted.
+   *
+   * @param stagingFileName       Where the file was uploaded
+   * @param size                  The declared size of the file in bytes
+   * @param sha256                The declared hex encoded SHA-256 of the file
+   * @param isAcceptedContentType Check of the detected media type
+   * @param destinationForContent The destination of the file given its size, SHA-256 and media type, or null to
+   *                              not store it
+   * @return UploadResult with the size, SHA-256 and media type of the file
+   * @throws BadRequestException If the file wasn't uploaded, doesn't match its size or SHA-256, or if its media type
+   *                             isn't accepted
+   */
+  @Override
+  public UploadResult completeUpload(String stagingFileName, long size, String sha256,
+                                     Predicate<String> isAcceptedContentType,
+                                     Function<UploadResult, String> destinationForContent) {
+    HeadObjectResponse stagedFile;
+    try {
+      stagedFile = s3Client.headObject(HeadObjectRequest.builder()
+          .bucket(S3Constants.BUCKET_NAME)
+          .key(stagingFileName)
+          .checksumMode(ChecksumMode.ENABLED)
+          .build());
+    } catch (NoSuchKeyException e) {
+      throw new BadRequestException("The file wasn't uploaded to " + stagingFileName);
+    }
+    String contentType;
+    try {
+      if (stagedFile.contentLength() != size || !toBase64(sha256).equals(stagedFile.checksumSHA256())) {
+        throw new BadRequestException("The uploaded file doesn't match its declared size and SHA-256");
+      }
+      contentType = tika.detect(readStart(stagingFileName));
+      if (!isAcceptedContentType.test(contentType)) {
+        throw new BadRequestException("Unsupported file content " + contentType);
+      }
+    } catch (BadRequestException e) {
+      deleteFiles(S3Constants.BUCKET_NAME, List.of(stagingFileName));
+      throw e;
+    }
+    UploadResult uploadResult = new UploadResult(size, sha256, contentType);
+    moveToContentLocation(stagingFileName, uploadResult, destinationForContent);
+    return uploadResult;
+  }
+  
+  private byte[] readStart(String key) {
+    try (InputStream inputStream = s3Client.getObject(GetObjectRequest.builder()
+        .bucket(S3Constants.BUCKET_NAME)
+        .key(key)
+        .range("bytes=0-" + (SNIFF_LENGTH - 1))
+        .build())) {
+      return inputStream.readAllBytes();
     } catch (IOException e) {
-      throw new RuntimeException("Failed to download image from S3 for file : " + fileType.getLocation(), e);
+      throw new ContentServerException("Error while reading " + key + " from S3", e);
+    }
+  }
+  
+  private static String toBase64(String hex) {
+    return Base64.getEncoder().encodeToString(HexFormat.of().parseHex(hex));
+  }
+  
+  /**
+   * Deletes files from S3, and their copies from the local disk cache. A failure is logged rather than thrown, the files
+   * are then left behind in S3.
+   *
+   * @param bucketName The bucket of the files
+   * @param keys       The keys of the files
+   */
+  @Override
+  public void deleteFiles(String bucketName, List<String> keys) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    keys.forEach(key -> s3DiskCache.remove(getCacheKey(bucketName, key)));
+    try {
+      DeleteObjectsResponse response = s3Client.deleteObjects(DeleteObjectsRequest.builder()
+          .bucket(bucketName)
+          .delete(Delete.builder()
+              .objects(keys.stream().map(key -> ObjectIdentifier.builder().key(key).build()).toList())
+              .quiet(true)
+              .build())
+          .build());
+      if (response.hasErrors()) {
+        response.errors().forEach(error ->
+            logger.error("Error while deleting file {} from S3: {}", error.key(), error.message()));
+      }
+    } catch (Exception e) {
+      logger.error("Error while deleting files {} from S3", keys, e);
+    }
+  }
+  
+  /**
+   * Deletes all the files under a prefix from S3. The files are listed a page, i.e. up to 1000 keys, at a time, and each
+   * page is deleted with a single request. A failure is logged rather than thrown.
+   *
+   * @param bucketName The bucket of the files
+   * @param prefix     The prefix of the keys of the files
+   */
+  @Override
+  public void deleteFilesWithPrefix(String bucketName, String prefix) {
+    try {
+      s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+              .bucket(bucketName)
+              .prefix(prefix)
+              .build())
+          .forEach(page -> deleteFiles(bucketName, page.contents().stream().map(S3Object::key).toList()));
+    } catch (Exception e) {
+      logger.error("Error while deleting files with prefix {} from S3", prefix, e);
+    }
+  }
+  
+  /**
+   * Creates a request body that reads length bytes of the buffer from offset without copying them.
+   * RequestBody.fromBytes and fromByteBuffer copy the bytes, a content provider over a view of the buffer doesn't,
+   * and it opens a new view for each retry of the request.
+   */
+  private RequestBody requestBody(byte[] buffer, int offset, int length) {
+    return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buffer, offset, length), length,
+        MediaType.APPLICATION_OCTET_STREAM_VALUE);
+  }
+  
+  private void abortMultipartUpload(String destinationFileName, String uploadId) {
+    try {
+      s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+          .bucket(S3Constants.BUCKET_NAME)
+          .key(destinationFileName)
+          .uploadId(uploadId)
+          .build());
+      logger.info("Multipart upload aborted for file: {}", destinationFileName);
+    } catch (Exception e) {
+      logger.error("Error while aborting multipart upload for file: " + destinationFileName, e);
+    }
+  }
+  
+  private MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new ContentServerException("SHA-256 isn't supported by the JVM", e);
+    }
+  }
+  
+  /**
+   * Opens a stream on a file in S3. The file is read from S3 as the stream is read, the caller must close it.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @return InputStream of the file
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  @Override
+  public InputStream downloadFileAsStream(String bucketName, String key) {
+    try {
+      return s3Client.getObject(GetObjectRequest.builder()
+          .bucket(bucketName)
+          .key(key)
+          .build());
+    } catch (S3Exception e) {
+      throw notFoundOr(e, key);
     }
   }
+  
+  /**
+   * Opens a file, or a range of it, to be streamed to a client.
+   * The file is served from the local disk cache if it was downloaded before. Otherwise it's streamed from S3, a
+   * range with a ranged GET, so the file is never buffered in memory. A whole file streamed from S3 is added to the
+   * cache as it's read. The files are stored under the hash of their content or of the content they're derived
+   * from, so a cached copy doesn't go stale. A file deleted by another instance stays in this cache until it's
+   * evicted, it isn't served meanwhile as the image it belongs to is gone.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param range      The requested range, or null for the whole file
+   * @return The content of the file, to be closed once it's read
+   * @throws RangeNotSatisfiableException If the range starts after the end of the file
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  @Override
+  public FileContent openFile(String bucketName, String key, HttpRange range) {
+    String cacheKey = getCacheKey(bucketName, key);
+    FileContent cachedFile = s3DiskCache.open(cacheKey, range);
+    if (cachedFile != null) {
+      return cachedFile;
+    }
+    GetObjectRequest.Builder getObjectRequest = GetObjectRequest.builder()
+        .bucket(bucketName)
+        .key(key);
+    if (range != null) {
+      getObjectRequest.range(HttpRange.toString(List.of(range)));
+    }
+    ResponseInputStream<GetObjectResponse> s3ObjectInputStream;
+    try {
+      s3ObjectInputStream = s3Client.getObject(getObjectRequest.build());
+    } catch (S3Exception e) {
+      if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+        throw new RangeNotSatisfiableException("Range " + range + " is outside of the file " + key, -1);
+      }
+      throw notFoundOr(e, key);
+    }
+    GetObjectResponse response = s3ObjectInputStream.response();
+    long contentLength = response.contentLength();
+    if (response.contentRange() == null) {
+      return new FileContent(s3DiskCache.cacheWhileReading(cacheKey, s3ObjectInputStream, contentLength), 0,
+          contentLength - 1, contentLength, false);
+    }
+    // Content-Range: bytes <start>-<end>/<total>
+    String[] contentRange = response.contentRange().substring("bytes ".length()).split("[-/]");
+    return new FileContent(s3ObjectInputStream, Long.parseLong(contentRange[0]), Long.parseLong(contentRange[1]),
+        Long.parseLong(contentRange[2]), true);
+  }
+  
+  /**
+   * Gets the length of a file, from the local disk cache if the file is cached, otherwise with a HEAD request to S3.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @return The length of the file in bytes
+   * @throws StorageFileNotFoundException If the file doesn't exist
+   */
+  @Override
+  public long getFileLength(String bucketName, String key) {
+    long cachedLength = s3DiskCache.getLength(getCacheKey(bucketName, key));
+    if (cachedLength >= 0) {
+      return cachedLength;
+    }
+    try {
+      return s3Client.headObject(HeadObjectRequest.builder()
+          .bucket(bucketName)
+          .key(key)
+          .build())
+          .contentLength();
+    } catch (S3Exception e) {
+      throw notFoundOr(e, key);
+    }
+  }
+  
+  /**
+   * Checks whether a file exists, from the local disk cache if the file is cached, otherwise with a HEAD request to
+   * S3.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @return Whether the file exists
+   */
+  @Override
+  public boolean exists(String bucketName, String key) {
+    try {
+      getFileLength(bucketName, key);
+      return true;
+    } catch (StorageFileNotFoundException e) {
+      return false;
+    }
+  }
+  
+  /**
+   * Signs a URL to download a file from S3 directly. The file is served by S3 with the IMAGE_CACHE_CONTROL policy and
+   * as a JPEG, like the content endpoint serves it.
+   *
+   * @param bucketName The bucket of the file
+   * @param key        The key of the file
+   * @param expiration How long the URL is valid for, 7 days at most
+   * @return The presigned URL
+   */
+  @Override
+  public String getPresignedUrl(String bucketName, String key, Duration expiration) {
+    return s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
+            .signatureDuration(expiration)
+            .getObjectRequest(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .responseCacheControl(ImageConstants.IMAGE_CACHE_CONTROL)
+                .responseContentType(MediaType.IMAGE_JPEG_VALUE)
+                .build())
+            .build())
+        .url()
+        .toString();
+  }
+  
+  /**
+   * Translates the 404 of a missing file to the StorageFileNotFoundException of the storage interface.
+   */
+  private static RuntimeException notFoundOr(S3Exception e, String key) {
+    if (e instanceof NoSuchKeyException || e.statusCode() == HttpStatus.NOT_FOUND.value()) {
+      return new StorageFileNotFoundException("File not found in S3: " + key, e);
+    }
+    return e;
+  }
+  
+  private String getCacheKey(String bucketName, String key) {
+    return bucketName + "/" + key;
+  }
 }
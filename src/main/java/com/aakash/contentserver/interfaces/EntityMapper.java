@@ -0,0 +1,29 @@
+package com.aakash.contentserver.interfaces;
+
+import com.aakash.contentserver.dto.CommentDTO;
+import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.Post;
+
+import java.util.UUID;
+
+/**
+ * Interface for EntityMapperImpl.
+ */
+public interface EntityMapper {
+  
+  PostDTO toPostDTO(Post post);
+  
+  PostDTO copyPostDTO(PostDTO postDTO);
+  
+  CommentDTO toCommentDTO(Comment comment);
+  
+  CommentDTO toCommentDTO(CommentSnapshot commentSnapshot, UUID postId);
+  
+  CommentSnapshot toCommentSnapshot(Comment comment);
+  
+  ImageDTO toImageDTO(Image image);
+}
@@ -19,6 +19,16 @@ public interface ImageFunctions {
 
   ByteArrayOutputStream resizeImage(File filePath, int width, int height, String outputFormat) throws IOException;
 
+  ByteArrayOutputStream resizeImage(InputStream inputStream, int width, int height, String outputFormat) throws IOException;
+
+  BufferedImage readImage(InputStream inputStream, int minWidth, int minHeight) throws IOException;
+
+  BufferedImage readImage(InputStream inputStream, int minWidth, int minHeight, boolean cover) throws IOException;
+
+  ByteArrayOutputStream resizeImage(BufferedImage image, int width, int height, float quality, String outputFormat) throws IOException;
+
+  ByteArrayOutputStream cropImage(BufferedImage image, int width, int height, float quality, String outputFormat) throws IOException;
+
   ByteArrayOutputStream compressImage(File filePath, float quality, String outputFormat) throws IOException;
 
   ByteArrayOutputStream scaleImage(File filePath, double scaleFactor, String outputFormat) throws IOException;
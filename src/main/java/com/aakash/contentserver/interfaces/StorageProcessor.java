@@ -0,0 +1,46 @@
+package com.aakash.contentserver.interfaces;
+
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.PresignedUpload;
+import com.aakash.contentserver.dto.UploadResult;
+import org.springframework.http.HttpRange;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Interface for the storage of the files: S3ProcessorImpl, or LocalStorageProcessorImpl with the local profile.
+ * The files are addressed by bucket and key whatever the storage, and a missing file raises
+ * StorageFileNotFoundException. Both storages sign URLs with which the clients download and upload the files directly,
+ * S3 presigned URLs, or URLs of the LocalStorageController signed by the server.
+ */
+public interface StorageProcessor {
+  
+  void uploadFileAsByteStream(byte[] imageBytes, String destinationFileName);
+  
+  UploadResult uploadStream(InputStream inputStream, String stagingFileName, Predicate<String> isAcceptedContentType,
+                            Function<UploadResult, String> destinationForContent) throws IOException;
+  
+  PresignedUpload presignUpload(String stagingFileName, long size, String sha256, Duration expiration);
+  
+  UploadResult completeUpload(String stagingFileName, long size, String sha256, Predicate<String> isAcceptedContentType,
+                              Function<UploadResult, String> destinationForContent);
+  
+  void deleteFiles(String bucketName, List<String> keys);
+  
+  void deleteFilesWithPrefix(String bucketName, String prefix);
+  
+  FileContent openFile(String bucketName, String key, HttpRange range);
+  
+  long getFileLength(String bucketName, String key);
+  
+  boolean exists(String bucketName, String key);
+  
+  String getPresignedUrl(String bucketName, String key, Duration expiration);
+  
+  InputStream downloadFileAsStream(String bucketName, String key);
+}
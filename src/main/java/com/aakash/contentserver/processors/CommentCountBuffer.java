@@ -0,0 +1,469 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import com.aakash.contentserver.repositories.CommentsRepository;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.aakash.contentserver.constants.CommonConstants.COMMENT_COUNT_FLUSH_INTERVAL_MS;
+import static com.aakash.contentserver.constants.CommonConstants.COMMENT_COUNT_FLUSH_THRESHOLD;
+import static com.aakash.contentserver.constants.CommonConstants.COMMENT_COUNT_MAX_PENDING_POSTS;
+import static com.aakash.contentserver.constants.CommonConstants.NUMBER_OF_COMMENTS_PER_POST;
+
+/**
+ * Write behind buffer for the comment changes of the posts, i.e. the comments count and the embedded latest comments.
+ * Changes are merged per post in memory and flushed periodically, or once enough posts have pending changes,
+ * as one unordered bulk write with a single update per post. A busy post therefore costs one update per flush
+ * instead of one update per comment.
+ * The pending changes of a post are merged and removed atomically by the ConcurrentHashMap, so no change is lost
+ * or applied twice between a record and a flush.
+ * The flushes run on the commentCountScheduler, a lane of their own, so they don't compete with the other scheduled
+ * jobs.
+ * The buffer is bounded to COMMENT_COUNT_MAX_PENDING_POSTS posts, beyond which the changes of other posts are written
+ * right away.
+ */
+@Component
+public class CommentCountBuffer {
+  
+  private final ConcurrentHashMap<UUID, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+  // The changes being written to the db, kept visible to getPendingDelta until the write returns.
+  private final ConcurrentHashMap<UUID, PendingUpdate> inFlightUpdates = new ConcurrentHashMap<>();
+  private final ReentrantLock flushLock = new ReentrantLock();
+  // Held while changes are written to the db, so a read of the counts can tell whether a write overlapped it.
+  private final StampedLock writeLock = new StampedLock();
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  
+  private final MongoTemplate mongoTemplate;
+  private final CommentsRepository commentsRepository;
+  private final EntityMapper entityMapper;
+  private final TaskScheduler taskScheduler;
+  private final Logger logger;
+  
+  private final Timer flushTimer;
+  private final DistributionSummary batchSize;
+  private final Counter droppedDeltas;
+  
+  public CommentCountBuffer(MongoTemplate mongoTemplate, CommentsRepository commentsRepository,
+                            EntityMapper entityMapper,
+                            @Qualifier("commentCountScheduler") TaskScheduler taskScheduler,
+                            MeterRegistry meterRegistry) {
+    this.mongoTemplate = mongoTemplate;
+    this.commentsRepository = commentsRepository;
+    this.entityMapper = entityMapper;
+    this.taskScheduler = taskScheduler;
+    this.logger = LoggerFactory.getLogger(CommentCountBuffer.class);
+    this.flushTimer = Timer.builder("comments.count.flush.latency")
+        .description("Time taken to flush the buffered comment changes to the db")
+        .register(meterRegistry);
+    this.batchSize = DistributionSummary.builder("comments.count.flush.batch.size")
+        .description("Number of posts updated by a flush")
+        .register(meterRegistry);
+    this.droppedDeltas = Counter.builder("comments.count.flush.dropped")
+        .description("Comments count changes dropped because they couldn't be written to the db")
+        .register(meterRegistry);
+    meterRegistry.gaugeMapSize("comments.count.pending", List.of(), pendingUpdates);
+  }
+  
+  /**
+   * Schedules the periodic flush of the pending changes.
+   */
+  @PostConstruct
+  public void scheduleFlush() {
+    taskScheduler.scheduleWithFixedDelay(this::flush, Duration.ofMillis(COMMENT_COUNT_FLUSH_INTERVAL_MS));
+  }
+  
+  /**
+   * Records a comment added to a post.
+   *
+   * @param postId          The id of the post.
+   * @param commentSnapshot The snapshot of the added comment.
+   */
+  public void addComment(UUID postId, CommentSnapshot commentSnapshot) {
+    PendingUpdate change = new PendingUpdate();
+    change.addComment(commentSnapshot);
+    record(postId, change);
+  }
+  
+  /**
+   * Records a comment deleted from a post.
+   *
+   * @param postId    The id of the post.
+   * @param commentId The id of the deleted comment.
+   */
+  public void removeComment(UUID postId, UUID commentId) {
+    PendingUpdate change = new PendingUpdate();
+    change.removeComment(commentId);
+    record(postId, change);
+  }
+  
+  private void record(UUID postId, PendingUpdate change) {
+    if (pendingUpdates.size() >= COMMENT_COUNT_MAX_PENDING_POSTS && !pendingUpdates.containsKey(postId)) {
+      // The buffer is full, so the change is written right away. It slows the callers down until the flushes catch up.
+      writeNow(postId, change);
+      return;
+    }
+    pendingUpdates.merge(postId, change, (pendingUpdate, newerChange) -> {
+      pendingUpdate.merge(newerChange);
+      return pendingUpdate;
+    });
+    triggerFlushIfFull();
+  }
+  
+  private void triggerFlushIfFull() {
+    // Only one triggered flush is scheduled at a time, so a burst of changes doesn't flood the scheduler.
+    if (pendingUpdates.size() >= COMMENT_COUNT_FLUSH_THRESHOLD && !flushLock.isLocked()
+        && flushRequested.compareAndSet(false, true)) {
+      taskScheduler.schedule(() -> {
+        flushRequested.set(false);
+        flush();
+      }, Instant.now());
+    }
+  }
+  
+  /**
+   * Flushes the pending changes. Only one flush runs at a time, a flush triggered while another one is running is
+   * skipped as the running flush or the next scheduled one picks up the changes.
+   */
+  public void flush() {
+    if (!flushLock.tryLock()) {
+      return;
+    }
+    try {
+      while (!pendingUpdates.isEmpty()) {
+        flushTimer.record(this::flushPendingUpdates);
+        if (pendingUpdates.size() < COMMENT_COUNT_FLUSH_THRESHOLD) {
+          break;
+        }
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+  
+  /**
+   * Starts a read of comments counts from the db that is to be combined with the pending changes, like
+   * StampedLock.tryOptimisticRead. The db is read, then the pending changes, then the stamp is validated.
+   *
+   * @return The stamp of the read, 0 while changes are being written to the db.
+   */
+  public long startConsistentRead() {
+    return writeLock.tryOptimisticRead();
+  }
+  
+  /**
+   * @param stamp The stamp returned by startConsistentRead.
+   * @return true if no changes were written to the db since the read started. The counts read from the db plus the
+   * pending changes are then the counts of this instance, otherwise the read has to be retried.
+   */
+  public boolean validateConsistentRead(long stamp) {
+    return writeLock.validate(stamp);
+  }
+  
+  /**
+   * @param postId The id of the post.
+   * @return The change of the comments count of the post that hasn't been written to the db yet, including the
+   * change of a write in flight.
+   */
+  public long getPendingDelta(UUID postId) {
+    long[] pendingDelta = new long[1];
+    // The pending change of a post is moved to the in flight changes inside the compute of the post, so it's counted
+    // exactly once.
+    pendingUpdates.compute(postId, (id, pendingUpdate) -> {
+      PendingUpdate inFlightUpdate = inFlightUpdates.get(id);
+      pendingDelta[0] = (pendingUpdate == null ? 0 : pendingUpdate.delta)
+          + (inFlightUpdate == null ? 0 : inFlightUpdate.delta);
+      return pendingUpdate;
+    });
+    return pendingDelta[0];
+  }
+  
+  /**
+   * @return The changes of the comments counts that haven't been written to the db yet, by post id, including the
+   * changes of a write in flight.
+   */
+  public Map<UUID, Long> getPendingDeltas() {
+    Set<UUID> postIds = new HashSet<>(pendingUpdates.keySet());
+    postIds.addAll(inFlightUpdates.keySet());
+    Map<UUID, Long> pendingDeltas = new HashMap<>();
+    for (UUID postId : postIds) {
+      long pendingDelta = getPendingDelta(postId);
+      if (pendingDelta != 0) {
+        pendingDeltas.put(postId, pendingDelta);
+      }
+    }
+    return pendingDeltas;
+  }
+  
+  /**
+   * Writes the changes left in the buffer before the application shuts down.
+   */
+  @PreDestroy
+  public void flushOnShutdown() {
+    flushLock.lock();
+    try {
+      flushPendingUpdates();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+  
+  private void flushPendingUpdates() {
+    Set<UUID> postsWithRemovedComments;
+    long stamp = writeLock.writeLock();
+    try {
+      for (UUID postId : pendingUpdates.keySet()) {
+        pendingUpdates.computeIfPresent(postId, (id, pendingUpdate) -> {
+          if (!pendingUpdate.isEmpty()) {
+            inFlightUpdates.put(id, pendingUpdate);
+          }
+          return null;
+        });
+      }
+      postsWithRemovedComments = writeInFlightUpdates();
+    } finally {
+      writeLock.unlockWrite(stamp);
+    }
+    refillLatestComments(postsWithRemovedComments);
+  }
+  
+  private void writeNow(UUID postId, PendingUpdate change) {
+    Set<UUID> postsWithRemovedComments;
+    long stamp = writeLock.writeLock();
+    try {
+      inFlightUpdates.put(postId, change);
+      postsWithRemovedComments = writeInFlightUpdates();
+    } finally {
+      writeLock.unlockWrite(stamp);
+    }
+    refillLatestComments(postsWithRemovedComments);
+  }
+  
+  /**
+   * Writes the in flight changes as one unordered bulk write. Changes that couldn't be written are put back in the
+   * buffer. It's called with the write lock held.
+   *
+   * @return The ids of the posts from which comments were removed.
+   */
+  private Set<UUID> writeInFlightUpdates() {
+    if (inFlightUpdates.isEmpty()) {
+      return Set.of();
+    }
+    try {
+      return writeUpdates(inFlightUpdates);
+    } finally {
+      inFlightUpdates.clear();
+    }
+  }
+  
+  private Set<UUID> writeUpdates(Map<UUID, PendingUpdate> batch) {
+    BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Post.class);
+    // The post and the part of its changes carried by each operation, by index of the operation.
+    List<Map.Entry<UUID, PendingUpdate>> changesByOperation = new ArrayList<>();
+    Set<UUID> postsWithRemovedComments = new HashSet<>();
+    batch.forEach((postId, pendingUpdate) -> {
+      Query query = new Query(Criteria.where("id").is(postId));
+      Update update = new Update();
+      if (pendingUpdate.delta != 0) {
+        update.inc("commentsCount", pendingUpdate.delta);
+      }
+      PendingUpdate updateChanges = pendingUpdate;
+      if (!pendingUpdate.removedCommentIds.isEmpty()) {
+        postsWithRemovedComments.add(postId);
+        Update pullUpdate = new Update()
+            .pull("latestComments", Query.query(Criteria.where("id").in(pendingUpdate.removedCommentIds)));
+        // $push and $pull can't change the same array in one update.
+        if (pendingUpdate.addedComments.isEmpty()) {
+          if (pendingUpdate.delta != 0) {
+            pullUpdate.inc("commentsCount", pendingUpdate.delta);
+          }
+          update = pullUpdate;
+        } else {
+          // The pull carries the removed comments, the other update the added comments and the count, so either can
+          // be retried alone if the other one was applied.
+          bulkOperations.updateOne(query, pullUpdate);
+          changesByOperation.add(Map.entry(postId, pendingUpdate.removals()));
+          updateChanges = pendingUpdate.additions();
+        }
+      }
+      if (!pendingUpdate.addedComments.isEmpty()) {
+        update.push("latestComments")
+            .sort(Sort.by(Sort.Direction.DESC, "createdAt"))
+            .slice(NUMBER_OF_COMMENTS_PER_POST)
+            .each(pendingUpdate.addedComments.toArray());
+      }
+      if (!update.getUpdateObject().isEmpty()) {
+        bulkOperations.updateOne(query, update);
+        changesByOperation.add(Map.entry(postId, updateChanges));
+      }
+    });
+    
+    try {
+      bulkOperations.execute();
+    } catch (BulkOperationException e) {
+      // The failed operations weren't applied, so their changes are put back in the buffer to be retried. The other
+      // operations were applied, including the other operation of a post whose changes took two.
+      logger.error("Error while flushing comment changes for {} operations, retrying in the next flush",
+          e.getErrors().size(), e);
+      for (BulkWriteError error : e.getErrors()) {
+        Map.Entry<UUID, PendingUpdate> failedChanges = changesByOperation.get(error.getIndex());
+        requeue(failedChanges.getKey(), failedChanges.getValue());
+        if (!failedChanges.getValue().removedCommentIds.isEmpty()) {
+          postsWithRemovedComments.remove(failedChanges.getKey());
+        }
+      }
+    } catch (Exception e) {
+      // A network error or a primary step down. The driver retries the write once as a retryable write, so a write
+      // that still failed wasn't applied, and the changes are retried rather than left out of step with the comments.
+      logger.error("Error while flushing comment changes for {} posts, retrying in the next flush",
+          batch.size(), e);
+      changesByOperation.forEach(changes -> requeue(changes.getKey(), changes.getValue()));
+      return Set.of();
+    }
+    batchSize.record(batch.size());
+    return postsWithRemovedComments;
+  }
+  
+  private void requeue(UUID postId, PendingUpdate failedUpdate) {
+    if (pendingUpdates.size() >= COMMENT_COUNT_MAX_PENDING_POSTS && !pendingUpdates.containsKey(postId)) {
+      droppedDeltas.increment(Math.abs(failedUpdate.delta));
+      return;
+    }
+    pendingUpdates.merge(postId, failedUpdate, (pendingUpdate, failed) -> {
+      failed.merge(pendingUpdate);
+      return failed;
+    });
+  }
+  
+  /**
+   * Refills the embedded latest comments of the posts that lost an embedded comment and have older comments
+   * that should take its place.
+   * The list is only replaced if it wasn't changed since it was read, so a comment pushed in the meantime isn't lost.
+   *
+   * @param postIds The ids of the posts from which comments were removed.
+   */
+  private void refillLatestComments(Set<UUID> postIds) {
+    if (postIds.isEmpty()) {
+      return;
+    }
+    Query postsQuery = new Query(Criteria.where("id").in(postIds));
+    postsQuery.fields().include("commentsCount", "latestComments");
+    for (Post post : mongoTemplate.find(postsQuery, Post.class)) {
+      int embeddedComments = post.getLatestComments() == null ? 0 : post.getLatestComments().size();
+      if (embeddedComments >= Math.min(NUMBER_OF_COMMENTS_PER_POST, post.getCommentsCount())) {
+        continue;
+      }
+      List<CommentSnapshot> latestComments = commentsRepository
+          .findByPostIdOrderByCreatedAtDesc(post.getId(), Pageable.ofSize(NUMBER_OF_COMMENTS_PER_POST))
+          .orElseGet(ArrayList::new)
+          .stream()
+          .map(entityMapper::toCommentSnapshot)
+          .toList();
+      Criteria criteria = Criteria.where("id").is(post.getId());
+      if (post.getLatestComments() != null) {
+        criteria = criteria.and("latestComments").is(post.getLatestComments());
+      }
+      mongoTemplate.updateFirst(new Query(criteria), new Update().set("latestComments", latestComments), Post.class);
+    }
+  }
+  
+  /**
+   * The changes of a post that haven't been written to the db yet.
+   * Instances are only accessed inside the compute functions of the map, which are atomic per post.
+   */
+  private static final class PendingUpdate {
+    private static final Comparator<CommentSnapshot> NEWEST_FIRST =
+        Comparator.comparing(CommentSnapshot::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder()));
+    
+    private long delta;
+    private final List<CommentSnapshot> addedComments = new ArrayList<>();
+    private final Set<UUID> removedCommentIds = new HashSet<>();
+    
+    private void addComment(CommentSnapshot commentSnapshot) {
+      delta++;
+      addedComments.add(commentSnapshot);
+      // Only the newest comments end up in the embedded list, so there's no need to keep the older ones.
+      if (addedComments.size() > NUMBER_OF_COMMENTS_PER_POST) {
+        addedComments.sort(NEWEST_FIRST);
+        addedComments.subList(NUMBER_OF_COMMENTS_PER_POST, addedComments.size()).clear();
+      }
+    }
+    
+    private void removeComment(UUID commentId) {
+      delta--;
+      // A comment added and removed within the same flush never reaches the embedded list.
+      if (!addedComments.removeIf(commentSnapshot -> commentId.equals(commentSnapshot.getId()))) {
+        removedCommentIds.add(commentId);
+      }
+    }
+    
+    private void merge(PendingUpdate newerUpdate) {
+      delta += newerUpdate.delta;
+      newerUpdate.addedComments.forEach(commentSnapshot -> {
+        delta--;
+        addComment(commentSnapshot);
+      });
+      newerUpdate.removedCommentIds.forEach(commentId -> {
+        delta++;
+        removeComment(commentId);
+      });
+    }
+    
+    /**
+     * @return The removed comments of the changes, without the change of the count.
+     */
+    private PendingUpdate removals() {
+      PendingUpdate removals = new PendingUpdate();
+      removals.removedCommentIds.addAll(removedCommentIds);
+      return removals;
+    }
+    
+    /**
+     * @return The added comments and the change of the count of the changes, without the removed comments.
+     */
+    private PendingUpdate additions() {
+      PendingUpdate additions = new PendingUpdate();
+      additions.delta = delta;
+      additions.addedComments.addAll(addedComments);
+      return additions;
+    }
+    
+    private boolean isEmpty() {
+      return delta == 0 && addedComments.isEmpty() && removedCommentIds.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.entities.ImageJob;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_LEASE_MS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_MAX_ATTEMPTS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_MAX_QUEUE_DEPTH;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_METRICS_REFRESH_INTERVAL_MS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_RETRY_AFTER_SECONDS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_RETRY_BASE_DELAY_MS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_RETRY_MAX_DELAY_MS;
+
+/**
+ * Durable queue of image processing jobs backed by the imageJobs collection.
+ * A job is leased atomically with findAndModify, so a job is processed by one worker at a time even with several
+ * instances of the application. A lease expires after IMAGE_JOB_LEASE_MS unless the worker renews it, after which the
+ * job can be leased again, so the jobs of a worker that died aren't lost. Failed jobs are retried with an exponential
+ * backoff up to IMAGE_JOB_MAX_ATTEMPTS times, and so are the jobs whose worker died: a job that kills its worker every
+ * time is marked FAILED once its last lease expires instead of being leased again.
+ * A leased job is only completed, failed or renewed by the attempt that leased it, i.e. while it's PROCESSING with the
+ * same number of attempts.
+ * New uploads are rejected while the queue holds more than IMAGE_JOB_MAX_QUEUE_DEPTH jobs.
+ */
+@Component
+public class ImageJobQueue {
+
+  private static final String STATUS = "status";
+  private static final String ATTEMPTS = "attempts";
+  private static final String NEXT_ATTEMPT_AT = "nextAttemptAt";
+  private static final String LEASE_EXPIRES_AT = "leaseExpiresAt";
+  private static final String CREATED_AT = "createdAt";
+
+  private final MongoTemplate mongoTemplate;
+  private final Clock clock;
+  private final Logger logger;
+
+  private final Timer jobAge;
+  private final AtomicLong queueDepth = new AtomicLong();
+  private final AtomicLong oldestPendingJobAgeMs = new AtomicLong();
+
+  public ImageJobQueue(MongoTemplate mongoTemplate, Clock clock, MeterRegistry meterRegistry) {
+    this.mongoTemplate = mongoTemplate;
+    this.clock = clock;
+    this.logger = LoggerFactory.getLogger(ImageJobQueue.class);
+    this.jobAge = Timer.builder("image.jobs.age")
+        .description("Time from the creation of an image job to its completion")
+        .register(meterRegistry);
+    meterRegistry.gauge("image.jobs.queue.depth", List.of(), queueDepth);
+    meterRegistry.gauge("image.jobs.oldest.pending.age.ms", List.of(), oldestPendingJobAgeMs);
+  }
+
+  /**
+   * Checks that the queue can take another job before an upload is accepted. The depth is the one read by the last
+   * refreshMetrics plus the jobs queued and completed by this instance since then, so no query is made per upload.
+   *
+   * @throws ServiceUnavailableException If the queue holds IMAGE_JOB_MAX_QUEUE_DEPTH jobs or more.
+   */
+  public void checkCapacity() {
+    if (queueDepth.get() >= IMAGE_JOB_MAX_QUEUE_DEPTH) {
+      throw new ServiceUnavailableException("Too many images waiting to be processed, please retry later",
+          IMAGE_JOB_RETRY_AFTER_SECONDS);
+    }
+  }
+
+  /**
+   * Adds a job to process an image.
+   *
+   * @param imageId The id of the image that stored the blob
+   * @param postId  The id of the post of the image
+   * @param blobId  The id of the ImageBlob to process
+   * @return The queued job
+   */
+  public ImageJob enqueue(UUID imageId, UUID postId, String blobId) {
+    Instant now = Instant.now(clock);
+    ImageJob job = new ImageJob();
+    job.setId(UUID.randomUUID());
+    job.setImageId(imageId);
+    job.setPostId(postId);
+    job.setBlobId(blobId);
+    job.setStatus(ProcessingStatus.PENDING);
+    job.setNextAttemptAt(now);
+    job.setCreatedAt(now);
+    ImageJob savedJob = mongoTemplate.insert(job);
+    queueDepth.incrementAndGet();
+    logger.info("Image job {} queued for postId: {}", savedJob.getId(), postId);
+    return savedJob;
+  }
+
+  /**
+   * Leases the next job that is due, either a pending job whose next attempt is due or a job whose lease expired with
+   * attempts left.
+   *
+   * @return The leased job, with its attempts incremented, or empty if no job is due.
+   */
+  public Optional<ImageJob> lease() {
+    Instant now = Instant.now(clock);
+    Query query = new Query(new Criteria().orOperator(
+        Criteria.where(STATUS).is(ProcessingStatus.PENDING).and(NEXT_ATTEMPT_AT).lte(now),
+        Criteria.where(STATUS).is(ProcessingStatus.PROCESSING).and(LEASE_EXPIRES_AT).lte(now)
+            .and(ATTEMPTS).lt(IMAGE_JOB_MAX_ATTEMPTS)))
+        .with(Sort.by(Sort.Direction.ASC, NEXT_ATTEMPT_AT));
+    Update update = new Update()
+        .set(STATUS, ProcessingStatus.PROCESSING)
+        .set(LEASE_EXPIRES_AT, now.plusMillis(IMAGE_JOB_LEASE_MS))
+        .inc(ATTEMPTS, 1);
+    return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+        FindAndModifyOptions.options().returnNew(true), ImageJob.class));
+  }
+
+  /**
+   * Marks FAILED the next job whose lease expired after its last attempt, i.e. whose worker died on every attempt, e.g.
+   * because the image doesn't fit in memory.
+   *
+   * @return The failed job, or empty if there's none.
+   */
+  public Optional<ImageJob> failAbandoned() {
+    Query query = new Query(Criteria.where(STATUS).is(ProcessingStatus.PROCESSING)
+        .and(LEASE_EXPIRES_AT).lte(Instant.now(clock))
+        .and(ATTEMPTS).gte(IMAGE_JOB_MAX_ATTEMPTS));
+    Update update = new Update()
+        .set(STATUS, ProcessingStatus.FAILED)
+        .set(LEASE_EXPIRES_AT, null)
+        .set("lastError", "The lease of the last attempt expired before the job was completed");
+    ImageJob job = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+        ImageJob.class);
+    if (job != null) {
+      logger.warn("Image job {} was abandoned by its worker {} times, marking it FAILED", job.getId(),
+          job.getAttempts());
+    }
+    return Optional.ofNullable(job);
+  }
+
+  /**
+   * Extends the lease of a job that is still running.
+   *
+   * @param job The leased job
+   * @return Whether the job is still leased by the caller. It isn't if its lease expired and it was leased again.
+   */
+  public boolean renew(ImageJob job) {
+    Update update = new Update().set(LEASE_EXPIRES_AT, Instant.now(clock).plusMillis(IMAGE_JOB_LEASE_MS));
+    return mongoTemplate.updateFirst(leasedBy(job), update, ImageJob.class).getModifiedCount() > 0;
+  }
+
+  /**
+   * Removes a processed job.
+   * Nothing is changed if the lease expired and the job was leased again by another worker, which completes it.
+   *
+   * @param job The leased job
+   * @return Whether the job was removed.
+   */
+  public boolean complete(ImageJob job) {
+    if (mongoTemplate.remove(leasedBy(job), ImageJob.class).getDeletedCount() == 0) {
+      logger.warn("Image job {} was leased by another worker before it was completed", job.getId());
+      return false;
+    }
+    queueDepth.updateAndGet(depth -> Math.max(depth - 1, 0));
+    jobAge.record(Duration.between(job.getCreatedAt(), Instant.now(clock)));
+    return true;
+  }
+
+  /**
+   * Records a failed attempt of a job. The job is scheduled for another attempt after a backoff, or marked FAILED once
+   * it was attempted IMAGE_JOB_MAX_ATTEMPTS times.
+   * Nothing is changed if the lease expired and the job was leased again by another worker.
+   *
+   * @param job   The leased job
+   * @param error The cause of the failure
+   * @return The new status of the job, or empty if the job is no longer leased by the caller.
+   */
+  public Optional<ProcessingStatus> fail(ImageJob job, Exception error) {
+    Query query = leasedBy(job);
+    Update update = new Update()
+        .set(LEASE_EXPIRES_AT, null)
+        .set("lastError", String.valueOf(error.getMessage()));
+    ProcessingStatus status;
+    if (job.getAttempts() >= IMAGE_JOB_MAX_ATTEMPTS) {
+      status = ProcessingStatus.FAILED;
+    } else {
+      status = ProcessingStatus.PENDING;
+      update.set(NEXT_ATTEMPT_AT, Instant.now(clock).plus(backoff(job.getAttempts())));
+    }
+    update.set(STATUS, status);
+    if (mongoTemplate.updateFirst(query, update, ImageJob.class).getModifiedCount() == 0) {
+      logger.warn("Image job {} was leased by another worker before its failure was recorded", job.getId());
+      return Optional.empty();
+    }
+    return Optional.of(status);
+  }
+
+  /**
+   * Matches a job while it's leased by the attempt of the given job.
+   */
+  private static Query leasedBy(ImageJob job) {
+    return new Query(Criteria.where("id").is(job.getId())
+        .and(STATUS).is(ProcessingStatus.PROCESSING)
+        .and(ATTEMPTS).is(job.getAttempts()));
+  }
+
+  /**
+   * The delay before the next attempt of a job, IMAGE_JOB_RETRY_BASE_DELAY_MS doubled for every failed attempt and
+   * capped at IMAGE_JOB_RETRY_MAX_DELAY_MS.
+   *
+   * @param attempts Number of attempts made so far
+   * @return The delay
+   */
+  static Duration backoff(int attempts) {
+    int doublings = Math.min(Math.max(attempts - 1, 0), 30);
+    long delayMs = Math.min(IMAGE_JOB_RETRY_BASE_DELAY_MS << doublings, IMAGE_JOB_RETRY_MAX_DELAY_MS);
+    return Duration.ofMillis(delayMs);
+  }
+
+  /**
+   * Refreshes the queue depth, i.e. the number of pending and processing jobs, and the age of the oldest pending job.
+   */
+  @Scheduled(fixedDelay = IMAGE_JOB_METRICS_REFRESH_INTERVAL_MS)
+  public void refreshMetrics() {
+    try {
+      queueDepth.set(mongoTemplate.count(
+          new Query(Criteria.where(STATUS).in(ProcessingStatus.PENDING, ProcessingStatus.PROCESSING)), ImageJob.class));
+      Query oldestQuery = new Query(Criteria.where(STATUS).is(ProcessingStatus.PENDING))
+          .with(Sort.by(Sort.Direction.ASC, CREATED_AT))
+          .limit(1);
+      oldestQuery.fields().include(CREATED_AT);
+      ImageJob oldestJob = mongoTemplate.findOne(oldestQuery, ImageJob.class);
+      oldestPendingJobAgeMs.set(oldestJob == null ? 0
+          : Duration.between(oldestJob.getCreatedAt(), Instant.now(clock)).toMillis());
+    } catch (Exception e) {
+      logger.error("Error while refreshing the image job metrics", e);
+    }
+  }
+}
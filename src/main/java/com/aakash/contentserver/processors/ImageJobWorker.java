@@ -0,0 +1,178 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.entities.ImageBlob;
+import com.aakash.contentserver.entities.ImageJob;
+import com.aakash.contentserver.entities.ImageRendition;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.exceptions.EntityNotFoundException;
+import com.aakash.contentserver.services.ImageService;
+import com.aakash.contentserver.services.PostService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_LEASE_RENEWAL_INTERVAL_MS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_MAX_ATTEMPTS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_POLL_INTERVAL_MS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_WORKERS;
+
+/**
+ * Processes the jobs of the ImageJobQueue on the imageJobExecutor.
+ * The queue is polled periodically and a job is leased only when a worker is free to run it, so the jobs of a busy
+ * instance stay in the db where another instance can lease them. The status of the blob, of its images and of their
+ * posts follows the job: PROCESSING while it runs, READY once the resized image is uploaded and FAILED once all the
+ * attempts failed, or once the last attempt was abandoned by a worker that died.
+ * The leases of the running jobs are renewed every IMAGE_JOB_LEASE_RENEWAL_INTERVAL_MS, so a slow job isn't leased
+ * and processed again by another worker while it runs.
+ */
+@Component
+public class ImageJobWorker {
+  
+  private final ImageJobQueue imageJobQueue;
+  private final ImageProcessor imageProcessor;
+  private final ImageService imageService;
+  private final PostService postService;
+  private final Executor imageJobExecutor;
+  private final Semaphore freeWorkers;
+  private final Set<ImageJob> runningJobs = ConcurrentHashMap.newKeySet();
+  private final Logger logger;
+  
+  public ImageJobWorker(ImageJobQueue imageJobQueue, ImageProcessor imageProcessor, ImageService imageService,
+                        @Lazy PostService postService, @Qualifier("imageJobExecutor") Executor imageJobExecutor) {
+    this.imageJobQueue = imageJobQueue;
+    this.imageProcessor = imageProcessor;
+    this.imageService = imageService;
+    this.postService = postService;
+    this.imageJobExecutor = imageJobExecutor;
+    this.freeWorkers = new Semaphore(IMAGE_JOB_WORKERS);
+    this.logger = LoggerFactory.getLogger(ImageJobWorker.class);
+  }
+  
+  /**
+   * Leases due jobs while there are free workers and hands them to the executor.
+   */
+  @Scheduled(fixedDelay = IMAGE_JOB_POLL_INTERVAL_MS)
+  public void poll() {
+    while (freeWorkers.tryAcquire()) {
+      Optional<ImageJob> job;
+      try {
+        job = imageJobQueue.lease();
+      } catch (Exception e) {
+        freeWorkers.release();
+        logger.error("Error while leasing an image job", e);
+        return;
+      }
+      if (job.isEmpty()) {
+        freeWorkers.release();
+        return;
+      }
+      try {
+        imageJobExecutor.execute(() -> {
+          try {
+            process(job.get());
+          } finally {
+            freeWorkers.release();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // The lease expires and the job is picked up again.
+        freeWorkers.release();
+        logger.error("Image job {} was rejected by the executor", job.get().getId(), e);
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Renews the leases of the jobs running on this instance, and marks FAILED the jobs whose last attempt was abandoned
+   * by a worker that died.
+   */
+  @Scheduled(fixedDelay = IMAGE_JOB_LEASE_RENEWAL_INTERVAL_MS)
+  public void maintainLeases() {
+    for (ImageJob job : runningJobs) {
+      try {
+        if (!imageJobQueue.renew(job)) {
+          logger.warn("Lease of image job {} was lost, it's processed again by another worker", job.getId());
+        }
+      } catch (Exception e) {
+        logger.error("Error while renewing the lease of image job {}", job.getId(), e);
+      }
+    }
+    try {
+      Optional<ImageJob> abandonedJob;
+      while ((abandonedJob = imageJobQueue.failAbandoned()).isPresent()) {
+        updateStatus(abandonedJob.get(), ProcessingStatus.FAILED, null);
+      }
+    } catch (Exception e) {
+      logger.error("Error while failing the abandoned image jobs", e);
+    }
+  }
+
+  /**
+   * Processes a leased job, i.e. resizes the original image of a blob into its renditions and uploads them to S3.
+   *
+   * @param job The leased job
+   */
+  void process(ImageJob job) {
+    // The queue doesn't lease a job past its last attempt, this only guards against jobs leased before it checked.
+    if (job.getAttempts() > IMAGE_JOB_MAX_ATTEMPTS) {
+      handleFailure(job, new IllegalStateException("Image job exceeded " + IMAGE_JOB_MAX_ATTEMPTS + " attempts"));
+      return;
+    }
+    logger.info("Processing image job {} for blob: {}, attempt {}", job.getId(), job.getBlobId(), job.getAttempts());
+    runningJobs.add(job);
+    try {
+      ImageBlob blob = imageService.getBlob(job.getBlobId());
+      updateStatus(job, ProcessingStatus.PROCESSING, null);
+      List<ImageRendition> renditions = imageProcessor.resizeImageAndUploadToS3(blob);
+      if (!updateStatus(job, ProcessingStatus.READY, renditions)) {
+        // All the images of the blob were deleted while it was processed.
+        blob.setRenditions(renditions);
+        imageProcessor.deleteImageFiles(blob);
+      }
+      if (imageJobQueue.complete(job)) {
+        logger.info("Image job {} completed for blob: {}", job.getId(), job.getBlobId());
+      }
+    } catch (EntityNotFoundException e) {
+      // All the images of the blob were deleted, there's nothing left to process.
+      logger.warn("Blob of job {} no longer exists, dropping the job", job.getId());
+      imageJobQueue.complete(job);
+    } catch (Exception e) {
+      logger.error("Error while processing image job {} for blob: {}", job.getId(), job.getBlobId(), e);
+      handleFailure(job, e);
+    } finally {
+      runningJobs.remove(job);
+    }
+  }
+  
+  private void handleFailure(ImageJob job, Exception error) {
+    try {
+      imageJobQueue.fail(job, error).ifPresent(status -> updateStatus(job, status, null));
+    } catch (Exception e) {
+      logger.error("Error while recording the failure of image job {}", job.getId(), e);
+    }
+  }
+  
+  /**
+   * Updates the status of the blob of a job and of all its images and their posts.
+   *
+   * @return Whether the blob still exists.
+   */
+  private boolean updateStatus(ImageJob job, ProcessingStatus status, List<ImageRendition> renditions) {
+    Optional<List<UUID>> postIds = imageService.updateBlobStatus(job.getBlobId(), status, renditions);
+    postIds.ifPresent(ids -> ids.forEach(postId -> postService.updateImageStatus(postId, status)));
+    return postIds.isPresent();
+  }
+}
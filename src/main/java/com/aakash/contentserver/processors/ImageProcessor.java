@@ -1,23 +1,43 @@
 package com.aakash.contentserver.processors;
 
 import com.aakash.contentserver.constants.ImageConstants;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.PresignedUpload;
+import com.aakash.contentserver.dto.ResizeRequest;
+import com.aakash.contentserver.dto.UploadResult;
 import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.ImageBlob;
+import com.aakash.contentserver.entities.ImageRendition;
 import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.enums.ResizeFit;
+import com.aakash.contentserver.exceptions.ImageProcessingException;
+import com.aakash.contentserver.exceptions.ServiceUnavailableException;
+import com.aakash.contentserver.exceptions.StorageFileNotFoundException;
 import com.aakash.contentserver.impl.ImageFunctionImpl;
 import com.aakash.contentserver.impl.ImageResizeConfigurationImpl;
 import com.aakash.contentserver.impl.ImageSupportedTypeImpl;
-import com.aakash.contentserver.impl.S3ProcessorImpl;
+import com.aakash.contentserver.interfaces.StorageProcessor;
 import com.fasterxml.jackson.databind.JsonNode;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * ImageProcessor class to resize the image and upload to S3.
@@ -27,76 +47,231 @@ public class ImageProcessor {
 
   private final ImageSupportedTypeImpl imageSupportedTypeImpl;
 
-  private final S3ProcessorImpl s3ProcessorImpl;
+  private final StorageProcessor storageProcessor;
 
   private final Logger logger;
 
   private final ImageResizeConfigurationImpl imageResizeConfiguration;
   private final ImageFunctionImpl imageFunctionImpl;
+  private final Executor imageRenditionExecutor;
 
 
-  public ImageProcessor(ImageSupportedTypeImpl imageSupportedTypeImpl, S3ProcessorImpl s3ProcessorImpl,
-                        ImageResizeConfigurationImpl imageResizeConfiguration, ImageFunctionImpl imageFunctionImpl) {
+  public ImageProcessor(ImageSupportedTypeImpl imageSupportedTypeImpl, StorageProcessor storageProcessor,
+                        ImageResizeConfigurationImpl imageResizeConfiguration, ImageFunctionImpl imageFunctionImpl,
+                        @Qualifier("imageRenditionExecutor") Executor imageRenditionExecutor) {
     this.imageSupportedTypeImpl = imageSupportedTypeImpl;
-    this.s3ProcessorImpl = s3ProcessorImpl;
+    this.storageProcessor = storageProcessor;
     this.imageResizeConfiguration = imageResizeConfiguration;
     this.imageFunctionImpl = imageFunctionImpl;
+    this.imageRenditionExecutor = imageRenditionExecutor;
     this.logger = LoggerFactory.getLogger(ImageProcessor.class);
   }
 
   /**
    * Method to resize the image and upload to S3.
    * The resize configuration is fetched from resize_config.json file present in resources folder based on the activity type.
-   * There are different configurations for different activities like post and comment.
+   * There are different configurations for different activities like post and comment, each with a list of renditions.
    * To make changes to the resize configuration, update the resize_config.json file.
-   * This method is asynchronous and runs on a separate thread. The Async configuration is present in the AsyncConfig class.
+   * This method is called by the ImageJobWorker, which runs the image jobs on the imageJobExecutor.
    * If multiple services need to use this configuration, it can be saved to the database and fetched from there.
+   * The original image is streamed back from S3, as the uploaded file only lives as long as the request.
+   * The original is decoded once, subsampled to the size of the largest rendition, and all the renditions are derived from the decoded image in parallel on the
+   * imageRenditionExecutor, each rendition is uploaded as soon as it's created. The renditions are submitted from the
+   * largest to the smallest, so the longest one doesn't start last.
+   * The renditions are stored under the id of the blob, so they're shared by all the images linked to it.
    *
-   * @param filePath     File to be resized.
-   * @param image        Image object to set the type.
-   * @param activityType Content type to fetch the configuration.
-   * @param <T>          Image type.
+   * @param blob The blob of the image, with the location of the original and the activity type to fetch the
+   *             configuration.
+   * @return The uploaded renditions, from the largest to the smallest.
    * @throws IOException Exception if there is an issue with the file.
    */
-  @Async("taskExecutor")
-  public <T extends Image> void resizeImageAndUploadToS3(File filePath, T image, ActivityType activityType) throws IOException {
+  public List<ImageRendition> resizeImageAndUploadToS3(ImageBlob blob) throws IOException {
 
     // Fetching image configuration for the ActivityType.
     // In this case, it's the post activity.
-    JsonNode imageConfig = getImageConfigurationByActivity(activityType);
-    logger.info("Resizing image for postId: {}", image.getPostId());
+    List<JsonNode> renditionConfigs = getRenditionConfigurations(blob.getActivityType());
+    renditionConfigs.sort(Comparator.comparingLong((JsonNode renditionConfig) ->
+        (long) getImageWidth(renditionConfig) * getImageHeight(renditionConfig)).reversed());
+    logger.info("Resizing image into {} renditions for blob: {}", renditionConfigs.size(), blob.getId());
 
-    int width = getImageWidth(imageConfig);
-    int height = getImageHeight(imageConfig);
-    String format = getImageFormat(imageConfig);
-    String destinationFileName = image.getLocation();
+    // The image is decoded just large enough for the largest rendition.
+    int maxWidth = renditionConfigs.stream().mapToInt(this::getImageWidth).max().orElseThrow();
+    int maxHeight = renditionConfigs.stream().mapToInt(this::getImageHeight).max().orElseThrow();
+    BufferedImage sourceImage;
+    try (InputStream originalImage = storageProcessor.downloadFileAsStream(blob.getBucketName(), blob.getOriginalLocation())) {
+      sourceImage = imageFunctionImpl.readImage(originalImage, maxWidth, maxHeight);
+    }
+    List<CompletableFuture<ImageRendition>> renditions = renditionConfigs.stream()
+        .map(renditionConfig -> CompletableFuture.supplyAsync(
+            () -> createRendition(sourceImage, blob, renditionConfig), imageRenditionExecutor))
+        .toList();
+    try {
+      CompletableFuture.allOf(renditions.toArray(new CompletableFuture[0])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException cause) {
+        throw cause.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    return renditions.stream().map(CompletableFuture::join).toList();
+  }
+  
+  /**
+   * Creates a rendition from the decoded image and uploads it to S3.
+   */
+  private ImageRendition createRendition(BufferedImage sourceImage, ImageBlob blob, JsonNode renditionConfig) {
+    String name = getRenditionName(renditionConfig);
+    int width = getImageWidth(renditionConfig);
+    int height = getImageHeight(renditionConfig);
+    String format = getImageFormat(renditionConfig);
+    String destinationFileName = getRenditionLocation(blob.getId(), name, format);
     // Resizing the image.
-    ByteArrayOutputStream imageOutputStream = imageFunctionImpl.resizeImage(filePath, width, height, format);
+    byte[] renditionBytes;
+    try {
+      renditionBytes = imageFunctionImpl.resizeImage(sourceImage, width, height, getImageQuality(renditionConfig), format)
+          .toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
     // Uploading the image to S3.
-    logger.info("Uploading resized image to S3 for postId: {}", image.getPostId());
-    s3ProcessorImpl.uploadFileAsByteStream(imageOutputStream.toByteArray(), destinationFileName);
+    logger.info("Uploading {} rendition to S3 for blob: {}", name, blob.getId());
+    storageProcessor.uploadFileAsByteStream(renditionBytes, destinationFileName);
+    
+    ImageRendition rendition = new ImageRendition();
+    rendition.setName(name);
+    rendition.setLocation(destinationFileName);
+    rendition.setWidth(width);
+    rendition.setHeight(height);
+    rendition.setSizeInKB(renditionBytes.length / 1000);
+    return rendition;
+  }
+  
+  /**
+   * Method to get an on demand rendition of a blob.
+   * The rendition is downloaded from S3 if it was created before, by this instance or another one. Otherwise it's
+   * created from the original, which is decoded subsampled to the size of the rendition, and uploaded to S3. The
+   * decode and the resize run on the imageRenditionExecutor, like the renditions of the image jobs, so the CPU spent
+   * on them is bounded.
+   * A failed upload is only logged, the rendition is still returned and it's created again on a later miss.
+   *
+   * @param blob          The blob of the image
+   * @param resizeRequest The rendition
+   * @return The rendition
+   * @throws IOException                 If the original can't be read
+   * @throws ServiceUnavailableException If the imageRenditionExecutor is full
+   */
+  public byte[] getResizedRendition(ImageBlob blob, ResizeRequest resizeRequest) throws IOException {
+    String location = getResizedLocation(blob.getId(), resizeRequest);
+    // The rendition is cached by the RenditionCache, so it's not downloaded through the disk cache of the S3 files.
+    try (InputStream storedRendition = storageProcessor.downloadFileAsStream(blob.getBucketName(), location)) {
+      return storedRendition.readAllBytes();
+    } catch (StorageFileNotFoundException e) {
+      logger.info("Creating {} rendition for blob: {}", resizeRequest.getName(), blob.getId());
+    }
+    byte[] renditionBytes;
+    try {
+      renditionBytes = CompletableFuture.supplyAsync(() -> createResizedRendition(blob, resizeRequest),
+          imageRenditionExecutor).join();
+    } catch (RejectedExecutionException e) {
+      throw new ServiceUnavailableException("Too many images being resized, please retry later",
+          ImageConstants.RESIZE_RETRY_AFTER_SECONDS);
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException cause) {
+        throw cause.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+    try {
+      storageProcessor.uploadFileAsByteStream(renditionBytes, location);
+    } catch (RuntimeException e) {
+      logger.error("Error while uploading {} rendition to S3 for blob: {}", resizeRequest.getName(), blob.getId(), e);
+    }
+    return renditionBytes;
+  }
+  
+  private byte[] createResizedRendition(ImageBlob blob, ResizeRequest resizeRequest) {
+    int width = resizeRequest.getWidth();
+    int height = resizeRequest.getHeight();
+    boolean cover = resizeRequest.getFit() == ResizeFit.COVER;
+    float quality = resizeRequest.getQuality() / 100f;
+    try (InputStream originalImage = storageProcessor.downloadFileAsStream(blob.getBucketName(), blob.getOriginalLocation())) {
+      BufferedImage sourceImage = imageFunctionImpl.readImage(originalImage, width, height, cover);
+      return (cover
+          ? imageFunctionImpl.cropImage(sourceImage, width, height, quality, ImageConstants.RESIZE_FORMAT)
+          : imageFunctionImpl.resizeImage(sourceImage, width, height, quality, ImageConstants.RESIZE_FORMAT))
+          .toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
   
   /**
    * Method to upload the original image to S3.
+   * The image is streamed to S3 while it's read from the request, so it runs on the request thread. The content of the
+   * image is checked before it's uploaded, files that aren't images are rejected.
+   * The image is stored where destinationForContent says once its hash is known, or not at all if it returns null.
    *
-   * @param filePath            File to be uploaded
-   * @param image               Image object to set the type.
-   * @param destinationFileName The destination name of the file to be uploaded
-   * @param <T>                 File type.
+   * @param inputStream           Stream of the image to be uploaded
+   * @param image                 Image object to set the type.
+   * @param stagingFileName       Where an image larger than a part is uploaded before its hash is known
+   * @param destinationForContent The destination of the image given its size and SHA-256, or null if it's stored
+   *                              already
+   * @param <T>                   File type.
+   * @return UploadResult with the size and SHA-256 of the uploaded image
    * @throws IOException Exception if there is an issue with the file.
    */
-  @Async("taskExecutor")
-  public <T extends Image> void uploadOriginalImageToS3(File filePath, T image, String destinationFileName) throws IOException {
+  public <T extends Image> UploadResult uploadOriginalImageToS3(InputStream inputStream, T image, String stagingFileName,
+                                                                Function<UploadResult, String> destinationForContent) throws IOException {
     logger.info("Uploading original image to S3 for postId: {}", image.getPostId());
-    s3ProcessorImpl.uploadFileAsByteStream(FileUtils.readFileToByteArray(filePath), destinationFileName);
+    UploadResult uploadResult = storageProcessor.uploadStream(inputStream, stagingFileName,
+        contentType -> contentType.startsWith(ImageConstants.IMAGE_CONTENT_TYPE_PREFIX), destinationForContent);
     logger.info("Original image uploaded successfully for postId: " + image.getPostId());
+    return uploadResult;
   }
   
-  public <T extends Image> byte[] downloadImageFromS3(T image) throws IOException {
-    logger.info("Downloading resized image from S3 for postId: {}", image.getPostId());
-    return s3ProcessorImpl.downloadFile(image);
-
+  /**
+   * Method to sign the PUT with which a client uploads an original image to S3 directly.
+   *
+   * @param stagingFileName Where the image is uploaded, until it's completed
+   * @param size            The size of the image in bytes
+   * @param sha256          Hex encoded SHA-256 of the image
+   * @return The presigned PUT, valid for DIRECT_UPLOAD_URL_EXPIRATION_MINUTES
+   */
+  public PresignedUpload presignOriginalImageUpload(String stagingFileName, long size, String sha256) {
+    return storageProcessor.presignUpload(stagingFileName, size, sha256,
+        Duration.ofMinutes(ImageConstants.DIRECT_UPLOAD_URL_EXPIRATION_MINUTES));
+  }
+  
+  /**
+   * Method to complete an original image uploaded by a client to S3 directly, once its size, SHA-256 and media type
+   * are checked it's moved to the location returned by destinationForContent, like a streamed upload.
+   *
+   * @param stagingFileName       Where the image was uploaded
+   * @param size                  The declared size of the image in bytes
+   * @param sha256                The declared hex encoded SHA-256 of the image
+   * @param destinationForContent The destination of the image given its content, or null if it's already stored
+   * @return UploadResult with the size, SHA-256 and media type of the image
+   */
+  public UploadResult completeOriginalImageUpload(String stagingFileName, long size, String sha256,
+                                                  Function<UploadResult, String> destinationForContent) {
+    logger.info("Completing the direct upload of {}", stagingFileName);
+    return storageProcessor.completeUpload(stagingFileName, size, sha256,
+        contentType -> contentType.startsWith(ImageConstants.IMAGE_CONTENT_TYPE_PREFIX), destinationForContent);
+  }
+  
+  public <T extends Image> FileContent openImageFile(T image, String location, HttpRange range) {
+    logger.info("Opening {} for postId: {}", location, image.getPostId());
+    return storageProcessor.openFile(image.getBucketName(), location, range);
+  }
+  
+  public <T extends Image> long getImageFileLength(T image, String location) {
+    return storageProcessor.getFileLength(image.getBucketName(), location);
   }
 
   /**
@@ -119,6 +294,20 @@ public class ImageProcessor {
   private String getImageFormat(JsonNode jsonNode) {
     return jsonNode.get(ImageConstants.TYPE).asText();
   }
+
+  private float getImageQuality(JsonNode jsonNode) {
+    return jsonNode.get(ImageConstants.QUALITY).asInt() / 100f;
+  }
+
+  private String getRenditionName(JsonNode jsonNode) {
+    return jsonNode.get(ImageConstants.NAME).asText();
+  }
+  
+  private List<JsonNode> getRenditionConfigurations(ActivityType activityType) {
+    List<JsonNode> renditionConfigs = new ArrayList<>();
+    getImageConfigurationByActivity(activityType).get(ImageConstants.RENDITIONS).forEach(renditionConfigs::add);
+    return renditionConfigs;
+  }
   
   /**
    * Method to get the image configuration based on the activity type - Post or Comment.
@@ -130,11 +319,72 @@ public class ImageProcessor {
     return imageResizeConfiguration.getImageConfigurationByActivity(activityType);
   }
   
-  public String getResizedLocation(String postId, String extension) {
-    return ImageConstants.COMPRESSED_LOCATION + postId + "." + extension;
+  /**
+   * Method to delete the original and the renditions of a blob from S3.
+   *
+   * @param blob The deleted blob
+   */
+  public void deleteImageFiles(ImageBlob blob) {
+    List<String> keys = new ArrayList<>();
+    keys.add(blob.getOriginalLocation());
+    if (blob.getRenditions() != null) {
+      blob.getRenditions().forEach(rendition -> keys.add(rendition.getLocation()));
+    }
+    logger.info("Deleting {} files and the on demand renditions from S3 for blob: {}", keys.size(), blob.getId());
+    storageProcessor.deleteFiles(blob.getBucketName(), keys);
+    storageProcessor.deleteFilesWithPrefix(blob.getBucketName(), getResizedLocationPrefix(blob.getId()));
+  }
+  
+  /**
+   * Method to get the location of an on demand rendition. The on demand renditions of a blob share a prefix, so they
+   * can be deleted with it without keeping track of them.
+   *
+   * @param blobId        The id of the blob.
+   * @param resizeRequest The rendition.
+   * @return The S3 key of the rendition.
+   */
+  public String getResizedLocation(String blobId, ResizeRequest resizeRequest) {
+    return getResizedLocationPrefix(blobId) + resizeRequest.getName() + "." + ImageConstants.RESIZE_FORMAT;
+  }
+  
+  private String getResizedLocationPrefix(String blobId) {
+    return ImageConstants.RESIZED_LOCATION + blobId + "/";
+  }
+  
+  public String getRenditionLocation(String blobId, String renditionName, String extension) {
+    return ImageConstants.COMPRESSED_LOCATION + blobId + "-" + renditionName + "." + extension;
+  }
+  
+  /**
+   * Method to get the location of the rendition served when no rendition is requested.
+   *
+   * @param blobId       The id of the blob of the image.
+   * @param activityType Activity type to fetch the configuration.
+   * @return The S3 key of the default rendition.
+   */
+  public String getDefaultRenditionLocation(String blobId, ActivityType activityType) {
+    JsonNode imageConfig = getImageConfigurationByActivity(activityType);
+    String defaultRendition = imageConfig.get(ImageConstants.DEFAULT_RENDITION).asText();
+    for (JsonNode renditionConfig : imageConfig.get(ImageConstants.RENDITIONS)) {
+      if (defaultRendition.equals(getRenditionName(renditionConfig))) {
+        return getRenditionLocation(blobId, defaultRendition, getImageFormat(renditionConfig));
+      }
+    }
+    throw new ImageProcessingException("Default rendition " + defaultRendition + " isn't configured for " + activityType);
+  }
+  
+  /**
+   * Method to get the location of the original of a blob. It has no extension, as uploads of the same content may
+   * have different file names, the media type is set on the S3 object.
+   *
+   * @param blobId The id of the blob.
+   * @return The S3 key of the original image.
+   */
+  public String getOriginalLocation(String blobId) {
+    return ImageConstants.ORIGINAL_LOCATION + blobId;
   }
   
-  public String getOriginalLocation(String postId, String extension) {
-    return ImageConstants.ORIGINAL_LOCATION + postId + "." + extension;
+  public String getStagingLocation(String imageId) {
+    return ImageConstants.STAGING_LOCATION + imageId;
   }
 }
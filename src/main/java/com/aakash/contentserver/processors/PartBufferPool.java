@@ -0,0 +1,77 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.exceptions.ContentServerException;
+import com.aakash.contentserver.exceptions.ServiceUnavailableException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.aakash.contentserver.constants.ImageConstants.PART_SIZE;
+import static com.aakash.contentserver.constants.S3Constants.UPLOAD_BUFFER_ACQUIRE_TIMEOUT_MS;
+import static com.aakash.contentserver.constants.S3Constants.UPLOAD_BUFFER_POOL_SIZE;
+import static com.aakash.contentserver.constants.S3Constants.UPLOAD_BUFFER_RETRY_AFTER_SECONDS;
+
+/**
+ * Pool of part sized buffers for the streaming uploads to S3.
+ * The buffers are allocated on first use, up to UPLOAD_BUFFER_POOL_SIZE, and reused afterwards. When all of them are
+ * in use, an upload waits for one to be released, so the heap used by the uploads stays bounded under load.
+ */
+@Component
+public class PartBufferPool {
+  
+  private final BlockingQueue<byte[]> freeBuffers;
+  private final AtomicInteger allocatedBuffers;
+  private final int maxBuffers;
+  private final int bufferSize;
+  
+  public PartBufferPool() {
+    this(UPLOAD_BUFFER_POOL_SIZE, PART_SIZE);
+  }
+  
+  PartBufferPool(int maxBuffers, int bufferSize) {
+    this.freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+    this.allocatedBuffers = new AtomicInteger();
+    this.maxBuffers = maxBuffers;
+    this.bufferSize = bufferSize;
+  }
+  
+  /**
+   * Get a buffer from the pool. The buffer must be released once it's no longer used.
+   *
+   * @return A buffer of PART_SIZE bytes.
+   * @throws ServiceUnavailableException If no buffer is released within UPLOAD_BUFFER_ACQUIRE_TIMEOUT_MS.
+   */
+  public byte[] acquire() {
+    byte[] buffer = freeBuffers.poll();
+    if (buffer != null) {
+      return buffer;
+    }
+    if (allocatedBuffers.incrementAndGet() <= maxBuffers) {
+      return new byte[bufferSize];
+    }
+    allocatedBuffers.decrementAndGet();
+    try {
+      buffer = freeBuffers.poll(UPLOAD_BUFFER_ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ContentServerException("Interrupted while waiting for an upload buffer", e);
+    }
+    if (buffer == null) {
+      throw new ServiceUnavailableException("Too many uploads in progress, no upload buffer was released in time",
+          UPLOAD_BUFFER_RETRY_AFTER_SECONDS);
+    }
+    return buffer;
+  }
+  
+  /**
+   * Return a buffer to the pool.
+   *
+   * @param buffer The buffer returned by acquire.
+   */
+  public void release(byte[] buffer) {
+    freeBuffers.offer(buffer);
+  }
+}
@@ -1,9 +1,12 @@
 package com.aakash.contentserver.repositories;
 
 import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.PostComments;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -35,4 +38,18 @@ public interface CommentsRepository extends ContentRepository<Comment> {
    */
   public Optional<List<Comment>> findByPostId(UUID id);
 
+  /**
+   * Find the latest comments for each of the given posts in a single aggregation.
+   * The $topN accumulator keeps only the newest comments per post while grouping, so the result size is bounded
+   * by postIds * limit irrespective of how many comments a post has.
+   *
+   * @param postIds Post ids
+   * @param limit   Number of comments to fetch per post
+   * @return List of post ids with their latest comments. Posts without comments aren't part of the result.
+   */
+  @Aggregation(pipeline = {
+      "{ '$match': { 'postId': { '$in': ?0 } } }",
+      "{ '$group': { '_id': '$postId', 'comments': { '$topN': { 'n': ?1, 'sortBy': { 'createdAt': -1 }, 'output': '$$ROOT' } } } }"
+  })
+  List<PostComments> findLatestCommentsByPostIdIn(Collection<UUID> postIds, int limit);
 }
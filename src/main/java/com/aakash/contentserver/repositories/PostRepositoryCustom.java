@@ -0,0 +1,59 @@
+package com.aakash.contentserver.repositories;
+
+import com.aakash.contentserver.dto.PostCursor;
+import com.aakash.contentserver.dto.PostProjection;
+import com.aakash.contentserver.entities.Post;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Feed queries of the Post entity that only read the fields of a PostProjection.
+ * All queries are sorted by commentsCount, createdAt and id, the fields of the commentsCount_createdAt_id index.
+ */
+public interface PostRepositoryCustom {
+  /**
+   * Find a slice of posts by comments count, created at and id in descending order.
+   * The posts aren't counted; one more post than the page size is fetched to know whether there's a next slice.
+   *
+   * @param pageable   Pageable
+   * @param projection Fields to read
+   * @return Slice of posts
+   */
+  Slice<Post> findFeedSlice(Pageable pageable, PostProjection projection);
+  
+  /**
+   * Find the posts that come after the cursor (commentsCount, createdAt, id) in the feed order.
+   * The query is a keyset predicate on the fields of the index, so it is served by an index scan starting at the
+   * cursor instead of skipping the previous pages.
+   *
+   * @param cursor     Position of the last post of the current page. The first page is returned if it's null.
+   * @param limit      Number of posts to fetch
+   * @param projection Fields to read
+   * @return List of posts in descending order
+   */
+  List<Post> findFeedAfterCursor(PostCursor cursor, int limit, PostProjection projection);
+  
+  /**
+   * Find the posts that come before the cursor (commentsCount, createdAt, id) in the feed order.
+   * The posts are returned nearest first, i.e. in ascending order.
+   *
+   * @param cursor     Position of the first post of the current page
+   * @param limit      Number of posts to fetch
+   * @param projection Fields to read
+   * @return List of posts in ascending order
+   */
+  List<Post> findFeedBeforeCursor(PostCursor cursor, int limit, PostProjection projection);
+  
+  /**
+   * Find the posts with the given ids.
+   *
+   * @param ids        Post ids
+   * @param projection Fields to read
+   * @return List of posts, in no particular order
+   */
+  List<Post> findFeedPostsByIds(Collection<UUID> ids, PostProjection projection);
+}
@@ -0,0 +1,109 @@
+package com.aakash.contentserver.repositories;
+
+import com.aakash.contentserver.dto.PostCursor;
+import com.aakash.contentserver.dto.PostProjection;
+import com.aakash.contentserver.entities.Post;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Field;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import static com.aakash.contentserver.constants.CommonConstants.NUMBER_OF_COMMENTS_PER_POST;
+
+/**
+ * Implementation of PostRepositoryCustom using MongoTemplate, as the projection of a derived query can't be chosen
+ * per request.
+ */
+public class PostRepositoryCustomImpl implements PostRepositoryCustom {
+  private static final String COMMENTS_COUNT = "commentsCount";
+  private static final String CREATED_AT = "createdAt";
+  private static final String ID = "id";
+  private static final String LATEST_COMMENTS = "latestComments";
+  
+  private final MongoTemplate mongoTemplate;
+  
+  public PostRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+  
+  @Override
+  public Slice<Post> findFeedSlice(Pageable pageable, PostProjection projection) {
+    Query query = new Query()
+        .with(feedSort(Sort.Direction.DESC))
+        .skip(pageable.getOffset())
+        .limit(pageable.getPageSize() + 1);
+    List<Post> posts = mongoTemplate.find(project(query, projection), Post.class);
+    boolean hasNext = posts.size() > pageable.getPageSize();
+    return new SliceImpl<>(hasNext ? posts.subList(0, pageable.getPageSize()) : posts, pageable, hasNext);
+  }
+  
+  @Override
+  public List<Post> findFeedAfterCursor(PostCursor cursor, int limit, PostProjection projection) {
+    Query query = cursor == null ? new Query() : new Query(new Criteria().orOperator(
+        Criteria.where(COMMENTS_COUNT).lt(cursor.getCommentsCount()),
+        Criteria.where(COMMENTS_COUNT).is(cursor.getCommentsCount()).and(CREATED_AT).lt(cursor.getCreatedAt()),
+        Criteria.where(COMMENTS_COUNT).is(cursor.getCommentsCount()).and(CREATED_AT).is(cursor.getCreatedAt())
+            .and(ID).lt(cursor.getId())));
+    query.with(feedSort(Sort.Direction.DESC)).limit(limit);
+    return mongoTemplate.find(project(query, projection), Post.class);
+  }
+  
+  @Override
+  public List<Post> findFeedBeforeCursor(PostCursor cursor, int limit, PostProjection projection) {
+    Query query = new Query(new Criteria().orOperator(
+        Criteria.where(COMMENTS_COUNT).gt(cursor.getCommentsCount()),
+        Criteria.where(COMMENTS_COUNT).is(cursor.getCommentsCount()).and(CREATED_AT).gt(cursor.getCreatedAt()),
+        Criteria.where(COMMENTS_COUNT).is(cursor.getCommentsCount()).and(CREATED_AT).is(cursor.getCreatedAt())
+            .and(ID).gt(cursor.getId())));
+    query.with(feedSort(Sort.Direction.ASC)).limit(limit);
+    return mongoTemplate.find(project(query, projection), Post.class);
+  }
+  
+  @Override
+  public List<Post> findFeedPostsByIds(Collection<UUID> ids, PostProjection projection) {
+    Query query = new Query(Criteria.where(ID).in(ids));
+    return mongoTemplate.find(project(query, projection), Post.class);
+  }
+  
+  private Sort feedSort(Sort.Direction direction) {
+    return Sort.by(direction, COMMENTS_COUNT, CREATED_AT, ID);
+  }
+  
+  /**
+   * Adds the projection to the query. The embedded latest comments are sliced to the requested number of comments,
+   * or left out if no comments are requested.
+   *
+   * @param query      The query.
+   * @param projection The requested fields.
+   * @return The query.
+   */
+  private Query project(Query query, PostProjection projection) {
+    Field fields = query.fields();
+    if (projection.isAllFields()) {
+      if (projection.getComments() == 0) {
+        fields.exclude(LATEST_COMMENTS);
+      } else if (projection.getComments() < NUMBER_OF_COMMENTS_PER_POST) {
+        fields.slice(LATEST_COMMENTS, projection.getComments());
+      }
+      return query;
+    }
+    fields.include(ID, COMMENTS_COUNT, CREATED_AT);
+    projection.getFields().forEach(field -> {
+      if (!PostProjection.COMMENTS_FIELD.equals(field)) {
+        fields.include(field);
+      }
+    });
+    if (projection.getComments() > 0) {
+      fields.slice(LATEST_COMMENTS, projection.getComments());
+    }
+    return query;
+  }
+}
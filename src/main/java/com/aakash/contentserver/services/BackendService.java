@@ -1,8 +1,8 @@
 package com.aakash.contentserver.services;
 
 import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
+import com.aakash.contentserver.interfaces.EntityMapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
@@ -15,15 +15,15 @@ import java.time.Clock;
 @Component
 public abstract class BackendService {
   protected final CircuitBreakerConfiguration circuitBreakerConfig;
-  protected final ModelMapper modelMapper;
+  protected final EntityMapper entityMapper;
   protected final MongoTemplate mongoTemplate;
   protected final ObjectMapper objectMapper;
   protected final Clock clock;
 
   @Autowired
-  protected BackendService(CircuitBreakerConfiguration circuitBreakerConfig, ModelMapper modelMapper, MongoTemplate mongoTemplate, ObjectMapper objectMapper, Clock clock) {
+  protected BackendService(CircuitBreakerConfiguration circuitBreakerConfig, EntityMapper entityMapper, MongoTemplate mongoTemplate, ObjectMapper objectMapper, Clock clock) {
     this.circuitBreakerConfig = circuitBreakerConfig;
-    this.modelMapper = modelMapper;
+    this.entityMapper = entityMapper;
     this.mongoTemplate = mongoTemplate;
     this.objectMapper = objectMapper;
     this.clock = clock;
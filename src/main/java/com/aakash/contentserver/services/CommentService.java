@@ -4,10 +4,12 @@ import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
 import com.aakash.contentserver.dto.CommentDTO;
 import com.aakash.contentserver.dto.PostDTO;
 import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.PostComments;
 import com.aakash.contentserver.enums.ActivityType;
 import com.aakash.contentserver.exceptions.BadRequestException;
 import com.aakash.contentserver.exceptions.ContentServerException;
 import com.aakash.contentserver.exceptions.EntityNotFoundException;
+import com.aakash.contentserver.interfaces.EntityMapper;
 import com.aakash.contentserver.repositories.CommentsRepository;
 import com.aakash.contentserver.repositories.PostRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -15,7 +17,6 @@ import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.ratelimiter.RequestNotPermitted;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import jakarta.validation.Validator;
-import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,9 +28,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.time.Clock;
 import java.time.Instant;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * Service class to handle CRUD operations for Comment entity.
@@ -41,11 +40,11 @@ public class CommentService extends ContentService<CommentDTO> {
   private final PostService postService;
 
   @Autowired
-  public CommentService(CircuitBreakerConfiguration circuitBreakerConfig, ModelMapper modelMapper,
+  public CommentService(CircuitBreakerConfiguration circuitBreakerConfig, EntityMapper entityMapper,
                         MongoTemplate mongoTemplate, ObjectMapper objectMapper, Clock clock, CommentsRepository commentsRepository,
                         PostRepository postRepository, Validator validator, @Lazy PostService postService) {
 
-    super(circuitBreakerConfig, modelMapper, mongoTemplate, objectMapper, clock, commentsRepository, postRepository, validator);
+    super(circuitBreakerConfig, entityMapper, mongoTemplate, objectMapper, clock, commentsRepository, postRepository, validator);
     this.logger = LoggerFactory.getLogger(CommentService.class);
     this.postService = postService;
   }
@@ -73,9 +72,9 @@ public class CommentService extends ContentService<CommentDTO> {
     comment.setCreatedAt(Instant.now(clock));
     try {
       Comment savedComment = commentsRepository.save(comment);
-      postService.incrementCommentCount(savedComment.getPostId());
+      postService.incrementCommentCount(savedComment);
       logger.info("Comment saved successfully for post with id {}", postId);
-      return modelMapper.map(savedComment, CommentDTO.class);
+      return entityMapper.toCommentDTO(savedComment);
     } catch (Exception e) {
       throw new ContentServerException("Error while saving comment", e);
     }
@@ -106,7 +105,7 @@ public class CommentService extends ContentService<CommentDTO> {
     }
     if (comment.isPresent()) {
       logger.info("Comment with id {} fetched successfully", commentId);
-      return modelMapper.map(comment, CommentDTO.class);
+      return entityMapper.toCommentDTO(comment.get());
     } else {
       String errorMessage = "Comment with id " + commentId + " doesn't exist.";
       logger.error(errorMessage);
@@ -142,7 +141,7 @@ public class CommentService extends ContentService<CommentDTO> {
       }
       commentsRepository.deleteById(UUID.fromString(commentId));
       logger.info("Comment with id {} deleted successfully", commentId);
-      postService.decrementCommentCount(comment.get().getPostId());
+      postService.decrementCommentCount(comment.get());
     } else {
       String errorMessage = "Comment with id " + commentId + " doesn't exist.";
       logger.error(errorMessage);
@@ -209,4 +208,25 @@ public class CommentService extends ContentService<CommentDTO> {
   public Optional<List<Comment>> getCommentsByPostId(UUID uuid) {
     return commentsRepository.findByPostId(uuid);
   }
+
+  /**
+   * Get the latest comments for a set of posts with a single query instead of one query per post.
+   *
+   * @param postIds Post ids
+   * @param limit   Number of comments per post
+   * @return Map of post id to its comments in descending order of creation time.
+   * Posts without comments are mapped to an empty list.
+   */
+  public Map<UUID, List<Comment>> getLatestCommentsByPostIds(Collection<UUID> postIds, int limit) {
+    Map<UUID, List<Comment>> commentsByPostId = new HashMap<>();
+    if (postIds.isEmpty() || limit <= 0) {
+      postIds.forEach(postId -> commentsByPostId.put(postId, new ArrayList<>()));
+      return commentsByPostId;
+    }
+    for (PostComments postComments : commentsRepository.findLatestCommentsByPostIdIn(postIds, limit)) {
+      commentsByPostId.put(postComments.getPostId(), postComments.getComments());
+    }
+    postIds.forEach(postId -> commentsByPostId.putIfAbsent(postId, new ArrayList<>()));
+    return commentsByPostId;
+  }
 }
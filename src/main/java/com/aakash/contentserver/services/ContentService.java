@@ -4,6 +4,7 @@ import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
 import com.aakash.contentserver.entities.Content;
 import com.aakash.contentserver.exceptions.ContentServerException;
 import com.aakash.contentserver.exceptions.EntityNotValidException;
+import com.aakash.contentserver.interfaces.EntityMapper;
 import com.aakash.contentserver.repositories.CommentsRepository;
 import com.aakash.contentserver.repositories.PostRepository;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -11,7 +12,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.resilience4j.ratelimiter.RequestNotPermitted;
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Validator;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
@@ -33,9 +33,9 @@ public abstract class ContentService<T> extends BackendService {
   protected final Validator validator;
 
   @Autowired
-  public ContentService(CircuitBreakerConfiguration circuitBreakerConfig, ModelMapper modelMapper, MongoTemplate mongoTemplate,
+  public ContentService(CircuitBreakerConfiguration circuitBreakerConfig, EntityMapper entityMapper, MongoTemplate mongoTemplate,
                         ObjectMapper objectMapper, Clock clock, CommentsRepository commentsRepository, PostRepository postRepository, Validator validator) {
-    super(circuitBreakerConfig, modelMapper, mongoTemplate, objectMapper, clock);
+    super(circuitBreakerConfig, entityMapper, mongoTemplate, objectMapper, clock);
     this.commentsRepository = commentsRepository;
     this.postRepository = postRepository;
     this.validator = validator;
@@ -1,36 +1,274 @@
 package com.aakash.contentserver.services;
 
+import com.aakash.contentserver.cache.PresignedUrlCache;
+import com.aakash.contentserver.cache.RenditionCache;
 import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
+import com.aakash.contentserver.constants.S3Constants;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.ImageContentSource;
 import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.ResizeRequest;
+import com.aakash.contentserver.dto.UploadResult;
 import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.ImageBlob;
+import com.aakash.contentserver.entities.ImageRendition;
+import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.enums.ImageDelivery;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.exceptions.BadRequestException;
 import com.aakash.contentserver.exceptions.EntityNotFoundException;
+import com.aakash.contentserver.exceptions.RangeNotSatisfiableException;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import com.aakash.contentserver.processors.ImageJobQueue;
 import com.aakash.contentserver.processors.ImageProcessor;
 import com.aakash.contentserver.repositories.ImageRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.modelmapper.ModelMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Service class for Image entity related operations.
+ * The content of the images is stored once per ImageBlob. An uploaded image is hashed while it's streamed, and linked
+ * to the blob with the same hash if there's one, so a repeat upload isn't stored or resized again. The blobs count
+ * their images and are deleted with their S3 files when their last image is deleted.
+ * An upload of some content racing with the deletion of the last image with that content can lose the files it
+ * shares with the deleted blob, its image then ends up FAILED.
  */
 @Service
 public class ImageService extends BackendService {
+  private static final String ID = "id";
+  private static final String BLOB_ID = "blobId";
+  private static final String STATUS = "status";
+  private static final String RENDITIONS = "renditions";
+  private static final String REF_COUNT = "refCount";
+  
   private final ImageRepository imageRepository;
   private final ImageProcessor imageProcessor;
+  private final ImageJobQueue imageJobQueue;
+  private final RenditionCache renditionCache;
+  private final PresignedUrlCache presignedUrlCache;
+  private final ImageDelivery imageDelivery;
+  private final Logger logger;
   
   @Autowired
-  public ImageService(CircuitBreakerConfiguration circuitBreakerConfig, ModelMapper modelMapper, Clock clock,
-                      MongoTemplate mongoTemplate, ImageRepository imageRepository, ObjectMapper objectMapper, ImageProcessor imageProcessor) {
-    super(circuitBreakerConfig, modelMapper, mongoTemplate, objectMapper, clock);
+  public ImageService(CircuitBreakerConfiguration circuitBreakerConfig, EntityMapper entityMapper, Clock clock,
+                      MongoTemplate mongoTemplate, ImageRepository imageRepository, ObjectMapper objectMapper,
+                      ImageProcessor imageProcessor, ImageJobQueue imageJobQueue, RenditionCache renditionCache,
+                      PresignedUrlCache presignedUrlCache,
+                      @Value("${contentserver.images.delivery}") ImageDelivery imageDelivery) {
+    super(circuitBreakerConfig, entityMapper, mongoTemplate, objectMapper, clock);
     this.imageRepository = imageRepository;
     this.imageProcessor = imageProcessor;
+    this.imageJobQueue = imageJobQueue;
+    this.renditionCache = renditionCache;
+    this.presignedUrlCache = presignedUrlCache;
+    this.imageDelivery = imageDelivery;
+    this.logger = LoggerFactory.getLogger(ImageService.class);
+  }
+  
+  /**
+   * Method to store the original of an uploaded image once per content.
+   * The image is hashed while it's streamed to S3. If a blob with the same content and activity type exists, a
+   * reference to it is taken and nothing is stored. Otherwise the original is stored under the id of the blob, which
+   * is created, and an image job is queued to create its renditions. A blob whose processing failed is processed again.
+   * The reference taken for the image must be released with releaseBlob if the image isn't saved.
+   *
+   * @param inputStream  Stream of the uploaded image
+   * @param image        The image being uploaded
+   * @param activityType The activity type of the image
+   * @return The blob of the image
+   * @throws IOException If the image can't be read
+   */
+  public ImageBlob storeOriginalImage(InputStream inputStream, Image image, ActivityType activityType) throws IOException {
+    return storeContent(image, activityType, destinationForContent -> imageProcessor.uploadOriginalImageToS3(
+        inputStream, image, imageProcessor.getStagingLocation(image.getId().toString()), destinationForContent));
+  }
+  
+  /**
+   * Method to store the original of an image uploaded by the client to S3 directly, once per content, like
+   * storeOriginalImage. The image is checked against its declared size and SHA-256, and its media type is checked,
+   * before it's linked to a blob.
+   *
+   * @param stagingLocation Where the client uploaded the image
+   * @param size            The declared size of the image in bytes
+   * @param sha256          The declared hex encoded SHA-256 of the image
+   * @param image           The image being uploaded
+   * @param activityType    The activity type of the image
+   * @return The blob of the image
+   * @throws BadRequestException If the image wasn't uploaded, doesn't match its size or SHA-256, or isn't an image
+   */
+  public ImageBlob storeUploadedImage(String stagingLocation, long size, String sha256, Image image,
+                                     ActivityType activityType) throws IOException {
+    return storeContent(image, activityType, destinationForContent ->
+        imageProcessor.completeOriginalImageUpload(stagingLocation, size, sha256, destinationForContent));
+  }
+  
+  /**
+   * Stores an uploaded content, given the destination of the content once it's hashed.
+   */
+  @FunctionalInterface
+  private interface ContentUpload {
+    UploadResult upload(Function<UploadResult, String> destinationForContent) throws IOException;
+  }
+  
+  private ImageBlob storeContent(Image image, ActivityType activityType, ContentUpload contentUpload)
+      throws IOException {
+    AtomicReference<ImageBlob> linkedBlob = new AtomicReference<>();
+    UploadResult uploadResult = contentUpload.upload(content -> {
+      String blobId = getBlobId(content.getSha256(), activityType);
+      Optional<ImageBlob> blob = linkBlob(blobId);
+      blob.ifPresent(linkedBlob::set);
+      return blob.isPresent() ? null : imageProcessor.getOriginalLocation(blobId);
+    });
+    if (linkedBlob.get() != null) {
+      logger.info("Image {} has the content of blob {}, skipping its processing", image.getId(), linkedBlob.get().getId());
+      return linkedBlob.get();
+    }
+    
+    ImageBlob blob = addBlob(getBlobId(uploadResult.getSha256(), activityType), uploadResult, activityType);
+    // The first reference to a new blob queues its processing.
+    boolean processingRequired = blob.getRefCount() == 1 && blob.getStatus() == ProcessingStatus.PENDING;
+    if (blob.getStatus() == ProcessingStatus.FAILED && retryFailedBlob(blob.getId())) {
+      blob.setStatus(ProcessingStatus.PENDING);
+      processingRequired = true;
+    }
+    if (processingRequired) {
+      imageJobQueue.enqueue(image.getId(), image.getPostId(), blob.getId());
+    }
+    return blob;
+  }
+  
+  /**
+   * The id of the blob of some content, the SHA-256 of the content and the activity type, as the renditions depend on
+   * the activity type.
+   */
+  static String getBlobId(String sha256, ActivityType activityType) {
+    return sha256 + "-" + activityType.getValue();
+  }
+  
+  /**
+   * Takes a reference to an existing blob, unless its processing failed.
+   *
+   * @param blobId The id of the blob
+   * @return The referenced blob, or empty if there's no such blob.
+   */
+  private Optional<ImageBlob> linkBlob(String blobId) {
+    Query query = new Query(Criteria.where(ID).is(blobId).and(STATUS).ne(ProcessingStatus.FAILED));
+    return Optional.ofNullable(mongoTemplate.findAndModify(query, new Update().inc(REF_COUNT, 1),
+        FindAndModifyOptions.options().returnNew(true), ImageBlob.class));
+  }
+  
+  /**
+   * Takes a reference to the blob of an uploaded content, creating it if it doesn't exist.
+   */
+  private ImageBlob addBlob(String blobId, UploadResult uploadResult, ActivityType activityType) {
+    Update update = new Update()
+        .inc(REF_COUNT, 1)
+        .setOnInsert("sha256", uploadResult.getSha256())
+        .setOnInsert("activityType", activityType)
+        .setOnInsert("bucketName", S3Constants.BUCKET_NAME)
+        .setOnInsert("originalLocation", imageProcessor.getOriginalLocation(blobId))
+        .setOnInsert("contentType", uploadResult.getContentType())
+        .setOnInsert("sizeInKB", uploadResult.getSize() / 1000)
+        .setOnInsert(STATUS, ProcessingStatus.PENDING)
+        .setOnInsert("createdAt", Instant.now(clock));
+    return mongoTemplate.findAndModify(new Query(Criteria.where(ID).is(blobId)), update,
+        FindAndModifyOptions.options().upsert(true).returnNew(true), ImageBlob.class);
+  }
+  
+  /**
+   * Sets a failed blob back to PENDING, only one of concurrent uploads of its content succeeds.
+   */
+  private boolean retryFailedBlob(String blobId) {
+    return mongoTemplate.updateFirst(new Query(Criteria.where(ID).is(blobId).and(STATUS).is(ProcessingStatus.FAILED)),
+        new Update().set(STATUS, ProcessingStatus.PENDING), ImageBlob.class).getModifiedCount() > 0;
+  }
+  
+  /**
+   * Releases a reference to a blob. The blob and its files in S3 are deleted once it's no longer referenced.
+   *
+   * @param blobId The id of the blob
+   */
+  public void releaseBlob(String blobId) {
+    ImageBlob blob = mongoTemplate.findAndModify(new Query(Criteria.where(ID).is(blobId)),
+        new Update().inc(REF_COUNT, -1), FindAndModifyOptions.options().returnNew(true), ImageBlob.class);
+    if (blob == null || blob.getRefCount() > 0) {
+      return;
+    }
+    // The blob is only deleted if it wasn't referenced again in the meantime.
+    long deletedBlobs = mongoTemplate.remove(new Query(Criteria.where(ID).is(blobId).and(REF_COUNT).lte(0)),
+        ImageBlob.class).getDeletedCount();
+    if (deletedBlobs > 0) {
+      logger.info("Blob {} is no longer referenced, deleting its files", blobId);
+      imageProcessor.deleteImageFiles(blob);
+    }
+  }
+  
+  /**
+   * Method to get a blob from DB
+   *
+   * @param blobId The blob id
+   * @return The blob
+   * @throws EntityNotFoundException If the blob doesn't exist, i.e. all its images were deleted
+   */
+  public ImageBlob getBlob(String blobId) {
+    return Optional.ofNullable(mongoTemplate.findById(blobId, ImageBlob.class))
+        .orElseThrow(() -> new EntityNotFoundException("Image blob not found with id: " + blobId));
+  }
+  
+  /**
+   * Method to save an image with the content of a blob, its status and renditions are the ones of the blob.
+   *
+   * @param image The image entity
+   * @param blob  The blob of the image
+   * @return The saved image entity
+   */
+  public ImageDTO saveImage(Image image, ImageBlob blob) {
+    image.setBlobId(blob.getId());
+    image.setLocation(imageProcessor.getDefaultRenditionLocation(blob.getId(), blob.getActivityType()));
+    image.setSizeInKB(blob.getSizeInKB());
+    image.setSha256(blob.getSha256());
+    image.setStatus(blob.getStatus());
+    image.setRenditions(blob.getRenditions());
+    return saveImage(image);
+  }
+  
+  /**
+   * Method to catch up with a blob that was processed between the time an image was linked to it and the time the
+   * image was saved, as the processing only updates the images saved by then.
+   *
+   * @param image The saved image
+   * @return The new status of the image, or empty if it's still the one of the blob.
+   */
+  public Optional<ProcessingStatus> refreshImageFromBlob(Image image) {
+    ImageBlob blob = getBlob(image.getBlobId());
+    if (blob.getStatus() == image.getStatus()) {
+      return Optional.empty();
+    }
+    mongoTemplate.updateFirst(new Query(Criteria.where(ID).is(image.getId())),
+        new Update().set(STATUS, blob.getStatus()).set(RENDITIONS, blob.getRenditions()), Image.class);
+    return Optional.of(blob.getStatus());
   }
   
   /**
@@ -41,7 +279,7 @@ public class ImageService extends BackendService {
    */
   public ImageDTO saveImage(Image image) {
     Image savedImage = imageRepository.save(image);
-    return modelMapper.map(savedImage, ImageDTO.class);
+    return entityMapper.toImageDTO(savedImage);
   }
   
   /**
@@ -56,22 +294,145 @@ public class ImageService extends BackendService {
     if (image.isEmpty()) {
       throw new EntityNotFoundException("Image not found with id: " + imageId);
     }
-    return modelMapper.map(image, ImageDTO.class);
+    return entityMapper.toImageDTO(image.get());
   }
   
   /**
-   * Method to get the image content from S3 as byte stream.
+   * Method to get the image entity from DB
    *
    * @param imageId The image id
-   * @return The image content as byte stream
-   * @throws IOException If there is an error in downloading the image from S3
+   * @return The image entity
+   * @throws EntityNotFoundException If the image doesn't exist
    */
-  public byte[] getImageContent(String imageId) throws IOException {
-    Optional<Image> image = imageRepository.findById(UUID.fromString(imageId));
-    if (image.isEmpty()) {
-      throw new EntityNotFoundException("Image not found with id: " + imageId);
+  public Image getImageEntity(UUID imageId) {
+    return imageRepository.findById(imageId)
+        .orElseThrow(() -> new EntityNotFoundException("Image not found with id: " + imageId));
+  }
+  
+  /**
+   * Method to update the processing status of a blob and of all its images.
+   * The blob is updated first, so an image saved after its images are updated sees the new status in the blob.
+   *
+   * @param blobId     The blob id
+   * @param status     The new status
+   * @param renditions The renditions created for the blob, or null if they didn't change
+   * @return The ids of the posts of the images of the blob, or empty if the blob no longer exists.
+   */
+  public Optional<List<UUID>> updateBlobStatus(String blobId, ProcessingStatus status, List<ImageRendition> renditions) {
+    Update update = new Update().set(STATUS, status);
+    if (renditions != null) {
+      update.set(RENDITIONS, renditions);
     }
-    return imageProcessor.downloadImageFromS3(image.get());
+    if (mongoTemplate.updateFirst(new Query(Criteria.where(ID).is(blobId)), update, ImageBlob.class)
+        .getMatchedCount() == 0) {
+      return Optional.empty();
+    }
+    Query imagesQuery = new Query(Criteria.where(BLOB_ID).is(blobId));
+    mongoTemplate.updateMulti(imagesQuery, update, Image.class);
+    imagesQuery.fields().include("postId");
+    return Optional.of(mongoTemplate.find(imagesQuery, Image.class).stream()
+        .map(Image::getPostId)
+        .filter(Objects::nonNull)
+        .toList());
+  }
+  
+  /**
+   * Method to delete an image, the reference of the image to its blob is released.
+   *
+   * @param imageId The image id
+   */
+  public void deleteImage(UUID imageId) {
+    Image image = mongoTemplate.findAndRemove(new Query(Criteria.where(ID).is(imageId)), Image.class);
+    if (image != null && image.getBlobId() != null) {
+      releaseBlob(image.getBlobId());
+    }
+  }
+  
+  /**
+   * Method to find the file an image content request is served from.
+   *
+   * @param imageId       The image id
+   * @param rendition     The name of the rendition, the default rendition is served if it and resizeRequest are null
+   * @param resizeRequest The on demand rendition, or null to serve a stored rendition
+   * @return The source of the content
+   * @throws EntityNotFoundException If the image doesn't exist
+   * @throws BadRequestException     If the image doesn't have the rendition, or if it's resized but has no blob, i.e.
+   *                                 it was uploaded before the blobs were introduced
+   */
+  public ImageContentSource getImageContentSource(String imageId, String rendition, ResizeRequest resizeRequest) {
+    Image image = getImageEntity(UUID.fromString(imageId));
+    if (resizeRequest != null) {
+      if (image.getBlobId() == null) {
+        throw new BadRequestException("Image " + imageId + " can't be resized, only its renditions are available");
+      }
+      return new ImageContentSource(image, imageProcessor.getResizedLocation(image.getBlobId(), resizeRequest),
+          resizeRequest);
+    }
+    if (rendition == null) {
+      return new ImageContentSource(image, image.getLocation(), null);
+    }
+    ImageRendition imageRendition = Optional.ofNullable(image.getRenditions())
+        .flatMap(renditions -> renditions.stream()
+            .filter(candidate -> rendition.equals(candidate.getName()))
+            .findFirst())
+        .orElseThrow(() -> new BadRequestException("Image " + imageId + " doesn't have the rendition " + rendition));
+    return new ImageContentSource(image, imageRendition.getLocation(), null);
+  }
+  
+  /**
+   * Method to get the presigned S3 URL the image content request is redirected to, when contentserver.images.delivery
+   * is redirect. The on demand renditions aren't redirected, they may not be stored in S3 yet and are served from the
+   * RenditionCache. Neither are the images that aren't READY, their renditions aren't stored yet and the original is
+   * served through the server with the short cache policy, as the redirect is cached for a day.
+   *
+   * @param source The source of the content
+   * @return The presigned URL of the content, or empty if the content is streamed through the server
+   */
+  public Optional<String> getImageContentRedirect(ImageContentSource source) {
+    if (imageDelivery != ImageDelivery.REDIRECT || source.getResizeRequest() != null
+        || source.getImage().getStatus() != ProcessingStatus.READY) {
+      return Optional.empty();
+    }
+    return Optional.of(presignedUrlCache.get(source.getImage().getBucketName(), source.getLocation()));
+  }
+  
+  /**
+   * Method to open the image content, or a range of it, to be streamed.
+   * An on demand rendition is created from the original on its first request. The on demand renditions are cached by
+   * the RenditionCache and stored in S3 under the blob of the image, so images with the same content share them, and
+   * concurrent requests for the same rendition resize the image once.
+   *
+   * @param source The source of the content
+   * @param range  The requested range, or null for the whole content
+   * @return The image content, to be closed once it's read
+   * @throws IOException                  If there is an error in reading the original from S3
+   * @throws RangeNotSatisfiableException If the range starts after the end of the content
+   */
+  public FileContent openImageContent(ImageContentSource source, HttpRange range) throws IOException {
+    if (source.getResizeRequest() == null) {
+      return imageProcessor.openImageFile(source.getImage(), source.getLocation(), range);
+    }
+    return FileContent.of(ByteBuffer.wrap(getResizedRendition(source)), range);
+  }
+  
+  /**
+   * Method to get the length of the image content without streaming it, to answer a HEAD request.
+   *
+   * @param source The source of the content
+   * @return The length of the content in bytes
+   * @throws IOException If there is an error in reading the original from S3
+   */
+  public long getImageContentLength(ImageContentSource source) throws IOException {
+    if (source.getResizeRequest() == null) {
+      return imageProcessor.getImageFileLength(source.getImage(), source.getLocation());
+    }
+    return getResizedRendition(source).length;
+  }
+  
+  private byte[] getResizedRendition(ImageContentSource source) throws IOException {
+    String blobId = source.getImage().getBlobId();
+    return renditionCache.get(source.getLocation(),
+        () -> imageProcessor.getResizedRendition(getBlob(blobId), source.getResizeRequest()));
   }
   
 }
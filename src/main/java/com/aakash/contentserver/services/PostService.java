@@ -1,18 +1,31 @@
 package com.aakash.contentserver.services;
 
+import com.aakash.contentserver.cache.PostCache;
+import com.aakash.contentserver.cache.PostCountEstimator;
+import com.aakash.contentserver.cache.PostLeaderboard;
 import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
 import com.aakash.contentserver.constants.ImageConstants;
 import com.aakash.contentserver.constants.S3Constants;
 import com.aakash.contentserver.dto.CommentDTO;
 import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.PostCursor;
 import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.dto.PostProjection;
+import com.aakash.contentserver.dto.PostUploadDTO;
 import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.CommentSnapshot;
 import com.aakash.contentserver.entities.FileType;
 import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.ImageBlob;
 import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.entities.PostUpload;
 import com.aakash.contentserver.enums.ActivityType;
 import com.aakash.contentserver.enums.ImageType;
+import com.aakash.contentserver.enums.ProcessingStatus;
 import com.aakash.contentserver.exceptions.*;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import com.aakash.contentserver.processors.CommentCountBuffer;
+import com.aakash.contentserver.processors.ImageJobQueue;
 import com.aakash.contentserver.processors.ImageProcessor;
 import com.aakash.contentserver.repositories.CommentsRepository;
 import com.aakash.contentserver.repositories.PostRepository;
@@ -21,34 +34,40 @@ import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.ratelimiter.RequestNotPermitted;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import jakarta.validation.Validator;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
-import static com.aakash.contentserver.constants.CommonConstants.NUMBER_OF_COMMENTS_PER_POST;
-import static com.aakash.contentserver.constants.CommonConstants.UPLOAD_DIR;
+import static com.aakash.contentserver.constants.CommonConstants.COMMENT_COUNT_READ_ATTEMPTS;
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CACHE_NAME;
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CURSOR_CACHE_NAME;
 
 /**
  * Service class to handle CRUD operations for Post entity.
@@ -56,25 +75,48 @@ import static com.aakash.contentserver.constants.CommonConstants.UPLOAD_DIR;
 @Service
 public class PostService extends ContentService<PostDTO> {
   
+  private static final Pattern SHA_256_HEX = Pattern.compile("[0-9a-f]{64}");
+  
   private final Logger logger;
   private final ImageProcessor imageProcessor;
   private final ImageService imageService;
   
   private final CommentService commentService;
   
-  public PostService(PostRepository postRepository, ModelMapper modelMapper, MongoTemplate mongoTemplate,
+  private final PostLeaderboard postLeaderboard;
+  
+  private final CommentCountBuffer commentCountBuffer;
+  
+  private final PostCountEstimator postCountEstimator;
+  
+  private final PostCache postCache;
+  
+  private final ImageJobQueue imageJobQueue;
+  
+  public PostService(PostRepository postRepository, EntityMapper entityMapper, MongoTemplate mongoTemplate,
                      ObjectMapper objectMapper, Clock clock, CommentsRepository commentsRepository, Validator validator,
                      ImageProcessor imageProcessor, ImageService imageService, CircuitBreakerConfiguration circuitBreakerConfig,
-                     @Lazy CommentService commentService) {
-    super(circuitBreakerConfig, modelMapper, mongoTemplate, objectMapper, clock, commentsRepository, postRepository, validator);
+                     @Lazy CommentService commentService, PostLeaderboard postLeaderboard,
+                     CommentCountBuffer commentCountBuffer, PostCountEstimator postCountEstimator,
+                     PostCache postCache, ImageJobQueue imageJobQueue) {
+    super(circuitBreakerConfig, entityMapper, mongoTemplate, objectMapper, clock, commentsRepository, postRepository, validator);
     this.imageProcessor = imageProcessor;
     this.imageService = imageService;
     this.commentService = commentService;
+    this.postLeaderboard = postLeaderboard;
+    this.commentCountBuffer = commentCountBuffer;
+    this.postCountEstimator = postCountEstimator;
+    this.postCache = postCache;
+    this.imageJobQueue = imageJobQueue;
     logger = LoggerFactory.getLogger(PostService.class);
   }
   
   /**
    * Method to save a post with an image.
+   * The post is returned once the original image is stored, the image is processed later by an image job, and the
+   * imageStatus of the post tells whether the processed image is available.
+   * The post is refused up front with a ServiceUnavailableException when the image job queue is full, rather than
+   * saved with an image that wouldn't be processed for a long time.
    *
    * @param caption      Caption for the post
    * @param creator      Creator of the post
@@ -89,67 +131,185 @@ public class PostService extends ContentService<PostDTO> {
     post.setCreator(creator);
     logger.info("Validating post entity");
     validateEntity(post);
+    imageJobQueue.checkCapacity();
     try {
       post.setId(UUID.randomUUID());
       post.setCreatedAt(Instant.now(clock));
       post.setCommentsCount(0L);
+      post.setLatestComments(new ArrayList<>());
       Post savedPost = postRepository.save(post);
+      postLeaderboard.addPost(savedPost);
       logger.info("Post saved successfully with id: " + savedPost.getId());
-      processImageUpload(savedPost.getId(), uploadedFile, uploadedFile.getSize(), ActivityType.POST);
-      return convertToTarget(savedPost, PostDTO.class);
+      return processImageUpload(savedPost.getId(), uploadedFile, uploadedFile.getSize(), ActivityType.POST);
+    } catch (UserException | ServiceUnavailableException e) {
+      throw e;
     } catch (Exception e) {
       throw new ContentServerException(e.getMessage(), e);
     }
   }
   
   /**
-   * Method to process the image upload for a post. This methods uploads the original and resized image to S3.
+   * Method to process the image upload for a post. This methods uploads the original image to S3 and queues an image
+   * job that uploads the resized image.
    * Original images are uploaded to "original" folder and resized images are uploaded to "resized' folder.
    * To associate the image with the post, the an entity for the image is created which contains the post id.
-   * Once the image is uploaded to S3, the image entity is saved to the database and the associated post entity is updated
-   * with the image url.
+   * The content of the image is stored once, an image with the same content as an earlier upload is linked to the
+   * ImageBlob of that upload and gets its renditions without being stored or resized again.
+   * Once the original image is stored, the image entity is saved to the database with the status of its blob and the
+   * associated post entity is updated with the image url and status.
+   * The original image is streamed to S3 from the request, without a temp file, and the resized image is created by
+   * the ImageJobWorker from the original in S3.
    *
    * @param postId       The id of the post
    * @param file         The image file
    * @param fileSize     The size of the image file
    * @param activityType The type of activity for which the image is being uploaded
+   * @return PostDTO The post updated with the image
    */
-  public void processImageUpload(UUID postId, MultipartFile file, long fileSize, ActivityType activityType) {
-    
-    File filePath;
+  public PostDTO processImageUpload(UUID postId, MultipartFile file, long fileSize, ActivityType activityType) {
+    Image image = newImage(postId);
     try {
-      filePath = File.createTempFile(UPLOAD_DIR + postId, "_" + file.getOriginalFilename());
-      // Transfer the contents of the uploaded file to the temporary file
-      file.transferTo(filePath);
+      ImageBlob blob;
+      try (InputStream inputStream = file.getInputStream()) {
+        blob = imageService.storeOriginalImage(inputStream, image, activityType);
+      }
+      return attachImage(postId, image, blob);
     } catch (IOException e) {
-      throw new ContentServerException("Error while moving uploaded file to temp storage.", e);
+      logger.error("Error while processing image for postId: " + postId, e);
+      throw new ImageProcessingException(String.format("Error while processing image for postId %s", postId), e);
+    } catch (UserException | ServiceUnavailableException e) {
+      throw e;
+    } catch (Exception e) {
+      logger.error("Error while saving image for postId: " + postId, e);
+      throw new ContentServerException(e.getMessage(), e);
     }
+  }
+  
+  /**
+   * Method to start a post whose image is uploaded by the client straight to S3, so the image doesn't go through the
+   * server. The caption and the creator are validated, and the client gets the id of the post and a presigned PUT
+   * for the image. The size and the SHA-256 of the image are signed, S3 refuses an upload that doesn't match them.
+   * The post is created by completePostUpload once the image is uploaded.
+   *
+   * @param caption Caption for the post
+   * @param creator Creator of the post
+   * @param size    Size of the image in bytes
+   * @param sha256  Hex encoded SHA-256 of the image
+   * @return PostUploadDTO the id of the post and the presigned PUT
+   * @throws BadRequestException If the size or the SHA-256 is invalid
+   */
+  public PostUploadDTO startPostUpload(String caption, String creator, long size, String sha256) {
+    Post post = new Post();
+    post.setContent(caption);
+    post.setCreator(creator);
+    validateEntity(post);
+    if (size <= 0 || size > ImageConstants.DIRECT_UPLOAD_MAX_BYTES) {
+      throw new BadRequestException("Invalid size " + size + ", it must be between 1 and "
+          + ImageConstants.DIRECT_UPLOAD_MAX_BYTES + " bytes");
+    }
+    if (sha256 == null || !SHA_256_HEX.matcher(sha256).matches()) {
+      throw new BadRequestException("Invalid SHA-256 " + sha256 + ", it must be 64 lowercase hex digits");
+    }
+    imageJobQueue.checkCapacity();
+    PostUpload upload = new PostUpload();
+    upload.setId(UUID.randomUUID());
+    upload.setCaption(caption);
+    upload.setCreator(creator);
+    upload.setSize(size);
+    upload.setSha256(sha256);
+    upload.setStagingLocation(imageProcessor.getStagingLocation(upload.getId().toString()));
+    upload.setCreatedAt(Instant.now(clock));
+    mongoTemplate.insert(upload);
+    logger.info("Post upload {} started", upload.getId());
+    return new PostUploadDTO(upload.getId().toString(),
+        imageProcessor.presignOriginalImageUpload(upload.getStagingLocation(), size, sha256));
+  }
+  
+  /**
+   * Method to complete a post whose image the client uploaded to S3 with the PUT from startPostUpload.
+   * The image is checked against its declared size and SHA-256 and its media type is checked, then it's stored like an
+   * image uploaded through the server, and the post is created. A completion before the image is uploaded can be
+   * retried, an image that fails the checks is deleted and the upload has to be started again.
+   *
+   * @param uploadId The id of the upload, which is the id of the post
+   * @return PostDTO the created post
+   * @throws EntityNotFoundException If the upload doesn't exist, it may have expired
+   * @throws BadRequestException     If the image wasn't uploaded, fails the checks, or if the upload was completed
+   */
+  @RateLimiter(name = "rateLimiterAppWide", fallbackMethod = "localRateLimitFallback")
+  @CircuitBreaker(name = "circuitBreakerAppWide", fallbackMethod = "localCircuitBreakerFallback")
+  public PostDTO completePostUpload(UUID uploadId) {
+    PostUpload upload = Optional.ofNullable(mongoTemplate.findById(uploadId, PostUpload.class))
+        .orElseThrow(() -> new EntityNotFoundException("Post upload not found with id: " + uploadId));
+    imageJobQueue.checkCapacity();
+    Image image = newImage(uploadId);
+    try {
+      ImageBlob blob = imageService.storeUploadedImage(upload.getStagingLocation(), upload.getSize(),
+          upload.getSha256(), image, ActivityType.POST);
+      // Of concurrent completions of the upload, only the one that removes it creates the post.
+      if (mongoTemplate.findAndRemove(new Query(Criteria.where("id").is(uploadId)), PostUpload.class) == null) {
+        imageService.releaseBlob(blob.getId());
+        throw new BadRequestException("Post upload " + uploadId + " is already completed");
+      }
+      Post post = new Post();
+      post.setId(uploadId);
+      post.setContent(upload.getCaption());
+      post.setCreator(upload.getCreator());
+      post.setCreatedAt(Instant.now(clock));
+      post.setCommentsCount(0L);
+      post.setLatestComments(new ArrayList<>());
+      Post savedPost;
+      try {
+        savedPost = postRepository.save(post);
+      } catch (RuntimeException e) {
+        imageService.releaseBlob(blob.getId());
+        throw e;
+      }
+      postLeaderboard.addPost(savedPost);
+      logger.info("Post saved successfully with id: " + savedPost.getId());
+      return attachImage(uploadId, image, blob);
+    } catch (IOException e) {
+      logger.error("Error while processing image for postId: " + uploadId, e);
+      throw new ImageProcessingException(String.format("Error while processing image for postId %s", uploadId), e);
+    } catch (UserException | ServiceUnavailableException e) {
+      throw e;
+    } catch (Exception e) {
+      logger.error("Error while saving image for postId: " + uploadId, e);
+      throw new ContentServerException(e.getMessage(), e);
+    }
+  }
+  
+  private Image newImage(UUID postId) {
     Image image = new Image();
-    //Can be changed to save the resized file size.
-    image.setSizeInKB(fileSize / 1000);
     image.setPostId(postId);
     setFileProperties(image, ImageType.JPG.getValue());
     image.setAccessUri(ImageConstants.ACCESS_URI + image.getId() + ImageConstants.CONTENT_ENDPOINT);
-    
-    String destinationFileName = imageProcessor.getResizedLocation(postId.toString(), ImageType.JPG.getValue());
-    String originalFileName = imageProcessor.getOriginalLocation(postId.toString(), FilenameUtils.getExtension(file.getOriginalFilename()));
-    image.setLocation(destinationFileName);
-    
+    return image;
+  }
+  
+  /**
+   * Saves the image of a post with the content of its stored blob, and updates the post with the image.
+   */
+  private PostDTO attachImage(UUID postId, Image image, ImageBlob blob) {
+    ImageDTO savedImage;
     try {
-      imageProcessor.uploadOriginalImageToS3(filePath, image, originalFileName);
-      imageProcessor.resizeImageAndUploadToS3(filePath, image, activityType);
-      ImageDTO savedImage = imageService.saveImage(image);
-      logger.info("Image saved to db successfully for postId: " + postId);
-      
-      updateImageIdInPost(postId, UUID.fromString(savedImage.getId()), image.getAccessUri());
-      logger.info(String.format("Post updated with imageId %s for postId: %s", savedImage.getId(), postId));
-    } catch (IOException e) {
-      logger.error("Error while processing image for postId: " + postId, e);
-      throw new ImageProcessingException(String.format("Error while processing image for postId %s", postId), e);
-    } catch (Exception e) {
-      logger.error("Error while saving image for postId: " + postId, e);
-      throw new ContentServerException(e.getMessage(), e);
+      savedImage = imageService.saveImage(image, blob);
+    } catch (RuntimeException e) {
+      imageService.releaseBlob(blob.getId());
+      throw e;
+    }
+    logger.info("Image saved to db successfully for postId: " + postId);
+    
+    PostDTO updatedPost = updateImageIdInPost(postId, UUID.fromString(savedImage.getId()), image.getAccessUri(),
+        image.getStatus());
+    logger.info(String.format("Post updated with imageId %s for postId: %s", savedImage.getId(), postId));
+    // The blob may have been processed before the image was saved.
+    Optional<ProcessingStatus> refreshedStatus = imageService.refreshImageFromBlob(image);
+    if (refreshedStatus.isPresent()) {
+      updateImageStatus(postId, refreshedStatus.get());
+      return getPost(postId.toString());
     }
+    return updatedPost;
   }
   
   private <T extends FileType> void setFileProperties(T file, String type) {
@@ -161,6 +321,8 @@ public class PostService extends ContentService<PostDTO> {
   
   /**
    * Method to get a post by id.
+   * The post is read from the post cache, and from the db only if it isn't cached. The returned PostDTO may be shared
+   * with other requests, so it must not be modified.
    *
    * @param postId The id of the post to be fetched.
    * @return PostDTO The fetched post.
@@ -169,17 +331,16 @@ public class PostService extends ContentService<PostDTO> {
   @RateLimiter(name = "rateLimiterAppWide", fallbackMethod = "localRateLimitFallback")
   @CircuitBreaker(name = "circuitBreakerAppWide", fallbackMethod = "localCircuitBreakerFallback")
   public PostDTO getPost(String postId) throws BadRequestException {
-    Optional<Post> fetchedPost;
+    PostDTO postDTO;
     
     try {
-      fetchedPost = postRepository.findById(UUID.fromString(postId));
-      logger.info("Fetched post with id: " + postId);
+      postDTO = postCache.get(UUID.fromString(postId), this::loadPost);
     } catch (Exception e) {
       throw new EntityNotFoundException("Post doesn't exist with id " + postId, e);
     }
     
-    if (fetchedPost.isPresent()) {
-      return convertToTarget(fetchedPost.get(), PostDTO.class);
+    if (postDTO != null) {
+      return postDTO;
     } else {
       String errorMessage = "Post with id: " + postId + " doesn't exist.";
       logger.error(errorMessage);
@@ -187,6 +348,33 @@ public class PostService extends ContentService<PostDTO> {
     }
   }
   
+  /**
+   * Loads a post into the post cache. The comments count includes the comments of the post recorded by this instance
+   * that the CommentCountBuffer hasn't written to the db yet. The post is read again if the buffer wrote changes
+   * during the read, as the db may or may not have had them.
+   *
+   * @param postId The id of the post.
+   * @return The post, or null if it doesn't exist.
+   */
+  private PostDTO loadPost(UUID postId) {
+    Optional<Post> fetchedPost;
+    long pendingDelta;
+    boolean consistentRead;
+    int attempts = 0;
+    do {
+      long stamp = commentCountBuffer.startConsistentRead();
+      fetchedPost = postRepository.findById(postId);
+      pendingDelta = commentCountBuffer.getPendingDelta(postId);
+      consistentRead = commentCountBuffer.validateConsistentRead(stamp);
+    } while (!consistentRead && ++attempts < COMMENT_COUNT_READ_ATTEMPTS);
+    logger.info("Fetched post with id: " + postId);
+    long commentsCountDelta = pendingDelta;
+    return fetchedPost.map(post -> {
+      post.setCommentsCount(Math.max(0, post.getCommentsCount() + commentsCountDelta));
+      return entityMapper.toPostDTO(post);
+    }).orElse(null);
+  }
+  
   /**
    * Method to update a post by id. Only the caption of the post can be updated for now.
    *
@@ -222,7 +410,7 @@ public class PostService extends ContentService<PostDTO> {
    * @param postId  The id of the post to be updated.
    * @param imageId The id of the image to be associated with the post.
    */
-  private void updateImageIdInPost(UUID postId, UUID imageId, String accessUri) {
+  private PostDTO updateImageIdInPost(UUID postId, UUID imageId, String accessUri, ProcessingStatus imageStatus) {
     Optional<Post> fetchedPost;
     try {
       fetchedPost = postRepository.findById(postId);
@@ -235,7 +423,8 @@ public class PostService extends ContentService<PostDTO> {
       Post post = fetchedPost.get();
       if (StringUtils.isNotBlank(accessUri)) post.setImageAccessUri(accessUri);
       if (StringUtils.isNotBlank(postId.toString())) post.setImageId(imageId);
-      saveUpdatedPost(post);
+      post.setImageStatus(imageStatus);
+      return saveUpdatedPost(post);
     } else {
       String errorMessage = "Post with id: " + postId + " doesn't exist.";
       logger.error(errorMessage);
@@ -244,8 +433,22 @@ public class PostService extends ContentService<PostDTO> {
   }
   
   
+  /**
+   * Method to update the processing status of the image of a post.
+   * Only the status is written, so concurrent changes to the post aren't overwritten. The cached post is evicted.
+   *
+   * @param postId      The id of the post
+   * @param imageStatus The new status
+   */
+  public void updateImageStatus(UUID postId, ProcessingStatus imageStatus) {
+    mongoTemplate.updateFirst(new Query(Criteria.where("id").is(postId)), new Update().set("imageStatus", imageStatus),
+        Post.class);
+    postCache.evict(postId);
+  }
+  
   /**
    * Method to update a post entity after any changes.
+   * The updated post replaces the cached one.
    *
    * @param post The post entity to be updated.
    * @return PostDTO The updated post.
@@ -254,7 +457,9 @@ public class PostService extends ContentService<PostDTO> {
     try {
       Post updatedPost = postRepository.save(post);
       logger.info("Post updated successfully with id: " + post.getId());
-      return convertToTarget(updatedPost, PostDTO.class);
+      PostDTO updatedPostDTO = entityMapper.toPostDTO(updatedPost);
+      postCache.put(updatedPostDTO);
+      return updatedPostDTO;
     } catch (Exception e) {
       logger.error("Error while updating post with id: " + post.getId(), e);
       throw new EntityFailedUpdateException(e.getMessage(), e);
@@ -267,27 +472,88 @@ public class PostService extends ContentService<PostDTO> {
    * on each post
    * Fulfils requirement - Retrieve posts via a cursor-based pagination
    * Fetches posts from db with a page size of 10.
+   * The pages within the top LEADERBOARD_SIZE posts are ranked by the in memory post leaderboard, the posts of the page
+   * are then fetched by id. Deeper pages, and all pages until the leaderboard is built, are sorted by the db.
+   * The first FEED_CACHE_MAX_PAGES pages are cached for FEED_CACHE_TTL_SECONDS, and only one of the concurrent
+   * requests for an expired page computes it.
    *
-   * @param pageable The page request
+   * @param pageable   The page request
+   * @param projection The fields and number of comments to fetch
    * @return Page<PostDTO> The fetched posts
    */
   @RateLimiter(name = "rateLimiterAppWide", fallbackMethod = "localRateLimitFallback")
   @CircuitBreaker(name = "circuitBreakerAppWide", fallbackMethod = "localCircuitBreakerFallback")
-  public Page<PostDTO> getTopPosts(Pageable pageable) {
+  @Cacheable(cacheNames = FEED_CACHE_NAME, key = "{'top', #pageable, #projection}", sync = true,
+      condition = "#pageable.pageNumber < T(com.aakash.contentserver.constants.CommonConstants).FEED_CACHE_MAX_PAGES")
+  public Page<PostDTO> getTopPosts(Pageable pageable, PostProjection projection) {
     try {
-      Page<Post> allPosts = postRepository.findAllByOrderByCommentsCountDescCreatedAtDesc(pageable);
-      Page<PostDTO> postDTOPage = allPosts.map(post -> convertToTarget(post, PostDTO.class));
-      for (PostDTO postDTO : postDTOPage) {
-        Optional<List<Comment>> postComments =
-            commentService.getByPostIdOrderByCreatedAtDesc(postDTO.getId(), Pageable.ofSize(NUMBER_OF_COMMENTS_PER_POST));
-        addCommentsDTOToPost(postDTO, postComments);
-      }
-      return postDTOPage;
+      Slice<PostDTO> topPosts = fetchTopPosts(pageable, projection);
+      // Counting the posts would scan the whole collection, so the total comes from the leaderboard if it has every
+      // post, or from an estimate.
+      long totalPosts = isServedByLeaderboard(pageable) && postLeaderboard.isComplete()
+          ? postLeaderboard.size()
+          : postCountEstimator.getEstimatedCount();
+      return new PageImpl<>(topPosts.getContent(), pageable, totalPosts);
     } catch (Exception e) {
       throw new ContentServerException("Error while fetching top posts", e);
     }
   }
   
+  /**
+   * Method to get the top posts based on the number of comments, without the total number of posts.
+   * It's the same as getTopPosts, but the response only tells if there's a next page.
+   *
+   * @param pageable   The page request
+   * @param projection The fields and number of comments to fetch
+   * @return Slice<PostDTO> The fetched posts
+   */
+  @RateLimiter(name = "rateLimiterAppWide", fallbackMethod = "localRateLimitFallback")
+  @CircuitBreaker(name = "circuitBreakerAppWide", fallbackMethod = "localCircuitBreakerFallback")
+  @Cacheable(cacheNames = FEED_CACHE_NAME, key = "{'slice', #pageable, #projection}", sync = true,
+      condition = "#pageable.pageNumber < T(com.aakash.contentserver.constants.CommonConstants).FEED_CACHE_MAX_PAGES")
+  public Slice<PostDTO> getTopPostsSlice(Pageable pageable, PostProjection projection) {
+    try {
+      return fetchTopPosts(pageable, projection);
+    } catch (Exception e) {
+      throw new ContentServerException("Error while fetching top posts", e);
+    }
+  }
+  
+  private Slice<PostDTO> fetchTopPosts(Pageable pageable, PostProjection projection) {
+    if (isServedByLeaderboard(pageable)) {
+      return getTopPostsFromLeaderboard(pageable, projection);
+    }
+    Slice<Post> allPosts = postRepository.findFeedSlice(pageable, projection);
+    return new SliceImpl<>(populateCommentsInPost(allPosts.getContent(), projection), pageable, allPosts.hasNext());
+  }
+  
+  private boolean isServedByLeaderboard(Pageable pageable) {
+    return postLeaderboard.covers(pageable.getOffset() + pageable.getPageSize());
+  }
+  
+  /**
+   * Method to get a page of top posts ranked by the post leaderboard.
+   * The posts are fetched with a single query by id and put back in the ranked order. Posts deleted since they were
+   * ranked are skipped.
+   *
+   * @param pageable   The page request
+   * @param projection The fields and number of comments to fetch
+   * @return Slice<PostDTO> The fetched posts
+   */
+  private Slice<PostDTO> getTopPostsFromLeaderboard(Pageable pageable, PostProjection projection) {
+    List<UUID> postIds = postLeaderboard.getPostIds(pageable.getOffset(), pageable.getPageSize());
+    Map<UUID, Post> postsById = new HashMap<>();
+    postRepository.findFeedPostsByIds(postIds, projection).forEach(post -> postsById.put(post.getId(), post));
+    List<Post> rankedPosts = postIds.stream()
+        .map(postsById::get)
+        .filter(Objects::nonNull)
+        .toList();
+    // The posts below the ranking, if it doesn't have every post, are on the next pages fetched from the db.
+    boolean hasNext = pageable.getOffset() + pageable.getPageSize() < postLeaderboard.size()
+        || !postLeaderboard.isComplete();
+    return new SliceImpl<>(populateCommentsInPost(rankedPosts, projection), pageable, hasNext);
+  }
+  
   /**
    * Fetches all posts from db with a page size of 10.
    *
@@ -299,7 +565,7 @@ public class PostService extends ContentService<PostDTO> {
   public Page<PostDTO> getAllPosts(Pageable pageable) {
     try {
       Page<Post> allPosts = postRepository.findAll(pageable);
-      return allPosts.map(post -> convertToTarget(post, PostDTO.class));
+      return allPosts.map(entityMapper::toPostDTO);
     } catch (Exception e) {
       throw new ContentServerException("Error while fetching all posts", e);
     }
@@ -314,42 +580,126 @@ public class PostService extends ContentService<PostDTO> {
   @RateLimiter(name = "rateLimiterAppWide", fallbackMethod = "localRateLimitFallback")
   @CircuitBreaker(name = "circuitBreakerAppWide", fallbackMethod = "localCircuitBreakerFallback")
   public PostDTO getAllCommentsForAPost(String postId) {
-    PostDTO postDTO = getPost(postId);
+    // getPost may return the cached post, the comments are added to a copy of it.
+    PostDTO postDTO = entityMapper.copyPostDTO(getPost(postId));
     Optional<List<Comment>> postComments = commentService.getCommentsByPostId(UUID.fromString(postId));
     addCommentsDTOToPost(postDTO, postComments);
     return postDTO;
   }
   
-  public List<PostDTO> getNextPostsByCursor(long commentsCount, int pageSize) {
+  /**
+   * Get the posts that come after the cursor in the feed, i.e. the next page.
+   * The pages are cached for FEED_CACHE_TTL_SECONDS by cursor, page size and projection. The cursor has the comments
+   * count, creation time and id of the post, so two requests share a page only if they start at the same post.
+   *
+   * @param cursor     The position of the last post of the current page. The first page is returned if it's null.
+   * @param pageSize   The number of posts to fetch.
+   * @param projection The fields and number of comments to fetch.
+   * @return List of posts in the feed order.
+   */
+  @Cacheable(cacheNames = FEED_CURSOR_CACHE_NAME, key = "{'next', #cursor, #pageSize, #projection}", sync = true)
+  public List<PostDTO> getNextPostsByCursor(PostCursor cursor, int pageSize, PostProjection projection) {
     try {
-      Pageable pageable = PageRequest.of(0, pageSize);
-      List<Post> allPosts = postRepository.findByCommentsCountLessThanOrderByCommentsCountDesc(commentsCount, pageable);
-      return populateCommentsInPost(allPosts);
+      List<Post> allPosts = postRepository.findFeedAfterCursor(cursor, pageSize, projection);
+      return populateCommentsInPost(allPosts, projection);
     } catch (Exception e) {
       throw new ContentServerException("Exception while fetching posts by cursor", e);
     }
   }
   
-  public List<PostDTO> getPreviousPostsByCursor(long commentsCount, int pageSize) {
+  /**
+   * Get the posts that come before the cursor in the feed, i.e. the previous page.
+   *
+   * @param cursor     The position of the first post of the current page. Nothing comes before the first page, so an
+   *                   empty list is returned if it's null.
+   * @param pageSize   The number of posts to fetch.
+   * @param projection The fields and number of comments to fetch.
+   * @return List of posts in the feed order.
+   */
+  @Cacheable(cacheNames = FEED_CURSOR_CACHE_NAME, key = "{'prev', #cursor, #pageSize, #projection}", sync = true)
+  public List<PostDTO> getPreviousPostsByCursor(PostCursor cursor, int pageSize, PostProjection projection) {
+    if (cursor == null) {
+      return new ArrayList<>();
+    }
     try {
-      Pageable pageable = PageRequest.of(0, pageSize);
-      List<Post> allPosts = postRepository.findByCommentsCountGreaterThanOrderByCommentsCountDesc(commentsCount, pageable);
-      return populateCommentsInPost(allPosts);
+      List<Post> allPosts = new ArrayList<>(postRepository.findFeedBeforeCursor(cursor, pageSize, projection));
+      // The posts are fetched nearest to the cursor first, they're reversed to be returned in the feed order.
+      Collections.reverse(allPosts);
+      return populateCommentsInPost(allPosts, projection);
     } catch (Exception e) {
       throw new ContentServerException("Exception while fetching posts by cursor", e);
     }
   }
   
-  private List<PostDTO> populateCommentsInPost(List<Post> allPosts) {
-    List<PostDTO> postDTOPage = allPosts.stream().map(post -> convertToTarget(post, PostDTO.class)).toList();
-    for (PostDTO postDTO : postDTOPage) {
-      Optional<List<Comment>> postComments =
-          commentService.getByPostIdOrderByCreatedAtDesc(postDTO.getId(), Pageable.ofSize(NUMBER_OF_COMMENTS_PER_POST));
-      addCommentsDTOToPost(postDTO, postComments);
+  /**
+   * Method to convert the posts of a page to DTOs along with their latest comments.
+   * The latest comments are read from the snapshots embedded in the post. Posts whose embedded list is incomplete,
+   * e.g. the ones created before the list was introduced, get their comments from a single aggregation
+   * for the whole page, so the number of db round trips doesn't grow with the page size.
+   * The comments aren't fetched at all if the projection doesn't ask for any.
+   *
+   * @param allPosts   The posts of the page.
+   * @param projection The fields and number of comments requested.
+   * @return List of post DTOs in the same order as the posts.
+   */
+  private List<PostDTO> populateCommentsInPost(List<Post> allPosts, PostProjection projection) {
+    List<PostDTO> postDTOPage = new ArrayList<>(allPosts.size());
+    if (projection.getComments() == 0) {
+      boolean commentsRequested = projection.getFields().contains(PostProjection.COMMENTS_FIELD);
+      allPosts.forEach(post -> {
+        PostDTO postDTO = entityMapper.toPostDTO(post);
+        // An empty list is returned for comments=0, the field is left out if it wasn't requested at all.
+        if (!commentsRequested) {
+          postDTO.setComments(null);
+        }
+        postDTOPage.add(postDTO);
+      });
+      return postDTOPage;
+    }
+    Map<UUID, PostDTO> postsWithoutSnapshots = new HashMap<>();
+    for (Post post : allPosts) {
+      PostDTO postDTO = entityMapper.toPostDTO(post);
+      if (hasCompleteLatestComments(post, projection.getComments())) {
+        addCommentSnapshotsToPost(postDTO, post.getLatestComments());
+      } else {
+        postsWithoutSnapshots.put(post.getId(), postDTO);
+      }
+      postDTOPage.add(postDTO);
+    }
+    if (!postsWithoutSnapshots.isEmpty()) {
+      Map<UUID, List<Comment>> commentsByPostId =
+          commentService.getLatestCommentsByPostIds(postsWithoutSnapshots.keySet(), projection.getComments());
+      postsWithoutSnapshots.forEach((postId, postDTO) ->
+          addCommentsDTOToPost(postDTO, Optional.ofNullable(commentsByPostId.get(postId))));
     }
     return postDTOPage;
   }
   
+  /**
+   * Checks if the embedded latest comments of a post hold all the comments the feed needs.
+   *
+   * @param post     The post entity.
+   * @param comments The number of comments requested.
+   * @return true if the embedded list can be served as is.
+   */
+  private boolean hasCompleteLatestComments(Post post, int comments) {
+    long expectedComments = Math.min(comments, post.getCommentsCount());
+    return post.getLatestComments() != null && post.getLatestComments().size() >= expectedComments;
+  }
+  
+  /**
+   * Method to add the embedded comment snapshots of a post to the post DTO.
+   *
+   * @param postDTO          The post DTO to which the comments are to be added.
+   * @param commentSnapshots The embedded comments of the post.
+   */
+  private void addCommentSnapshotsToPost(PostDTO postDTO, List<CommentSnapshot> commentSnapshots) {
+    List<CommentDTO> commentDTOList = new ArrayList<>(commentSnapshots.size());
+    commentSnapshots.forEach(commentSnapshot ->
+        commentDTOList.add(entityMapper.toCommentDTO(commentSnapshot, postDTO.getId())));
+    postDTO.setComments(commentDTOList);
+  }
+  
   /**
    * Method to add comments to a post DTO.
    *
@@ -358,54 +708,40 @@ public class PostService extends ContentService<PostDTO> {
    */
   private void addCommentsDTOToPost(PostDTO postDTO, Optional<List<Comment>> postComments) {
     if (postComments.isPresent()) {
-      List<CommentDTO> commentDTOList = new ArrayList<>();
-      postComments.get().forEach(comment -> {
-        CommentDTO commentDTO = modelMapper.map(comment, CommentDTO.class);
-        commentDTOList.add(commentDTO);
-      });
+      List<CommentDTO> commentDTOList = new ArrayList<>(postComments.get().size());
+      postComments.get().forEach(comment -> commentDTOList.add(entityMapper.toCommentDTO(comment)));
       postDTO.setComments(commentDTOList);
     } else {
       postDTO.setComments(new ArrayList<>());
     }
   }
   
-  private <D, T> D convertToTarget(T inClass, Class<D> outClass) {
-    return modelMapper.map(inClass, outClass);
-  }
-  
   /**
-   * Increments the comments count for a given post.
-   * MongoDB's $inc operator inherently supports atomic updates.
-   * So an explicit lock is not required to maintain data integrity. In case the db doesn't support atomic updates,
-   * we can use an explicit lock.
-   * In a production environment, the @Async functionality can be achieved using even driven architecture,
-   * which will take the load of this service.
+   * Increments the comments count for a given post and adds the comment to the embedded latest comments.
+   * The change is buffered and written to the db by the CommentCountBuffer along with the other changes of the post,
+   * as a single $inc and $push with $sort and $slice. So the embedded list stays sorted by creation time and
+   * bounded to NUMBER_OF_COMMENTS_PER_POST entries.
    *
-   * @param postId The id of the post for which the comment is to be created.
+   * @param comment The comment that was created.
    */
-  @Async("taskExecutor")
-  public void incrementCommentCount(UUID postId) {
-    Query query = new Query(Criteria.where("id").is(postId));
-    Update update = new Update().inc("commentsCount", 1);
-    mongoTemplate.updateFirst(query, update, Post.class);
+  public void incrementCommentCount(Comment comment) {
+    commentCountBuffer.addComment(comment.getPostId(), entityMapper.toCommentSnapshot(comment));
+    postLeaderboard.updateCommentsCount(comment.getPostId(), 1);
+    postCache.updateCommentsCount(comment.getPostId(), 1);
   }
   
   
   /**
-   * Decrements the comments count for a given post.
-   * MongoDB's $inc operator inherently supports atomic updates.
-   * So an explicit lock is not required to maintain data integrity. In case the db doesn't support atomic updates,
-   * * we can use an explicit lock.
-   * In a production environment, the @Async functionality can be achieved using even driven architecture,
-   * which will take the load of this service.
+   * Decrements the comments count for a given post and removes the comment from the embedded latest comments.
+   * The change is buffered and written to the db by the CommentCountBuffer along with the other changes of the post.
+   * If the deleted comment was one of the embedded comments, the list is refilled from the comments collection.
    *
-   * @param postId The id of the post for which the comment is to be deleted.
+   * @param comment The comment that was deleted.
    */
-  @Async("taskExecutor")
-  public void decrementCommentCount(UUID postId) {
-    Query query = new Query(Criteria.where("id").is(postId));
-    Update update = new Update().inc("commentsCount", -1);
-    mongoTemplate.updateFirst(query, update, Post.class);
+  public void decrementCommentCount(Comment comment) {
+    commentCountBuffer.removeComment(comment.getPostId(), comment.getId());
+    postLeaderboard.updateCommentsCount(comment.getPostId(), -1);
+    postCache.updateCommentsCount(comment.getPostId(), -1);
   }
   
   /**
@@ -456,15 +792,44 @@ public class PostService extends ContentService<PostDTO> {
     return Page.empty();
   }
   
+  /**
+   * Method to handle rate limit fallback for the feed requests with a projection.
+   *
+   * @param pageable   The page request
+   * @param projection The requested fields
+   * @param exception  The exception thrown
+   * @return Page<PostDTO> The fallback response
+   */
+  private Page<PostDTO> localRateLimitFallback(Pageable pageable, PostProjection projection, RequestNotPermitted exception) {
+    return localRateLimitFallback(pageable, exception);
+  }
+  
+  /**
+   * Method to handle circuit breaker fallback for the feed requests with a projection.
+   *
+   * @param pageable   The page request
+   * @param projection The requested fields
+   * @param exception  The exception thrown
+   * @return Page<PostDTO> The fallback response
+   */
+  protected Page<PostDTO> localCircuitBreakerFallback(Pageable pageable, PostProjection projection,
+                                                      RequestNotPermitted exception) {
+    return localCircuitBreakerFallback(pageable, exception);
+  }
+  
   public void deletePost(String postId) {
     Optional<Post> fetchedPost = postRepository.findById(UUID.fromString(postId));
     try {
       if (fetchedPost.isPresent()) {
         postRepository.deleteById(UUID.fromString(postId));
+        if (fetchedPost.get().getImageId() != null) {
+          imageService.deleteImage(fetchedPost.get().getImageId());
+        }
       } else {
         throw new EntityNotFoundException("Post doesn't exist with id " + postId);
       }
-      postRepository.deleteById(UUID.fromString(postId));
+      postLeaderboard.removePost(UUID.fromString(postId));
+      postCache.evict(UUID.fromString(postId));
       logger.info("Post with id {} deleted successfully", postId);
     } catch (Exception e) {
       throw new ContentServerException("Error while deleting post " + postId, e);
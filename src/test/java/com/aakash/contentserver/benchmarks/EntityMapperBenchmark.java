@@ -0,0 +1,134 @@
+package com.aakash.contentserver.benchmarks;
+
+import com.aakash.contentserver.dto.CommentDTO;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.impl.EntityMapperImpl;
+import org.modelmapper.Converter;
+import org.modelmapper.ModelMapper;
+import org.modelmapper.PropertyMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.aakash.contentserver.constants.CommonConstants.NUMBER_OF_COMMENTS_PER_POST;
+
+/**
+ * Compares the ModelMapper the services used to map the feed with EntityMapperImpl, on a feed page of 50 posts with
+ * their embedded latest comments.
+ * Run the main method from the test classpath, e.g. from the IDE after mvn test-compile. Pass -prof gc through
+ * the JMH command line to compare the allocations as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityMapperBenchmark {
+  private static final int PAGE_SIZE = 50;
+
+  private List<Post> posts;
+  private ModelMapper modelMapper;
+  private EntityMapperImpl entityMapper;
+
+  @Setup
+  public void setUp() {
+    modelMapper = createModelMapper();
+    entityMapper = new EntityMapperImpl();
+    posts = new ArrayList<>(PAGE_SIZE);
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      Post post = new Post();
+      post.setId(UUID.randomUUID());
+      post.setContent("caption " + i);
+      post.setCreator("creator " + i);
+      post.setCreatedAt(Instant.now());
+      post.setImageId(UUID.randomUUID());
+      post.setImageAccessUri("https://bucket.s3.amazonaws.com/" + post.getImageId() + ".jpg");
+      post.setCommentsCount(NUMBER_OF_COMMENTS_PER_POST);
+      List<CommentSnapshot> latestComments = new ArrayList<>(NUMBER_OF_COMMENTS_PER_POST);
+      for (int j = 0; j < NUMBER_OF_COMMENTS_PER_POST; j++) {
+        CommentSnapshot commentSnapshot = new CommentSnapshot();
+        commentSnapshot.setId(UUID.randomUUID());
+        commentSnapshot.setContent("comment " + j);
+        commentSnapshot.setCreator("commenter " + j);
+        commentSnapshot.setCreatedAt(Instant.now());
+        latestComments.add(commentSnapshot);
+      }
+      post.setLatestComments(latestComments);
+      posts.add(post);
+    }
+  }
+
+  @Benchmark
+  public List<PostDTO> modelMapper() {
+    List<PostDTO> page = new ArrayList<>(posts.size());
+    for (Post post : posts) {
+      PostDTO postDTO = modelMapper.map(post, PostDTO.class);
+      List<CommentDTO> comments = new ArrayList<>(post.getLatestComments().size());
+      for (CommentSnapshot commentSnapshot : post.getLatestComments()) {
+        CommentDTO commentDTO = modelMapper.map(commentSnapshot, CommentDTO.class);
+        commentDTO.setPostId(post.getId().toString());
+        comments.add(commentDTO);
+      }
+      postDTO.setComments(comments);
+      page.add(postDTO);
+    }
+    return page;
+  }
+
+  @Benchmark
+  public List<PostDTO> entityMapper() {
+    List<PostDTO> page = new ArrayList<>(posts.size());
+    for (Post post : posts) {
+      PostDTO postDTO = entityMapper.toPostDTO(post);
+      List<CommentDTO> comments = new ArrayList<>(post.getLatestComments().size());
+      for (CommentSnapshot commentSnapshot : post.getLatestComments()) {
+        comments.add(entityMapper.toCommentDTO(commentSnapshot, post.getId()));
+      }
+      postDTO.setComments(comments);
+      page.add(postDTO);
+    }
+    return page;
+  }
+
+  /**
+   * The ModelMapper as it was configured in ConfigClass.
+   */
+  private static ModelMapper createModelMapper() {
+    ModelMapper modelMapper = new ModelMapper();
+    Converter<Long, Long> toNonNullLong = context -> context.getSource() == null ? 0L : context.getSource();
+    modelMapper.addMappings(new PropertyMap<Post, PostDTO>() {
+      @Override
+      protected void configure() {
+        map().setComments(new ArrayList<>());
+      }
+    });
+    modelMapper.createTypeMap(Long.class, Long.class).setConverter(toNonNullLong);
+    return modelMapper;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(EntityMapperBenchmark.class.getSimpleName())
+        .build())
+        .run();
+  }
+}
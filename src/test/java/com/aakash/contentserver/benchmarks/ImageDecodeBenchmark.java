@@ -0,0 +1,87 @@
+package com.aakash.contentserver.benchmarks;
+
+import com.aakash.contentserver.impl.ImageFunctionImpl;
+import net.coobird.thumbnailator.Thumbnails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a large upload at full resolution, as Thumbnailator did before the renditions were derived from a
+ * subsampled decode, with the subsampled decode of ImageFunctionImpl, for the 1080x1080 full rendition of a post.
+ * The inputs are 8000x6000 (48 megapixels) JPEG and PNG images. The GC profiler reports the bytes allocated per
+ * decode in gc.alloc.rate.norm.
+ * Run the main method from the test classpath, e.g. from the IDE after mvn test-compile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ImageDecodeBenchmark {
+  private static final int WIDTH = 8000;
+  private static final int HEIGHT = 6000;
+  private static final int RENDITION_SIZE = 1080;
+
+  @Param({"jpg", "png"})
+  public String format;
+
+  private byte[] encodedImage;
+  private ImageFunctionImpl imageFunction;
+
+  @Setup
+  public void setUp() throws IOException {
+    imageFunction = new ImageFunctionImpl();
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, WIDTH, HEIGHT, Color.BLUE));
+    graphics.fillRect(0, 0, WIDTH, HEIGHT);
+    graphics.dispose();
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(image, format, outputStream);
+    encodedImage = outputStream.toByteArray();
+  }
+
+  @Benchmark
+  public BufferedImage fullDecode() throws IOException {
+    return Thumbnails.of(new ByteArrayInputStream(encodedImage))
+        .scale(1)
+        .asBufferedImage();
+  }
+
+  @Benchmark
+  public BufferedImage subsampledDecode() throws IOException {
+    return imageFunction.readImage(new ByteArrayInputStream(encodedImage), RENDITION_SIZE, RENDITION_SIZE);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(ImageDecodeBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build())
+        .run();
+  }
+}
@@ -0,0 +1,95 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.dto.FileContent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpRange;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DiskCacheTest {
+
+  @TempDir
+  private Path directory;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void evictLeastRecentlyUsedBeyondBudget() {
+    DiskCache diskCache = new DiskCache("test", directory, 25, meterRegistry);
+    diskCache.put("a", new byte[10]);
+    diskCache.put("b", new byte[10]);
+    diskCache.get("a");
+
+    diskCache.put("c", new byte[10]);
+
+    assertNull(diskCache.get("b"));
+    assertArrayEquals(new byte[10], diskCache.get("a"));
+    assertArrayEquals(new byte[10], diskCache.get("c"));
+    assertEquals(20, diskCache.getTotalBytes());
+    assertEquals(1, meterRegistry.get("disk.cache.evictions").counter().count());
+  }
+
+  @Test
+  void keepLruOrderAcrossRestarts() {
+    DiskCache diskCache = new DiskCache("test", directory, 25, meterRegistry);
+    diskCache.put("a", new byte[10]);
+    diskCache.put("b", new byte[10]);
+    diskCache.get("a");
+    diskCache.saveIndex();
+
+    DiskCache reopenedCache = new DiskCache("test", directory, 25, new SimpleMeterRegistry());
+    reopenedCache.put("c", new byte[10]);
+
+    // b was the least recently used before the restart, so it's evicted first.
+    assertNull(reopenedCache.get("b"));
+    assertArrayEquals(new byte[10], reopenedCache.get("a"));
+  }
+
+  @Test
+  void recordHitsAndMisses() {
+    DiskCache diskCache = new DiskCache("test", directory, 100, meterRegistry);
+    diskCache.put("a", new byte[]{1, 2, 3});
+
+    diskCache.get("a");
+    diskCache.get("missing");
+
+    assertEquals(1, meterRegistry.get("disk.cache.gets").tag("result", "hit").counter().count());
+    assertEquals(1, meterRegistry.get("disk.cache.gets").tag("result", "miss").counter().count());
+    assertEquals(3, meterRegistry.get("disk.cache.served.bytes").counter().count());
+    assertEquals(0.5, meterRegistry.get("disk.cache.hit.ratio").gauge().value());
+  }
+
+  @Test
+  void removeFile() {
+    DiskCache diskCache = new DiskCache("test", directory, 100, meterRegistry);
+    diskCache.put("a", new byte[]{1, 2, 3});
+
+    diskCache.remove("a");
+
+    assertNull(diskCache.get("a"));
+    assertEquals(0, diskCache.getTotalBytes());
+  }
+
+  @Test
+  void openRangeOfCachedFileWithItsPath() throws Exception {
+    DiskCache diskCache = new DiskCache("test", directory, 100, meterRegistry);
+    diskCache.put("a", new byte[]{1, 2, 3, 4, 5});
+
+    try (FileContent content = diskCache.open("a", HttpRange.createByteRange(1, 2))) {
+      assertEquals("bytes 1-2/5", content.getContentRange());
+      assertEquals(1, content.getRangeStart());
+      assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, Files.readAllBytes(content.getFile()));
+      assertArrayEquals(new byte[]{2, 3}, content.getInputStream().readAllBytes());
+    }
+    assertNull(diskCache.open("missing", null));
+    assertEquals(2, meterRegistry.get("disk.cache.served.bytes").counter().count());
+  }
+}
@@ -0,0 +1,81 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.configuration.CacheConfig;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.impl.EntityMapperImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class PostCacheTest {
+
+  private PostCache postCache;
+
+  @BeforeEach
+  void setUp() {
+    postCache = new PostCache(new CacheConfig().cacheManager(), new EntityMapperImpl());
+  }
+
+  @Test
+  void updateCommentsCount() {
+    PostDTO postDTO = new PostDTO();
+    postDTO.setId(UUID.randomUUID());
+    postDTO.setCommentsCount(1);
+    postCache.put(postDTO);
+
+    postCache.updateCommentsCount(postDTO.getId(), 1);
+
+    PostDTO cachedPost = postCache.get(postDTO.getId());
+    assertEquals(2, cachedPost.getCommentsCount());
+    // The cached post is replaced, not modified in place.
+    assertNotSame(postDTO, cachedPost);
+    assertEquals(1, postDTO.getCommentsCount());
+  }
+
+  @Test
+  void updateCommentsCountOfUncachedPost() {
+    UUID postId = UUID.randomUUID();
+
+    postCache.updateCommentsCount(postId, 1);
+
+    assertNull(postCache.get(postId));
+  }
+
+  @Test
+  void getLoadsUncachedPost() {
+    PostDTO postDTO = new PostDTO();
+    postDTO.setId(UUID.randomUUID());
+
+    assertSame(postDTO, postCache.get(postDTO.getId(), postId -> postDTO));
+
+    assertSame(postDTO, postCache.get(postDTO.getId(), postId -> fail("The cached post is loaded again")));
+    postCache.updateCommentsCount(postDTO.getId(), 1);
+    assertEquals(1, postCache.get(postDTO.getId()).getCommentsCount());
+  }
+
+  @Test
+  void missingPostIsNotCached() {
+    UUID postId = UUID.randomUUID();
+
+    assertNull(postCache.get(postId, id -> null));
+    assertNull(postCache.get(postId));
+  }
+
+  @Test
+  void evict() {
+    PostDTO postDTO = new PostDTO();
+    postDTO.setId(UUID.randomUUID());
+    postCache.put(postDTO);
+
+    postCache.evict(postDTO.getId());
+
+    assertNull(postCache.get(postDTO.getId()));
+  }
+}
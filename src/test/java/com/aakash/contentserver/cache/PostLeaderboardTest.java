@@ -0,0 +1,192 @@
+package com.aakash.contentserver.cache;
+
+import com.aakash.contentserver.constants.CommonConstants;
+import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.processors.CommentCountBuffer;
+import org.bson.BsonBinary;
+import org.bson.UuidRepresentation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PostLeaderboardTest {
+
+  @Mock
+  private MongoTemplate mongoTemplate;
+  @Mock
+  private CommentCountBuffer commentCountBuffer;
+
+  private PostLeaderboard postLeaderboard;
+
+  private Post popularPost;
+  private Post newPost;
+  private Post oldPost;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    postLeaderboard = new PostLeaderboard(mongoTemplate, commentCountBuffer, new MongoProperties());
+    when(commentCountBuffer.validateConsistentRead(anyLong())).thenReturn(true);
+    Instant now = Instant.now();
+    popularPost = createPost(5, now.minusSeconds(60));
+    newPost = createPost(0, now);
+    oldPost = createPost(0, now.minusSeconds(30));
+    when(mongoTemplate.find(any(Query.class), eq(Post.class))).thenReturn(List.of(oldPost, popularPost, newPost));
+  }
+
+  @Test
+  void rebuild() {
+    assertFalse(postLeaderboard.isReady());
+
+    postLeaderboard.rebuild();
+
+    assertTrue(postLeaderboard.isReady());
+    assertEquals(3, postLeaderboard.size());
+    assertEquals(List.of(popularPost.getId(), newPost.getId(), oldPost.getId()), postLeaderboard.getPostIds(0, 10));
+    assertEquals(List.of(oldPost.getId()), postLeaderboard.getPostIds(2, 10));
+  }
+
+  @Test
+  void updateCommentsCount() {
+    postLeaderboard.rebuild();
+
+    postLeaderboard.updateCommentsCount(oldPost.getId(), 6);
+    postLeaderboard.updateCommentsCount(popularPost.getId(), -5);
+
+    assertEquals(List.of(oldPost.getId(), newPost.getId(), popularPost.getId()), postLeaderboard.getPostIds(0, 10));
+  }
+
+  @Test
+  void addAndRemovePost() {
+    postLeaderboard.rebuild();
+    Post createdPost = createPost(0, Instant.now().plusSeconds(1));
+
+    postLeaderboard.addPost(createdPost);
+    postLeaderboard.removePost(popularPost.getId());
+
+    assertEquals(List.of(createdPost.getId(), newPost.getId(), oldPost.getId()), postLeaderboard.getPostIds(0, 10));
+  }
+
+  @Test
+  void changesMadeDuringRebuildAreKept() {
+    postLeaderboard.rebuild();
+    Post createdPost = createPost(0, Instant.now().plusSeconds(1));
+    when(mongoTemplate.find(any(Query.class), eq(Post.class))).thenAnswer(invocation -> {
+      // Changes made while the posts are read, after the removed post has been read and before the new post is read.
+      postLeaderboard.removePost(popularPost.getId());
+      postLeaderboard.addPost(createdPost);
+      return List.of(oldPost, popularPost, newPost);
+    });
+    // Comments recorded by this instance that haven't been written to the db yet.
+    when(commentCountBuffer.getPendingDeltas()).thenReturn(Map.of(oldPost.getId(), 2L));
+
+    postLeaderboard.rebuild();
+
+    assertEquals(List.of(oldPost.getId(), createdPost.getId(), newPost.getId()), postLeaderboard.getPostIds(0, 10));
+  }
+
+  @Test
+  void rebuildIsRetriedIfCommentChangesWereWritten() {
+    when(commentCountBuffer.validateConsistentRead(anyLong())).thenReturn(false, true);
+
+    postLeaderboard.rebuild();
+
+    verify(mongoTemplate, times(2)).find(any(Query.class), eq(Post.class));
+    assertEquals(3, postLeaderboard.size());
+  }
+
+  @Test
+  void rankingIsBoundedToTheTopPosts() {
+    postLeaderboard.rebuild();
+    assertTrue(postLeaderboard.isComplete());
+    assertTrue(postLeaderboard.covers(CommonConstants.LEADERBOARD_SIZE * 2L));
+
+    List<Post> topPosts = new ArrayList<>();
+    Instant now = Instant.now();
+    for (int i = 0; i <= CommonConstants.LEADERBOARD_SIZE; i++) {
+      topPosts.add(createPost(1, now.minusSeconds(i)));
+    }
+    when(mongoTemplate.find(any(Query.class), eq(Post.class))).thenReturn(topPosts);
+    postLeaderboard.rebuild();
+
+    assertEquals(CommonConstants.LEADERBOARD_SIZE, postLeaderboard.size());
+    assertFalse(postLeaderboard.isComplete());
+    assertTrue(postLeaderboard.covers(CommonConstants.LEADERBOARD_SIZE));
+    assertFalse(postLeaderboard.covers(CommonConstants.LEADERBOARD_SIZE + 1L));
+    assertEquals(List.of(topPosts.get(CommonConstants.LEADERBOARD_SIZE - 1).getId()),
+        postLeaderboard.getPostIds(CommonConstants.LEADERBOARD_SIZE - 1, 10));
+
+    // A removed post leaves the last page short of posts, so it's fetched from the db.
+    postLeaderboard.removePost(topPosts.get(0).getId());
+    assertFalse(postLeaderboard.covers(CommonConstants.LEADERBOARD_SIZE));
+    // A new post pushes the last ranked post out.
+    postLeaderboard.addPost(createPost(2, now));
+    postLeaderboard.addPost(createPost(2, now));
+    assertEquals(CommonConstants.LEADERBOARD_SIZE, postLeaderboard.size());
+  }
+
+  @Test
+  void tiesAreRankedInTheOrderOfTheDb() {
+    Instant now = Instant.now();
+    List<Post> tiedPosts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      tiedPosts.add(createPost(1, now));
+    }
+    when(mongoTemplate.find(any(Query.class), eq(Post.class))).thenReturn(tiedPosts);
+
+    postLeaderboard.rebuild();
+
+    // The db sorts _id descending by the unsigned bytes of the binary, which are little endian halves by default.
+    List<UUID> dbOrder = tiedPosts.stream()
+        .map(Post::getId)
+        .sorted(Comparator.comparing((UUID id) -> new BsonBinary(id, UuidRepresentation.JAVA_LEGACY).getData(),
+            Arrays::compareUnsigned).reversed())
+        .toList();
+    assertEquals(dbOrder, postLeaderboard.getPostIds(0, 100));
+  }
+
+  @Test
+  void idOrderMatchesTheBinaryOfEachRepresentation() {
+    List<UUID> ids = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ids.add(UUID.randomUUID());
+    }
+    for (UuidRepresentation uuidRepresentation : List.of(UuidRepresentation.STANDARD, UuidRepresentation.JAVA_LEGACY,
+        UuidRepresentation.C_SHARP_LEGACY, UuidRepresentation.PYTHON_LEGACY)) {
+      List<UUID> binaryOrder = ids.stream()
+          .sorted(Comparator.comparing(id -> new BsonBinary(id, uuidRepresentation).getData(), Arrays::compareUnsigned))
+          .toList();
+      assertEquals(binaryOrder, ids.stream().sorted(PostLeaderboard.idOrder(uuidRepresentation)).toList());
+    }
+  }
+
+  private Post createPost(long commentsCount, Instant createdAt) {
+    Post post = new Post();
+    post.setId(UUID.randomUUID());
+    post.setCommentsCount(commentsCount);
+    post.setCreatedAt(createdAt);
+    return post;
+  }
+}
@@ -0,0 +1,91 @@
+package com.aakash.contentserver.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenditionCacheTest {
+
+  @TempDir
+  private Path directory;
+
+  private DiskCache diskCache;
+
+  @BeforeEach
+  void setUp() {
+    diskCache = new DiskCache("renditions", directory, 1024, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void concurrentMissesLoadOnce() throws Exception {
+    RenditionCache renditionCache = new RenditionCache(new SimpleMeterRegistry(), diskCache, 1024);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RenditionCache.Loader loader = () -> {
+      loads.incrementAndGet();
+      loading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new byte[]{1};
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<byte[]> first = executor.submit(() -> renditionCache.get("key", loader));
+      assertTrue(loading.await(5, TimeUnit.SECONDS));
+      Future<byte[]> second = executor.submit(() -> renditionCache.get("key", loader));
+      Future<byte[]> third = executor.submit(() -> renditionCache.get("key", loader));
+      release.countDown();
+
+      assertArrayEquals(new byte[]{1}, first.get(5, TimeUnit.SECONDS));
+      assertArrayEquals(new byte[]{1}, second.get(5, TimeUnit.SECONDS));
+      assertArrayEquals(new byte[]{1}, third.get(5, TimeUnit.SECONDS));
+      assertEquals(1, loads.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void readFromDiskWhenNotInMemory() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    new RenditionCache(new SimpleMeterRegistry(), diskCache, 1024)
+        .get("key", () -> new byte[]{(byte) loads.incrementAndGet()});
+
+    // A new instance, e.g. after a restart, starts with an empty memory tier.
+    byte[] content = new RenditionCache(new SimpleMeterRegistry(), diskCache, 1024)
+        .get("key", () -> new byte[]{(byte) loads.incrementAndGet()});
+
+    assertArrayEquals(new byte[]{1}, content);
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void failedLoadIsNotCached() throws Exception {
+    RenditionCache renditionCache = new RenditionCache(new SimpleMeterRegistry(), diskCache, 1024);
+
+    assertThrows(IOException.class, () -> renditionCache.get("key", () -> {
+      throw new IOException("failed");
+    }));
+
+    assertArrayEquals(new byte[]{2}, renditionCache.get("key", () -> new byte[]{2}));
+  }
+}
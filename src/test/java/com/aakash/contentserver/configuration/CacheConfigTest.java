@@ -0,0 +1,47 @@
+package com.aakash.contentserver.configuration;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.aakash.contentserver.constants.CommonConstants.FEED_CACHE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CacheConfigTest {
+
+  @Test
+  void feedCacheComputesAPageOnce() throws Exception {
+    Cache feedCache = new CacheConfig().cacheManager().getCache(FEED_CACHE_NAME);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> pages = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        pages.add(executor.submit(() -> {
+          start.await();
+          return feedCache.get("top", () -> {
+            loads.incrementAndGet();
+            Thread.sleep(100);
+            return "page";
+          });
+        }));
+      }
+      start.countDown();
+      for (Future<String> page : pages) {
+        assertEquals("page", page.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(1, loads.get());
+  }
+}
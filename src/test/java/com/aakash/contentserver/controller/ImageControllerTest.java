@@ -0,0 +1,103 @@
+package com.aakash.contentserver.controller;
+
+import com.aakash.contentserver.aspect.ErrorHandlingAspect;
+import com.aakash.contentserver.configuration.CacheControlFilter;
+import com.aakash.contentserver.constants.ImageConstants;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.ImageContentSource;
+import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.exceptions.RangeNotSatisfiableException;
+import com.aakash.contentserver.exceptions.ServiceUnavailableException;
+import com.aakash.contentserver.services.ImageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ImageControllerTest {
+
+  private static final String SHORT_CACHE_CONTROL = "public, max-age=5, must-revalidate";
+
+  @Mock
+  private ImageService imageService;
+
+  private MockMvc mockMvc;
+  private ImageContentSource source;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mockMvc = MockMvcBuilders.standaloneSetup(new ImageController(imageService))
+        .setControllerAdvice(new ErrorHandlingAspect())
+        .addFilters(new CacheControlFilter())
+        .build();
+    Image image = new Image();
+    image.setId(UUID.randomUUID());
+    image.setStatus(ProcessingStatus.READY);
+    image.setCreatedAt(Instant.parse("2024-01-01T00:00:00Z"));
+    source = new ImageContentSource(image, "compressed/compressed-blob-feed.jpg", null);
+    Mockito.when(imageService.getImageContentSource(Mockito.anyString(), Mockito.any(), Mockito.any()))
+        .thenReturn(source);
+    Mockito.when(imageService.getImageContentRedirect(source)).thenReturn(Optional.empty());
+  }
+
+  @Test
+  void processedImageIsImmutable() throws Exception {
+    Mockito.when(imageService.openImageContent(source, null))
+        .thenReturn(FileContent.of(ByteBuffer.wrap(new byte[]{1, 2, 3}), null));
+
+    mockMvc.perform(get("/v1/images/{imageId}/content", source.getImage().getId()))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, ImageConstants.IMAGE_CACHE_CONTROL))
+        .andExpect(header().string(HttpHeaders.ETAG, source.getETag()));
+  }
+
+  @Test
+  void unsatisfiableRangeIsNotCachedAsImmutable() throws Exception {
+    Mockito.when(imageService.openImageContent(Mockito.eq(source), Mockito.any()))
+        .thenThrow(new RangeNotSatisfiableException("Range is outside of the file", 3));
+
+    mockMvc.perform(get("/v1/images/{imageId}/content", source.getImage().getId())
+            .header(HttpHeaders.RANGE, "bytes=10-20"))
+        .andExpect(status().isRequestedRangeNotSatisfiable())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, SHORT_CACHE_CONTROL))
+        .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+        .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED));
+  }
+
+  @Test
+  void rejectedResizeIsNotCachedAsImmutable() throws Exception {
+    Mockito.when(imageService.openImageContent(source, null))
+        .thenThrow(new ServiceUnavailableException("Too many images are being resized", 1));
+
+    mockMvc.perform(get("/v1/images/{imageId}/content", source.getImage().getId()))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, SHORT_CACHE_CONTROL))
+        .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+  }
+
+  @Test
+  void pendingImageKeepsShortCacheControl() throws Exception {
+    source.getImage().setStatus(ProcessingStatus.PENDING);
+    Mockito.when(imageService.openImageContent(source, null))
+        .thenReturn(FileContent.of(ByteBuffer.wrap(new byte[]{1, 2, 3}), null));
+
+    mockMvc.perform(get("/v1/images/{imageId}/content", source.getImage().getId()))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, SHORT_CACHE_CONTROL));
+  }
+}
@@ -0,0 +1,72 @@
+package com.aakash.contentserver.controller;
+
+import com.aakash.contentserver.aspect.ErrorHandlingAspect;
+import com.aakash.contentserver.constants.CommonConstants;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.processors.ImageProcessor;
+import com.aakash.contentserver.services.PostService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.data.web.SlicedResourcesAssembler;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class PostControllerTest {
+
+  @Mock
+  private PostService postService;
+  @Mock
+  private PagedResourcesAssembler<PostDTO> pagedResourcesAssembler;
+  @Mock
+  private SlicedResourcesAssembler<PostDTO> slicedResourcesAssembler;
+  @Mock
+  private ImageProcessor imageProcessor;
+
+  private MockMvc mockMvc;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mockMvc = MockMvcBuilders.standaloneSetup(
+            new PostController(postService, pagedResourcesAssembler, slicedResourcesAssembler, imageProcessor))
+        .setControllerAdvice(new ErrorHandlingAspect())
+        .build();
+  }
+
+  @Test
+  void emptyCursorPageIsRejected() throws Exception {
+    mockMvc.perform(get("/v1/posts/next-posts").param("pageSize", "0"))
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/v1/posts/prev-posts").param("pageSize", "-1"))
+        .andExpect(status().isBadRequest());
+
+    Mockito.verifyNoInteractions(postService);
+  }
+
+  @Test
+  void keysetPageSizeIsValidated() throws Exception {
+    mockMvc.perform(get("/v1/posts").param("cursor", "").param("size", "0"))
+        .andExpect(status().isBadRequest());
+
+    Mockito.verifyNoInteractions(postService);
+  }
+
+  @Test
+  void oversizedPageIsRejected() throws Exception {
+    String oversized = String.valueOf(CommonConstants.MAX_PAGE_SIZE + 1);
+
+    mockMvc.perform(get("/v1/posts").param("size", oversized))
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(get("/v1/posts/slice").param("size", oversized))
+        .andExpect(status().isBadRequest());
+
+    Mockito.verifyNoInteractions(postService);
+  }
+}
@@ -0,0 +1,42 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.exceptions.RangeNotSatisfiableException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpRange;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileContentTest {
+
+  private final ByteBuffer file = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+  @Test
+  void serveSuffixRange() throws Exception {
+    FileContent content = FileContent.of(file, HttpRange.createSuffixRange(3));
+
+    assertEquals("bytes 7-9/10", content.getContentRange());
+    assertArrayEquals(new byte[]{7, 8, 9}, content.getInputStream().readAllBytes());
+  }
+
+  @Test
+  void serveWholeFile() throws Exception {
+    FileContent content = FileContent.of(file, null);
+
+    assertFalse(content.isPartial());
+    assertEquals(10, content.getContentLength());
+    assertEquals(10, content.getInputStream().readAllBytes().length);
+  }
+
+  @Test
+  void rejectRangeAfterEnd() {
+    RangeNotSatisfiableException exception = assertThrows(RangeNotSatisfiableException.class,
+        () -> FileContent.of(file, HttpRange.createByteRange(10, 20)));
+
+    assertEquals(10, exception.getTotalLength());
+  }
+}
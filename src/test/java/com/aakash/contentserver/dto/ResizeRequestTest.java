@@ -0,0 +1,27 @@
+package com.aakash.contentserver.dto;
+
+import com.aakash.contentserver.enums.ResizeFit;
+import com.aakash.contentserver.exceptions.BadRequestException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResizeRequestTest {
+
+  @Test
+  void snapToGrid() {
+    // Sizes are rounded up to the next allowed size and qualities to the nearest allowed quality.
+    assertEquals(new ResizeRequest(320, 640, ResizeFit.COVER, 65), ResizeRequest.of(300, 500, "COVER", 70));
+    assertEquals(new ResizeRequest(1920, 1920, ResizeFit.CONTAIN, 80), ResizeRequest.of(5000, null, null, null));
+    assertEquals("256x256-contain-q90", ResizeRequest.of(null, 256, "contain", 100).getName());
+  }
+
+  @Test
+  void rejectInvalidParams() {
+    assertThrows(BadRequestException.class, () -> ResizeRequest.of(null, null, "cover", 80));
+    assertThrows(BadRequestException.class, () -> ResizeRequest.of(0, 100, null, null));
+    assertThrows(BadRequestException.class, () -> ResizeRequest.of(100, 100, "stretch", null));
+    assertThrows(BadRequestException.class, () -> ResizeRequest.of(100, 100, null, 101));
+  }
+}
@@ -0,0 +1,83 @@
+package com.aakash.contentserver.impl;
+
+import com.aakash.contentserver.dto.CommentDTO;
+import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.Post;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntityMapperImplTest {
+
+  private final EntityMapperImpl entityMapper = new EntityMapperImpl();
+
+  @Test
+  void toPostDTO() {
+    Post post = new Post();
+    post.setId(UUID.randomUUID());
+    post.setContent("caption");
+    post.setCreator("creator");
+    post.setCreatedAt(Instant.now());
+    post.setImageId(UUID.randomUUID());
+    post.setImageAccessUri("https://bucket/image.jpg");
+    post.setCommentsCount(4);
+
+    PostDTO postDTO = entityMapper.toPostDTO(post);
+
+    assertEquals(post.getId(), postDTO.getId());
+    assertEquals(post.getContent(), postDTO.getContent());
+    assertEquals(post.getCreator(), postDTO.getCreator());
+    assertEquals(post.getCreatedAt(), postDTO.getCreatedAt());
+    assertEquals(post.getImageId(), postDTO.getImageId());
+    assertEquals(post.getImageAccessUri(), postDTO.getImageAccessUri());
+    assertEquals(4, postDTO.getCommentsCount());
+    assertTrue(postDTO.getComments().isEmpty());
+    assertNull(entityMapper.toPostDTO(null));
+  }
+
+  @Test
+  void toCommentDTO() {
+    Comment comment = new Comment();
+    comment.setId(UUID.randomUUID());
+    comment.setPostId(UUID.randomUUID());
+    comment.setContent("comment");
+    comment.setCreatedAt(Instant.now());
+
+    CommentDTO commentDTO = entityMapper.toCommentDTO(comment);
+    CommentSnapshot commentSnapshot = entityMapper.toCommentSnapshot(comment);
+    CommentDTO snapshotDTO = entityMapper.toCommentDTO(commentSnapshot, comment.getPostId());
+
+    assertEquals(comment.getId(), commentDTO.getId());
+    assertEquals(comment.getPostId().toString(), commentDTO.getPostId());
+    assertEquals(comment.getContent(), commentDTO.getContent());
+    assertNull(commentDTO.getImageId());
+    assertEquals(commentDTO.getId(), snapshotDTO.getId());
+    assertEquals(commentDTO.getPostId(), snapshotDTO.getPostId());
+    assertEquals(commentDTO.getCreatedAt(), snapshotDTO.getCreatedAt());
+  }
+
+  @Test
+  void toImageDTO() {
+    Image image = new Image();
+    image.setId(UUID.randomUUID());
+    image.setPostId(UUID.randomUUID());
+    image.setAccessUri("https://bucket/image.jpg");
+    image.setType("jpg");
+
+    ImageDTO imageDTO = entityMapper.toImageDTO(image);
+
+    assertEquals(image.getId().toString(), imageDTO.getId());
+    assertEquals(image.getPostId().toString(), imageDTO.getPostId());
+    assertEquals(image.getAccessUri(), imageDTO.getAccessUri());
+    assertEquals(image.getType(), imageDTO.getType());
+  }
+}
@@ -0,0 +1,49 @@
+package com.aakash.contentserver.impl;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ImageFunctionImplTest {
+
+  private final ImageFunctionImpl imageFunction = new ImageFunctionImpl();
+
+  @Test
+  void getSubsampling() {
+    // 8000x6000 into 1080x1080 fits at 1080x810, so the image is decoded at twice that, every 3rd pixel.
+    assertEquals(3, ImageFunctionImpl.getSubsampling(8000, 6000, 1080, 1080, false));
+    assertEquals(1, ImageFunctionImpl.getSubsampling(1200, 900, 1080, 1080, false));
+    assertEquals(1, ImageFunctionImpl.getSubsampling(500, 500, 1080, 1080, false));
+    // Covering 300x300 scales 8000x6000 to 400x300 rather than 300x225.
+    assertEquals(13, ImageFunctionImpl.getSubsampling(8000, 6000, 300, 300, false));
+    assertEquals(10, ImageFunctionImpl.getSubsampling(8000, 6000, 300, 300, true));
+  }
+
+  @Test
+  void readImageSubsampled() throws Exception {
+    BufferedImage image = imageFunction.readImage(new ByteArrayInputStream(encode(4000, 3000, "jpg")), 300, 300);
+
+    // Every 6th pixel of every 6th row, still twice the 300x225 the image is resized to.
+    assertEquals(667, image.getWidth());
+    assertEquals(500, image.getHeight());
+  }
+
+  @Test
+  void readSmallImageAtFullResolution() throws Exception {
+    BufferedImage image = imageFunction.readImage(new ByteArrayInputStream(encode(400, 300, "png")), 1080, 1080);
+
+    assertEquals(400, image.getWidth());
+    assertEquals(300, image.getHeight());
+  }
+
+  private static byte[] encode(int width, int height, String format) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, outputStream);
+    return outputStream.toByteArray();
+  }
+}
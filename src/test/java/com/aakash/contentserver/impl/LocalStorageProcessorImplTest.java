@@ -0,0 +1,168 @@
+package com.aakash.contentserver.impl;
+
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.UploadResult;
+import com.aakash.contentserver.dto.PresignedUpload;
+import com.aakash.contentserver.exceptions.BadRequestException;
+import com.aakash.contentserver.exceptions.ForbiddenException;
+import com.aakash.contentserver.exceptions.StorageFileNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpRange;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.aakash.contentserver.constants.S3Constants.BUCKET_NAME;
+import static com.aakash.contentserver.constants.S3Constants.EXPIRES_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.KEY_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SHA256_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SIGNATURE_PARAM;
+import static com.aakash.contentserver.constants.S3Constants.SIZE_PARAM;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalStorageProcessorImplTest {
+
+  private static final Instant NOW = Instant.parse("2024-07-01T10:00:00Z");
+  private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+  @TempDir
+  private Path rootDirectory;
+
+  private LocalStorageProcessorImpl storage;
+
+  @BeforeEach
+  void setUp() {
+    storage = new LocalStorageProcessorImpl(rootDirectory.toString(), "http://localhost:8080", "secret",
+        Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @Test
+  void uploadStreamMovesFileToContentLocation() throws Exception {
+    byte[] file = png(20_000);
+
+    UploadResult result = storage.uploadStream(new ByteArrayInputStream(file), "staging/upload-image",
+        contentType -> contentType.startsWith("image/"), content -> "original/" + content.getSha256());
+
+    assertEquals("image/png", result.getContentType());
+    assertEquals(file.length, result.getSize());
+    assertArrayEquals(file,
+        Files.readAllBytes(rootDirectory.resolve(BUCKET_NAME).resolve("original/" + result.getSha256())));
+    // Nothing is left in the staging directory.
+    try (Stream<Path> staged = Files.list(rootDirectory.resolve(BUCKET_NAME).resolve("staging"))) {
+      assertEquals(0, staged.count());
+    }
+  }
+
+  @Test
+  void serveRangeOfStoredFile() throws Exception {
+    byte[] file = png(1000);
+    storage.uploadFileAsByteStream(file, "compressed/compressed-blob-feed.jpg");
+
+    try (FileContent content = storage.openFile(BUCKET_NAME, "compressed/compressed-blob-feed.jpg",
+        HttpRange.createByteRange(100, 199))) {
+      assertEquals("bytes 100-199/1000", content.getContentRange());
+      assertArrayEquals(Arrays.copyOfRange(file, 100, 200), content.getInputStream().readAllBytes());
+    }
+    assertEquals(1000, storage.getFileLength(BUCKET_NAME, "compressed/compressed-blob-feed.jpg"));
+  }
+
+  @Test
+  void deleteFilesWithPrefixKeepsOtherFiles() {
+    storage.uploadFileAsByteStream(new byte[]{1}, "resized/blob/64x64-contain-q80.jpg");
+    storage.uploadFileAsByteStream(new byte[]{2}, "resized/blob/128x128-cover-q80.jpg");
+    storage.uploadFileAsByteStream(new byte[]{3}, "resized/other/64x64-contain-q80.jpg");
+
+    storage.deleteFilesWithPrefix(BUCKET_NAME, "resized/blob/");
+
+    assertFalse(Files.exists(rootDirectory.resolve(BUCKET_NAME).resolve("resized/blob/64x64-contain-q80.jpg")));
+    assertFalse(Files.exists(rootDirectory.resolve(BUCKET_NAME).resolve("resized/blob/128x128-cover-q80.jpg")));
+    assertTrue(Files.exists(rootDirectory.resolve(BUCKET_NAME).resolve("resized/other/64x64-contain-q80.jpg")));
+  }
+
+  @Test
+  void missingAndInvalidKeys() {
+    assertThrows(StorageFileNotFoundException.class, () -> storage.downloadFileAsStream(BUCKET_NAME, "original/missing"));
+    assertThrows(BadRequestException.class, () -> storage.deleteFiles(BUCKET_NAME, List.of("../../outside")));
+  }
+
+  @Test
+  void directUploadThroughSignedPut() throws Exception {
+    byte[] file = png(20_000);
+    String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(file));
+    PresignedUpload upload = storage.presignUpload("staging/upload-post", file.length, sha256, Duration.ofMinutes(15));
+    assertEquals("PUT", upload.getMethod());
+    assertEquals(String.valueOf(file.length), upload.getHeaders().get("Content-Length"));
+
+    MultiValueMap<String, String> params = UriComponentsBuilder.fromUriString(upload.getUrl()).build().getQueryParams();
+    storage.receiveUpload(BUCKET_NAME, params.getFirst(KEY_PARAM), Long.parseLong(params.getFirst(SIZE_PARAM)),
+        params.getFirst(SHA256_PARAM), Long.parseLong(params.getFirst(EXPIRES_PARAM)),
+        params.getFirst(SIGNATURE_PARAM), new ByteArrayInputStream(file));
+    UploadResult result = storage.completeUpload("staging/upload-post", file.length, sha256,
+        contentType -> contentType.startsWith("image/"), content -> "original/" + content.getSha256());
+
+    assertEquals("image/png", result.getContentType());
+    assertArrayEquals(file, Files.readAllBytes(rootDirectory.resolve(BUCKET_NAME).resolve("original/" + sha256)));
+    assertFalse(Files.exists(rootDirectory.resolve(BUCKET_NAME).resolve("staging/upload-post")));
+  }
+
+  @Test
+  void signedPutRejectsOtherContentAndForgedSignature() throws Exception {
+    byte[] file = png(1000);
+    String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(file));
+    PresignedUpload upload = storage.presignUpload("staging/upload-post", file.length, sha256, Duration.ofMinutes(15));
+    MultiValueMap<String, String> params = UriComponentsBuilder.fromUriString(upload.getUrl()).build().getQueryParams();
+    long expires = Long.parseLong(params.getFirst(EXPIRES_PARAM));
+    String signature = params.getFirst(SIGNATURE_PARAM);
+
+    assertThrows(BadRequestException.class, () -> storage.receiveUpload(BUCKET_NAME, "staging/upload-post",
+        file.length, sha256, expires, signature, new ByteArrayInputStream(png(1001))));
+    assertThrows(ForbiddenException.class, () -> storage.receiveUpload(BUCKET_NAME, "staging/upload-post",
+        file.length + 1, sha256, expires, signature, new ByteArrayInputStream(file)));
+    assertFalse(storage.exists(BUCKET_NAME, "staging/upload-post"));
+  }
+
+  @Test
+  void signedDownloadUrl() throws Exception {
+    byte[] file = png(1000);
+    storage.uploadFileAsByteStream(file, "compressed/compressed-blob-feed.jpg");
+
+    String url = storage.getPresignedUrl(BUCKET_NAME, "compressed/compressed-blob-feed.jpg", Duration.ofDays(7));
+
+    assertTrue(url.startsWith("http://localhost:8080/v1/storage/" + BUCKET_NAME + "?"));
+    MultiValueMap<String, String> params = UriComponentsBuilder.fromUriString(url).build().getQueryParams();
+    long expires = Long.parseLong(params.getFirst(EXPIRES_PARAM));
+    try (FileContent content = storage.openSignedFile(BUCKET_NAME, params.getFirst(KEY_PARAM), expires,
+        params.getFirst(SIGNATURE_PARAM))) {
+      assertArrayEquals(file, content.getInputStream().readAllBytes());
+    }
+    assertThrows(ForbiddenException.class, () -> storage.openSignedFile(BUCKET_NAME, "original/other", expires,
+        params.getFirst(SIGNATURE_PARAM)));
+  }
+
+  private static byte[] png(int size) {
+    byte[] file = new byte[size];
+    System.arraycopy(PNG_SIGNATURE, 0, file, 0, PNG_SIGNATURE.length);
+    for (int i = PNG_SIGNATURE.length; i < size; i++) {
+      file[i] = (byte) i;
+    }
+    return file;
+  }
+}
@@ -0,0 +1,353 @@
+package com.aakash.contentserver.impl;
+
+import com.aakash.contentserver.cache.DiskCache;
+import com.aakash.contentserver.dto.FileContent;
+import com.aakash.contentserver.dto.PresignedUpload;
+import com.aakash.contentserver.dto.UploadResult;
+import com.aakash.contentserver.exceptions.BadRequestException;
+import com.aakash.contentserver.processors.PartBufferPool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpRange;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static com.aakash.contentserver.constants.ImageConstants.PART_SIZE;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class S3ProcessorImplTest {
+
+  private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+  @Mock
+  private S3Client s3Client;
+
+  @Mock
+  private PartBufferPool partBufferPool;
+
+  private S3ProcessorImpl s3Processor;
+
+  @TempDir
+  private Path cacheDirectory;
+
+  private final byte[] buffer = new byte[16];
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(partBufferPool.acquire()).thenReturn(buffer);
+    when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+        .thenReturn(CreateMultipartUploadResponse.builder().uploadId("uploadId").build());
+    when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+    s3Processor = new S3ProcessorImpl(s3Client, presigner(), partBufferPool, Executors.newFixedThreadPool(2),
+        new DiskCache("s3", cacheDirectory, 1024, new SimpleMeterRegistry()));
+  }
+
+  @Test
+  void uploadPartsInParallel() {
+    byte[] file = new byte[2 * PART_SIZE + 10];
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenAnswer(invocation -> UploadPartResponse.builder()
+            .eTag("etag-" + invocation.getArgument(0, UploadPartRequest.class).partNumber())
+            .build());
+
+    s3Processor.uploadFileAsByteStream(file, "key");
+
+    ArgumentCaptor<RequestBody> partBodies = ArgumentCaptor.forClass(RequestBody.class);
+    verify(s3Client, times(3)).uploadPart(any(UploadPartRequest.class), partBodies.capture());
+    // The last part is sent with its own size, not the part size.
+    assertEquals(List.of((long) PART_SIZE, (long) PART_SIZE, 10L), partBodies.getAllValues().stream()
+        .map(body -> body.optionalContentLength().orElseThrow())
+        .sorted(Comparator.reverseOrder())
+        .toList());
+    ArgumentCaptor<CompleteMultipartUploadRequest> completeRequest =
+        ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+    verify(s3Client).completeMultipartUpload(completeRequest.capture());
+    assertEquals(List.of("etag-1", "etag-2", "etag-3"), completeRequest.getValue().multipartUpload().parts().stream()
+        .map(CompletedPart::eTag)
+        .toList());
+  }
+
+  @Test
+  void abortFailedParallelUpload() {
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenThrow(S3Exception.builder().message("failed").build());
+
+    assertThrows(S3Exception.class, () -> s3Processor.uploadFileAsByteStream(new byte[2 * PART_SIZE], "key"));
+
+    verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+  }
+
+  @Test
+  void uploadSinglePart() throws Exception {
+    byte[] file = png(10);
+
+    UploadResult uploadResult = s3Processor.uploadStream(new ByteArrayInputStream(file), "staging", type -> true, content -> "key");
+
+    assertEquals(10, uploadResult.getSize());
+    assertEquals("image/png", uploadResult.getContentType());
+    assertEquals(sha256(file), uploadResult.getSha256());
+    verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    verify(partBufferPool).release(buffer);
+  }
+
+  @Test
+  void uploadMultipleParts() throws Exception {
+    byte[] file = png(40);
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+    UploadResult uploadResult = s3Processor.uploadStream(new ByteArrayInputStream(file), "staging", type -> true, content -> "key");
+
+    assertEquals(40, uploadResult.getSize());
+    assertEquals(sha256(file), uploadResult.getSha256());
+    verify(s3Client, times(3)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+    verify(s3Client).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    // The file is uploaded to the staging key while it's hashed, and then copied to its content key.
+    ArgumentCaptor<CopyObjectRequest> copyRequest = ArgumentCaptor.forClass(CopyObjectRequest.class);
+    verify(s3Client).copyObject(copyRequest.capture());
+    assertEquals("staging", copyRequest.getValue().sourceKey());
+    assertEquals("key", copyRequest.getValue().destinationKey());
+    verify(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
+    verify(partBufferPool).release(buffer);
+  }
+
+  @Test
+  void skipStoredSinglePartContent() throws Exception {
+    byte[] file = png(10);
+
+    UploadResult uploadResult = s3Processor.uploadStream(new ByteArrayInputStream(file), "staging", type -> true,
+        content -> null);
+
+    assertEquals(sha256(file), uploadResult.getSha256());
+    verifyNoInteractions(s3Client);
+  }
+
+  @Test
+  void dropStoredMultipartContent() throws Exception {
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+
+    s3Processor.uploadStream(new ByteArrayInputStream(png(40)), "staging", type -> true, content -> null);
+
+    verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+    ArgumentCaptor<DeleteObjectsRequest> deleteRequest = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+    verify(s3Client).deleteObjects(deleteRequest.capture());
+    assertEquals("staging", deleteRequest.getValue().delete().objects().get(0).key());
+  }
+
+  @Test
+  void abortFailedMultipartUpload() {
+    when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+        .thenThrow(S3Exception.builder().message("failed").build());
+
+    assertThrows(S3Exception.class,
+        () -> s3Processor.uploadStream(new ByteArrayInputStream(png(40)), "staging", type -> true, content -> "key"));
+
+    verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    verify(partBufferPool).release(buffer);
+  }
+
+  @Test
+  void rejectUnacceptedContentBeforeUpload() {
+    byte[] file = "not an image at all".getBytes();
+
+    assertThrows(BadRequestException.class,
+        () -> s3Processor.uploadStream(new ByteArrayInputStream(file), "staging", type -> type.startsWith("image/"),
+            content -> "key"));
+
+    verifyNoInteractions(s3Client);
+    verify(partBufferPool).release(buffer);
+  }
+
+  @Test
+  void serveRepeatDownloadsFromDiskCache() throws Exception {
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> s3Object(new byte[]{1, 2, 3}, null));
+
+    // The file is cached while it's streamed.
+    readFully(s3Processor.openFile("bucket", "key", null));
+    FileContent range = s3Processor.openFile("bucket", "key", HttpRange.createByteRange(1, 5));
+
+    assertArrayEquals(new byte[]{2, 3}, readFully(range));
+    assertEquals("bytes 1-2/3", range.getContentRange());
+    verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+
+    // A deleted file is dropped from the cache.
+    s3Processor.deleteFiles("bucket", List.of("key"));
+    readFully(s3Processor.openFile("bucket", "key", null));
+    verify(s3Client, times(2)).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  void forwardRangeToS3() throws Exception {
+    when(s3Client.getObject(any(GetObjectRequest.class)))
+        .thenAnswer(invocation -> s3Object(new byte[]{5, 6}, "bytes 5-6/100"));
+
+    FileContent content = s3Processor.openFile("bucket", "key", HttpRange.createByteRange(5, 6));
+
+    ArgumentCaptor<GetObjectRequest> getRequest = ArgumentCaptor.forClass(GetObjectRequest.class);
+    verify(s3Client).getObject(getRequest.capture());
+    assertEquals("bytes=5-6", getRequest.getValue().range());
+    assertTrue(content.isPartial());
+    assertEquals(2, content.getContentLength());
+    assertEquals(100, content.getTotalLength());
+    assertArrayEquals(new byte[]{5, 6}, readFully(content));
+    // Ranges aren't cached.
+    readFully(s3Processor.openFile("bucket", "key", HttpRange.createByteRange(5, 6)));
+    verify(s3Client, times(2)).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  void abandonedDownloadIsNotCached() throws Exception {
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> s3Object(new byte[100], null));
+
+    try (FileContent content = s3Processor.openFile("bucket", "key", null)) {
+      content.getInputStream().read(new byte[10]);
+    }
+    readFully(s3Processor.openFile("bucket", "key", null));
+
+    verify(s3Client, times(2)).getObject(any(GetObjectRequest.class));
+  }
+
+  @Test
+  void presignUrlForLocalStore() {
+    String url = s3Processor.getPresignedUrl("bucket", "compressed/compressed-blob-feed.jpg", Duration.ofDays(7));
+
+    // The URL is signed locally, with the path style of the S3 compatible store.
+    assertTrue(url.startsWith("http://localhost:9000/bucket/compressed/compressed-blob-feed.jpg?"));
+    assertTrue(url.contains("X-Amz-Expires=604800"));
+    assertTrue(url.contains("response-cache-control=public%2C%20max-age%3D31536000%2C%20immutable"));
+    assertTrue(url.contains("X-Amz-Signature="));
+    verifyNoInteractions(s3Client);
+  }
+
+  @Test
+  void presignUploadSignsSizeAndChecksum() throws Exception {
+    byte[] file = png(100);
+
+    PresignedUpload upload = s3Processor.presignUpload("staging/upload-post", file.length, sha256(file),
+        Duration.ofMinutes(15));
+
+    assertEquals("PUT", upload.getMethod());
+    assertTrue(upload.getUrl().startsWith("http://localhost:9000/"));
+    assertEquals(Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(file)),
+        upload.getHeaders().get("x-amz-checksum-sha256"));
+    assertEquals(String.valueOf(file.length), upload.getHeaders().get("content-length"));
+  }
+
+  @Test
+  void completeUploadMovesCheckedFile() throws Exception {
+    byte[] file = png(100);
+    String checksum = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(file));
+    when(s3Client.headObject(any(HeadObjectRequest.class)))
+        .thenReturn(HeadObjectResponse.builder().contentLength((long) file.length).checksumSHA256(checksum).build());
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(s3Object(file, null));
+
+    UploadResult result = s3Processor.completeUpload("staging/upload-post", file.length, sha256(file),
+        contentType -> contentType.startsWith("image/"), content -> "original/" + content.getSha256());
+
+    assertEquals("image/png", result.getContentType());
+    ArgumentCaptor<CopyObjectRequest> copy = ArgumentCaptor.forClass(CopyObjectRequest.class);
+    verify(s3Client).copyObject(copy.capture());
+    assertEquals("original/" + sha256(file), copy.getValue().destinationKey());
+    verify(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
+  }
+
+  @Test
+  void completeUploadDeletesMismatchedFile() throws Exception {
+    byte[] file = png(100);
+    when(s3Client.headObject(any(HeadObjectRequest.class)))
+        .thenReturn(HeadObjectResponse.builder().contentLength(50L).build());
+
+    assertThrows(BadRequestException.class, () -> s3Processor.completeUpload("staging/upload-post", file.length,
+        sha256(file), contentType -> true, content -> "original"));
+
+    verify(s3Client, never()).copyObject(any(CopyObjectRequest.class));
+    verify(s3Client).deleteObjects(any(DeleteObjectsRequest.class));
+  }
+
+  private static S3Presigner presigner() {
+    return S3Presigner.builder()
+        .region(Region.AP_SOUTH_2)
+        .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("access", "secret")))
+        .endpointOverride(URI.create("http://localhost:9000"))
+        .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+        .build();
+  }
+
+  private static ResponseInputStream<GetObjectResponse> s3Object(byte[] content, String contentRange) {
+    return new ResponseInputStream<>(
+        GetObjectResponse.builder().contentLength((long) content.length).contentRange(contentRange).build(),
+        AbortableInputStream.create(new ByteArrayInputStream(content)));
+  }
+
+  private static byte[] readFully(FileContent content) throws Exception {
+    try (content) {
+      return content.getInputStream().readAllBytes();
+    }
+  }
+
+  private static byte[] png(int size) {
+    byte[] file = new byte[size];
+    System.arraycopy(PNG_SIGNATURE, 0, file, 0, PNG_SIGNATURE.length);
+    for (int i = PNG_SIGNATURE.length; i < size; i++) {
+      file[i] = (byte) i;
+    }
+    return file;
+  }
+
+  private static String sha256(byte[] file) throws Exception {
+    return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(file));
+  }
+}
@@ -0,0 +1,268 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.constants.CommonConstants;
+import com.aakash.contentserver.entities.Comment;
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import com.aakash.contentserver.repositories.CommentsRepository;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CommentCountBufferTest {
+
+  @Mock
+  private MongoTemplate mongoTemplate;
+  @Mock
+  private CommentsRepository commentsRepository;
+  @Mock
+  private EntityMapper entityMapper;
+  @Mock
+  private TaskScheduler taskScheduler;
+  @Mock
+  private BulkOperations bulkOperations;
+
+  private CommentCountBuffer commentCountBuffer;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    commentCountBuffer = new CommentCountBuffer(mongoTemplate, commentsRepository, entityMapper, taskScheduler, new SimpleMeterRegistry());
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Post.class)).thenReturn(bulkOperations);
+  }
+
+  @Test
+  void flushMergesChangesOfAPost() {
+    UUID postId = UUID.randomUUID();
+    for (int i = 0; i < 5; i++) {
+      commentCountBuffer.addComment(postId, createSnapshot());
+    }
+
+    commentCountBuffer.flush();
+
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(1)).updateOne(any(Query.class), updateCaptor.capture());
+    verify(bulkOperations, times(1)).execute();
+    Document updateObject = updateCaptor.getValue().getUpdateObject();
+    assertEquals(5L, ((Document) updateObject.get("$inc")).get("commentsCount"));
+    assertFalse(((Document) updateObject.get("$push")).isEmpty());
+  }
+
+  @Test
+  void addedAndRemovedCommentCancelOut() {
+    UUID postId = UUID.randomUUID();
+    CommentSnapshot commentSnapshot = createSnapshot();
+    commentCountBuffer.addComment(postId, commentSnapshot);
+    commentCountBuffer.removeComment(postId, commentSnapshot.getId());
+
+    commentCountBuffer.flush();
+
+    verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Post.class));
+  }
+
+  @Test
+  void flushWritesOneUpdatePerPost() {
+    List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID())
+        .forEach(postId -> commentCountBuffer.addComment(postId, createSnapshot()));
+
+    commentCountBuffer.flush();
+
+    verify(bulkOperations, times(3)).updateOne(any(Query.class), any(Update.class));
+    verify(bulkOperations, times(1)).execute();
+  }
+
+  @Test
+  void onlyFailedPartOfPostChangesIsRetried() {
+    UUID postId = UUID.randomUUID();
+    commentCountBuffer.removeComment(postId, UUID.randomUUID());
+    commentCountBuffer.addComment(postId, createSnapshot());
+    commentCountBuffer.addComment(postId, createSnapshot());
+    // The $pull is the first operation of the post and fails, the $push and $inc is applied.
+    BulkOperationException failure = mock(BulkOperationException.class);
+    when(failure.getErrors()).thenReturn(List.of(new BulkWriteError(1, "failed", new BsonDocument(), 0)));
+    when(bulkOperations.execute()).thenThrow(failure).thenReturn(null);
+    commentCountBuffer.flush();
+    verify(bulkOperations, times(2)).updateOne(any(Query.class), any(Update.class));
+    clearInvocations(bulkOperations);
+
+    commentCountBuffer.flush();
+
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(1)).updateOne(any(Query.class), updateCaptor.capture());
+    Document updateObject = updateCaptor.getValue().getUpdateObject();
+    assertTrue(updateObject.containsKey("$pull"));
+    // The count was applied with the $push, it isn't applied again.
+    assertFalse(updateObject.containsKey("$inc"));
+    assertFalse(updateObject.containsKey("$push"));
+  }
+
+  @Test
+  void changesOfAnUnknownFailureAreRetried() {
+    UUID postId = UUID.randomUUID();
+    commentCountBuffer.addComment(postId, createSnapshot());
+    when(bulkOperations.execute()).thenThrow(new RuntimeException("Socket timeout")).thenReturn(null);
+    commentCountBuffer.flush();
+    clearInvocations(bulkOperations);
+
+    commentCountBuffer.flush();
+
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(1)).updateOne(any(Query.class), updateCaptor.capture());
+    Document updateObject = updateCaptor.getValue().getUpdateObject();
+    assertEquals(1L, ((Document) updateObject.get("$inc")).get("commentsCount"));
+    assertTrue(updateObject.containsKey("$push"));
+  }
+
+  @Test
+  void changesInFlightArePending() {
+    UUID postId = UUID.randomUUID();
+    commentCountBuffer.addComment(postId, createSnapshot());
+    commentCountBuffer.addComment(postId, createSnapshot());
+    long stamp = commentCountBuffer.startConsistentRead();
+    List<Long> pendingDeltasDuringWrite = new ArrayList<>();
+    when(bulkOperations.execute()).thenAnswer(invocation -> {
+      pendingDeltasDuringWrite.add(commentCountBuffer.getPendingDelta(postId));
+      return null;
+    });
+
+    commentCountBuffer.flush();
+
+    assertEquals(List.of(2L), pendingDeltasDuringWrite);
+    assertEquals(0, commentCountBuffer.getPendingDelta(postId));
+    // The read overlapped the write, so it has to be retried.
+    assertFalse(commentCountBuffer.validateConsistentRead(stamp));
+    assertTrue(commentCountBuffer.validateConsistentRead(commentCountBuffer.startConsistentRead()));
+  }
+
+  @Test
+  void fullBufferWritesChangesRightAway() {
+    for (int i = 0; i < CommonConstants.COMMENT_COUNT_MAX_PENDING_POSTS; i++) {
+      commentCountBuffer.addComment(UUID.randomUUID(), createSnapshot());
+    }
+    // A single flush is requested however many changes are recorded over the threshold.
+    verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Instant.class));
+    verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Post.class));
+
+    UUID postId = UUID.randomUUID();
+    commentCountBuffer.addComment(postId, createSnapshot());
+
+    verify(bulkOperations, times(1)).updateOne(any(Query.class), any(Update.class));
+    verify(bulkOperations, times(1)).execute();
+    assertEquals(0, commentCountBuffer.getPendingDelta(postId));
+    assertEquals(CommonConstants.COMMENT_COUNT_MAX_PENDING_POSTS, commentCountBuffer.getPendingDeltas().size());
+  }
+
+  @Test
+  void pullMatchesTheStoredIdOfTheEmbeddedComments() {
+    MappingMongoConverter converter = createConverter();
+    UUID postId = UUID.randomUUID();
+    CommentSnapshot removedComment = createSnapshot();
+    commentCountBuffer.removeComment(postId, removedComment.getId());
+
+    commentCountBuffer.flush();
+
+    ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(1)).updateOne(any(Query.class), updateCaptor.capture());
+    Document pull = (Document) new UpdateMapper(converter)
+        .getMappedObject(updateCaptor.getValue().getUpdateObject(), postEntity(converter))
+        .get("$pull");
+    Document pulledComments = (Document) pull.get("latestComments");
+    // The embedded comments are stored with their id as _id, which is the field the $pull matches.
+    Document storedComment = storedLatestComments(converter, List.of(removedComment)).get(0);
+    assertEquals(storedComment.get("_id"), ((Document) pulledComments.get("_id")).getList("$in", UUID.class).get(0));
+  }
+
+  @Test
+  void refillGuardMatchesTheStoredLatestComments() {
+    MappingMongoConverter converter = createConverter();
+    UUID postId = UUID.randomUUID();
+    commentCountBuffer.removeComment(postId, UUID.randomUUID());
+    Post post = new Post();
+    post.setId(postId);
+    post.setCommentsCount(2);
+    post.setLatestComments(List.of(createSnapshot()));
+    when(mongoTemplate.find(any(Query.class), eq(Post.class))).thenReturn(List.of(post));
+    Comment olderComment = new Comment();
+    when(commentsRepository.findByPostIdOrderByCreatedAtDesc(eq(postId), any(Pageable.class)))
+        .thenReturn(Optional.of(List.of(olderComment)));
+    when(entityMapper.toCommentSnapshot(olderComment)).thenReturn(createSnapshot());
+
+    commentCountBuffer.flush();
+
+    ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).updateFirst(queryCaptor.capture(), any(Update.class), eq(Post.class));
+    Document guard = new QueryMapper(converter)
+        .getMappedObject(queryCaptor.getValue().getQueryObject(), postEntity(converter));
+    // The array equality only matches if the list is mapped to the documents the post stores.
+    assertEquals(storedLatestComments(converter, post.getLatestComments()), guard.get("latestComments"));
+  }
+
+  private MappingMongoConverter createConverter() {
+    MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+    MongoMappingContext mappingContext = new MongoMappingContext();
+    mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    converter.setCustomConversions(conversions);
+    converter.afterPropertiesSet();
+    return converter;
+  }
+
+  private MongoPersistentEntity<?> postEntity(MappingMongoConverter converter) {
+    return converter.getMappingContext().getRequiredPersistentEntity(Post.class);
+  }
+
+  private List<Document> storedLatestComments(MappingMongoConverter converter, List<CommentSnapshot> latestComments) {
+    Post post = new Post();
+    post.setId(UUID.randomUUID());
+    post.setLatestComments(latestComments);
+    Document storedPost = new Document();
+    converter.write(post, storedPost);
+    return storedPost.getList("latestComments", Document.class);
+  }
+
+  private CommentSnapshot createSnapshot() {
+    CommentSnapshot commentSnapshot = new CommentSnapshot();
+    commentSnapshot.setId(UUID.randomUUID());
+    commentSnapshot.setCreatedAt(Instant.now());
+    return commentSnapshot;
+  }
+}
@@ -0,0 +1,148 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.entities.ImageJob;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.exceptions.ServiceUnavailableException;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_MAX_ATTEMPTS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_MAX_QUEUE_DEPTH;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_RETRY_AFTER_SECONDS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_RETRY_BASE_DELAY_MS;
+import static com.aakash.contentserver.constants.ImageConstants.IMAGE_JOB_RETRY_MAX_DELAY_MS;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageJobQueueTest {
+
+  private static final Instant NOW = Instant.parse("2024-07-01T10:00:00Z");
+
+  @Mock
+  private MongoTemplate mongoTemplate;
+
+  private ImageJobQueue imageJobQueue;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    imageJobQueue = new ImageJobQueue(mongoTemplate, Clock.fixed(NOW, ZoneOffset.UTC), new SimpleMeterRegistry());
+  }
+
+  @Test
+  void backoff() {
+    assertEquals(Duration.ofMillis(IMAGE_JOB_RETRY_BASE_DELAY_MS), ImageJobQueue.backoff(1));
+    assertEquals(Duration.ofMillis(4 * IMAGE_JOB_RETRY_BASE_DELAY_MS), ImageJobQueue.backoff(3));
+    assertEquals(Duration.ofMillis(IMAGE_JOB_RETRY_MAX_DELAY_MS), ImageJobQueue.backoff(100));
+  }
+
+  @Test
+  void rejectUploadsWhenQueueIsFull() {
+    when(mongoTemplate.count(any(Query.class), eq(ImageJob.class))).thenReturn(IMAGE_JOB_MAX_QUEUE_DEPTH - 1);
+    imageJobQueue.refreshMetrics();
+    assertDoesNotThrow(imageJobQueue::checkCapacity);
+
+    // A job queued since the last refresh counts towards the depth.
+    when(mongoTemplate.insert(any(ImageJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    imageJobQueue.enqueue(UUID.randomUUID(), UUID.randomUUID(), "blob");
+
+    ServiceUnavailableException exception = assertThrows(ServiceUnavailableException.class, imageJobQueue::checkCapacity);
+    assertEquals(IMAGE_JOB_RETRY_AFTER_SECONDS, exception.getRetryAfterSeconds());
+  }
+
+  @Test
+  void failSchedulesRetry() {
+    ImageJob job = leasedJob(2);
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ImageJob.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    Optional<ProcessingStatus> status = imageJobQueue.fail(job, new RuntimeException("S3 is down"));
+
+    assertEquals(Optional.of(ProcessingStatus.PENDING), status);
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(ImageJob.class));
+    // The failure is only recorded if the job is still leased by this attempt.
+    assertEquals(2, query.getValue().getQueryObject().get("attempts"));
+    Document set = (Document) update.getValue().getUpdateObject().get("$set");
+    assertEquals(ProcessingStatus.PENDING, set.get("status"));
+    assertEquals(NOW.plus(ImageJobQueue.backoff(2)), set.get("nextAttemptAt"));
+  }
+
+  @Test
+  void failMarksJobFailedAfterLastAttempt() {
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ImageJob.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    Optional<ProcessingStatus> status = imageJobQueue.fail(leasedJob(IMAGE_JOB_MAX_ATTEMPTS), new RuntimeException());
+
+    assertEquals(Optional.of(ProcessingStatus.FAILED), status);
+  }
+
+  @Test
+  void failIgnoresJobLeasedByAnotherWorker() {
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ImageJob.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertEquals(Optional.empty(), imageJobQueue.fail(leasedJob(1), new RuntimeException()));
+  }
+
+  @Test
+  void expiredLeaseIsOnlyTakenOverWithAttemptsLeft() {
+    imageJobQueue.lease();
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).findAndModify(query.capture(), any(Update.class), any(FindAndModifyOptions.class),
+        eq(ImageJob.class));
+    List<?> clauses = (List<?>) query.getValue().getQueryObject().get("$or");
+    Document expiredLease = (Document) clauses.get(1);
+    assertEquals(new Document("$lt", IMAGE_JOB_MAX_ATTEMPTS), expiredLease.get("attempts"));
+  }
+
+  @Test
+  void completeIgnoresJobLeasedByAnotherWorker() {
+    ImageJob job = leasedJob(1);
+    when(mongoTemplate.remove(any(Query.class), eq(ImageJob.class))).thenReturn(DeleteResult.acknowledged(0));
+
+    assertFalse(imageJobQueue.complete(job));
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).remove(query.capture(), eq(ImageJob.class));
+    assertEquals(ProcessingStatus.PROCESSING, query.getValue().getQueryObject().get("status"));
+    assertEquals(1, query.getValue().getQueryObject().get("attempts"));
+  }
+
+  private ImageJob leasedJob(int attempts) {
+    ImageJob job = new ImageJob();
+    job.setId(UUID.randomUUID());
+    job.setStatus(ProcessingStatus.PROCESSING);
+    job.setAttempts(attempts);
+    job.setCreatedAt(NOW.minusSeconds(10));
+    return job;
+  }
+}
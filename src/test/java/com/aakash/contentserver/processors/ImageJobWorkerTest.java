@@ -0,0 +1,138 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.entities.ImageBlob;
+import com.aakash.contentserver.entities.ImageJob;
+import com.aakash.contentserver.entities.ImageRendition;
+import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.services.ImageService;
+import com.aakash.contentserver.services.PostService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageJobWorkerTest {
+
+  @Mock
+  private ImageJobQueue imageJobQueue;
+  @Mock
+  private ImageProcessor imageProcessor;
+  @Mock
+  private ImageService imageService;
+  @Mock
+  private PostService postService;
+
+  private ImageJobWorker imageJobWorker;
+
+  private final ImageBlob blob = new ImageBlob();
+  private ImageJob job;
+  private final UUID linkedPostId = UUID.randomUUID();
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    imageJobWorker = new ImageJobWorker(imageJobQueue, imageProcessor, imageService, postService, Runnable::run);
+    blob.setId("blob");
+    blob.setActivityType(ActivityType.POST);
+    job = new ImageJob();
+    job.setId(UUID.randomUUID());
+    job.setImageId(UUID.randomUUID());
+    job.setPostId(UUID.randomUUID());
+    job.setBlobId(blob.getId());
+    job.setAttempts(1);
+    when(imageService.getBlob(blob.getId())).thenReturn(blob);
+    // The blob has the image of the job and an identical image uploaded to another post.
+    when(imageService.updateBlobStatus(eq(blob.getId()), any(), any()))
+        .thenReturn(Optional.of(List.of(job.getPostId(), linkedPostId)));
+  }
+
+  @Test
+  void pollProcessesLeasedJobs() throws Exception {
+    List<ImageRendition> renditions = List.of(new ImageRendition());
+    when(imageJobQueue.lease()).thenReturn(Optional.of(job), Optional.empty());
+    when(imageProcessor.resizeImageAndUploadToS3(blob)).thenReturn(renditions);
+
+    imageJobWorker.poll();
+
+    verify(imageService).updateBlobStatus(blob.getId(), ProcessingStatus.READY, renditions);
+    verify(postService).updateImageStatus(job.getPostId(), ProcessingStatus.READY);
+    verify(postService).updateImageStatus(linkedPostId, ProcessingStatus.READY);
+    verify(imageJobQueue).complete(job);
+  }
+
+  @Test
+  void renditionsOfDeletedBlobAreDeleted() throws Exception {
+    when(imageProcessor.resizeImageAndUploadToS3(blob)).thenReturn(List.of(new ImageRendition()));
+    when(imageService.updateBlobStatus(eq(blob.getId()), eq(ProcessingStatus.READY), any()))
+        .thenReturn(Optional.empty());
+
+    imageJobWorker.process(job);
+
+    verify(imageProcessor).deleteImageFiles(blob);
+    verify(imageJobQueue).complete(job);
+  }
+
+  @Test
+  void failedJobIsRetried() throws Exception {
+    doThrow(new IOException("S3 is down")).when(imageProcessor)
+        .resizeImageAndUploadToS3(any(ImageBlob.class));
+    when(imageJobQueue.fail(eq(job), any())).thenReturn(Optional.of(ProcessingStatus.PENDING));
+
+    imageJobWorker.process(job);
+
+    verify(imageJobQueue, never()).complete(job);
+    verify(imageService).updateBlobStatus(blob.getId(), ProcessingStatus.PENDING, null);
+    verify(postService).updateImageStatus(job.getPostId(), ProcessingStatus.PENDING);
+  }
+
+  @Test
+  void jobOverAttemptsFailsWithoutProcessing() throws Exception {
+    job.setAttempts(100);
+    when(imageJobQueue.fail(eq(job), any())).thenReturn(Optional.of(ProcessingStatus.FAILED));
+
+    imageJobWorker.process(job);
+
+    verify(imageProcessor, never()).resizeImageAndUploadToS3(any(ImageBlob.class));
+    verify(postService, times(1)).updateImageStatus(job.getPostId(), ProcessingStatus.FAILED);
+  }
+
+  @Test
+  void leaseOfRunningJobIsRenewed() throws Exception {
+    when(imageJobQueue.failAbandoned()).thenReturn(Optional.empty());
+    when(imageProcessor.resizeImageAndUploadToS3(blob)).thenAnswer(invocation -> {
+      imageJobWorker.maintainLeases();
+      return List.of(new ImageRendition());
+    });
+
+    imageJobWorker.process(job);
+    imageJobWorker.maintainLeases();
+
+    // Only renewed while the job was running.
+    verify(imageJobQueue, times(1)).renew(job);
+  }
+
+  @Test
+  void abandonedJobIsFailed() {
+    when(imageJobQueue.failAbandoned()).thenReturn(Optional.of(job), Optional.empty());
+
+    imageJobWorker.maintainLeases();
+
+    verify(imageService).updateBlobStatus(blob.getId(), ProcessingStatus.FAILED, null);
+    verify(postService).updateImageStatus(job.getPostId(), ProcessingStatus.FAILED);
+    verify(postService).updateImageStatus(linkedPostId, ProcessingStatus.FAILED);
+  }
+}
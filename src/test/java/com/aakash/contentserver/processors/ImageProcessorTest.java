@@ -0,0 +1,120 @@
+package com.aakash.contentserver.processors;
+
+import com.aakash.contentserver.dto.ResizeRequest;
+import com.aakash.contentserver.entities.ImageBlob;
+import com.aakash.contentserver.entities.ImageRendition;
+import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.enums.ResizeFit;
+import com.aakash.contentserver.exceptions.StorageFileNotFoundException;
+import com.aakash.contentserver.impl.ImageFunctionImpl;
+import com.aakash.contentserver.impl.ImageResizeConfigurationImpl;
+import com.aakash.contentserver.impl.ImageSupportedTypeImpl;
+import com.aakash.contentserver.impl.S3ProcessorImpl;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageProcessorTest {
+
+  @Mock
+  private ImageSupportedTypeImpl imageSupportedType;
+  @Mock
+  private S3ProcessorImpl storageProcessor;
+  @Spy
+  private ImageFunctionImpl imageFunction;
+
+  private ImageProcessor imageProcessor;
+
+  @BeforeEach
+  void setUp() {
+    MockitoAnnotations.initMocks(this);
+    imageProcessor = new ImageProcessor(imageSupportedType, storageProcessor,
+        new ImageResizeConfigurationImpl(new ObjectMapper()), imageFunction, Runnable::run);
+  }
+
+  @Test
+  void renditionsFromOneDecode() throws Exception {
+    ImageBlob blob = blob();
+    when(storageProcessor.downloadFileAsStream("bucket", "original"))
+        .thenReturn(new ByteArrayInputStream(jpeg(2000, 1000)));
+
+    List<ImageRendition> renditions = imageProcessor.resizeImageAndUploadToS3(blob);
+
+    // The original is decoded once for all the renditions.
+    verify(imageFunction, times(1)).readImage(any(), eq(1080), eq(1080));
+    assertEquals(List.of("full", "feed", "thumb"), renditions.stream().map(ImageRendition::getName).toList());
+    // The renditions are stored under the id of the blob, so identical uploads share them.
+    assertEquals("compressed/compressed-blob-thumb.jpg", renditions.get(2).getLocation());
+    for (ImageRendition rendition : renditions) {
+      verify(storageProcessor).uploadFileAsByteStream(any(byte[].class), eq(rendition.getLocation()));
+    }
+  }
+
+  @Test
+  void createResizedRenditionOnFirstRequest() throws Exception {
+    ImageBlob blob = blob();
+    String location = "resized/blob/320x320-cover-q80.jpg";
+    when(storageProcessor.downloadFileAsStream("bucket", location)).thenThrow(new StorageFileNotFoundException("missing"));
+    when(storageProcessor.downloadFileAsStream("bucket", "original"))
+        .thenReturn(new ByteArrayInputStream(jpeg(2000, 1000)));
+
+    byte[] rendition = imageProcessor.getResizedRendition(blob, new ResizeRequest(320, 320, ResizeFit.COVER, 80));
+
+    // The image covers the box and is cropped to it.
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(rendition));
+    assertEquals(320, image.getWidth());
+    assertEquals(320, image.getHeight());
+    verify(storageProcessor).uploadFileAsByteStream(rendition, location);
+  }
+
+  @Test
+  void serveStoredResizedRendition() throws Exception {
+    byte[] stored = new byte[]{1, 2, 3};
+    when(storageProcessor.downloadFileAsStream("bucket", "resized/blob/640x480-contain-q65.jpg"))
+        .thenReturn(new ByteArrayInputStream(stored));
+
+    byte[] rendition = imageProcessor.getResizedRendition(blob(), new ResizeRequest(640, 480, ResizeFit.CONTAIN, 65));
+
+    assertArrayEquals(stored, rendition);
+    verify(storageProcessor, never()).downloadFileAsStream("bucket", "original");
+  }
+
+  @Test
+  void defaultRenditionLocation() {
+    assertEquals("compressed/compressed-blob-feed.jpg",
+        imageProcessor.getDefaultRenditionLocation("blob", ActivityType.POST));
+  }
+
+  private static ImageBlob blob() {
+    ImageBlob blob = new ImageBlob();
+    blob.setId("blob");
+    blob.setBucketName("bucket");
+    blob.setOriginalLocation("original");
+    blob.setActivityType(ActivityType.POST);
+    return blob;
+  }
+
+  private static byte[] jpeg(int width, int height) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", outputStream);
+    return outputStream.toByteArray();
+  }
+}
@@ -4,6 +4,8 @@ import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
 import com.aakash.contentserver.dto.CommentDTO;
 import com.aakash.contentserver.entities.Comment;
 import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.entities.PostComments;
+import com.aakash.contentserver.interfaces.EntityMapper;
 import com.aakash.contentserver.repositories.CommentsRepository;
 import com.aakash.contentserver.repositories.PostRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,16 +14,22 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.modelmapper.ModelMapper;
 import org.springframework.data.mongodb.core.MongoTemplate;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class CommentServiceTest {
@@ -33,7 +41,7 @@ class CommentServiceTest {
   private PostRepository postRepository;
 
   @Mock
-  private ModelMapper modelMapper;
+  private EntityMapper entityMapper;
 
   @Mock
   private PostService postService;
@@ -55,7 +63,7 @@ class CommentServiceTest {
   @BeforeEach
   void setUp() {
     MockitoAnnotations.initMocks(this);
-    commentService = new CommentService(circuitBreakerConfig, modelMapper, mongoTemplate, objectMapper, clock, commentsRepository, postRepository, validator,postService);
+    commentService = new CommentService(circuitBreakerConfig, entityMapper, mongoTemplate, objectMapper, clock, commentsRepository, postRepository, validator,postService);
   }
 
   @Test
@@ -75,7 +83,7 @@ class CommentServiceTest {
 
     when(postRepository.findById(any(UUID.class))).thenReturn(Optional.of(post));
     when(commentsRepository.save(any(Comment.class))).thenReturn(comment);
-    when(modelMapper.map(any(Comment.class), eq(CommentDTO.class))).thenReturn(commentDTO);
+    when(entityMapper.toCommentDTO(any(Comment.class))).thenReturn(commentDTO);
 
 //    CommentDTO savedComment = commentService.saveCommentForPost(postId.toString(), comment);
 //
@@ -96,4 +104,24 @@ class CommentServiceTest {
   @Test
   void getCommentsForPost() {
   }
+
+  @Test
+  void getLatestCommentsByPostIds() {
+    UUID postWithComments = UUID.randomUUID();
+    UUID postWithoutComments = UUID.randomUUID();
+    Comment comment = new Comment();
+    comment.setPostId(postWithComments);
+    PostComments postComments = new PostComments();
+    postComments.setPostId(postWithComments);
+    postComments.setComments(List.of(comment));
+
+    when(commentsRepository.findLatestCommentsByPostIdIn(anyCollection(), eq(2))).thenReturn(List.of(postComments));
+
+    Map<UUID, List<Comment>> commentsByPostId =
+        commentService.getLatestCommentsByPostIds(List.of(postWithComments, postWithoutComments), 2);
+
+    verify(commentsRepository, times(1)).findLatestCommentsByPostIdIn(anyCollection(), eq(2));
+    assertEquals(1, commentsByPostId.get(postWithComments).size());
+    assertTrue(commentsByPostId.get(postWithoutComments).isEmpty());
+  }
 }
\ No newline at end of file
@@ -1,26 +1,50 @@
 package com.aakash.contentserver.services;
 
+import com.aakash.contentserver.cache.PresignedUrlCache;
+import com.aakash.contentserver.cache.RenditionCache;
 import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
+import com.aakash.contentserver.dto.ImageContentSource;
 import com.aakash.contentserver.dto.ImageDTO;
+import com.aakash.contentserver.dto.ResizeRequest;
+import com.aakash.contentserver.dto.UploadResult;
 import com.aakash.contentserver.entities.Image;
+import com.aakash.contentserver.entities.ImageBlob;
+import com.aakash.contentserver.entities.ImageRendition;
+import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.enums.ImageDelivery;
+import com.aakash.contentserver.enums.ProcessingStatus;
+import com.aakash.contentserver.enums.ResizeFit;
+import com.aakash.contentserver.exceptions.BadRequestException;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import com.aakash.contentserver.processors.ImageJobQueue;
 import com.aakash.contentserver.processors.ImageProcessor;
 import com.aakash.contentserver.repositories.ImageRepository;
 import com.aakash.contentserver.repositories.PostRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.result.DeleteResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
-import org.modelmapper.ModelMapper;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import java.io.ByteArrayInputStream;
 import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class ImageServiceTest {
@@ -32,7 +56,7 @@ class ImageServiceTest {
   private PostRepository postRepository;
 
   @Mock
-  private ModelMapper modelMapper;
+  private EntityMapper entityMapper;
 
   @Mock
   private MongoTemplate mongoTemplate;
@@ -47,6 +71,18 @@ class ImageServiceTest {
   @Mock
   private CircuitBreakerConfiguration circuitBreakerConfig;
 
+  @Mock
+  private ImageProcessor imageProcessor;
+
+  @Mock
+  private ImageJobQueue imageJobQueue;
+
+  @Mock
+  private RenditionCache renditionCache;
+
+  @Mock
+  private PresignedUrlCache presignedUrlCache;
+
   @InjectMocks
   private ImageService imageService;
 
@@ -63,7 +99,7 @@ class ImageServiceTest {
     imageDTO.setId(imageId.toString());
     when(imageRepository.save(any(Image.class))).thenReturn(image);
     when(image.getId()).thenReturn(imageId);
-    when(modelMapper.map(any(Image.class), eq(ImageDTO.class))).thenReturn(imageDTO);
+    when(entityMapper.toImageDTO(any(Image.class))).thenReturn(imageDTO);
     ImageDTO savedImage = imageService.saveImage(image);
 
 
@@ -71,6 +107,132 @@ class ImageServiceTest {
     assertEquals(imageId.toString(), savedImage.getId());
   }
 
+  @Test
+  void repeatUploadIsLinkedToExistingBlob() throws Exception {
+    Image image = new Image();
+    image.setId(UUID.randomUUID());
+    ImageBlob existingBlob = new ImageBlob();
+    existingBlob.setId(ImageService.getBlobId("hash", ActivityType.POST));
+    existingBlob.setStatus(ProcessingStatus.READY);
+    existingBlob.setRefCount(2);
+    when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(ImageBlob.class))).thenReturn(existingBlob);
+    // The destination of the content is null, i.e. it isn't stored again.
+    when(imageProcessor.uploadOriginalImageToS3(any(), eq(image), any(), any())).thenAnswer(invocation -> {
+      Function<UploadResult, String> destinationForContent = invocation.getArgument(3);
+      assertNull(destinationForContent.apply(new UploadResult(10, "hash", "image/png")));
+      return new UploadResult(10, "hash", "image/png");
+    });
+
+    ImageBlob blob = imageService.storeOriginalImage(new ByteArrayInputStream(new byte[10]), image, ActivityType.POST);
+
+    assertSame(existingBlob, blob);
+    verifyNoInteractions(imageJobQueue);
+  }
+
+  @Test
+  void newContentCreatesBlobAndQueuesJob() throws Exception {
+    Image image = new Image();
+    image.setId(UUID.randomUUID());
+    ImageBlob newBlob = new ImageBlob();
+    newBlob.setId(ImageService.getBlobId("hash", ActivityType.POST));
+    newBlob.setStatus(ProcessingStatus.PENDING);
+    newBlob.setRefCount(1);
+    // No blob to link to, so the blob is upserted once the original is stored.
+    when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(ImageBlob.class))).thenReturn(null, newBlob);
+    when(imageProcessor.getOriginalLocation(anyString())).thenAnswer(invocation -> "original/" + invocation.getArgument(0));
+    when(imageProcessor.uploadOriginalImageToS3(any(), eq(image), any(), any())).thenAnswer(invocation -> {
+      Function<UploadResult, String> destinationForContent = invocation.getArgument(3);
+      assertEquals("original/" + newBlob.getId(), destinationForContent.apply(new UploadResult(10, "hash", "image/png")));
+      return new UploadResult(10, "hash", "image/png");
+    });
+
+    imageService.storeOriginalImage(new ByteArrayInputStream(new byte[10]), image, ActivityType.POST);
+
+    verify(imageJobQueue).enqueue(image.getId(), image.getPostId(), newBlob.getId());
+  }
+
+  @Test
+  void releaseOfLastReferenceDeletesFiles() {
+    ImageBlob blob = new ImageBlob();
+    blob.setId("blob");
+    blob.setRefCount(0);
+    when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(ImageBlob.class))).thenReturn(blob);
+    when(mongoTemplate.remove(any(Query.class), eq(ImageBlob.class))).thenReturn(DeleteResult.acknowledged(1));
+
+    imageService.releaseBlob("blob");
+
+    verify(imageProcessor).deleteImageFiles(blob);
+  }
+
+  @Test
+  void releaseOfSharedBlobKeepsFiles() {
+    ImageBlob blob = new ImageBlob();
+    blob.setRefCount(1);
+    when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+        eq(ImageBlob.class))).thenReturn(blob);
+
+    imageService.releaseBlob("blob");
+
+    verify(mongoTemplate, never()).remove(any(Query.class), eq(ImageBlob.class));
+    verifyNoInteractions(imageProcessor);
+  }
+
+  @Test
+  void contentSourcesHaveDistinctStableValidators() {
+    UUID imageId = UUID.randomUUID();
+    Image image = new Image();
+    image.setId(imageId);
+    image.setBlobId("blob");
+    image.setLocation("compressed/compressed-blob-feed.jpg");
+    image.setCreatedAt(Instant.ofEpochSecond(1_700_000_000));
+    ImageRendition thumb = new ImageRendition();
+    thumb.setName("thumb");
+    thumb.setLocation("compressed/compressed-blob-thumb.jpg");
+    image.setRenditions(List.of(thumb));
+    ResizeRequest resizeRequest = new ResizeRequest(320, 320, ResizeFit.COVER, 80);
+    when(imageRepository.findById(imageId)).thenReturn(Optional.of(image));
+    when(imageProcessor.getResizedLocation("blob", resizeRequest)).thenReturn("resized/blob/320x320-cover-q80.jpg");
+
+    ImageContentSource defaultRendition = imageService.getImageContentSource(imageId.toString(), null, null);
+    ImageContentSource thumbRendition = imageService.getImageContentSource(imageId.toString(), "thumb", null);
+    ImageContentSource resized = imageService.getImageContentSource(imageId.toString(), null, resizeRequest);
+
+    assertEquals("compressed/compressed-blob-thumb.jpg", thumbRendition.getLocation());
+    assertEquals(resizeRequest, resized.getResizeRequest());
+    assertEquals(defaultRendition.getETag(),
+        imageService.getImageContentSource(imageId.toString(), null, null).getETag());
+    assertEquals(3, List.of(defaultRendition.getETag(), thumbRendition.getETag(), resized.getETag()).stream()
+        .distinct().count());
+    assertTrue(defaultRendition.getETag().matches("\"[0-9a-f]{32}\""));
+    assertEquals(1_700_000_000_000L, resized.getLastModified());
+    assertThrows(BadRequestException.class, () -> imageService.getImageContentSource(imageId.toString(), "full", null));
+  }
+
+  @Test
+  void onlyReadyImagesAreRedirected() {
+    ImageService redirectingImageService = new ImageService(circuitBreakerConfig, entityMapper, clock, mongoTemplate,
+        imageRepository, objectMapper, imageProcessor, imageJobQueue, renditionCache, presignedUrlCache,
+        ImageDelivery.REDIRECT);
+    Image image = new Image();
+    image.setId(UUID.randomUUID());
+    image.setBucketName("bucket");
+    image.setStatus(ProcessingStatus.READY);
+    ImageContentSource source = new ImageContentSource(image, "compressed/compressed-blob-feed.jpg", null);
+    when(presignedUrlCache.get("bucket", "compressed/compressed-blob-feed.jpg")).thenReturn("https://signed");
+
+    assertEquals(Optional.of("https://signed"), redirectingImageService.getImageContentRedirect(source));
+
+    for (ProcessingStatus status : List.of(ProcessingStatus.PENDING, ProcessingStatus.PROCESSING,
+        ProcessingStatus.FAILED)) {
+      image.setStatus(status);
+      assertEquals(Optional.empty(), redirectingImageService.getImageContentRedirect(source));
+    }
+    verify(presignedUrlCache, times(1)).get(anyString(), anyString());
+  }
+
   //TODO: Add more tests for ImageService
   @Test
   void getImage() {
@@ -1,8 +1,23 @@
 package com.aakash.contentserver.services;
 
+import com.aakash.contentserver.cache.PostCache;
+import com.aakash.contentserver.cache.PostCountEstimator;
+import com.aakash.contentserver.cache.PostLeaderboard;
 import com.aakash.contentserver.configuration.CircuitBreakerConfiguration;
+import com.aakash.contentserver.dto.CommentDTO;
+import com.aakash.contentserver.dto.PostCursor;
+import com.aakash.contentserver.dto.PostDTO;
+import com.aakash.contentserver.dto.PostProjection;
+import com.aakash.contentserver.entities.CommentSnapshot;
+import com.aakash.contentserver.entities.ImageBlob;
 import com.aakash.contentserver.entities.Post;
+import com.aakash.contentserver.entities.PostUpload;
+import com.aakash.contentserver.enums.ActivityType;
+import com.aakash.contentserver.exceptions.BadRequestException;
 import com.aakash.contentserver.impl.ImageSupportedTypeImpl;
+import com.aakash.contentserver.interfaces.EntityMapper;
+import com.aakash.contentserver.processors.CommentCountBuffer;
+import com.aakash.contentserver.processors.ImageJobQueue;
 import com.aakash.contentserver.processors.ImageProcessor;
 import com.aakash.contentserver.repositories.CommentsRepository;
 import com.aakash.contentserver.repositories.PostRepository;
@@ -13,16 +28,32 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.modelmapper.ModelMapper;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class PostServiceTest {
@@ -32,7 +63,7 @@ class PostServiceTest {
   private PostRepository postRepository;
 
   @Mock
-  private ModelMapper modelMapper;
+  private EntityMapper entityMapper;
 
   @Mock
   private MongoTemplate mongoTemplate;
@@ -63,11 +94,21 @@ class PostServiceTest {
   private ImageSupportedTypeImpl imageSupportedTypeImpl;
   @Mock
   CommentService commentService;
+  @Mock
+  PostLeaderboard postLeaderboard;
+  @Mock
+  CommentCountBuffer commentCountBuffer;
+  @Mock
+  PostCountEstimator postCountEstimator;
+  @Mock
+  PostCache postCache;
+  @Mock
+  ImageJobQueue imageJobQueue;
 
   @BeforeEach
   void setUp() {
     MockitoAnnotations.initMocks(this);
-    postService = new PostService(postRepository, modelMapper, mongoTemplate, objectMapper, clock, commentsRepository, validator, imageProcessor, imageService, circuitBreakerConfig,   commentService);
+    postService = new PostService(postRepository, entityMapper, mongoTemplate, objectMapper, clock, commentsRepository, validator, imageProcessor, imageService, circuitBreakerConfig,   commentService, postLeaderboard, commentCountBuffer, postCountEstimator, postCache, imageJobQueue);
   }
 
   @Test
@@ -75,17 +116,77 @@ class PostServiceTest {
 
   }
 
+  @Test
+  void secondCompletionOfUploadReleasesBlob() throws Exception {
+    UUID uploadId = UUID.randomUUID();
+    PostUpload upload = new PostUpload();
+    upload.setId(uploadId);
+    upload.setSize(100);
+    upload.setSha256("sha");
+    upload.setStagingLocation("staging/upload-" + uploadId);
+    ImageBlob blob = new ImageBlob();
+    blob.setId("blob");
+    when(clock.instant()).thenReturn(Instant.now());
+    when(clock.getZone()).thenReturn(ZoneOffset.UTC);
+    when(mongoTemplate.findById(uploadId, PostUpload.class)).thenReturn(upload);
+    when(imageService.storeUploadedImage(eq("staging/upload-" + uploadId), eq(100L), eq("sha"), any(),
+        eq(ActivityType.POST))).thenReturn(blob);
+    when(mongoTemplate.findAndRemove(any(Query.class), eq(PostUpload.class))).thenReturn(null);
+
+    assertThrows(BadRequestException.class, () -> postService.completePostUpload(uploadId));
+
+    verify(imageService).releaseBlob("blob");
+    verify(postRepository, never()).save(any(Post.class));
+  }
+
   @Test
   void getPost() {
     UUID postId = UUID.randomUUID();
     Post post = new Post();
     post.setId(postId);
+    post.setCommentsCount(3);
+    PostDTO postDTO = new PostDTO();
 
+    when(postCache.get(eq(postId), any())).thenAnswer(invocation ->
+        invocation.<Function<UUID, PostDTO>>getArgument(1).apply(postId));
     when(postRepository.findById(any(UUID.class))).thenReturn(Optional.of(post));
+    // Comments recorded for the post that haven't been written to the db yet.
+    when(commentCountBuffer.getPendingDelta(postId)).thenReturn(2L);
+    when(commentCountBuffer.validateConsistentRead(anyLong())).thenReturn(true);
+    when(entityMapper.toPostDTO(post)).thenReturn(postDTO);
 
-    postService.getPost(postId.toString());
+    assertEquals(postDTO, postService.getPost(postId.toString()));
 
     verify(postRepository, times(1)).findById(any(UUID.class));
+    assertEquals(5, post.getCommentsCount());
+  }
+
+  @Test
+  void postIsReadAgainIfBufferedChangesWereWrittenDuringTheRead() {
+    UUID postId = UUID.randomUUID();
+    Post post = new Post();
+    post.setId(postId);
+
+    when(postCache.get(eq(postId), any())).thenAnswer(invocation ->
+        invocation.<Function<UUID, PostDTO>>getArgument(1).apply(postId));
+    when(postRepository.findById(postId)).thenReturn(Optional.of(post));
+    when(commentCountBuffer.validateConsistentRead(anyLong())).thenReturn(false, true);
+    when(entityMapper.toPostDTO(post)).thenReturn(new PostDTO());
+
+    postService.getPost(postId.toString());
+
+    verify(postRepository, times(2)).findById(postId);
+  }
+
+  @Test
+  void getCachedPost() {
+    PostDTO postDTO = new PostDTO();
+    postDTO.setId(UUID.randomUUID());
+
+    when(postCache.get(eq(postDTO.getId()), any())).thenReturn(postDTO);
+
+    assertEquals(postDTO, postService.getPost(postDTO.getId().toString()));
+    verify(postRepository, never()).findById(any(UUID.class));
   }
 
   @Test
@@ -110,9 +211,123 @@ class PostServiceTest {
   //TODO: Add more tests for PostService
   @Test
   void getTopPosts() {
+    UUID postId = UUID.randomUUID();
+    Post post = new Post();
+    post.setId(postId);
+    post.setCommentsCount(1);
+    post.setLatestComments(List.of(new CommentSnapshot()));
+    PostDTO postDTO = new PostDTO();
+    postDTO.setId(postId);
+    Pageable pageable = PageRequest.of(0, 10);
+
+    when(postRepository.findFeedSlice(pageable, PostProjection.all())).thenReturn(new SliceImpl<>(List.of(post), pageable, false));
+    when(entityMapper.toPostDTO(any(Post.class))).thenReturn(postDTO);
+    when(entityMapper.toCommentDTO(any(CommentSnapshot.class), any())).thenAnswer(invocation -> {
+      CommentDTO commentDTO = new CommentDTO();
+      commentDTO.setPostId(invocation.<UUID>getArgument(1).toString());
+      return commentDTO;
+    });
+    when(postCountEstimator.getEstimatedCount()).thenReturn(1L);
+
+    Page<PostDTO> topPosts = postService.getTopPosts(pageable, PostProjection.all());
+
+    assertEquals(1, topPosts.getContent().get(0).getComments().size());
+    assertEquals(postId.toString(), topPosts.getContent().get(0).getComments().get(0).getPostId());
+    assertEquals(1, topPosts.getTotalElements());
+    verify(commentService, never()).getLatestCommentsByPostIds(anyCollection(), anyInt());
+    verify(postRepository, never()).count();
+  }
+
+  @Test
+  void getTopPostsWithoutEmbeddedComments() {
+    UUID postId = UUID.randomUUID();
+    Post post = new Post();
+    post.setId(postId);
+    post.setCommentsCount(3);
+    PostDTO postDTO = new PostDTO();
+    postDTO.setId(postId);
+    Pageable pageable = PageRequest.of(0, 10);
+
+    when(postRepository.findFeedSlice(pageable, PostProjection.all())).thenReturn(new SliceImpl<>(List.of(post), pageable, false));
+    when(entityMapper.toPostDTO(any(Post.class))).thenReturn(postDTO);
+    when(commentService.getLatestCommentsByPostIds(anyCollection(), anyInt())).thenReturn(Map.of(postId, List.of()));
+
+    postService.getTopPosts(pageable, PostProjection.all());
+
+    verify(commentService, times(1)).getLatestCommentsByPostIds(anyCollection(), anyInt());
+  }
+
+  @Test
+  void getTopPostsFromLeaderboard() {
+    Post firstPost = new Post();
+    firstPost.setId(UUID.randomUUID());
+    firstPost.setLatestComments(List.of());
+    Post secondPost = new Post();
+    secondPost.setId(UUID.randomUUID());
+    secondPost.setLatestComments(List.of());
+    Pageable pageable = PageRequest.of(0, 2);
+
+    when(postLeaderboard.covers(2)).thenReturn(true);
+    when(postLeaderboard.isComplete()).thenReturn(true);
+    when(postLeaderboard.size()).thenReturn(2L);
+    when(postLeaderboard.getPostIds(0, 2)).thenReturn(List.of(firstPost.getId(), secondPost.getId()));
+    when(postRepository.findFeedPostsByIds(any(), any())).thenReturn(List.of(secondPost, firstPost));
+    when(entityMapper.toPostDTO(any(Post.class))).thenAnswer(invocation -> {
+      PostDTO postDTO = new PostDTO();
+      postDTO.setId(invocation.<Post>getArgument(0).getId());
+      return postDTO;
+    });
+
+    Page<PostDTO> topPosts = postService.getTopPosts(pageable, PostProjection.all());
+
+    assertEquals(firstPost.getId(), topPosts.getContent().get(0).getId());
+    assertEquals(secondPost.getId(), topPosts.getContent().get(1).getId());
+    assertEquals(2, topPosts.getTotalElements());
+    verify(postRepository, never()).findFeedSlice(any(Pageable.class), any());
+  }
+
+  @Test
+  void getNextPostsByCursorWithoutComments() {
+    Post post = new Post();
+    post.setId(UUID.randomUUID());
+    post.setCommentsCount(3);
+    PostProjection projection = PostProjection.of("content", 0);
+
+    when(postRepository.findFeedAfterCursor(null, 10, projection)).thenReturn(List.of(post));
+    when(entityMapper.toPostDTO(any(Post.class))).thenReturn(new PostDTO());
+
+    List<PostDTO> posts = postService.getNextPostsByCursor(null, 10, projection);
+
+    assertEquals(1, posts.size());
+    assertNull(posts.get(0).getComments());
+    verify(commentService, never()).getLatestCommentsByPostIds(anyCollection(), anyInt());
   }
 
   @Test
   void getAllPosts() {
   }
+
+  @Test
+  void getPreviousPostsByCursor() {
+    Post nearestPost = new Post();
+    nearestPost.setId(UUID.randomUUID());
+    nearestPost.setLatestComments(List.of());
+    Post farthestPost = new Post();
+    farthestPost.setId(UUID.randomUUID());
+    farthestPost.setLatestComments(List.of());
+    PostCursor cursor = new PostCursor(0, Instant.now(), UUID.randomUUID());
+
+    when(postRepository.findFeedBeforeCursor(cursor, 2, PostProjection.all()))
+        .thenReturn(List.of(nearestPost, farthestPost));
+    when(entityMapper.toPostDTO(any(Post.class))).thenAnswer(invocation -> {
+      PostDTO postDTO = new PostDTO();
+      postDTO.setId(invocation.<Post>getArgument(0).getId());
+      return postDTO;
+    });
+
+    List<PostDTO> posts = postService.getPreviousPostsByCursor(cursor, 2, PostProjection.all());
+
+    assertEquals(farthestPost.getId(), posts.get(0).getId());
+    assertEquals(nearestPost.getId(), posts.get(1).getId());
+  }
 }
\ No newline at end of file